@@ -8,7 +8,6 @@
  *******************************************************************************/
 package org.spearce.egit.core.internal.storage;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -55,10 +54,9 @@ private InputStream open() throws IOException, ResourceException,
 		if (reader == null)
 			throw new ResourceException(IResourceStatus.FAILED_READ_LOCAL,
 					getFullPath(), "Git blob " + blobId + " not found.", null);
-		final byte[] data = reader.getBytes();
 		if (reader.getType() != Constants.OBJ_BLOB)
 			throw new IncorrectObjectTypeException(blobId, Constants.TYPE_BLOB);
-		return new ByteArrayInputStream(data);
+		return reader.openStream();
 	}
 
 	public IPath getFullPath() {
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+/**
+ * Compares the cost of {@link ObjectIdMap} with other ways to index objects.
+ * <p>
+ * Each map is filled with the same random object names, then probed with
+ * names it holds and names it does not hold. The 256 way fan-out of TreeMaps
+ * is the layout ObjectIdMap used before it switched to open addressing.
+ */
+public class ObjectIdMapSpeedTest extends TestCase {
+	private static final int COUNT = 200000;
+
+	private static final int ROUNDS = 5;
+
+	private ObjectId[] present;
+
+	private ObjectId[] absent;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		final MessageDigest md = Constants.newMessageDigest();
+		present = new ObjectId[COUNT];
+		absent = new ObjectId[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			md.update(Constants.encodeASCII(i));
+			present[i] = ObjectId.fromRaw(md.digest());
+			md.update(Constants.encodeASCII(-i - 1));
+			absent[i] = ObjectId.fromRaw(md.digest());
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		present = null;
+		absent = null;
+		super.tearDown();
+	}
+
+	public void testObjectIdMap() {
+		report("ObjectIdMap", new Subject() {
+			Map<ObjectId, ObjectId> map;
+
+			void fill() {
+				map = new ObjectIdMap<ObjectId>();
+				for (final ObjectId id : present)
+					map.put(id, id);
+			}
+
+			int probe(final ObjectId[] ids) {
+				int found = 0;
+				for (final ObjectId id : ids)
+					if (map.get(id) != null)
+						found++;
+				return found;
+			}
+		});
+	}
+
+	public void testTreeMapFanOut() {
+		report("256 x TreeMap", new Subject() {
+			Map<ObjectId, ObjectId>[] map;
+
+			@SuppressWarnings("unchecked")
+			void fill() {
+				map = new Map[256];
+				for (int i = 0; i < map.length; i++)
+					map[i] = new TreeMap<ObjectId, ObjectId>();
+				for (final ObjectId id : present)
+					map[id.getFirstByte()].put(id, id);
+			}
+
+			int probe(final ObjectId[] ids) {
+				int found = 0;
+				for (final ObjectId id : ids)
+					if (map[id.getFirstByte()].get(id) != null)
+						found++;
+				return found;
+			}
+		});
+	}
+
+	public void testHashMap() {
+		report("HashMap", new Subject() {
+			Map<ObjectId, ObjectId> map;
+
+			void fill() {
+				map = new HashMap<ObjectId, ObjectId>();
+				for (final ObjectId id : present)
+					map.put(id, id);
+			}
+
+			int probe(final ObjectId[] ids) {
+				int found = 0;
+				for (final ObjectId id : ids)
+					if (map.get(id) != null)
+						found++;
+				return found;
+			}
+		});
+	}
+
+	public void testObjectIdSubclassMap() {
+		report("ObjectIdSubclassMap", new Subject() {
+			ObjectIdSubclassMap<ObjectId> map;
+
+			void fill() {
+				map = new ObjectIdSubclassMap<ObjectId>();
+				for (final ObjectId id : present)
+					map.add(id);
+			}
+
+			int probe(final ObjectId[] ids) {
+				int found = 0;
+				for (final ObjectId id : ids)
+					if (map.get(id) != null)
+						found++;
+				return found;
+			}
+		});
+	}
+
+	private void report(final String name, final Subject s) {
+		long fill = Long.MAX_VALUE;
+		long hit = Long.MAX_VALUE;
+		long miss = Long.MAX_VALUE;
+		for (int r = 0; r < ROUNDS; r++) {
+			long start = System.nanoTime();
+			s.fill();
+			fill = Math.min(fill, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			assertEquals(COUNT, s.probe(present));
+			hit = Math.min(hit, System.nanoTime() - start);
+
+			start = System.nanoTime();
+			assertEquals(0, s.probe(absent));
+			miss = Math.min(miss, System.nanoTime() - start);
+		}
+		System.out.println(name + ": put " + fill / COUNT + " ns/op, hit "
+				+ hit / COUNT + " ns/op, miss " + miss / COUNT + " ns/op");
+	}
+
+	private static abstract class Subject {
+		abstract void fill();
+
+		abstract int probe(ObjectId[] ids);
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(ObjectIdMapSpeedTest.class);
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes a synthetic history of loose objects for the speed tests.
+ * <p>
+ * The tree has 20 directories of 50 files each. Every commit changes one
+ * file, picked at random, so each commit writes a new blob, a new directory
+ * tree and a new root tree. The same seed is used on every call, so all
+ * speed tests measure the same history.
+ */
+public class RandomHistory {
+	/** Directories in the root tree. */
+	public static final int DIRS = 20;
+
+	/** Files in each directory. */
+	public static final int FILES = 50;
+
+	/**
+	 * Write a linear history into a repository.
+	 * 
+	 * @param db
+	 *            repository to write the objects into.
+	 * @param commits
+	 *            number of commits to write.
+	 * @return the last commit written.
+	 * @throws IOException
+	 *             an object could not be written.
+	 */
+	public static ObjectId write(final Repository db, final int commits)
+			throws IOException {
+		final Random rng = new Random(42);
+		final ObjectWriter ow = new ObjectWriter(db);
+		final ObjectId blob = ow.writeBlob("0".getBytes());
+		final Tree root = new Tree(db);
+		final Tree[] dirs = new Tree[DIRS];
+		for (int d = 0; d < DIRS; d++) {
+			dirs[d] = root.addTree("d" + d);
+			for (int f = 0; f < FILES; f++)
+				dirs[d].addFile("f" + f).setId(blob);
+			dirs[d].setId(ow.writeTree(dirs[d]));
+		}
+
+		ObjectId parent = null;
+		for (int i = 0; i < commits; i++) {
+			final int d = rng.nextInt(DIRS);
+			final int f = rng.nextInt(FILES);
+			dirs[d].findBlobMember("f" + f).setId(
+					ow.writeBlob(String.valueOf(i).getBytes()));
+			dirs[d].setId(ow.writeTree(dirs[d]));
+
+			final long when = 1154236443000L + i * 1000L;
+			final Commit c = new Commit(db);
+			c.setTreeId(ow.writeTree(root));
+			c.setParentIds(parent != null ? new ObjectId[] { parent }
+					: new ObjectId[0]);
+			c.setAuthor(new PersonIdent(RepositoryTestCase.jauthor, when, 0));
+			c.setCommitter(new PersonIdent(RepositoryTestCase.jcommitter,
+					when, 0));
+			c.setMessage("commit " + i + "\n");
+			parent = ow.writeCommit(c);
+		}
+		return parent;
+	}
+
+	private RandomHistory() {
+		// Utility class only.
+	}
+}
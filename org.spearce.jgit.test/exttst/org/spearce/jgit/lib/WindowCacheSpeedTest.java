@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import junit.framework.TestCase;
+import junit.textui.TestRunner;
+
+/**
+ * Measures {@link WindowCache} read throughput as reader threads are added.
+ * <p>
+ * Each reader copies small ranges from random positions of one large file.
+ * The first run sizes the cache to hold the entire file, so it measures only
+ * the hit path. The second run allows only half of the file to be cached, so
+ * readers are constantly loading and evicting windows.
+ */
+public class WindowCacheSpeedTest extends TestCase {
+	private static final int MB = 1024 * 1024;
+
+	private static final int FILE_SIZE = 64 * MB;
+
+	private static final int WINDOW_SIZE = 8 * 1024;
+
+	private static final long RUN_MILLIS = 2000;
+
+	private File data;
+
+	private WindowedFile file;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		data = File.createTempFile("wincache", ".dat");
+		final byte[] buf = new byte[MB];
+		final Random rng = new Random(42);
+		final FileOutputStream out = new FileOutputStream(data);
+		try {
+			for (int i = 0; i < FILE_SIZE / MB; i++) {
+				rng.nextBytes(buf);
+				out.write(buf);
+			}
+		} finally {
+			out.close();
+		}
+		file = new WindowedFile(data);
+	}
+
+	protected void tearDown() throws Exception {
+		file.close();
+		data.delete();
+		WindowCache.reconfigure(10 * MB, 8 * 1024, false, 10 * MB);
+		super.tearDown();
+	}
+
+	public void testAllHits() throws Exception {
+		WindowCache.reconfigure(FILE_SIZE + MB, WINDOW_SIZE, false, 10 * MB);
+		System.out.println("WindowCache, entire file cached:");
+		scale();
+	}
+
+	public void testHalfCached() throws Exception {
+		WindowCache.reconfigure(FILE_SIZE / 2, WINDOW_SIZE, false, 10 * MB);
+		System.out.println("WindowCache, half of file cached:");
+		scale();
+	}
+
+	private void scale() throws Exception {
+		run(1); // warm up the cache and the JIT
+
+		final int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+		final long base = run(1);
+		System.out.println("  threads=1 reads/sec=" + base);
+		for (int n = 2; n <= Math.max(maxThreads, 2); n *= 2) {
+			final long r = run(n);
+			System.out.println("  threads=" + n + " reads/sec=" + r
+					+ " speedup=" + (r * 100 / base) / 100.0);
+		}
+	}
+
+	private long run(final int threadCnt) throws Exception {
+		final Reader[] readers = new Reader[threadCnt];
+		for (int i = 0; i < threadCnt; i++)
+			readers[i] = new Reader(i);
+		for (final Reader r : readers)
+			r.start();
+		long total = 0;
+		for (final Reader r : readers) {
+			r.join();
+			if (r.error != null)
+				throw new Exception(r.error);
+			total += r.reads;
+		}
+		return total * 1000 / RUN_MILLIS;
+	}
+
+	private class Reader extends Thread {
+		private final Random rng;
+
+		long reads;
+
+		IOException error;
+
+		Reader(final int seed) {
+			rng = new Random(seed);
+		}
+
+		public void run() {
+			final WindowCursor curs = new WindowCursor();
+			final byte[] buf = new byte[64];
+			final long end = System.currentTimeMillis() + RUN_MILLIS;
+			try {
+				do {
+					for (int i = 0; i < 1000; i++) {
+						final long pos = rng.nextInt(FILE_SIZE - buf.length);
+						file.readFully(pos, buf, curs);
+						curs.release();
+					}
+					reads += 1000;
+				} while (System.currentTimeMillis() < end);
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(WindowCacheSpeedTest.class);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.revwalk;
+
+import java.util.Collections;
+
+import junit.textui.TestRunner;
+
+import org.spearce.jgit.lib.CommitGraphWriter;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.RandomHistory;
+import org.spearce.jgit.lib.RefUpdate;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.treewalk.filter.AndTreeFilter;
+import org.spearce.jgit.treewalk.filter.PathFilterGroup;
+import org.spearce.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Measures a path limited log with and without changed-path Bloom filters.
+ * <p>
+ * The history is a {@link RandomHistory}, so only about one commit in a
+ * thousand touches the logged file. Without filters every commit's tree is
+ * diffed against its parent's; with filters only the commits whose filter may
+ * contain the path are.
+ */
+public class ChangedPathSpeedTest extends RepositoryTestCase {
+	private static final int COMMITS = 5000;
+
+	private static final int RUNS = 3;
+
+	private static final String PATH = "d3/f7";
+
+	public void testPathLimitedLog() throws Exception {
+		final ObjectId head = RandomHistory.write(db, COMMITS);
+		final RefUpdate u = db.updateRef("refs/heads/speed");
+		u.setNewObjectId(head);
+		u.forceUpdate();
+
+		final CommitGraphWriter plain = new CommitGraphWriter(db);
+		plain.setChangedPaths(false);
+		plain.write();
+		final int n = log(head); // warm up the JIT
+		final long[] off = new long[RUNS];
+		for (int run = 0; run < RUNS; run++)
+			off[run] = time(head, n);
+
+		long start = System.nanoTime();
+		final CommitGraphWriter bloom = new CommitGraphWriter(db);
+		bloom.setChangedPaths(true);
+		bloom.write();
+		final long writeMs = (System.nanoTime() - start) / 1000000;
+		final long[] on = new long[RUNS];
+		for (int run = 0; run < RUNS; run++)
+			on[run] = time(head, n);
+
+		System.out.println("Path limited log of " + PATH + " over " + COMMITS
+				+ " commits, " + n + " shown:");
+		System.out.println("  filters written in " + writeMs + " ms");
+		for (int run = 0; run < RUNS; run++)
+			System.out.println("  without filters: " + off[run]
+					+ " ms, with filters: " + on[run] + " ms");
+	}
+
+	private long time(final ObjectId head, final int n) throws Exception {
+		final long start = System.nanoTime();
+		assertEquals(n, log(head));
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	private int log(final ObjectId head) throws Exception {
+		final RevWalk rw = new RevWalk(db);
+		rw.setRetainBody(false);
+		rw.setTreeFilter(AndTreeFilter.create(PathFilterGroup
+				.createFromStrings(Collections.singleton(PATH)),
+				TreeFilter.ANY_DIFF));
+		rw.markStart(rw.parseCommit(head));
+		int n = 0;
+		while (rw.next() != null)
+			n++;
+		return n;
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(ChangedPathSpeedTest.class);
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.revwalk;
+
+import java.util.Random;
+
+import junit.textui.TestRunner;
+
+import org.spearce.jgit.lib.Commit;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.ObjectWriter;
+import org.spearce.jgit.lib.PersonIdent;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.lib.Tree;
+
+/**
+ * Measures {@link DateRevQueue} on histories with many open branches.
+ * <p>
+ * The first test keeps a fixed number of commits queued while it replaces
+ * the newest one with an older commit, as a walk over that many parallel
+ * branches does. The second test writes a repository whose tip merges many
+ * branches with interleaved commit times, and walks it with {@link RevWalk}
+ * sorted by commit time.
+ */
+public class DateRevQueueSpeedTest extends RepositoryTestCase {
+	private static final int[] WIDTHS = { 100, 1000, 10000 };
+
+	private static final int STEPS = 200000;
+
+	private static final int BRANCHES = 10000;
+
+	private static final int BRANCH_LENGTH = 2;
+
+	public void testSteadyState() {
+		System.out.println("DateRevQueue, next() and add() at a fixed width:");
+		for (final int width : WIDTHS)
+			steadyState(width); // warm up the JIT
+		for (final int width : WIDTHS) {
+			final long ns = steadyState(width);
+			System.out.println("  width=" + width + " ns/step=" + ns / STEPS);
+		}
+	}
+
+	private static long steadyState(final int width) {
+		final Random rng = new Random(width);
+		final RevCommit[] pool = new RevCommit[width + STEPS];
+		int time = Integer.MAX_VALUE;
+		for (int i = 0; i < pool.length; i++) {
+			pool[i] = new RevCommit(ObjectId.zeroId());
+			pool[i].commitTime = time - rng.nextInt(width);
+			time -= 1;
+		}
+
+		final DateRevQueue q = new DateRevQueue();
+		for (int i = 0; i < width; i++)
+			q.add(pool[i]);
+		final long start = System.nanoTime();
+		for (int i = width; i < pool.length; i++) {
+			q.next();
+			q.add(pool[i]);
+		}
+		final long r = System.nanoTime() - start;
+		while (q.next() != null) {
+			// drain the queue
+		}
+		return r;
+	}
+
+	public void testWideMerge() throws Exception {
+		final ObjectWriter ow = new ObjectWriter(db);
+		final ObjectId tree = ow.writeTree(new Tree(db));
+		final ObjectId root = commit(ow, tree, 0, new ObjectId[0]);
+
+		final ObjectId[] tips = new ObjectId[BRANCHES];
+		for (int b = 0; b < BRANCHES; b++) {
+			ObjectId c = root;
+			for (int i = 1; i <= BRANCH_LENGTH; i++)
+				c = commit(ow, tree, i * BRANCHES + b, new ObjectId[] { c });
+			tips[b] = c;
+		}
+		final ObjectId merge = commit(ow, tree, (BRANCH_LENGTH + 1)
+				* BRANCHES, tips);
+
+		System.out.println("RevWalk over " + BRANCHES + " merged branches:");
+		for (int run = 0; run < 3; run++) {
+			final RevWalk rw = new RevWalk(db);
+			rw.sort(RevSort.COMMIT_TIME_DESC);
+			rw.markStart(rw.parseCommit(merge));
+			final long start = System.nanoTime();
+			int n = 0;
+			while (rw.next() != null)
+				n++;
+			final long ms = (System.nanoTime() - start) / 1000000;
+			assertEquals(BRANCHES * BRANCH_LENGTH + 2, n);
+			System.out.println("  commits=" + n + " ms=" + ms);
+		}
+	}
+
+	private ObjectId commit(final ObjectWriter ow, final ObjectId tree,
+			final int time, final ObjectId[] parents) throws Exception {
+		final long when = 1154236443000L + time * 1000L;
+		final Commit c = new Commit(db);
+		c.setTreeId(tree);
+		c.setParentIds(parents);
+		c.setAuthor(new PersonIdent(jauthor, when, 0));
+		c.setCommitter(new PersonIdent(jcommitter, when, 0));
+		c.setMessage("commit " + time + "\n");
+		return ow.writeCommit(c);
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(DateRevQueueSpeedTest.class);
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import junit.textui.TestRunner;
+
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.Repository;
+import org.spearce.jgit.lib.RepositoryTestCase;
+
+/**
+ * Measures a dumb transport fetch of loose objects with and without read-ahead.
+ * <p>
+ * The remote is a local object directory which sleeps before each file it
+ * opens, standing in for the round trip of an HTTP request.
+ */
+public class WalkFetchSpeedTest extends RepositoryTestCase {
+	private static final int COMMITS = 50;
+
+	private static final int FILES = 10;
+
+	private static final int LATENCY = 5;
+
+	private static final int[] THREADS = { 1, 2, 5, 10 };
+
+	public void testFetchLoose() throws Exception {
+		final Repository src = createNewEmptyRepo();
+		final ObjectId head = WalkFetchConnectionTest.writeLooseHistory(src,
+				COMMITS, FILES);
+
+		System.out.println("Fetch of " + COMMITS * (FILES + 2)
+				+ " loose objects, " + LATENCY + " ms per request:");
+		for (final int threads : THREADS) {
+			final Repository dst = createNewEmptyRepo();
+			final FileObjectDB remote = new FileObjectDB(src, true, LATENCY);
+			final long start = System.nanoTime();
+			WalkFetchConnectionTest.fetch(dst, remote, threads, head);
+			final long ms = (System.nanoTime() - start) / 1000000;
+			assertTrue(dst.hasObject(head));
+			System.out.println("  " + threads + " thread(s): " + ms + " ms");
+			dst.close();
+		}
+		src.close();
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(WalkFetchSpeedTest.class);
+	}
+}
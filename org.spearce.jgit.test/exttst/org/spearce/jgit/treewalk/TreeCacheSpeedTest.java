@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.treewalk;
+
+import java.util.Collections;
+
+import junit.textui.TestRunner;
+
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.RandomHistory;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.treewalk.filter.AndTreeFilter;
+import org.spearce.jgit.treewalk.filter.PathFilterGroup;
+import org.spearce.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Measures a path limited log with and without the {@link TreeCache}.
+ * <p>
+ * Limiting the log of a {@link RandomHistory} to one path compares each
+ * commit's root tree with its parent's, so every root tree is read twice:
+ * once as the child and once as the parent.
+ */
+public class TreeCacheSpeedTest extends RepositoryTestCase {
+	private static final int COMMITS = 3000;
+
+	private static final int RUNS = 3;
+
+	private int limit;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		limit = TreeCache.getStatistics().getLimit();
+	}
+
+	public void tearDown() throws Exception {
+		TreeCache.reconfigure(limit);
+		TreeCache.clear();
+		super.tearDown();
+	}
+
+	public void testPathLimitedLog() throws Exception {
+		final ObjectId head = RandomHistory.write(db, COMMITS);
+
+		System.out.println("Path limited log over " + COMMITS + " commits:");
+		for (int run = 0; run < RUNS; run++) {
+			TreeCache.reconfigure(0);
+			TreeCache.clear();
+			final long off = log(head);
+
+			TreeCache.reconfigure(limit);
+			TreeCache.clear();
+			final long on = log(head);
+
+			System.out.println("  cache off: " + off + " ms, cache on: " + on
+					+ " ms, " + TreeCache.getStatistics());
+		}
+	}
+
+	private long log(final ObjectId head) throws Exception {
+		final long start = System.nanoTime();
+		final RevWalk rw = new RevWalk(db);
+		rw.setTreeFilter(AndTreeFilter.create(PathFilterGroup
+				.createFromStrings(Collections.singleton("d3/f7")),
+				TreeFilter.ANY_DIFF));
+		rw.markStart(rw.parseCommit(head));
+		for (RevCommit c = rw.next(); c != null; c = rw.next()) {
+			// Walk the whole history.
+		}
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(TreeCacheSpeedTest.class);
+	}
+}
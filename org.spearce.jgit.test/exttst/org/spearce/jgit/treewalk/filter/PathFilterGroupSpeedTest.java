@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.treewalk.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.textui.TestRunner;
+
+import org.spearce.jgit.dircache.DirCache;
+import org.spearce.jgit.dircache.DirCacheBuilder;
+import org.spearce.jgit.dircache.DirCacheEntry;
+import org.spearce.jgit.dircache.DirCacheIterator;
+import org.spearce.jgit.errors.StopWalkException;
+import org.spearce.jgit.lib.FileMode;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.treewalk.TreeWalk;
+
+/**
+ * Measures {@link PathFilterGroup} as the number of paths in it grows.
+ * <p>
+ * A recursive walk over an index of 100,000 files is limited to a random
+ * selection of those files. Each size is measured with the group filter,
+ * and with a filter testing every path in turn, which is how the group
+ * matched before it stored its paths in a tree. The linear filter is not
+ * run for the largest groups, as it would take minutes.
+ */
+public class PathFilterGroupSpeedTest extends RepositoryTestCase {
+	private static final int[] GROUP_SIZES = { 10, 100, 1000, 10000, 100000 };
+
+	private static final int LINEAR_LIMIT = 10000;
+
+	private final List<String> paths = new ArrayList<String>();
+
+	private DirCache dc;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		for (int a = 0; a < 100; a++) {
+			for (int b = 0; b < 100; b++) {
+				for (int c = 0; c < 10; c++)
+					paths.add("dir" + a + "/sub" + b + "/file" + c + ".c");
+			}
+		}
+		Collections.sort(paths);
+
+		dc = DirCache.read(db);
+		final DirCacheBuilder b = dc.builder();
+		for (final String p : paths) {
+			final DirCacheEntry e = new DirCacheEntry(p);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			b.add(e);
+		}
+		b.finish();
+	}
+
+	public void testGroupSizes() throws Exception {
+		System.out.println("PathFilterGroup, walk of " + paths.size()
+				+ " files:");
+		for (final int n : GROUP_SIZES) {
+			final List<String> group = select(n);
+			final List<PathFilter> filters = new ArrayList<PathFilter>();
+			for (final String p : group)
+				filters.add(PathFilter.create(p));
+
+			walk(PathFilterGroup.createFromStrings(group), n); // warm up
+			final long tree = walk(PathFilterGroup.createFromStrings(group), n);
+			String linear = "skipped";
+			if (n <= LINEAR_LIMIT) {
+				walk(new LinearGroup(filters), n); // warm up
+				linear = walk(new LinearGroup(filters), n) + " ms";
+			}
+			System.out.println("  paths=" + n + " group=" + tree
+					+ " ms linear=" + linear);
+		}
+	}
+
+	private List<String> select(final int n) {
+		final List<String> r = new ArrayList<String>(paths);
+		Collections.shuffle(r, new Random(n));
+		return r.subList(0, n);
+	}
+
+	private long walk(final TreeFilter filter, final int expect)
+			throws Exception {
+		final long start = System.nanoTime();
+		final TreeWalk tw = new TreeWalk(db);
+		tw.reset();
+		tw.addTree(new DirCacheIterator(dc));
+		tw.setFilter(filter);
+		tw.setRecursive(true);
+		int found = 0;
+		while (tw.next())
+			found++;
+		assertEquals(expect, found);
+		return (System.nanoTime() - start) / 1000000;
+	}
+
+	/** Tests each path in turn, as PathFilterGroup used to. */
+	private static class LinearGroup extends TreeFilter {
+		private final PathFilter[] paths;
+
+		LinearGroup(final List<PathFilter> p) {
+			paths = p.toArray(new PathFilter[p.size()]);
+			Arrays.sort(paths, new Comparator<PathFilter>() {
+				public int compare(final PathFilter o1, final PathFilter o2) {
+					return o1.pathStr.compareTo(o2.pathStr);
+				}
+			});
+		}
+
+		@Override
+		public boolean include(final TreeWalk walker) {
+			final int n = paths.length;
+			for (int i = 0;;) {
+				final byte[] r = paths[i].pathRaw;
+				final int cmp = walker.isPathPrefix(r, r.length);
+				if (cmp == 0)
+					return true;
+				if (++i < n)
+					continue;
+				if (cmp > 0)
+					throw StopWalkException.INSTANCE;
+				return false;
+			}
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return true;
+		}
+
+		@Override
+		public TreeFilter clone() {
+			return this;
+		}
+	}
+
+	public static void main(String[] args) {
+		TestRunner.run(PathFilterGroupSpeedTest.class);
+	}
+}
@@ -40,17 +40,21 @@
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 
+import org.spearce.jgit.errors.CorruptObjectException;
 import org.spearce.jgit.lib.FileMode;
 import org.spearce.jgit.lib.ObjectId;
 import org.spearce.jgit.lib.RepositoryTestCase;
 import org.spearce.jgit.treewalk.TreeWalk;
 import org.spearce.jgit.util.JGitTestUtil;
+import org.spearce.jgit.util.NB;
 
 public class DirCacheCGitCompatabilityTest extends RepositoryTestCase {
 	private final File index = pathOf("gitgit.index");
@@ -68,6 +72,122 @@ public void testReadIndex_LsFiles() throws Exception {
 		}
 	}
 
+	public void testReadIndexMapped_LsFiles() throws Exception {
+		final Map<String, CGitIndexRecord> ls = readLsFiles();
+		final DirCache dc = DirCache.read(index, true);
+		assertEquals(ls.size(), dc.getEntryCount());
+
+		// Look up paths before the entries are decoded in order.
+		//
+		final String[] paths = ls.keySet().toArray(new String[ls.size()]);
+		for (int i = paths.length - 1; i >= 0; i -= 7) {
+			assertEquals(i, dc.findEntry(paths[i]));
+			assertEqual(ls.get(paths[i]), dc.getEntry(paths[i]));
+		}
+		assertTrue(dc.findEntry("not-a-path-in-this-index") < 0);
+
+		final Iterator<CGitIndexRecord> rItr = ls.values().iterator();
+		for (int i = 0; rItr.hasNext(); i++)
+			assertEqual(rItr.next(), dc.getEntry(i));
+	}
+
+	public void testReadIndexMapped_DirCacheTree() throws Exception {
+		final DirCache dc = DirCache.read(index, true);
+		final DirCacheTree jTree = dc.getCacheTree(false);
+		assertNotNull(jTree);
+		assertEquals(ObjectId
+				.fromString("698dd0b8d0c299f080559a1cffc7fe029479a408"), jTree
+				.getObjectId());
+		assertEquals(dc.getEntryCount(), jTree.getEntrySpan());
+	}
+
+	public void testReadIndexMapped_BadChecksum() throws Exception {
+		final File copy = new File(trash, "index.bad");
+		final FileInputStream in = new FileInputStream(index);
+		final byte[] raw;
+		try {
+			raw = new byte[(int) index.length()];
+			NB.readFully(in, raw, 0, raw.length);
+		} finally {
+			in.close();
+		}
+		raw[raw.length / 2] ^= 0x01;
+		final FileOutputStream out = new FileOutputStream(copy);
+		try {
+			out.write(raw);
+		} finally {
+			out.close();
+		}
+
+		try {
+			DirCache.read(copy, true);
+			fail("corrupt index was read");
+		} catch (CorruptObjectException e) {
+			assertEquals("DIRC checksum mismatch", e.getMessage());
+		}
+	}
+
+	public void testReadIndexMapped_ConcurrentLookups() throws Exception {
+		final Map<String, CGitIndexRecord> ls = readLsFiles();
+		final String[] paths = ls.keySet().toArray(new String[ls.size()]);
+		for (int round = 0; round < 10; round++)
+			concurrentLookups(ls, paths, DirCache.read(index, true));
+	}
+
+	private static void concurrentLookups(
+			final Map<String, CGitIndexRecord> ls, final String[] paths,
+			final DirCache dc) throws Exception {
+		final int threads = 4;
+		final CountDownLatch start = new CountDownLatch(1);
+		final DirCacheEntry[][] found = new DirCacheEntry[threads][];
+		final Thread[] t = new Thread[threads];
+		for (int n = 0; n < threads; n++) {
+			final DirCacheEntry[] r = new DirCacheEntry[paths.length];
+			found[n] = r;
+			t[n] = new Thread() {
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < paths.length; i++)
+						r[i] = dc.getEntry(paths[i]);
+				}
+			};
+			t[n].start();
+		}
+		start.countDown();
+		for (final Thread x : t)
+			x.join();
+
+		for (int i = 0; i < paths.length; i++) {
+			assertEqual(ls.get(paths[i]), found[0][i]);
+			for (int n = 1; n < threads; n++)
+				assertSame(found[0][i], found[n][i]);
+			assertSame(found[0][i], dc.getEntry(i));
+		}
+	}
+
+	public void testReadIndexMapped_LockWriteCommit() throws Exception {
+		final Map<String, CGitIndexRecord> ls = readLsFiles();
+		final File copy = new File(trash, "index.mapped");
+		copyFile(index, copy);
+
+		final DirCache dc = DirCache.read(copy, true);
+		final String first = ls.keySet().iterator().next();
+		assertEqual(ls.get(first), dc.getEntry(first));
+		assertTrue(dc.lock());
+		dc.write();
+		assertTrue(dc.commit());
+
+		final DirCache re = DirCache.read(copy, false);
+		assertEquals(ls.size(), re.getEntryCount());
+		final Iterator<CGitIndexRecord> rItr = ls.values().iterator();
+		for (int i = 0; rItr.hasNext(); i++)
+			assertEqual(rItr.next(), re.getEntry(i));
+	}
+
 	public void testTreeWalk_LsFiles() throws Exception {
 		final Map<String, CGitIndexRecord> ls = readLsFiles();
 		final DirCache dc = new DirCache(index);
@@ -37,6 +37,7 @@
 
 package org.spearce.jgit.dircache;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.spearce.jgit.errors.CorruptObjectException;
@@ -95,6 +96,15 @@ private void testLongPath(final int len) throws CorruptObjectException,
 			assertNotSame(shortEnt, dc2.getEntry(1));
 			assertEquals(shortPath, dc2.getEntry(1).getPathString());
 		}
+		{
+			final DirCache dc3 = DirCache.read(new File(db.getDirectory(),
+					"index"), true);
+			assertEquals(2, dc3.getEntryCount());
+			assertEquals(1, dc3.findEntry(shortPath));
+			assertEquals(0, dc3.findEntry(longPath));
+			assertEquals(longPath, dc3.getEntry(0).getPathString());
+			assertEquals(shortPath, dc3.getEntry(1).getPathString());
+		}
 	}
 
 	private static String makeLongPath(final int len) {
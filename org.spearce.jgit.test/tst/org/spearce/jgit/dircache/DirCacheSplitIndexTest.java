@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.dircache;
+
+import java.io.File;
+import java.io.FileFilter;
+
+import org.spearce.jgit.lib.FileMode;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.RepositoryTestCase;
+
+public class DirCacheSplitIndexTest extends RepositoryTestCase {
+	private File idx;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		idx = new File(db.getDirectory(), "index");
+	}
+
+	public void testWriteNewSharedIndex() throws Exception {
+		final String[] paths = paths(10);
+		write(paths, 0, true);
+		assertEquals(1, sharedIndexes().length);
+
+		final DirCache dc = DirCache.read(idx);
+		assertTrue(dc.isSplitIndex());
+		assertEntries(paths, 0, dc);
+		assertEntries(paths, 0, DirCache.read(idx, true));
+
+		// All entries are in the shared index.
+		assertTrue(idx.length() < sharedIndexes()[0].length());
+	}
+
+	public void testReplaceDeleteAdd() throws Exception {
+		final String[] paths = paths(20);
+		write(paths, 0, true);
+		final File shared = sharedIndexes()[0];
+
+		// Change one entry, drop another and add a third.
+		final String[] next = paths.clone();
+		next[4] = "path04a";
+		write(next, 0, false);
+		update("path02", 100);
+
+		final File[] s = sharedIndexes();
+		assertEquals(1, s.length);
+		assertEquals(shared, s[0]);
+
+		final DirCache dc = DirCache.read(idx);
+		assertEquals(paths.length, dc.getEntryCount());
+		for (int i = 0; i < next.length; i++) {
+			final DirCacheEntry e = dc.getEntry(i);
+			assertEquals(next[i], e.getPathString());
+			assertEquals(next[i].equals("path02") ? 100 : i, e.getLength());
+		}
+	}
+
+	public void testManyChangesWriteNewSharedIndex() throws Exception {
+		final String[] paths = paths(10);
+		write(paths, 0, true);
+		write(paths, 1, false);
+		assertEquals(2, sharedIndexes().length);
+		assertEntries(paths, 1, DirCache.read(idx));
+	}
+
+	public void testVersion4() throws Exception {
+		final String[] paths = paths(10);
+		db.getConfig().setString("index", null, "version", "4");
+		db.getConfig().save();
+		db.getConfig().load();
+		write(paths, 0, true);
+		update("path07", 100);
+
+		final DirCache dc = DirCache.read(idx);
+		assertTrue(dc.isSplitIndex());
+		assertEquals(4, dc.getVersion());
+		assertEquals(paths.length, dc.getEntryCount());
+		assertEquals("path07", dc.getEntry(7).getPathString());
+		assertEquals(100, dc.getEntry(7).getLength());
+	}
+
+	public void testSplitIndexFromConfig() throws Exception {
+		db.getConfig().setString("core", null, "splitindex", "true");
+		db.getConfig().save();
+		db.getConfig().load();
+
+		final DirCache dc = DirCache.lock(db);
+		assertTrue(dc.isSplitIndex());
+		dc.write();
+		assertTrue(dc.commit());
+		assertEquals(1, sharedIndexes().length);
+	}
+
+	public void testDisableSplitIndex() throws Exception {
+		final String[] paths = paths(10);
+		write(paths, 0, true);
+
+		final DirCache dc = DirCache.lock(idx);
+		dc.setSplitIndex(false);
+		dc.write();
+		assertTrue(dc.commit());
+
+		final DirCache r = DirCache.read(idx);
+		assertFalse(r.isSplitIndex());
+		assertEntries(paths, 0, r);
+	}
+
+	private static String[] paths(final int cnt) {
+		final String[] r = new String[cnt];
+		for (int i = 0; i < cnt; i++)
+			r[i] = (i < 10 ? "path0" : "path") + i;
+		return r;
+	}
+
+	private void write(final String[] paths, final int lengthOffset,
+			final boolean split) throws Exception {
+		final DirCache dc = DirCache.lock(db);
+		if (split)
+			dc.setSplitIndex(true);
+		final DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < paths.length; i++)
+			b.add(entry(paths[i], i + lengthOffset));
+		b.finish();
+		dc.write();
+		assertTrue(dc.commit());
+	}
+
+	private void update(final String path, final int length) throws Exception {
+		final DirCache dc = DirCache.lock(db);
+		final DirCacheEditor ed = dc.editor();
+		ed.add(new DirCacheEditor.PathEdit(path) {
+			public void apply(final DirCacheEntry ent) {
+				ent.setLength(length);
+			}
+		});
+		ed.finish();
+		dc.write();
+		assertTrue(dc.commit());
+	}
+
+	private static DirCacheEntry entry(final String path, final int length) {
+		final DirCacheEntry e = new DirCacheEntry(path);
+		e.setFileMode(FileMode.REGULAR_FILE);
+		e.setLength(length);
+		e.setObjectId(ObjectId.zeroId());
+		return e;
+	}
+
+	private File[] sharedIndexes() {
+		return db.getDirectory().listFiles(new FileFilter() {
+			public boolean accept(final File f) {
+				return f.getName().startsWith("sharedindex.");
+			}
+		});
+	}
+
+	private static void assertEntries(final String[] paths,
+			final int lengthOffset, final DirCache dc) {
+		assertEquals(paths.length, dc.getEntryCount());
+		for (int i = 0; i < paths.length; i++) {
+			final DirCacheEntry e = dc.getEntry(i);
+			assertEquals(paths[i], e.getPathString());
+			assertEquals(i + lengthOffset, e.getLength());
+			assertEquals(i, dc.findEntry(paths[i]));
+		}
+	}
+}
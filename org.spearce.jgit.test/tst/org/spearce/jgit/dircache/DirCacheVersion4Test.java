@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.dircache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.spearce.jgit.lib.FileMode;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.RepositoryTestCase;
+
+public class DirCacheVersion4Test extends RepositoryTestCase {
+	private static final String[] PATHS = { "a", "a.b", "a/b/c/d/e/file1",
+			"a/b/c/d/e/file2", "a/b/c/d/f", "a/b/g", "a0b", "b",
+			"some/rather/deep/directory/name/file" };
+
+	public void testDefaultVersion() throws Exception {
+		final DirCache dc = DirCache.read(db);
+		assertEquals(2, dc.getVersion());
+		try {
+			dc.setVersion(3);
+			fail("accepted version 3");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testWriteRead() throws Exception {
+		final File v2 = new File(db.getDirectory(), "index_v2");
+		final File v4 = new File(db.getDirectory(), "index_v4");
+		write(v2, 2);
+		write(v4, 4);
+		assertTrue(v4.length() < v2.length());
+
+		assertEntries(DirCache.read(v2, false), 2);
+		assertEntries(DirCache.read(v4, false), 4);
+		assertEntries(DirCache.read(v4, true), 4);
+	}
+
+	public void testRewriteKeepsVersion() throws Exception {
+		final File v4 = new File(db.getDirectory(), "index_v4");
+		write(v4, 4);
+
+		final DirCache dc = DirCache.lock(v4);
+		assertEquals(4, dc.getVersion());
+		dc.write();
+		assertTrue(dc.commit());
+		assertEntries(DirCache.read(v4, false), 4);
+	}
+
+	public void testVersionFromConfig() throws Exception {
+		db.getConfig().setString("index", null, "version", "4");
+		db.getConfig().save();
+		db.getConfig().load();
+
+		final DirCache dc = DirCache.lock(db);
+		assertEquals(4, dc.getVersion());
+		dc.unlock();
+	}
+
+	public void testTruncated() throws Exception {
+		final File v4 = new File(db.getDirectory(), "index_v4");
+		write(v4, 4);
+		final RandomAccessFile f = new RandomAccessFile(v4, "rw");
+		try {
+			f.setLength(v4.length() - 20 - 40);
+		} finally {
+			f.close();
+		}
+		try {
+			DirCache.read(v4);
+			fail("read a truncated index");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private void write(final File idx, final int version) throws Exception {
+		final DirCache dc = DirCache.lock(idx);
+		dc.setVersion(version);
+		final DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < PATHS.length; i++) {
+			final DirCacheEntry e = new DirCacheEntry(PATHS[i]);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			e.setLength(i);
+			e.setObjectId(ObjectId.zeroId());
+			b.add(e);
+		}
+		b.finish();
+		dc.write();
+		assertTrue(dc.commit());
+	}
+
+	private static void assertEntries(final DirCache dc, final int version) {
+		assertEquals(version, dc.getVersion());
+		assertEquals(PATHS.length, dc.getEntryCount());
+		for (int i = 0; i < PATHS.length; i++) {
+			final DirCacheEntry e = dc.getEntry(i);
+			assertEquals(PATHS[i], e.getPathString());
+			assertEquals(FileMode.REGULAR_FILE.getBits(), e.getRawMode());
+			assertEquals(i, e.getLength());
+			assertEquals(i, dc.findEntry(PATHS[i]));
+		}
+	}
+}
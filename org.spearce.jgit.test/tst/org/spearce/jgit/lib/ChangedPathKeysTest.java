@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+public class ChangedPathKeysTest extends TestCase {
+	public void testMurmur3() throws Exception {
+		// Values from C git's t0095-bloom.sh.
+		assertEquals(0x00000000, murmur3(""));
+		assertEquals(0x627b0c2c, murmur3("Hello world!"));
+		assertEquals(0x2e4ff723,
+				murmur3("The quick brown fox jumps over the lazy dog"));
+	}
+
+	public void testSignExtendsBytes() {
+		final byte[] b = { (byte) 0x99, (byte) 0xaa, (byte) 0xbb,
+				(byte) 0xcc, (byte) 0xdd };
+		final byte[] u = { 0x19, 0x2a, 0x3b, 0x4c, 0x5d };
+		assertFalse(ChangedPathKeys.murmur3(0, b, 0, b.length) == ChangedPathKeys
+				.murmur3(0, u, 0, u.length));
+	}
+
+	public void testAddedPathAndParentsMatch() {
+		final byte[] filter = filter("a/b/c", "a/b", "a");
+		assertTrue(test(filter, "a/b/c"));
+		assertTrue(test(filter, "a/b"));
+		assertTrue(test(filter, "a"));
+		assertTrue(test(filter, "a/b/c/"));
+	}
+
+	public void testMissingParentRejectsPath() {
+		// Only the path was added, not its parent directories. A filter
+		// written by CommitGraphWriter always holds both.
+		final byte[] filter = filter("a/b/c");
+		assertFalse(test(filter, "a/b/c"));
+	}
+
+	public void testUnchangedPathRejected() {
+		final byte[] filter = filter("src/Main.java", "src");
+		assertFalse(test(filter, "docs"));
+		assertFalse(test(filter, "src/Other.java"));
+	}
+
+	public void testAnyPathMatches() {
+		final byte[] filter = filter("src/Main.java", "src");
+		final ChangedPathKeys k = new ChangedPathKeys(Arrays.asList("docs",
+				"src/Main.java"));
+		assertTrue(k.mightContain(ByteBuffer.wrap(filter), 0, filter.length,
+				ChangedPathKeys.NUM_HASHES));
+	}
+
+	public void testEmptyAndFullFilters() {
+		final ChangedPathKeys k = keys("a");
+		final ByteBuffer full = ByteBuffer.wrap(new byte[] { (byte) 0xff });
+		assertTrue(k.mightContain(full, 0, 1, ChangedPathKeys.NUM_HASHES));
+		assertTrue(k.mightContain(full, 0, 0, ChangedPathKeys.NUM_HASHES));
+
+		final ByteBuffer none = ByteBuffer.wrap(new byte[] { 0 });
+		assertFalse(k.mightContain(none, 0, 1, ChangedPathKeys.NUM_HASHES));
+	}
+
+	private static int murmur3(final String s) throws Exception {
+		final byte[] b = s.getBytes("UTF-8");
+		return ChangedPathKeys.murmur3(0, b, 0, b.length);
+	}
+
+	private static byte[] filter(final String... paths) {
+		final int bits = paths.length * ChangedPathKeys.BITS_PER_ENTRY;
+		final byte[] f = new byte[(bits + 7) / 8];
+		for (final String p : paths) {
+			final byte[] raw = Constants.encode(p);
+			ChangedPathKeys.add(f, raw, raw.length);
+		}
+		return f;
+	}
+
+	private static ChangedPathKeys keys(final String path) {
+		return new ChangedPathKeys(Collections.singleton(path));
+	}
+
+	private static boolean test(final byte[] filter, final String path) {
+		return keys(path).mightContain(ByteBuffer.wrap(filter), 0,
+				filter.length, ChangedPathKeys.NUM_HASHES);
+	}
+}
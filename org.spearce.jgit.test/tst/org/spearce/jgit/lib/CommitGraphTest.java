@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevObject;
+import org.spearce.jgit.revwalk.RevTag;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.treewalk.EmptyTreeIterator;
+import org.spearce.jgit.treewalk.TreeWalk;
+import org.spearce.jgit.treewalk.filter.TreeFilter;
+
+public class CommitGraphTest extends RepositoryTestCase {
+	public void testNoGraph() {
+		assertNull(db.getCommitGraph());
+	}
+
+	public void testWriteRead() throws Exception {
+		final List<RevCommit> all = allCommits();
+		assertEquals(all.size(), new CommitGraphWriter(db).write());
+
+		final CommitGraph graph = db.getCommitGraph();
+		assertNotNull(graph);
+		assertSame(graph, db.getCommitGraph());
+		assertEquals(all.size(), graph.getCommitCount());
+
+		final MutableObjectId tmp = new MutableObjectId();
+		for (final RevCommit c : all) {
+			final int pos = graph.findPosition(c);
+			assertTrue(pos >= 0);
+			assertTrue(AnyObjectId.equals(c, graph.getObjectId(pos)));
+
+			graph.getTreeId(pos, tmp);
+			assertTrue(AnyObjectId.equals(c.getTree(), tmp));
+			assertEquals(c.getCommitTime(), graph.getCommitTime(pos));
+
+			final RevCommit[] parents = c.getParents();
+			assertEquals(parents.length, graph.getParentCount(pos));
+			int max = 0;
+			for (int i = 0; i < parents.length; i++) {
+				final int p = graph.getParent(pos, i);
+				final ObjectId pId = graph.getObjectId(p);
+				assertTrue(AnyObjectId.equals(parents[i], pId));
+				max = Math.max(max, graph.getGeneration(p));
+			}
+			assertEquals(max + 1, graph.getGeneration(pos));
+		}
+	}
+
+	public void testMissingCommit() throws Exception {
+		new CommitGraphWriter(db).write();
+		final CommitGraph graph = db.getCommitGraph();
+		assertEquals(-1, graph.findPosition(ObjectId.zeroId()));
+		assertEquals(-1, graph.findPosition(ObjectId
+				.fromString("ffffffffffffffffffffffffffffffffffffffff")));
+	}
+
+	public void testDisabledByConfig() throws Exception {
+		new CommitGraphWriter(db).write();
+		db.getConfig().setString("core", null, "commitgraph", "false");
+		db.getConfig().save();
+		db.getConfig().load();
+		assertNull(db.getCommitGraph());
+	}
+
+	public void testCorruptGraphIgnored() throws Exception {
+		final File path = new File(db.getObjectsDirectory(), "info/commit-graph");
+		path.getParentFile().mkdirs();
+		final FileOutputStream out = new FileOutputStream(path);
+		try {
+			out.write("CGPH not really a graph".getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+		assertNull(db.getCommitGraph());
+	}
+
+	public void testNoChangedPathsByDefault() throws Exception {
+		final CommitGraphWriter w = new CommitGraphWriter(db);
+		assertFalse(w.isChangedPaths());
+		w.write();
+		assertFalse(db.getCommitGraph().hasChangedPaths());
+	}
+
+	public void testChangedPaths() throws Exception {
+		final List<RevCommit> all = allCommits();
+		final CommitGraphWriter w = new CommitGraphWriter(db);
+		w.setChangedPaths(true);
+		w.write();
+		assertEquals(all.size(), w.getChangedPathFiltersComputed());
+
+		final CommitGraph graph = db.getCommitGraph();
+		assertTrue(graph.hasChangedPaths());
+
+		final TreeWalk tw = new TreeWalk(db);
+		tw.setRecursive(true);
+		tw.setFilter(TreeFilter.ANY_DIFF);
+		for (final RevCommit c : all) {
+			final int pos = graph.findPosition(c);
+			tw.reset();
+			if (c.getParentCount() > 0)
+				tw.addTree(c.getParent(0).getTree());
+			else
+				tw.addTree(new EmptyTreeIterator());
+			tw.addTree(c.getTree());
+			while (tw.next()) {
+				final String path = tw.getPathString();
+				assertTrue(c.name() + " changed " + path, graph
+						.mayHaveChanged(pos, keys(path)));
+			}
+		}
+	}
+
+	public void testChangedPathsRejectUnchangedPath() throws Exception {
+		final CommitGraphWriter w = new CommitGraphWriter(db);
+		w.setChangedPaths(true);
+		w.write();
+
+		// With 10 bits and 7 hashes per path the false positive rate of
+		// each test is below 1%, so most commits must reject the path.
+		final CommitGraph graph = db.getCommitGraph();
+		final ChangedPathKeys none = keys("no/such/path");
+		int rejected = 0;
+		for (int pos = 0; pos < graph.getCommitCount(); pos++) {
+			if (!graph.mayHaveChanged(pos, none))
+				rejected++;
+		}
+		assertTrue(rejected > graph.getCommitCount() / 2);
+	}
+
+	public void testChangedPathsKeptOnRewrite() throws Exception {
+		final CommitGraphWriter w1 = new CommitGraphWriter(db);
+		w1.setChangedPaths(true);
+		w1.write();
+		final CommitGraph g1 = db.getCommitGraph();
+
+		final CommitGraphWriter w2 = new CommitGraphWriter(db);
+		assertTrue(w2.isChangedPaths());
+		w2.write();
+		assertEquals(0, w2.getChangedPathFiltersComputed());
+
+		final CommitGraph g2 = db.getCommitGraph();
+		assertNotSame(g1, g2);
+		assertTrue(g2.hasChangedPaths());
+		for (int pos = 0; pos < g1.getCommitCount(); pos++) {
+			assertTrue(Arrays.equals(g1.getChangedPathFilter(pos), g2
+					.getChangedPathFilter(pos)));
+		}
+	}
+
+	private static ChangedPathKeys keys(final String path) {
+		return new ChangedPathKeys(Collections.singleton(path));
+	}
+
+	private List<RevCommit> allCommits() throws Exception {
+		final RevWalk rw = new RevWalk(db);
+		for (final Ref r : db.getAllRefs().values()) {
+			RevObject o = rw.parseAny(r.getObjectId());
+			while (o instanceof RevTag) {
+				o = ((RevTag) o).getObject();
+				rw.parse(o);
+			}
+			if (o instanceof RevCommit)
+				rw.markStart((RevCommit) o);
+		}
+		final List<RevCommit> all = new ArrayList<RevCommit>();
+		for (final RevCommit c : rw)
+			all.add(c);
+		return all;
+	}
+}
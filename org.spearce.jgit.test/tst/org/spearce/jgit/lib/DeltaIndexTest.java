@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class DeltaIndexTest extends TestCase {
+	private Random rng;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		rng = new Random(0xdeadbeefL);
+	}
+
+	public void testEmptyBase() {
+		assertRoundTrip(new byte[0], text(100));
+	}
+
+	public void testEmptyResult() {
+		assertRoundTrip(text(100), new byte[0]);
+	}
+
+	public void testShortResult() {
+		assertRoundTrip(text(100), text(DeltaIndex.BLOCK_SIZE - 1));
+	}
+
+	public void testIdentical() {
+		final byte[] base = text(4096);
+		final byte[] delta = assertRoundTrip(base, base);
+		assertTrue("copy is compact", delta.length < 16);
+	}
+
+	public void testLargeIdenticalSplitsCopies() {
+		final byte[] base = text(3 * 0x10000 + 17);
+		final byte[] delta = assertRoundTrip(base, base);
+		assertTrue("copy is compact", delta.length < 40);
+	}
+
+	public void testInsertInMiddle() {
+		final byte[] base = text(8192);
+		final byte[] res = new byte[base.length + 300];
+		System.arraycopy(base, 0, res, 0, 4000);
+		System.arraycopy(text(300), 0, res, 4000, 300);
+		System.arraycopy(base, 4000, res, 4300, base.length - 4000);
+		final byte[] delta = assertRoundTrip(base, res);
+		assertTrue("delta is small", delta.length < 400);
+	}
+
+	public void testUnalignedMatch() {
+		// The matching region starts off the base's block boundaries.
+		final byte[] base = text(5000);
+		final byte[] res = new byte[3000];
+		System.arraycopy(base, 1003, res, 0, res.length);
+		final byte[] delta = assertRoundTrip(base, res);
+		assertTrue("delta is small", delta.length < 64);
+	}
+
+	public void testRepeatedBlocks() {
+		final byte[] base = new byte[64 * 1024];
+		final byte[] res = new byte[64 * 1024 + 10];
+		assertRoundTrip(base, res);
+	}
+
+	public void testUnrelated() {
+		assertRoundTrip(text(2000), text(2000));
+	}
+
+	public void testLimit() {
+		final byte[] base = text(2000);
+		final byte[] res = text(2000);
+		assertNull(new DeltaIndex(base).encode(res, 100));
+	}
+
+	private byte[] assertRoundTrip(final byte[] base, final byte[] res) {
+		final byte[] delta = new DeltaIndex(base).encode(res, 0);
+		assertNotNull(delta);
+		assertTrue(Arrays.equals(res, BinaryDelta.apply(base, delta)));
+		return delta;
+	}
+
+	private byte[] text(final int len) {
+		final byte[] r = new byte[len];
+		for (int i = 0; i < len; i++)
+			r[i] = (byte) ('a' + rng.nextInt(26));
+		return r;
+	}
+}
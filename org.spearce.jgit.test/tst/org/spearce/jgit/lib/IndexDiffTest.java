@@ -41,6 +41,8 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class IndexDiffTest extends RepositoryTestCase {
 	public void testAdded() throws IOException {
@@ -115,6 +117,29 @@ public void testModified() throws IOException {
 		assertEquals(0, diff.getMissing().size());
 	}
 
+	public void testModifiedWithExecutor() throws IOException {
+		GitIndex index = new GitIndex(db);
+		for (int i = 0; i < 10; i++)
+			index.add(trash, writeTrashFile("f" + i, "file " + i));
+		final File f3 = writeTrashFile("f3", "FILE 3");
+		f3.setLastModified(f3.lastModified() - 10000);
+		writeTrashFile("f7", "changed");
+
+		final ExecutorService pool = Executors.newFixedThreadPool(3);
+		try {
+			IndexDiff diff = new IndexDiff(new Tree(db), index);
+			diff.setExecutor(pool);
+			diff.diff();
+			assertEquals(10, diff.getAdded().size());
+			assertEquals(2, diff.getModified().size());
+			assertTrue(diff.getModified().contains("f3"));
+			assertTrue(diff.getModified().contains("f7"));
+			assertEquals(0, diff.getMissing().size());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
 	public void testUnchangedSimple() throws IOException {
 		GitIndex index = new GitIndex(db);
 
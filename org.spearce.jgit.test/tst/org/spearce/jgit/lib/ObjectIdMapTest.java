@@ -37,8 +37,11 @@
 
 package org.spearce.jgit.lib;
 
+import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -53,6 +56,8 @@
 public class ObjectIdMapTest extends TestCase {
 
 	ObjectId[] ids = new ObjectId[500];
+
+	ObjectId[] unique = new ObjectId[5000];
 	
 	protected void setUp() throws Exception {
 		int b=0;
@@ -62,10 +67,17 @@ protected void setUp() throws Exception {
 				data[j] = (byte) (b++^0xEE);
 			ids[i] = ObjectId.fromRaw(data);
 		}
+
+		final MessageDigest md = Constants.newMessageDigest();
+		for (int i = 0; i < unique.length; ++i) {
+			md.update(Constants.encodeASCII(i));
+			unique[i] = ObjectId.fromRaw(md.digest());
+		}
 	}
 
 	protected void tearDown() throws Exception {
 		ids = null; // avoid out of memory
+		unique = null;
 	}
 
 	/**
@@ -100,4 +112,87 @@ void assertEquals(Collection a, Collection b) {
 		assertTrue(Arrays.equals(aa, ba));
 	}
 
+	/**
+	 * Verify ObjectIdMap and HashMap agree after growing and removing.
+	 */
+	public void testGrowAndRemove() {
+		final Map<ObjectId, Integer> expect = new HashMap<ObjectId, Integer>();
+		final ObjectIdMap<Integer> map = new ObjectIdMap<Integer>();
+		for (int i = 0; i < unique.length; ++i) {
+			assertNull(map.put(unique[i], new Integer(i)));
+			expect.put(unique[i], new Integer(i));
+		}
+		assertEquals(unique.length, map.size());
+		assertEquals(expect, map);
+
+		for (int i = 0; i < unique.length; i += 3) {
+			assertEquals(new Integer(i), map.remove(unique[i]));
+			expect.remove(unique[i]);
+		}
+		assertNull(map.remove(unique[0]));
+		assertEquals(expect, map);
+		assertEquals(expect.hashCode(), map.hashCode());
+
+		for (int i = 0; i < unique.length; ++i) {
+			assertEquals(expect.get(unique[i]), map.get(unique[i]));
+			assertEquals(expect.containsKey(unique[i]), map.containsKey(unique[i]));
+		}
+		assertEquals(new Integer(1), map.put(unique[1], new Integer(-1)));
+		assertEquals(new Integer(-1), map.get(unique[1]));
+	}
+
+	/**
+	 * Verify entries can be removed and updated while iterating.
+	 */
+	public void testIteratorRemove() {
+		final ObjectIdMap<Integer> map = new ObjectIdMap<Integer>();
+		for (int i = 0; i < unique.length; ++i)
+			map.put(unique[i], new Integer(i));
+
+		int seen = 0;
+		final Iterator<Map.Entry<ObjectId, Integer>> itr;
+		itr = map.entrySet().iterator();
+		while (itr.hasNext()) {
+			final Map.Entry<ObjectId, Integer> e = itr.next();
+			final int v = e.getValue().intValue();
+			assertSame(unique[v], e.getKey());
+			if (v % 2 == 0)
+				itr.remove();
+			else
+				e.setValue(new Integer(-v));
+			seen++;
+		}
+		assertEquals(unique.length, seen);
+		assertEquals(unique.length / 2, map.size());
+		for (int i = 0; i < unique.length; ++i) {
+			if (i % 2 == 0)
+				assertFalse(map.containsKey(unique[i]));
+			else
+				assertEquals(new Integer(-i), map.get(unique[i]));
+		}
+	}
+
+	/**
+	 * Verify keys are compared by value, and null values are permitted.
+	 */
+	public void testKeysByValue() {
+		final ObjectIdMap<String> map = new ObjectIdMap<String>();
+		map.put(unique[0], null);
+		map.put(unique[1], "b");
+
+		final MutableObjectId m = new MutableObjectId();
+		final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+		unique[1].copyRawTo(raw, 0);
+		m.fromRaw(raw);
+		assertEquals("b", map.get(m));
+		assertTrue(map.containsKey(unique[0].copy()));
+		assertNull(map.get(unique[0]));
+		assertTrue(map.containsValue(null));
+		assertFalse(map.containsKey("not an id"));
+		assertNull(map.get(unique[2]));
+
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertFalse(map.containsKey(unique[1]));
+	}
 }
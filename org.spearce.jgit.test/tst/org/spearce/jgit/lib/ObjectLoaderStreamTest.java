@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.spearce.jgit.revwalk.RevObject;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.transport.IndexPack;
+
+public class ObjectLoaderStreamTest extends RepositoryTestCase {
+	private static final int THRESHOLD = 1024;
+
+	private Random rng;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		rng = new Random(0xcafebabeL);
+		db.getConfig().setString("core", null, "streamfilethreshold",
+				String.valueOf(THRESHOLD));
+		db.getConfig().save();
+		db.getConfig().load();
+	}
+
+	public void testThresholdFromConfig() {
+		assertEquals(THRESHOLD, db.getConfig().getCore()
+				.getStreamFileThreshold());
+	}
+
+	public void testSmallLooseObject() throws IOException {
+		final byte[] data = text(THRESHOLD / 2);
+		final ObjectId id = new ObjectWriter(db).writeBlob(data);
+		final ObjectLoader ldr = db.openBlob(id);
+		assertEquals(data.length, ldr.getSize());
+		assertTrue(Arrays.equals(data, readStream(ldr)));
+		assertTrue(Arrays.equals(data, ldr.getCachedBytes()));
+	}
+
+	public void testLargeLooseObject() throws IOException {
+		final byte[] data = random(64 * 1024);
+		final ObjectId id = new ObjectWriter(db).writeBlob(data);
+		final ObjectLoader ldr = db.openBlob(id);
+		assertEquals(Constants.OBJ_BLOB, ldr.getType());
+		assertEquals(data.length, ldr.getSize());
+		assertTrue(Arrays.equals(data, readStream(ldr)));
+		assertTrue(Arrays.equals(data, readStream(ldr)));
+		assertTrue(Arrays.equals(data, ldr.getCachedBytes()));
+	}
+
+	public void testLargeCompressibleLooseObject() throws IOException {
+		// Compresses below the threshold but inflates above it.
+		final byte[] data = new byte[256 * 1024];
+		Arrays.fill(data, (byte) 'x');
+		final ObjectId id = new ObjectWriter(db).writeBlob(data);
+		final ObjectLoader ldr = db.openBlob(id);
+		assertEquals(data.length, ldr.getSize());
+		assertTrue(Arrays.equals(data, readStream(ldr)));
+	}
+
+	public void testLargePackedObjects() throws IOException {
+		final List<ObjectId> ids = new ArrayList<ObjectId>();
+		final List<byte[]> contents = new ArrayList<byte[]>();
+		final ObjectWriter ow = new ObjectWriter(db);
+		final RevWalk rw = new RevWalk(db);
+		final List<RevObject> objs = new ArrayList<RevObject>();
+		final StringBuilder text = new StringBuilder(new String(text(32 * 1024),
+				"ISO-8859-1"));
+		for (int i = 0; i < 10; i++) {
+			text.insert(rng.nextInt(text.length()), "edit " + i + "\n");
+			final byte[] data = Constants.encode(text.toString());
+			final ObjectId id = ow.writeBlob(data);
+			ids.add(id);
+			contents.add(data);
+			objs.add(rw.parseAny(id));
+		}
+
+		final PackFile pack = writePack(objs);
+		int deltas = 0;
+		for (int i = 0; i < ids.size(); i++) {
+			final PackedObjectLoader ldr = pack.get(ids.get(i));
+			assertNotNull(ldr);
+			if (ldr.getDeltaBase() != null)
+				deltas++;
+			final byte[] data = contents.get(i);
+			assertEquals(Constants.OBJ_BLOB, ldr.getType());
+			assertEquals(data.length, ldr.getSize());
+			assertTrue(Arrays.equals(data, readStream(ldr)));
+		}
+		assertTrue(deltas > 0);
+	}
+
+	public void testDeltaStreamWithBaseInMemory() throws IOException {
+		assertDeltaStream(Integer.MAX_VALUE);
+	}
+
+	public void testDeltaStreamWithSpooledBase() throws IOException {
+		assertDeltaStream(0);
+	}
+
+	public void testDeltaStreamBadBaseLength() throws IOException {
+		final byte[] base = text(4096);
+		final byte[] delta = new DeltaIndex(base).encode(base, 0);
+		try {
+			new DeltaStream(new ByteArrayInputStream(delta), new TestLoader(
+					text(100)), Integer.MAX_VALUE);
+			fail("accepted wrong base");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private void assertDeltaStream(final int threshold) throws IOException {
+		final byte[] base = text(3 * 0x10000 + 17);
+		final byte[] res = new byte[base.length + 300];
+		System.arraycopy(base, 0, res, 0, 70000);
+		System.arraycopy(text(300), 0, res, 70000, 300);
+		System.arraycopy(base, 70000, res, 70300, base.length - 70000);
+
+		final byte[] delta = new DeltaIndex(base).encode(res, 0);
+		final DeltaStream in = new DeltaStream(new ByteArrayInputStream(delta),
+				new TestLoader(base), threshold);
+		assertEquals(res.length, in.getResultSize());
+		assertTrue(Arrays.equals(res, readFully(in)));
+	}
+
+	private PackFile writePack(final List<RevObject> objs) throws IOException {
+		final PackWriter writer = new PackWriter(db, new TextProgressMonitor());
+		writer.setDeltaCompress(true);
+		writer.setThreads(1);
+		writer.preparePack(objs.iterator());
+		final ByteArrayOutputStream os = new ByteArrayOutputStream();
+		writer.writePack(os);
+
+		final File packBase = new File(trash, "tmp_stream");
+		final IndexPack indexer = new IndexPack(db, new ByteArrayInputStream(os
+				.toByteArray()), packBase);
+		indexer.index(new TextProgressMonitor());
+		return new PackFile(db, new File(trash, "tmp_stream.idx"), new File(
+				trash, "tmp_stream.pack"));
+	}
+
+	private static byte[] readStream(final ObjectLoader ldr)
+			throws IOException {
+		return readFully(ldr.openStream());
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		try {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buf = new byte[1000];
+			int n;
+			while ((n = in.read(buf)) > 0)
+				out.write(buf, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private byte[] text(final int len) {
+		final byte[] r = new byte[len];
+		for (int i = 0; i < len; i++)
+			r[i] = (byte) ('a' + rng.nextInt(26));
+		return r;
+	}
+
+	private byte[] random(final int len) {
+		final byte[] r = new byte[len];
+		rng.nextBytes(r);
+		return r;
+	}
+
+	private static class TestLoader extends ObjectLoader {
+		private final byte[] data;
+
+		TestLoader(final byte[] d) {
+			data = d;
+		}
+
+		public int getType() {
+			return Constants.OBJ_BLOB;
+		}
+
+		public long getSize() {
+			return data.length;
+		}
+
+		@Override
+		public byte[] getCachedBytes() {
+			return data;
+		}
+
+		@Override
+		public int getRawType() {
+			return Constants.OBJ_BLOB;
+		}
+
+		@Override
+		public long getRawSize() {
+			return data.length;
+		}
+	}
+}
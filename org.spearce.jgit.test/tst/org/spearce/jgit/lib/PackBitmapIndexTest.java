@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.spearce.jgit.revwalk.ObjectWalk;
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevObject;
+import org.spearce.jgit.transport.PackedObjectInfo;
+import org.spearce.jgit.util.EWAHBitmap;
+
+public class PackBitmapIndexTest extends RepositoryTestCase {
+	private List<ObjectId> tips;
+
+	private File idxFile;
+
+	private PackFile pack;
+
+	private int bitmapCnt;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		tips = new ArrayList<ObjectId>();
+		for (final Ref r : db.getAllRefs().values())
+			tips.add(r.getObjectId());
+
+		// Repack the entire history into a single pack with bitmaps.
+		final PackWriter pw = new PackWriter(db, NullProgressMonitor.INSTANCE);
+		pw.setUseBitmaps(false);
+		pw.preparePack(tips, Collections.<ObjectId> emptyList(), false, false);
+		final String name = "pack-" + pw.computeName().name();
+		final File dir = new File(db.getObjectsDirectory(), "pack");
+		final File packFile = new File(dir, name + ".pack");
+		idxFile = new File(dir, name + ".idx");
+
+		OutputStream os = new FileOutputStream(packFile);
+		try {
+			pw.writePack(os);
+		} finally {
+			os.close();
+		}
+		os = new FileOutputStream(idxFile);
+		try {
+			pw.writeIndex(os);
+		} finally {
+			os.close();
+		}
+		os = new FileOutputStream(PackFile.bitmapIndexFile(idxFile));
+		try {
+			bitmapCnt = pw.writeBitmapIndex(os);
+		} finally {
+			os.close();
+		}
+		db.openPack(packFile, idxFile);
+		pack = db.getPacks()[0];
+	}
+
+	public void testBitmapsWritten() {
+		assertTrue(bitmapCnt > 0);
+		assertNotNull(pack.getBitmapIndex());
+	}
+
+	public void testBitmapOfTip() throws IOException {
+		final PackBitmapIndex bitmaps = pack.getBitmapIndex();
+		final ObjectWalk ow = new ObjectWalk(db);
+		final RevCommit head = ow.parseCommit(db.resolve("master"));
+		final EWAHBitmap b = bitmaps.getBitmap(head);
+		assertNotNull(b);
+
+		ow.markStart(head);
+		int cnt = 0;
+		RevObject o;
+		while ((o = ow.next()) != null) {
+			assertBit(bitmaps, b, o);
+			cnt++;
+		}
+		while ((o = ow.nextObject()) != null) {
+			assertBit(bitmaps, b, o);
+			cnt++;
+		}
+		assertEquals(cnt, b.cardinality());
+	}
+
+	public void testCountObjectsWithBitmaps() throws IOException {
+		final List<ObjectId> none = Collections.<ObjectId> emptyList();
+		assertEquals(countObjects(tips, none, false), countObjects(tips, none,
+				true));
+	}
+
+	public void testCountObjectsWithBitmapsAndHaves() throws IOException {
+		// The walk may include some objects the other side has; the bitmaps
+		// give exactly the difference of the two closures.
+		final List<ObjectId> have = new ArrayList<ObjectId>();
+		have.add(db.resolve("master^^"));
+		final ObjectIdSubclassMap<ObjectId> had = new ObjectIdSubclassMap<ObjectId>();
+		for (final RevObject o : reachable(have))
+			had.add(o);
+		final List<RevObject> expect = new ArrayList<RevObject>();
+		for (final RevObject o : reachable(tips))
+			if (had.get(o) == null)
+				expect.add(o);
+
+		final PackWriter pw = new PackWriter(db, NullProgressMonitor.INSTANCE);
+		pw.preparePack(expect.iterator());
+		assertEquals(pw.computeName(), countObjects(tips, have, true));
+	}
+
+	public void testWrongPackChecksum() throws IOException {
+		final File other = new File(trash, "other.bitmap");
+		final OutputStream os = new FileOutputStream(other);
+		try {
+			new PackBitmapIndexWriter(db).write(os,
+					new ArrayList<PackedObjectInfo>(),
+					new byte[Constants.OBJECT_ID_LENGTH], tips);
+		} finally {
+			os.close();
+		}
+		final PackIndex idx = PackIndex.open(idxFile);
+		try {
+			PackBitmapIndex.open(other, idx, new PackReverseIndex(idx));
+			fail("accepted bitmap index of another pack");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testMissingFile() throws IOException {
+		final PackIndex idx = PackIndex.open(idxFile);
+		assertNull(PackBitmapIndex.open(new File(trash, "none.bitmap"), idx,
+				new PackReverseIndex(idx)));
+	}
+
+	private static void assertBit(final PackBitmapIndex bitmaps,
+			final EWAHBitmap b, final RevObject o) {
+		final int pos = bitmaps.findPosition(o);
+		assertTrue(pos >= 0);
+		assertTrue(b.get(pos));
+		assertEquals(o.getType(), bitmaps.getType(pos));
+		assertEquals(o.name(), bitmaps.getObject(pos).name());
+	}
+
+	private List<RevObject> reachable(final List<ObjectId> starts)
+			throws IOException {
+		final ObjectWalk ow = new ObjectWalk(db);
+		for (final ObjectId id : starts)
+			ow.markStart(ow.parseAny(id));
+		final List<RevObject> r = new ArrayList<RevObject>();
+		RevObject o;
+		while ((o = ow.next()) != null)
+			r.add(o);
+		while ((o = ow.nextObject()) != null)
+			r.add(o);
+		return r;
+	}
+
+	private ObjectId countObjects(final List<ObjectId> want,
+			final List<ObjectId> have, final boolean useBitmaps)
+			throws IOException {
+		final PackWriter pw = new PackWriter(db, NullProgressMonitor.INSTANCE);
+		pw.setUseBitmaps(useBitmaps);
+		pw.preparePack(want, have, false, false);
+		return pw.computeName();
+	}
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.spearce.jgit.lib.PackIndex.MutableEntry;
+import org.spearce.jgit.util.JGitTestUtil;
+
+public class PackIndexV2MappedTest extends PackIndexV2Test {
+	public void setUp() throws Exception {
+		super.setUp();
+		smallIdx = PackIndex.open(getFileForPack34be9032(), true);
+		denseIdx = PackIndex.open(getFileForPackdf2982f28(), true);
+	}
+
+	public void testIsMapped() {
+		assertTrue(smallIdx instanceof PackIndexV2Mapped);
+		assertTrue(denseIdx instanceof PackIndexV2Mapped);
+	}
+
+	public void testMatchesHeapIndex() throws Exception {
+		assertSameContent(PackIndex.open(getFileForPackdf2982f28()), denseIdx);
+	}
+
+	public void testHugeOffsets() throws Exception {
+		// index with both small (< 2^31) and big offsets
+		final PackIndex heap = PackIndex.open(JGitTestUtil
+				.getTestResourceFile("pack-huge.idx"));
+		final PackIndex mapped = PackIndex.open(JGitTestUtil
+				.getTestResourceFile("pack-huge.idx"), true);
+		assertTrue(mapped instanceof PackIndexV2Mapped);
+		assertTrue(mapped.getOffset64Count() > 0);
+		assertSameContent(heap, mapped);
+	}
+
+	public void testSelectedByRepositoryConfig() throws Exception {
+		db.getConfig().setString("core", null, "packedindexmmap", "true");
+		db.getConfig().save();
+		db.getConfig().load();
+		assertTrue(db.getConfig().getCore().isPackedIndexMmap());
+
+		final String name = "pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f";
+		final PackFile pack = new PackFile(db, getFileForPack34be9032(),
+				JGitTestUtil.getTestResourceFile(name + ".pack"));
+		final ObjectId id = ObjectId
+				.fromString("902d5476fa249b7abc9d84c611577a81381f0327");
+		final PackedObjectLoader ldr = pack.get(id);
+		assertNotNull(ldr);
+		assertEquals(Constants.OBJ_TREE, ldr.getType());
+		assertEquals(7738, ldr.getDataOffset());
+		pack.close();
+	}
+
+	public void testMissingObject() {
+		final ObjectId id = ObjectId
+				.fromString("0000000000000000000000000000000000000001");
+		assertFalse(denseIdx.hasObject(id));
+		assertEquals(-1, denseIdx.findOffset(id));
+	}
+
+	private static void assertSameContent(final PackIndex heap,
+			final PackIndex mapped) throws Exception {
+		assertEquals(heap.getObjectCount(), mapped.getObjectCount());
+		assertEquals(heap.getOffset64Count(), mapped.getOffset64Count());
+		assertTrue(Arrays.equals(heap.getPackChecksum(), mapped
+				.getPackChecksum()));
+
+		final Iterator<MutableEntry> hi = heap.iterator();
+		final Iterator<MutableEntry> mi = mapped.iterator();
+		long nth = 0;
+		while (hi.hasNext()) {
+			assertTrue(mi.hasNext());
+			final MutableEntry h = hi.next();
+			final MutableEntry m = mi.next();
+			assertEquals(h.toObjectId(), m.toObjectId());
+			assertEquals(h.getOffset(), m.getOffset());
+			assertEquals(h.toObjectId(), mapped.getObjectId(nth));
+			assertEquals(h.getOffset(), mapped.getOffset(nth));
+			assertEquals(h.getOffset(), mapped.findOffset(h));
+			assertEquals(heap.findCRC32(h), mapped.findCRC32(h));
+			nth++;
+		}
+		assertFalse(mi.hasNext());
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.spearce.jgit.errors.CorruptObjectException;
+import org.spearce.jgit.lib.PackIndex.MutableEntry;
+import org.spearce.jgit.transport.IndexPack;
+import org.spearce.jgit.transport.PackedObjectInfo;
+import org.spearce.jgit.util.JGitTestUtil;
+
+public class PackReverseIndexFileTest extends RepositoryTestCase {
+	private PackIndex idx;
+
+	private File revFile;
+
+	private PackReverseIndex reverseIdx;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		// index with both small (< 2^31) and big offsets
+		idx = PackIndex.open(JGitTestUtil.getTestResourceFile("pack-huge.idx"));
+		revFile = new File(trash, "pack-huge.rev");
+		writeRev(revFile, idx, idx.getPackChecksum());
+		reverseIdx = PackReverseIndex.open(revFile, idx);
+		assertNotNull(reverseIdx);
+	}
+
+	public void testFileLength() {
+		assertEquals(12 + 4 * idx.getObjectCount() + 40, revFile.length());
+	}
+
+	public void testFindObject() {
+		for (MutableEntry me : idx)
+			assertEquals(me.toObjectId(), reverseIdx.findObject(me.getOffset()));
+	}
+
+	public void testFindObjectWrongOffset() {
+		assertNull(reverseIdx.findObject(0));
+	}
+
+	public void testFindNextOffset() throws CorruptObjectException {
+		final PackReverseIndex computed = new PackReverseIndex(idx);
+		for (MutableEntry me : idx) {
+			final long o = me.getOffset();
+			assertEquals(computed.findNextOffset(o, Long.MAX_VALUE),
+					reverseIdx.findNextOffset(o, Long.MAX_VALUE));
+		}
+	}
+
+	public void testFindNextOffsetWrongOffset() {
+		try {
+			reverseIdx.findNextOffset(0, Long.MAX_VALUE);
+			fail("findNextOffset() should throw exception");
+		} catch (CorruptObjectException x) {
+			// expected
+		}
+	}
+
+	public void testMissingFile() throws IOException {
+		assertNull(PackReverseIndex.open(new File(trash, "none.rev"), idx));
+	}
+
+	public void testWrongPackChecksum() throws IOException {
+		final byte[] other = new byte[Constants.OBJECT_ID_LENGTH];
+		final File otherRev = new File(trash, "other.rev");
+		writeRev(otherRev, idx, other);
+		try {
+			PackReverseIndex.open(otherRev, idx);
+			fail("accepted reverse index of another pack");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testWrongLength() throws IOException {
+		final File small = new File(trash, "small.rev");
+		final FileOutputStream os = new FileOutputStream(small);
+		try {
+			os.write(PackReverseIndexWriter.SIGNATURE);
+		} finally {
+			os.close();
+		}
+		try {
+			PackReverseIndex.open(small, idx);
+			fail("accepted truncated reverse index");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	public void testIndexPackWritesReverseIndex() throws IOException {
+		final File packFile = JGitTestUtil.getTestResourceFile(
+				"pack-df2982f284bbabb6bdb59ee3fcc6eb0983e20371.pack");
+		final InputStream is = new FileInputStream(packFile);
+		try {
+			final IndexPack ip = new IndexPack(db, is, new File(trash,
+					"tmp_rev"));
+			ip.setWriteReverseIndex(true);
+			ip.index(new TextProgressMonitor());
+		} finally {
+			is.close();
+		}
+
+		final File idxFile = new File(trash, "tmp_rev.idx");
+		final File rev = PackFile.reverseIndexFile(idxFile);
+		assertEquals(new File(trash, "tmp_rev.rev"), rev);
+		assertTrue(rev.exists());
+
+		final PackIndex packIdx = PackIndex.open(idxFile);
+		final PackReverseIndex mapped = PackReverseIndex.open(rev, packIdx);
+		assertNotNull(mapped);
+		final PackReverseIndex computed = new PackReverseIndex(packIdx);
+		for (MutableEntry me : packIdx) {
+			final long o = me.getOffset();
+			assertEquals(me.toObjectId(), mapped.findObject(o));
+			assertEquals(computed.findNextOffset(o, Long.MAX_VALUE), mapped
+					.findNextOffset(o, Long.MAX_VALUE));
+		}
+	}
+
+	private static void writeRev(final File dst, final PackIndex index,
+			final byte[] packChecksum) throws IOException {
+		final List<PackedObjectInfo> list = new ArrayList<PackedObjectInfo>();
+		for (MutableEntry me : index) {
+			final PackedObjectInfo oe = new PackedObjectInfo(me.toObjectId());
+			oe.setOffset(me.getOffset());
+			list.add(oe);
+		}
+
+		final FileOutputStream os = new FileOutputStream(dst);
+		try {
+			new PackReverseIndexWriter(os).write(list, packChecksum);
+		} finally {
+			os.close();
+		}
+	}
+}
@@ -351,8 +351,98 @@ public void testWritePack4SizeThinVsNoThin() throws Exception {
 		assertTrue(sizePack4 > sizePack4Thin);
 	}
 
+	/**
+	 * Write similar loose blobs with delta search enabled, and verify the
+	 * computed deltas are valid and make the pack smaller.
+	 *
+	 * @throws Exception
+	 */
+	public void testWritePackDeltaCompress() throws Exception {
+		List<RevObject> blobs = writeSimilarBlobs(40);
+		writer.setDeltaCompress(false);
+		createVerifyOpenPack(blobs.iterator());
+		final int sizeNoDeltas = cos.getCount();
+		verifyObjectsContent(blobs);
+
+		setUp();
+		blobs = writeSimilarBlobs(40);
+		writer.setDeltaCompress(true);
+		writer.setThreads(1);
+		createVerifyOpenPack(blobs.iterator());
+		final int sizeDeltas = cos.getCount();
+		verifyObjectsContent(blobs);
+
+		assertTrue(sizeNoDeltas / 4 > sizeDeltas);
+	}
+
+	/**
+	 * Delta search using several threads, with delta bases written as
+	 * offsets.
+	 *
+	 * @throws Exception
+	 */
+	public void testWritePackDeltaCompressThreads() throws Exception {
+		final List<RevObject> blobs = writeSimilarBlobs(40);
+		writer.setDeltaCompress(true);
+		writer.setDeltaBaseAsOffset(true);
+		writer.setThreads(4);
+		createVerifyOpenPack(blobs.iterator());
+		verifyObjectsContent(blobs);
+	}
+
+	/**
+	 * Computed delta chains must not exceed the configured depth.
+	 *
+	 * @throws Exception
+	 */
+	public void testWritePackDeltaCompressDepth() throws Exception {
+		final List<RevObject> blobs = writeSimilarBlobs(20);
+		writer.setDeltaCompress(true);
+		writer.setMaxDeltaDepth(2);
+		writer.setThreads(1);
+		createVerifyOpenPack(blobs.iterator());
+		verifyObjectsContent(blobs);
+
+		int deltas = 0;
+		for (final RevObject o : blobs) {
+			final PackedObjectLoader ldr = pack.get(o);
+			if (ldr.getDeltaBase() != null) {
+				deltas++;
+				final PackedObjectLoader base = pack.get(ldr.getDeltaBase());
+				if (base.getDeltaBase() != null)
+					assertNull(pack.get(base.getDeltaBase()).getDeltaBase());
+			}
+		}
+		assertTrue(deltas > 0);
+	}
+
 	// TODO: testWritePackDeltasCycle()
-	// TODO: testWritePackDeltasDepth()
+
+	private List<RevObject> writeSimilarBlobs(final int cnt)
+			throws IOException {
+		final ObjectWriter ow = new ObjectWriter(db);
+		final RevWalk rw = new RevWalk(db);
+		final List<RevObject> blobs = new ArrayList<RevObject>();
+		final StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 200; i++)
+			text.append("line " + i + " of some moderately long content\n");
+		for (int i = 0; i < cnt; i++) {
+			text.insert(text.length() / 2, "edit " + i + "\n");
+			final ObjectId id = ow.writeBlob(Constants.encode(text.toString()));
+			blobs.add(rw.parseAny(id));
+		}
+		return blobs;
+	}
+
+	private void verifyObjectsContent(final List<RevObject> objs)
+			throws IOException {
+		for (final RevObject o : objs) {
+			final PackedObjectLoader ldr = pack.get(o);
+			assertNotNull(ldr);
+			assertTrue(Arrays.equals(db.openObject(o).getCachedBytes(), ldr
+					.getCachedBytes()));
+		}
+	}
 
 	private void writeVerifyPack1() throws IOException {
 		final LinkedList<ObjectId> interestings = new LinkedList<ObjectId>();
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.security.MessageDigest;
+
+public class PackedObjectFilterTest extends RepositoryTestCase {
+	public void testContainsAllPackedObjects() {
+		final PackFile[] packs = db.getPacks();
+		final PackedObjectFilter f = new PackedObjectFilter(packs);
+		assertTrue(f.isFor(packs));
+		assertFalse(f.isFor(db.getPacks()));
+
+		int cnt = 0;
+		for (final PackFile p : packs) {
+			for (final PackIndex.MutableEntry e : p) {
+				assertTrue(f.mightContain(e));
+				cnt++;
+			}
+		}
+		assertTrue(cnt > 0);
+	}
+
+	public void testRejectsMostMissingObjects() {
+		final PackedObjectFilter f = new PackedObjectFilter(db.getPacks());
+		final ObjectId[] missing = missing(10000);
+		int hits = 0;
+		for (final ObjectId id : missing) {
+			if (f.mightContain(id))
+				hits++;
+		}
+		assertTrue("false positives: " + hits, hits < missing.length / 50);
+	}
+
+	public void testEmpty() {
+		final PackedObjectFilter f = new PackedObjectFilter(new PackFile[0]);
+		assertFalse(f.mightContain(missing(1)[0]));
+	}
+
+	public void testRepositoryLookupsAfterFilter() throws Exception {
+		assertTrue(db.getPacks().length >= 2);
+		for (final ObjectId id : missing(1000)) {
+			assertFalse(db.hasObject(id));
+			assertNull(db.openObject(id));
+		}
+
+		for (final PackFile p : db.getPacks()) {
+			for (final PackIndex.MutableEntry e : p) {
+				assertTrue(db.hasObject(e));
+				assertNotNull(db.openObject(e));
+			}
+		}
+
+		final ObjectId loose = new ObjectWriter(db).writeBlob(Constants
+				.encode("not in any pack"));
+		assertTrue(db.hasObject(loose));
+		assertNotNull(db.openObject(loose));
+	}
+
+	private static ObjectId[] missing(final int cnt) {
+		final MessageDigest md = Constants.newMessageDigest();
+		final ObjectId[] r = new ObjectId[cnt];
+		for (int i = 0; i < cnt; i++) {
+			md.update(Constants.encode("missing " + i));
+			r[i] = ObjectId.fromRaw(md.digest());
+		}
+		return r;
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+public class PackedRefsTest extends RepositoryTestCase {
+	private static final String ID_A = "6db9c2ebf75590eef973081736730a9ea169a0c4";
+
+	private static final String ID_B = "7f822839a2fe9760f386cbbbcb3f92c5fe81def7";
+
+	private static final String ID_P = "d86a2aada2f5e7ccf6f11880bfb9ab404e8a8864";
+
+	private static final String SORTED = "# pack-refs with: peeled sorted\n"
+			+ ID_A + " refs/heads/a\n" //
+			+ ID_B + " refs/heads/a/b\n" //
+			+ ID_B + " refs/heads/ab\n" //
+			+ ID_A + " refs/heads/master\n" //
+			+ ID_B + " refs/tags/v1\n" //
+			+ "^" + ID_P + "\n" //
+			+ ID_A + " refs/tags/v2\n" //
+			+ ID_B + " refs/tags/v3\n" //
+			+ "^" + ID_P + "\n";
+
+	public void testLookupHeap() throws IOException {
+		assertLookups(open(SORTED, false));
+	}
+
+	public void testLookupMmap() throws IOException {
+		assertLookups(open(SORTED, true));
+	}
+
+	public void testLookupWithoutTrailer() throws IOException {
+		// Older files have no header line, and may omit the last LF.
+		//
+		final String txt = SORTED.substring(SORTED.indexOf('\n') + 1);
+		assertLookups(open(txt.substring(0, txt.length() - 1), false));
+	}
+
+	public void testUnsortedFile() throws IOException {
+		final PackedRefs p = open(ID_A + " refs/heads/z\n" //
+				+ ID_B + " refs/heads/a\n" //
+				+ ID_A + " refs/tags/t\n" //
+				+ "^" + ID_P + "\n", false);
+		assertEquals(ID_A, p.get("refs/heads/z").getObjectId().name());
+		assertEquals(ID_B, p.get("refs/heads/a").getObjectId().name());
+		assertEquals(ID_P, p.get("refs/tags/t").getPeeledObjectId().name());
+		assertNull(p.get("refs/heads/m"));
+		final List<Ref> heads = p.getRefs(Constants.R_HEADS);
+		assertEquals(2, heads.size());
+		assertEquals("refs/heads/a", heads.get(0).getName());
+		assertEquals("refs/heads/z", heads.get(1).getName());
+	}
+
+	public void testEmpty() {
+		assertNull(PackedRefs.EMPTY.get("refs/heads/master"));
+		assertTrue(PackedRefs.EMPTY.getRefs("").isEmpty());
+		assertTrue(PackedRefs.EMPTY.getAll().isEmpty());
+	}
+
+	public void testRepositoryTags() {
+		// The test repository's packed-refs file is not sorted.
+		//
+		final Ref b = db.getTags().get("B");
+		assertNotNull(b);
+		assertEquals(ID_P, b.getPeeledObjectId().name());
+		assertEquals(Ref.Storage.PACKED, b.getStorage());
+	}
+
+	private static void assertLookups(final PackedRefs p) {
+		for (final String n : new String[] { "refs/heads/a", "refs/heads/a/b",
+				"refs/heads/ab", "refs/heads/master", "refs/tags/v1",
+				"refs/tags/v2", "refs/tags/v3" }) {
+			final Ref r = p.get(n);
+			assertNotNull(n, r);
+			assertEquals(n, r.getName());
+			assertEquals(Ref.Storage.PACKED, r.getStorage());
+			assertSame(r, p.get(n));
+		}
+		assertEquals(ID_B, p.get("refs/heads/a/b").getObjectId().name());
+		assertNull(p.get("refs/heads/a").getPeeledObjectId());
+		assertEquals(ID_P, p.get("refs/tags/v1").getPeeledObjectId().name());
+		assertEquals(ID_A, p.get("refs/tags/v2").getObjectId().name());
+		assertNull(p.get("refs/tags/v2").getPeeledObjectId());
+		assertEquals(ID_P, p.get("refs/tags/v3").getPeeledObjectId().name());
+
+		assertNull(p.get("refs/heads/"));
+		assertNull(p.get("refs/heads/aa"));
+		assertNull(p.get("refs/heads/zzz"));
+		assertNull(p.get("refs/tags/v"));
+		assertNull(p.get("HEAD"));
+
+		final List<Ref> heads = p.getRefs(Constants.R_HEADS);
+		assertEquals(4, heads.size());
+		assertEquals("refs/heads/a", heads.get(0).getName());
+		assertEquals("refs/heads/master", heads.get(3).getName());
+		assertSame(p.get("refs/heads/master"), heads.get(3));
+
+		final List<Ref> tags = p.getRefs(Constants.R_TAGS);
+		assertEquals(3, tags.size());
+		assertEquals("refs/tags/v1", tags.get(0).getName());
+		assertEquals("refs/tags/v3", tags.get(2).getName());
+
+		assertEquals(0, p.getRefs("refs/remotes/").size());
+		assertEquals(7, p.getRefs("").size());
+		assertEquals(7, p.getAll().size());
+		assertSame(p.get("refs/tags/v2"), p.getAll().get("refs/tags/v2"));
+	}
+
+	private PackedRefs open(final String content, final boolean mmap)
+			throws IOException {
+		final File f = new File(trash, "packed-refs-test");
+		final FileOutputStream out = new FileOutputStream(f);
+		try {
+			out.write(Constants.encode(content));
+		} finally {
+			out.close();
+		}
+		return PackedRefs.open(f, mmap);
+	}
+}
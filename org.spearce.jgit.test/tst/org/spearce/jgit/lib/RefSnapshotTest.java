@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class RefSnapshotTest extends RepositoryTestCase {
+	public void testUnchangedSnapshotIsReused() {
+		final RefSnapshot s1 = db.getRefSnapshot();
+		final RefSnapshot s2 = db.getRefSnapshot();
+		assertSame(s1.getRefs(), s2.getRefs());
+		assertEquals(s1.getVersion(), s2.getVersion());
+		assertFalse(db.refsChangedSince(s1));
+		assertTrue(s1.getRefs().containsKey("refs/heads/master"));
+		assertTrue(s1.getRefs().containsKey(Constants.HEAD));
+	}
+
+	public void testSnapshotIsUnmodifiable() {
+		try {
+			db.getAllRefs().remove("refs/heads/master");
+			fail("ref map can be modified");
+		} catch (UnsupportedOperationException e) {
+			// Expected.
+		}
+	}
+
+	public void testUpdateMarksSnapshotModified() throws IOException {
+		final RefSnapshot s1 = db.getRefSnapshot();
+		final RefUpdate u = db.updateRef("refs/heads/new");
+		u.setNewObjectId(db.resolve("refs/heads/master"));
+		assertEquals(RefUpdate.Result.NEW, u.update());
+		assertTrue(db.refsChangedSince(s1));
+
+		final RefSnapshot s2 = db.getRefSnapshot();
+		assertFalse(db.refsChangedSince(s2));
+		assertTrue(s2.getVersion() != s1.getVersion());
+		assertTrue(s2.getRefs().containsKey("refs/heads/new"));
+		assertFalse(s1.getRefs().containsKey("refs/heads/new"));
+	}
+
+	public void testUnchangedDirectoriesAreReused() throws IOException {
+		backdate(new File(db.getDirectory(), "refs"));
+		final RefSnapshot s1 = db.getRefSnapshot();
+		assertSame(s1, db.getRefSnapshot());
+
+		// A ref created by another process is noticed through the
+		// changed modification time of its directory.
+		//
+		final File tagsDir = new File(db.getDirectory(), "refs/tags");
+		final File t = new File(tagsDir, "external");
+		final String id = db.resolve("refs/heads/master").name();
+		final FileOutputStream out = new FileOutputStream(t);
+		try {
+			out.write(Constants.encode(id + "\n"));
+		} finally {
+			out.close();
+		}
+		assertTrue(t.isFile());
+		tagsDir.setLastModified(System.currentTimeMillis());
+
+		final RefSnapshot s2 = db.getRefSnapshot();
+		assertTrue(db.refsChangedSince(s1));
+		assertEquals(id, s2.getRefs().get("refs/tags/external").getObjectId()
+				.name());
+		assertSame(s1.getRefs().get("refs/heads/master"), s2.getRefs().get(
+				"refs/heads/master"));
+	}
+
+	private static void backdate(final File dir) {
+		final File[] list = dir.listFiles();
+		if (list != null) {
+			for (final File f : list)
+				backdate(f);
+		}
+		dir.setLastModified(dir.lastModified() - 10000);
+	}
+}
@@ -124,6 +124,30 @@ public void testDeleteEmptyDirs() throws IOException {
 		assertExists(false, Constants.LOGS + "/" + top);
 	}
 
+	public void testUpdateExpectedOldId() throws IOException {
+		final RefUpdate ref = updateRef("refs/heads/b");
+		ref.setExpectedOldObjectId(db.resolve("refs/heads/a"));
+		assertEquals(Result.LOCK_FAILURE, ref.forceUpdate());
+		assertEquals(db.resolve("refs/heads/b"), ref.getOldObjectId());
+
+		final ObjectId old = db.resolve("refs/heads/b");
+		final RefUpdate ok = updateRef("refs/heads/b");
+		ok.setExpectedOldObjectId(old);
+		assertTrue(ok.forceUpdate() != Result.LOCK_FAILURE);
+		assertEquals(old, ok.getOldObjectId());
+		assertEquals(db.resolve(Constants.HEAD), db.resolve("refs/heads/b"));
+	}
+
+	public void testCreateExpectedMissing() throws IOException {
+		final RefUpdate ref = updateRef("refs/heads/b");
+		ref.setExpectedOldObjectId(ObjectId.zeroId());
+		assertEquals(Result.LOCK_FAILURE, ref.update());
+
+		final RefUpdate create = updateRef("refs/heads/xyz");
+		create.setExpectedOldObjectId(ObjectId.zeroId());
+		assertEquals(Result.NEW, create.update());
+	}
+
 	private void assertExists(final boolean expected, final String name) {
 		assertEquals(expected, new File(db.getDirectory(), name).exists());
 	}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class UnpackedObjectCacheTest extends TestCase {
+	private static final int LIMIT = 4000;
+
+	private WindowedFile fileA;
+
+	private WindowedFile fileB;
+
+	protected void setUp() throws Exception {
+		super.setUp();
+		fileA = new WindowedFile(new File("a.pack"));
+		fileB = new WindowedFile(new File("b.pack"));
+		UnpackedObjectCache.reconfigure(LIMIT, 64);
+	}
+
+	protected void tearDown() throws Exception {
+		UnpackedObjectCache.purge(fileA);
+		UnpackedObjectCache.purge(fileB);
+		UnpackedObjectCache.reconfigure(10 * 1024 * 1024,
+				UnpackedObjectCache.DEFAULT_SLOTS);
+		super.tearDown();
+	}
+
+	public void testHitAndMiss() {
+		final CacheStatistics before = stats();
+		assertNull(UnpackedObjectCache.get(fileA, 12));
+
+		final byte[] data = new byte[100];
+		UnpackedObjectCache.store(fileA, 12, data, Constants.OBJ_BLOB);
+		final UnpackedObjectCache.Entry e = UnpackedObjectCache.get(fileA, 12);
+		assertNotNull(e);
+		assertSame(data, e.data);
+		assertEquals(Constants.OBJ_BLOB, e.type);
+		assertNull(UnpackedObjectCache.get(fileB, 12));
+
+		final CacheStatistics after = stats();
+		assertEquals(1, after.getHitCount() - before.getHitCount());
+		assertEquals(2, after.getMissCount() - before.getMissCount());
+		assertEquals(100, after.getOpenByteCount());
+		assertEquals(1, after.getEntryCount());
+	}
+
+	public void testReplace() {
+		UnpackedObjectCache.store(fileA, 1, new byte[100], Constants.OBJ_BLOB);
+		UnpackedObjectCache.store(fileA, 1, new byte[300], Constants.OBJ_TREE);
+		assertEquals(Constants.OBJ_TREE, UnpackedObjectCache.get(fileA, 1).type);
+		assertEquals(300, stats().getOpenByteCount());
+		assertEquals(1, stats().getEntryCount());
+	}
+
+	public void testTooLargeNotAdmitted() {
+		UnpackedObjectCache.store(fileA, 1, new byte[LIMIT / 4 + 1],
+				Constants.OBJ_BLOB);
+		assertNull(UnpackedObjectCache.get(fileA, 1));
+		assertEquals(0, stats().getOpenByteCount());
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		final long evicted = stats().getEvictionCount();
+		for (int i = 0; i < 8; i++)
+			UnpackedObjectCache.store(fileA, i, new byte[500],
+					Constants.OBJ_BLOB);
+		assertEquals(LIMIT, stats().getOpenByteCount());
+
+		// Touch the oldest entry so the second oldest becomes the victim.
+		assertNotNull(UnpackedObjectCache.get(fileA, 0));
+		UnpackedObjectCache.store(fileA, 8, new byte[500], Constants.OBJ_BLOB);
+
+		assertEquals(LIMIT, stats().getOpenByteCount());
+		assertEquals(1, stats().getEvictionCount() - evicted);
+		assertNotNull(UnpackedObjectCache.get(fileA, 0));
+		assertNull(UnpackedObjectCache.get(fileA, 1));
+		assertNotNull(UnpackedObjectCache.get(fileA, 8));
+	}
+
+	public void testShrinkLimit() {
+		for (int i = 0; i < 8; i++)
+			UnpackedObjectCache.store(fileA, i, new byte[500],
+					Constants.OBJ_BLOB);
+		UnpackedObjectCache.reconfigure(1000);
+		assertTrue(stats().getOpenByteCount() <= 1000);
+		assertNotNull(UnpackedObjectCache.get(fileA, 7));
+	}
+
+	public void testPurge() {
+		UnpackedObjectCache.store(fileA, 1, new byte[10], Constants.OBJ_BLOB);
+		UnpackedObjectCache.store(fileB, 1, new byte[20], Constants.OBJ_BLOB);
+		UnpackedObjectCache.purge(fileA);
+		assertNull(UnpackedObjectCache.get(fileA, 1));
+		assertNotNull(UnpackedObjectCache.get(fileB, 1));
+		assertEquals(20, stats().getOpenByteCount());
+	}
+
+	public void testSameSlotCountKeepsEntries() {
+		UnpackedObjectCache.store(fileA, 1, new byte[10], Constants.OBJ_BLOB);
+		UnpackedObjectCache.reconfigure(LIMIT, 64);
+		assertNotNull(UnpackedObjectCache.get(fileA, 1));
+
+		UnpackedObjectCache.reconfigure(LIMIT, 128);
+		assertNull(UnpackedObjectCache.get(fileA, 1));
+	}
+
+	public void testWindowCacheReconfigureKeepsSlots() {
+		UnpackedObjectCache.store(fileA, 1, new byte[10], Constants.OBJ_BLOB);
+		WindowCache.reconfigure(10 * 1024 * 1024, 8 * 1024, false, LIMIT);
+		assertNotNull(UnpackedObjectCache.get(fileA, 1));
+
+		// The slot count set by setUp() is still in effect.
+		UnpackedObjectCache.reconfigure(LIMIT, 64);
+		assertNotNull(UnpackedObjectCache.get(fileA, 1));
+	}
+
+	public void testConcurrentAccess() throws Exception {
+		final int threads = 8;
+		final List<Throwable> errors = new ArrayList<Throwable>();
+		final Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final WindowedFile f = (t & 1) == 0 ? fileA : fileB;
+			final int seed = t;
+			workers[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < 5000; i++) {
+							final long pos = (i * 7 + seed) % 97;
+							final UnpackedObjectCache.Entry e;
+							e = UnpackedObjectCache.get(f, pos);
+							if (e == null)
+								UnpackedObjectCache.store(f, pos,
+										new byte[(int) pos + 1],
+										Constants.OBJ_BLOB);
+							else if (e.data.length != pos + 1)
+								throw new AssertionError("wrong data at "
+										+ pos);
+						}
+					} catch (Throwable err) {
+						synchronized (errors) {
+							errors.add(err);
+						}
+					}
+				}
+			};
+		}
+		for (final Thread w : workers)
+			w.start();
+		for (final Thread w : workers)
+			w.join();
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		final CacheStatistics s = stats();
+		assertTrue(s.getOpenByteCount() <= LIMIT);
+		assertTrue(s.getHitCount() > 0);
+	}
+
+	private static CacheStatistics stats() {
+		return WindowCache.getDeltaBaseCacheStatistics();
+	}
+}
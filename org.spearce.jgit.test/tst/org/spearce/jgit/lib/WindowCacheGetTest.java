@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.spearce.jgit.lib.PackIndex.MutableEntry;
+
+public class WindowCacheGetTest extends RepositoryTestCase {
+	private List<ObjectId> toLoad;
+
+	private List<byte[]> expect;
+
+	public void setUp() throws Exception {
+		super.setUp();
+
+		toLoad = new ArrayList<ObjectId>();
+		final File packDir = new File(db.getObjectsDirectory(), "pack");
+		final File[] idxList = packDir.listFiles(new FilenameFilter() {
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(".idx");
+			}
+		});
+		for (final File f : idxList) {
+			for (final MutableEntry me : PackIndex.open(f))
+				toLoad.add(me.toObjectId());
+		}
+		assertTrue(toLoad.size() > 0);
+
+		expect = new ArrayList<byte[]>(toLoad.size());
+		for (final ObjectId id : toLoad)
+			expect.add(db.openObject(id).getBytes());
+	}
+
+	protected void tearDown() throws Exception {
+		WindowCache.reconfigure(10 * 1024 * 1024, 8 * 1024, false,
+				10 * 1024 * 1024);
+		super.tearDown();
+	}
+
+	public void testCache_Defaults() throws IOException {
+		checkAllObjects();
+	}
+
+	public void testCache_TooFewWindows() throws IOException {
+		WindowCache.reconfigure(6 * 4096, 4096, false, 10 * 1024 * 1024);
+		checkAllObjects();
+		checkAllObjects();
+	}
+
+	public void testCache_TooSmallLimit() throws IOException {
+		WindowCache.reconfigure(4096, 4096, false, 10 * 1024 * 1024);
+		checkAllObjects();
+	}
+
+	public void testCache_Reconfigure() throws IOException {
+		checkAllObjects();
+		WindowCache.reconfigure(10 * 1024 * 1024, 4096, false,
+				10 * 1024 * 1024);
+		checkAllObjects();
+		WindowCache.reconfigure(8 * 4096, 4096, false, 10 * 1024 * 1024);
+		checkAllObjects();
+	}
+
+	public void testCache_Concurrent() throws Exception {
+		WindowCache.reconfigure(6 * 4096, 4096, false, 10 * 1024 * 1024);
+
+		final Throwable[] errors = new Throwable[8];
+		final Thread[] threads = new Thread[errors.length];
+		for (int i = 0; i < threads.length; i++) {
+			final int thread = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for (int n = 0; n < 20; n++)
+							checkAllObjects();
+					} catch (Throwable e) {
+						errors[thread] = e;
+					}
+				}
+			};
+		}
+		for (final Thread t : threads)
+			t.start();
+		for (final Thread t : threads)
+			t.join();
+		for (final Throwable e : errors) {
+			if (e instanceof Error)
+				throw (Error) e;
+			if (e != null)
+				throw new Exception(e);
+		}
+	}
+
+	private void checkAllObjects() throws IOException {
+		final WindowCursor curs = new WindowCursor();
+		for (int i = 0; i < toLoad.size(); i++) {
+			final ObjectId id = toLoad.get(i);
+			final ObjectLoader or = db.openObject(curs, id);
+			assertNotNull("Can't find " + id.name(), or);
+			assertTrue("Content differs for " + id.name(), Arrays.equals(
+					expect.get(i), or.getBytes()));
+		}
+		curs.release();
+	}
+}
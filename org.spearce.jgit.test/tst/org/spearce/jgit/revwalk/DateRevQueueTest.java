@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.revwalk;
+
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.spearce.jgit.lib.ObjectId;
+
+public class DateRevQueueTest extends TestCase {
+	public void testEmpty() {
+		final DateRevQueue q = new DateRevQueue();
+		assertNull(q.peek());
+		assertNull(q.next());
+		assertTrue(q.everbodyHasFlag(RevWalk.UNINTERESTING));
+		assertFalse(q.anybodyHasFlag(RevWalk.UNINTERESTING));
+	}
+
+	public void testSortedByTime() {
+		final Random rng = new Random(1);
+		final DateRevQueue q = new DateRevQueue();
+		for (int i = 0; i < 1000; i++)
+			q.add(commit(rng.nextInt(200)));
+
+		int last = Integer.MAX_VALUE;
+		int n = 0;
+		for (RevCommit c = q.next(); c != null; c = q.next()) {
+			assertTrue(c.commitTime <= last);
+			last = c.commitTime;
+			n++;
+		}
+		assertEquals(1000, n);
+	}
+
+	public void testEqualTimesInAddOrder() {
+		final DateRevQueue q = new DateRevQueue();
+		final RevCommit a = commit(10);
+		final RevCommit b = commit(10);
+		final RevCommit c = commit(20);
+		final RevCommit d = commit(10);
+		q.add(a);
+		q.add(b);
+		q.add(c);
+		q.add(d);
+
+		assertSame(c, q.peek());
+		assertSame(c, q.next());
+		assertSame(a, q.next());
+		assertSame(b, q.next());
+		assertSame(d, q.next());
+		assertNull(q.next());
+	}
+
+	public void testGenerationFirst() {
+		final DateRevQueue q = new DateRevQueue(true);
+		final RevCommit old = commit(100);
+		old.generation = 2;
+		final RevCommit skewed = commit(50);
+		skewed.generation = 3;
+		q.add(old);
+		q.add(skewed);
+		assertSame(skewed, q.next());
+		assertSame(old, q.next());
+	}
+
+	public void testFlags() {
+		final DateRevQueue q = new DateRevQueue();
+		final RevCommit a = commit(1);
+		final RevCommit b = commit(2);
+		q.add(a);
+		q.add(b);
+		assertFalse(q.anybodyHasFlag(RevWalk.UNINTERESTING));
+
+		a.flags |= RevWalk.UNINTERESTING;
+		assertTrue(q.anybodyHasFlag(RevWalk.UNINTERESTING));
+		assertFalse(q.everbodyHasFlag(RevWalk.UNINTERESTING));
+
+		b.flags |= RevWalk.UNINTERESTING;
+		assertTrue(q.everbodyHasFlag(RevWalk.UNINTERESTING));
+
+		q.clear();
+		assertNull(q.next());
+	}
+
+	private static RevCommit commit(final int time) {
+		final RevCommit c = new RevCommit(ObjectId.zeroId());
+		c.commitTime = time;
+		return c;
+	}
+}
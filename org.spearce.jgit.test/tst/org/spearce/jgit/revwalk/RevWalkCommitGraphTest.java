@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.revwalk;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.spearce.jgit.lib.CommitGraph;
+import org.spearce.jgit.lib.CommitGraphWriter;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.Ref;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.revwalk.filter.RevFilter;
+import org.spearce.jgit.treewalk.TreeWalk;
+import org.spearce.jgit.treewalk.filter.AndTreeFilter;
+import org.spearce.jgit.treewalk.filter.PathFilter;
+import org.spearce.jgit.treewalk.filter.PathFilterGroup;
+import org.spearce.jgit.treewalk.filter.TreeFilter;
+
+public class RevWalkCommitGraphTest extends RepositoryTestCase {
+	public void testParseWithoutBody() throws Exception {
+		new CommitGraphWriter(db).write();
+		final RevWalk rw = new RevWalk(db);
+		rw.setRetainBody(false);
+
+		final RevCommit c = rw.parseCommit(db.resolve("master"));
+		assertNull(c.getRawBuffer());
+		assertTrue(c.generation != CommitGraph.GENERATION_UNKNOWN);
+		assertNotNull(c.getTree());
+
+		rw.parseBody(c);
+		assertNotNull(c.getRawBuffer());
+		assertNotNull(c.getShortMessage());
+	}
+
+	public void testParseRetainsBody() throws Exception {
+		new CommitGraphWriter(db).write();
+		final RevWalk rw = new RevWalk(db);
+		final RevCommit c = rw.parseCommit(db.resolve("master"));
+		assertNotNull(c.getRawBuffer());
+		for (final RevCommit p : c.getParents()) {
+			rw.parse(p);
+			assertNotNull(p.getRawBuffer());
+		}
+	}
+
+	public void testWalkMatchesObjects() throws Exception {
+		final List<String> exp = describeAll(new RevWalk(db));
+		new CommitGraphWriter(db).write();
+
+		final RevWalk rw = new RevWalk(db);
+		rw.setRetainBody(false);
+		assertEquals(exp, describeAll(rw));
+	}
+
+	public void testIsMergedInto() throws Exception {
+		final List<RevCommit> all = all(new RevWalk(db));
+		final boolean[][] exp = new boolean[all.size()][all.size()];
+		{
+			final RevWalk rw = new RevWalk(db);
+			for (int i = 0; i < all.size(); i++) {
+				for (int k = 0; k < all.size(); k++)
+					exp[i][k] = rw.isMergedInto(rw.parseCommit(all.get(i)), rw
+							.parseCommit(all.get(k)));
+			}
+		}
+
+		new CommitGraphWriter(db).write();
+		final RevWalk rw = new RevWalk(db);
+		rw.setRetainBody(false);
+		for (int i = 0; i < all.size(); i++) {
+			for (int k = 0; k < all.size(); k++) {
+				final RevCommit base = rw.parseCommit(all.get(i));
+				final RevCommit tip = rw.parseCommit(all.get(k));
+				assertEquals(base.name() + " in " + tip.name(), exp[i][k], rw
+						.isMergedInto(base, tip));
+			}
+		}
+	}
+
+	public void testMergeBase() throws Exception {
+		final List<RevCommit> all = all(new RevWalk(db));
+		final List<String> exp = new ArrayList<String>();
+		for (int i = 0; i < all.size(); i++) {
+			for (int k = i + 1; k < all.size(); k++)
+				exp.add(mergeBase(new RevWalk(db), all.get(i), all.get(k)));
+		}
+
+		new CommitGraphWriter(db).write();
+		final List<String> act = new ArrayList<String>();
+		for (int i = 0; i < all.size(); i++) {
+			for (int k = i + 1; k < all.size(); k++)
+				act.add(mergeBase(new RevWalk(db), all.get(i), all.get(k)));
+		}
+		assertEquals(exp, act);
+	}
+
+	public void testPathLimitedWalkMatchesTrees() throws Exception {
+		final List<String> paths = allPaths();
+		paths.add("no/such/path");
+		final List<List<String>> exp = new ArrayList<List<String>>();
+		for (final String p : paths)
+			exp.add(pathLimited(p));
+
+		final CommitGraphWriter w = new CommitGraphWriter(db);
+		w.setChangedPaths(true);
+		w.write();
+		assertTrue(db.getCommitGraph().hasChangedPaths());
+		for (int i = 0; i < paths.size(); i++)
+			assertEquals(paths.get(i), exp.get(i), pathLimited(paths.get(i)));
+	}
+
+	public void testPathFilterWithoutDiffNotSkipped() throws Exception {
+		// Without ANY_DIFF every commit holding the path is included, even
+		// though its changed-path filter says it did not change the path.
+		final List<String> paths = allPaths();
+		final List<List<String>> exp = new ArrayList<List<String>>();
+		for (final String p : paths)
+			exp.add(pathLimited(PathFilter.create(p)));
+
+		final CommitGraphWriter w = new CommitGraphWriter(db);
+		w.setChangedPaths(true);
+		w.write();
+		for (int i = 0; i < paths.size(); i++)
+			assertEquals(paths.get(i), exp.get(i), pathLimited(PathFilter
+					.create(paths.get(i))));
+	}
+
+	private List<String> pathLimited(final String path) throws Exception {
+		return pathLimited(AndTreeFilter.create(PathFilterGroup
+				.createFromStrings(Collections.singleton(path)),
+				TreeFilter.ANY_DIFF));
+	}
+
+	private List<String> pathLimited(final TreeFilter filter)
+			throws Exception {
+		final RevWalk rw = new RevWalk(db);
+		rw.setTreeFilter(filter);
+		final List<String> r = new ArrayList<String>();
+		for (final RevCommit c : all(rw)) {
+			final StringBuilder s = new StringBuilder();
+			s.append(c.name());
+			for (final RevCommit p : c.getParents()) {
+				s.append(' ');
+				s.append(p.name());
+			}
+			r.add(s.toString());
+		}
+		return r;
+	}
+
+	private List<String> allPaths() throws Exception {
+		final Set<String> r = new TreeSet<String>();
+		for (final RevCommit c : all(new RevWalk(db))) {
+			final TreeWalk tw = new TreeWalk(db);
+			tw.reset(new ObjectId[] { c.getTree() });
+			tw.setRecursive(true);
+			while (tw.next()) {
+				final String p = tw.getPathString();
+				r.add(p);
+				if (p.indexOf('/') > 0)
+					r.add(p.substring(0, p.lastIndexOf('/')));
+			}
+		}
+		return new ArrayList<String>(r);
+	}
+
+	private static String mergeBase(final RevWalk rw, final RevCommit a,
+			final RevCommit b) throws Exception {
+		rw.setRevFilter(RevFilter.MERGE_BASE);
+		rw.markStart(rw.parseCommit(a));
+		rw.markStart(rw.parseCommit(b));
+		final RevCommit r = rw.next();
+		return r != null ? r.name() : null;
+	}
+
+	private List<RevCommit> all(final RevWalk rw) throws Exception {
+		for (final Ref r : db.getAllRefs().values()) {
+			RevObject o = rw.parseAny(r.getObjectId());
+			while (o instanceof RevTag) {
+				o = ((RevTag) o).getObject();
+				rw.parse(o);
+			}
+			if (o instanceof RevCommit)
+				rw.markStart((RevCommit) o);
+		}
+		final List<RevCommit> all = new ArrayList<RevCommit>();
+		for (final RevCommit c : rw)
+			all.add(c);
+		return all;
+	}
+
+	private List<String> describeAll(final RevWalk rw) throws Exception {
+		final List<String> r = new ArrayList<String>();
+		for (final RevCommit c : all(rw)) {
+			final StringBuilder s = new StringBuilder();
+			s.append(c.name());
+			s.append(' ');
+			s.append(c.getTree().name());
+			s.append(' ');
+			s.append(c.getCommitTime());
+			for (final RevCommit p : c.getParents()) {
+				s.append(' ');
+				s.append(p.name());
+			}
+			r.add(s.toString());
+		}
+		return r;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.spearce.jgit.lib.Repository;
+
+/** Reads a local object directory, optionally slowly. */
+class FileObjectDB extends WalkRemoteObjectDatabase {
+	private final File objects;
+
+	private final boolean concurrent;
+
+	private final int delay;
+
+	final AtomicInteger active = new AtomicInteger();
+
+	final AtomicInteger maxActive = new AtomicInteger();
+
+	FileObjectDB(final Repository src, final boolean concurrent,
+			final int delay) {
+		this.objects = src.getObjectsDirectory();
+		this.concurrent = concurrent;
+		this.delay = delay;
+	}
+
+	@Override
+	URIish getURI() {
+		return new URIish();
+	}
+
+	@Override
+	Collection<String> getPackNames() {
+		final List<String> r = new ArrayList<String>();
+		final String[] names = new File(objects, "pack").list();
+		if (names != null) {
+			for (final String n : names) {
+				if (n.endsWith(".pack"))
+					r.add(n);
+			}
+		}
+		return r;
+	}
+
+	@Override
+	Collection<WalkRemoteObjectDatabase> getAlternates() {
+		return null;
+	}
+
+	@Override
+	boolean canOpenConcurrently() {
+		return concurrent;
+	}
+
+	@Override
+	FileStream open(final String path) throws IOException {
+		final int n = active.incrementAndGet();
+		try {
+			int max;
+			while ((max = maxActive.get()) < n
+					&& !maxActive.compareAndSet(max, n))
+				continue;
+			if (delay > 0)
+				Thread.sleep(delay);
+			final File f = new File(objects, path);
+			return new FileStream(new FileInputStream(f), f.length());
+		} catch (InterruptedException e) {
+			throw new IOException(e.getMessage());
+		} finally {
+			active.decrementAndGet();
+		}
+	}
+
+	@Override
+	WalkRemoteObjectDatabase openAlternate(final String location) {
+		return null;
+	}
+
+	@Override
+	void close() {
+		// Nothing to release.
+	}
+}
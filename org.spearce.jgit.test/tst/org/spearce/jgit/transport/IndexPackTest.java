@@ -42,12 +42,14 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import org.spearce.jgit.lib.ObjectId;
 import org.spearce.jgit.lib.PackFile;
 import org.spearce.jgit.lib.RepositoryTestCase;
 import org.spearce.jgit.lib.TextProgressMonitor;
 import org.spearce.jgit.util.JGitTestUtil;
+import org.spearce.jgit.util.NB;
 
 /**
  * Test indexing of git packs. A pack is read from a stream, copied
@@ -112,4 +114,46 @@ public void test2() throws  IOException {
 			is.close();
 		}
 	}
+
+	/**
+	 * Resolving deltas on several threads must produce the same index as
+	 * resolving them on a single thread.
+	 *
+	 * @throws IOException
+	 */
+	public void testThreadedResolve() throws IOException {
+		final String name = "pack-df2982f284bbabb6bdb59ee3fcc6eb0983e20371.pack";
+		final byte[] single = indexWithThreads(name, "tmp_pack3", 1);
+		final byte[] multi = indexWithThreads(name, "tmp_pack4", 4);
+		assertTrue(Arrays.equals(single, multi));
+
+		final PackFile file = new PackFile(db, new File(trash, "tmp_pack4.idx"),
+				new File(trash, "tmp_pack4.pack"));
+		assertTrue(file.hasObject(ObjectId.fromString("02ba32d3649e510002c21651936b7077aa75ffa9")));
+		assertTrue(file.hasObject(ObjectId.fromString("2675188fd86978d5bc4d7211698b2118ae3bf658")));
+		assertNotNull(db.openBlob(ObjectId.fromString("2675188fd86978d5bc4d7211698b2118ae3bf658")));
+	}
+
+	private byte[] indexWithThreads(final String packName, final String dst,
+			final int threads) throws IOException {
+		final File packFile = JGitTestUtil.getTestResourceFile(packName);
+		InputStream is = new FileInputStream(packFile);
+		try {
+			final IndexPack pack = new IndexPack(db, is, new File(trash, dst));
+			pack.setThreads(threads);
+			pack.index(new TextProgressMonitor());
+		} finally {
+			is.close();
+		}
+
+		final File idx = new File(trash, dst + ".idx");
+		final byte[] r = new byte[(int) idx.length()];
+		is = new FileInputStream(idx);
+		try {
+			NB.readFully(is, r, 0, r.length);
+		} finally {
+			is.close();
+		}
+		return r;
+	}
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.spearce.jgit.lib.NullProgressMonitor;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.Repository;
+import org.spearce.jgit.lib.RepositoryConfig;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevWalk;
+
+public class ReceivePackTest extends RepositoryTestCase {
+	private File dstDir;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		final Repository dst = createNewEmptyRepo();
+		dstDir = dst.getDirectory();
+		dst.close();
+	}
+
+	public void testPushIntoEmptyRepository() throws Exception {
+		final PushResult r = push(update("refs/heads/master",
+				"refs/heads/master", false), update("refs/heads/a",
+				"refs/heads/a", false));
+		assertEquals(RemoteRefUpdate.Status.OK, r.getRemoteUpdate(
+				"refs/heads/master").getStatus());
+		assertEquals(RemoteRefUpdate.Status.OK, r.getRemoteUpdate(
+				"refs/heads/a").getStatus());
+
+		final Repository dst = new Repository(dstDir);
+		try {
+			for (final String name : new String[] { "a", "master" }) {
+				final ObjectId id = db.resolve("refs/heads/" + name);
+				assertEquals(id, dst.resolve("refs/heads/" + name));
+				assertAllReachable(dst, id);
+			}
+		} finally {
+			dst.close();
+		}
+	}
+
+	public void testDeleteRef() throws Exception {
+		push(update("refs/heads/a", "refs/heads/a", false));
+		final PushResult r = push(update(null, "refs/heads/a", false));
+		assertEquals(RemoteRefUpdate.Status.OK, r.getRemoteUpdate(
+				"refs/heads/a").getStatus());
+
+		final Repository dst = new Repository(dstDir);
+		try {
+			assertNull(dst.resolve("refs/heads/a"));
+		} finally {
+			dst.close();
+		}
+	}
+
+	public void testDenyDeletes() throws Exception {
+		push(update("refs/heads/a", "refs/heads/a", false));
+		setReceiveConfig("denydeletes");
+
+		final PushResult r = push(update(null, "refs/heads/a", false));
+		final RemoteRefUpdate u = r.getRemoteUpdate("refs/heads/a");
+		assertEquals(RemoteRefUpdate.Status.REJECTED_OTHER_REASON, u
+				.getStatus());
+		assertEquals("deletion prohibited", u.getMessage());
+
+		final Repository dst = new Repository(dstDir);
+		try {
+			assertEquals(db.resolve("refs/heads/a"), dst
+					.resolve("refs/heads/a"));
+		} finally {
+			dst.close();
+		}
+	}
+
+	public void testDenyNonFastForward() throws Exception {
+		push(update("refs/heads/master", "refs/heads/master", false));
+		setReceiveConfig("denynonfastforwards");
+
+		final PushResult r = push(update("refs/heads/a",
+				"refs/heads/master", true));
+		final RemoteRefUpdate u = r.getRemoteUpdate("refs/heads/master");
+		assertEquals(RemoteRefUpdate.Status.REJECTED_OTHER_REASON, u
+				.getStatus());
+		assertEquals("non-fast forward", u.getMessage());
+
+		final Repository dst = new Repository(dstDir);
+		try {
+			assertEquals(db.resolve("refs/heads/master"), dst
+					.resolve("refs/heads/master"));
+		} finally {
+			dst.close();
+		}
+	}
+
+	public void testForcedNonFastForward() throws Exception {
+		push(update("refs/heads/master", "refs/heads/master", false));
+
+		final PushResult r = push(update("refs/heads/a",
+				"refs/heads/master", true));
+		assertEquals(RemoteRefUpdate.Status.OK, r.getRemoteUpdate(
+				"refs/heads/master").getStatus());
+
+		final Repository dst = new Repository(dstDir);
+		try {
+			assertEquals(db.resolve("refs/heads/a"), dst
+					.resolve("refs/heads/master"));
+		} finally {
+			dst.close();
+		}
+	}
+
+	private void setReceiveConfig(final String name) throws Exception {
+		final Repository dst = new Repository(dstDir);
+		try {
+			final RepositoryConfig cfg = dst.getConfig();
+			cfg.setString("receive", null, name, "true");
+			cfg.save();
+		} finally {
+			dst.close();
+		}
+	}
+
+	private RemoteRefUpdate update(final String src, final String dst,
+			final boolean force) throws Exception {
+		return new RemoteRefUpdate(db, src, dst, force, null, null);
+	}
+
+	private PushResult push(final RemoteRefUpdate... updates)
+			throws Exception {
+		final List<RemoteRefUpdate> list = new ArrayList<RemoteRefUpdate>();
+		for (final RemoteRefUpdate u : updates)
+			list.add(u);
+
+		final Transport t = Transport.open(db, new URIish(dstDir
+				.getAbsolutePath()));
+		try {
+			return t.push(NullProgressMonitor.INSTANCE, list);
+		} finally {
+			t.close();
+		}
+	}
+
+	private static void assertAllReachable(final Repository r,
+			final ObjectId id) throws Exception {
+		final RevWalk rw = new RevWalk(r);
+		rw.markStart(rw.parseCommit(id));
+		RevCommit c;
+		while ((c = rw.next()) != null)
+			assertTrue(r.hasObject(c.getTree()));
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.spearce.jgit.lib.ObjectId;
+
+public class UnresolvedDeltaTableTest extends TestCase {
+	private static final ObjectId ID_A = ObjectId
+			.fromString("4b825dc642cb6eb9a060e54bf8d69288fbee4904");
+
+	private static final ObjectId ID_B = ObjectId
+			.fromString("540a36d136cf413e4b064c2b0e0a4db60f77feab");
+
+	private static final ObjectId ID_C = ObjectId
+			.fromString("5b6e7c66c276e7610d4a73c70ec1a1f7c1003259");
+
+	public void testEmpty() {
+		final UnresolvedDeltaTable t = new UnresolvedDeltaTable(10);
+		t.sort();
+		assertEquals(0, t.size());
+		assertFalse(t.hasChildren(12, ID_A));
+		assertNull(t.takeChildren(12, ID_A));
+		assertEquals(0, t.getMissingBaseCount());
+		assertTrue(t.getMissingBases().isEmpty());
+	}
+
+	public void testOfsDeltas() {
+		final UnresolvedDeltaTable t = new UnresolvedDeltaTable(10);
+		t.addOfsDelta(100, 1, 50);
+		t.addOfsDelta(200, 2, 12);
+		t.addOfsDelta(300, 3, 50);
+		t.addOfsDelta(400, 4, 300);
+		t.sort();
+
+		assertEquals(4, t.size());
+		assertTrue(t.hasChildren(12, ID_A));
+		assertTrue(t.hasChildren(50, ID_A));
+		assertFalse(t.hasChildren(100, ID_A));
+
+		final int[] c = t.takeChildren(50, ID_A);
+		assertEquals(2, c.length);
+		assertEquals(100, t.getPosition(c[0]));
+		assertEquals(1, t.getCRC(c[0]));
+		assertEquals(300, t.getPosition(c[1]));
+		assertEquals(3, t.getCRC(c[1]));
+
+		assertEquals(400, t.getPosition(t.takeChildren(300, ID_A)[0]));
+		assertNull(t.takeChildren(400, ID_A));
+	}
+
+	public void testRefDeltas() {
+		final UnresolvedDeltaTable t = new UnresolvedDeltaTable(10);
+		t.addRefDelta(100, 1, ID_A);
+		t.addRefDelta(200, 2, ID_B);
+		t.addRefDelta(300, 3, ID_A);
+		t.sort();
+
+		assertEquals(2, t.getMissingBaseCount());
+		assertTrue(t.hasChildren(12, ID_A));
+		assertFalse(t.hasChildren(12, ID_C));
+
+		final int[] c = t.takeChildren(12, ID_A);
+		assertEquals(2, c.length);
+		assertEquals(100, t.getPosition(c[0]));
+		assertEquals(300, t.getPosition(c[1]));
+
+		assertFalse(t.hasChildren(12, ID_A));
+		assertNull(t.takeChildren(12, ID_A));
+		assertEquals(1, t.getMissingBaseCount());
+		assertEquals(Arrays.asList(new ObjectId[] { ID_B }), t
+				.getMissingBases());
+	}
+
+	public void testMixedChildrenInPackOrder() {
+		final UnresolvedDeltaTable t = new UnresolvedDeltaTable(10);
+		t.addRefDelta(100, 1, ID_A);
+		t.addOfsDelta(200, 2, 12);
+		t.addRefDelta(300, 3, ID_A);
+		t.addOfsDelta(400, 4, 12);
+		t.sort();
+
+		final int[] c = t.takeChildren(12, ID_A);
+		assertEquals(4, c.length);
+		for (int i = 0; i < c.length; i++)
+			assertEquals((i + 1) * 100, t.getPosition(c[i]));
+	}
+
+	public void testManyDeltas() {
+		final int cnt = 10000;
+		final UnresolvedDeltaTable t = new UnresolvedDeltaTable(cnt);
+		final byte[] raw = new byte[20];
+		for (int i = 0; i < cnt; i++) {
+			final long pos = 1000 + i * 10;
+			if (i % 3 == 0) {
+				raw[0] = (byte) (i % 7);
+				raw[1] = (byte) (i % 251);
+				t.addRefDelta(pos, i, ObjectId.fromRaw(raw));
+			} else
+				t.addOfsDelta(pos, i, cnt - i % 100);
+		}
+		t.sort();
+		assertEquals(cnt, t.size());
+
+		int found = 0;
+		for (int b = cnt - 99; b <= cnt; b++) {
+			final int[] c = t.takeChildren(b, ID_A);
+			assertNotNull(c);
+			for (int k = 1; k < c.length; k++)
+				assertTrue(t.getPosition(c[k - 1]) < t.getPosition(c[k]));
+			for (final int d : c)
+				assertEquals(b, cnt - t.getCRC(d) % 100);
+			found += c.length;
+		}
+
+		for (final ObjectId id : t.getMissingBases()) {
+			final int[] c = t.takeChildren(0, id);
+			for (int k = 1; k < c.length; k++)
+				assertTrue(t.getPosition(c[k - 1]) < t.getPosition(c[k]));
+			found += c.length;
+		}
+		assertEquals(cnt, found);
+		assertEquals(0, t.getMissingBaseCount());
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.spearce.jgit.lib.Constants;
+import org.spearce.jgit.lib.NullProgressMonitor;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.Repository;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevWalk;
+
+public class UploadPackTest extends RepositoryTestCase {
+	public void testAdvertisement() throws Exception {
+		final List<String> lines = advertise();
+
+		final String head = lines.get(0);
+		final int nul = head.indexOf('\0');
+		assertTrue(nul > 0);
+		assertEquals(db.resolve("refs/heads/master").name() + " HEAD", head
+				.substring(0, nul));
+		final String caps = " " + head.substring(nul + 1) + " ";
+		assertTrue(caps.indexOf(" multi_ack ") >= 0);
+		assertTrue(caps.indexOf(" side-band-64k ") >= 0);
+		assertTrue(caps.indexOf(" ofs-delta ") >= 0);
+
+		assertTrue(lines.contains("6db9c2ebf75590eef973081736730a9ea169a0c4"
+				+ " refs/heads/a"));
+		assertTrue(lines.contains("17768080a2318cd89bba4c8b87834401e2095703"
+				+ " refs/tags/B"));
+		assertTrue(lines.contains("d86a2aada2f5e7ccf6f11880bfb9ab404e8a8864"
+				+ " refs/tags/B^{}"));
+		assertFalse(lines.contains("6db9c2ebf75590eef973081736730a9ea169a0c4"
+				+ " refs/tags/A^{}"));
+	}
+
+	public void testFetchIntoEmptyRepository() throws Exception {
+		final Repository newRepo = createNewEmptyRepo();
+		fetch(newRepo, "refs/heads/*:refs/heads/*");
+
+		for (final String name : new String[] { "a", "b", "c", "master" }) {
+			final ObjectId id = db.resolve("refs/heads/" + name);
+			assertEquals(id, newRepo.resolve("refs/heads/" + name));
+			assertAllReachable(newRepo, id);
+		}
+		newRepo.close();
+	}
+
+	public void testIncrementalFetch() throws Exception {
+		final Repository newRepo = createNewEmptyRepo();
+		fetch(newRepo, "refs/heads/a:refs/heads/a");
+		assertEquals(db.resolve("refs/heads/a"), newRepo
+				.resolve("refs/heads/a"));
+		assertNull(newRepo.resolve("refs/heads/master"));
+
+		fetch(newRepo, "refs/heads/master:refs/heads/master");
+		final ObjectId id = db.resolve("refs/heads/master");
+		assertEquals(id, newRepo.resolve("refs/heads/master"));
+		assertAllReachable(newRepo, id);
+		newRepo.close();
+	}
+
+	private void fetch(final Repository dst, final String spec)
+			throws Exception {
+		final Transport t = Transport.open(dst, new URIish(trash_git
+				.getAbsolutePath()));
+		try {
+			t.setTagOpt(TagOpt.NO_TAGS);
+			t.fetch(NullProgressMonitor.INSTANCE, Collections
+					.singleton(new RefSpec(spec)));
+		} finally {
+			t.close();
+		}
+	}
+
+	private static void assertAllReachable(final Repository r,
+			final ObjectId id) throws Exception {
+		final RevWalk rw = new RevWalk(r);
+		rw.markStart(rw.parseCommit(id));
+		RevCommit c;
+		while ((c = rw.next()) != null)
+			assertTrue(r.hasObject(c.getTree()));
+	}
+
+	private List<String> advertise() throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final ByteArrayInputStream in = new ByteArrayInputStream(Constants
+				.encodeASCII("0000"));
+		new UploadPack(db).upload(in, out, null);
+
+		final PacketLineIn pckIn = new PacketLineIn(new ByteArrayInputStream(
+				out.toByteArray()));
+		final List<String> lines = new ArrayList<String>();
+		for (;;) {
+			final String line = pckIn.readString();
+			if (line.length() == 0)
+				break;
+			lines.add(line);
+		}
+		return lines;
+	}
+}
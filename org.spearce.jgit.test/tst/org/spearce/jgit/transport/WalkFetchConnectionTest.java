@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.spearce.jgit.errors.TransportException;
+import org.spearce.jgit.lib.Commit;
+import org.spearce.jgit.lib.FileTreeEntry;
+import org.spearce.jgit.lib.NullProgressMonitor;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.ObjectWriter;
+import org.spearce.jgit.lib.PersonIdent;
+import org.spearce.jgit.lib.Ref;
+import org.spearce.jgit.lib.Repository;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.lib.Tree;
+import org.spearce.jgit.revwalk.ObjectWalk;
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevObject;
+
+public class WalkFetchConnectionTest extends RepositoryTestCase {
+	public void testFetchPackedSequential() throws Exception {
+		final Repository dst = createNewEmptyRepo();
+		final FileObjectDB remote = new FileObjectDB(db, true, 0);
+		fetch(dst, remote, 1, "refs/heads/master");
+		assertAllReachable(dst, db.resolve("refs/heads/master"));
+		assertEquals(1, remote.maxActive.get());
+		dst.close();
+	}
+
+	public void testFetchPackedConcurrent() throws Exception {
+		final Repository dst = createNewEmptyRepo();
+		final FileObjectDB remote = new FileObjectDB(db, true, 0);
+		fetch(dst, remote, 4, "refs/heads/master");
+		assertAllReachable(dst, db.resolve("refs/heads/master"));
+		assertEquals(0, dst.getObjectsDirectory().list(new FilenameFilter() {
+			public boolean accept(final File dir, final String name) {
+				return name.endsWith(".walkidx");
+			}
+		}).length);
+		dst.close();
+	}
+
+	public void testFetchLooseConcurrent() throws Exception {
+		final Repository src = createNewEmptyRepo();
+		final ObjectId head = writeLooseHistory(src, 5, 8);
+		final Repository dst = createNewEmptyRepo();
+		final FileObjectDB remote = new FileObjectDB(src, true, 20);
+		fetch(dst, remote, 4, head);
+		assertAllReachable(dst, head);
+		assertTrue(remote.maxActive.get() > 1);
+		assertTrue(remote.maxActive.get() <= 4);
+		src.close();
+		dst.close();
+	}
+
+	public void testFetchLooseSequentialRemote() throws Exception {
+		final Repository src = createNewEmptyRepo();
+		final ObjectId head = writeLooseHistory(src, 3, 4);
+		final Repository dst = createNewEmptyRepo();
+		final FileObjectDB remote = new FileObjectDB(src, false, 5);
+		fetch(dst, remote, 4, head);
+		assertAllReachable(dst, head);
+		assertEquals(1, remote.maxActive.get());
+		src.close();
+		dst.close();
+	}
+
+	public void testMissingLooseObjectReported() throws Exception {
+		final Repository src = createNewEmptyRepo();
+		final ObjectWriter ow = new ObjectWriter(src);
+		final ObjectId blob = ow.writeBlob("lost\n".getBytes());
+		final ObjectId head = writeLooseHistory(src, 2, 4);
+		final Tree t = new Tree(src);
+		t.addEntry(new FileTreeEntry(t, blob, "lost".getBytes(), false));
+		final ObjectId tip = writeCommit(src, ow.writeTree(t), head, "lost");
+		assertTrue(src.toFile(blob).delete());
+
+		final Repository dst = createNewEmptyRepo();
+		final FileObjectDB remote = new FileObjectDB(src, true, 0);
+		try {
+			fetch(dst, remote, 4, tip);
+			fail("fetch succeeded without " + blob.name());
+		} catch (TransportException err) {
+			assertEquals("Cannot get " + blob.name() + ".", err.getMessage());
+			assertTrue(err.getCause() instanceof FileNotFoundException);
+		}
+		src.close();
+		dst.close();
+	}
+
+	private void fetch(final Repository dst, final FileObjectDB remote,
+			final int threads, final String name) throws Exception {
+		fetch(dst, remote, threads, db.resolve(name));
+	}
+
+	static void fetch(final Repository dst, final FileObjectDB remote,
+			final int threads, final ObjectId want) throws Exception {
+		final FileWalkTransport t = new FileWalkTransport(dst);
+		t.setFetchThreads(threads);
+		final WalkFetchConnection c = new WalkFetchConnection(t, remote);
+		try {
+			final Ref r = new Ref(Ref.Storage.NETWORK, "refs/heads/want", want);
+			c.fetch(NullProgressMonitor.INSTANCE, Collections.singleton(r));
+		} finally {
+			c.close();
+		}
+	}
+
+	static ObjectId writeLooseHistory(final Repository r,
+			final int commits, final int filesPerCommit) throws IOException {
+		final ObjectWriter ow = new ObjectWriter(r);
+		ObjectId parent = null;
+		for (int c = 0; c < commits; c++) {
+			final Tree t = new Tree(r);
+			for (int f = 0; f < filesPerCommit; f++) {
+				final String name = "f" + f;
+				final ObjectId blob = ow.writeBlob((c + " " + name + "\n")
+						.getBytes());
+				t.addEntry(new FileTreeEntry(t, blob, name.getBytes(), false));
+			}
+			parent = writeCommit(r, ow.writeTree(t), parent, "c" + c);
+		}
+		return parent;
+	}
+
+	private static ObjectId writeCommit(final Repository r,
+			final ObjectId tree, final ObjectId parent, final String msg)
+			throws IOException {
+		final Commit c = new Commit(r);
+		c.setAuthor(new PersonIdent(jauthor, 1154236443000L, -4 * 60));
+		c.setCommitter(new PersonIdent(jcommitter, 1154236443000L, -4 * 60));
+		c.setMessage(msg + "\n");
+		c.setTreeId(tree);
+		if (parent != null)
+			c.setParentIds(new ObjectId[] { parent });
+		return new ObjectWriter(r).writeCommit(c);
+	}
+
+	private static void assertAllReachable(final Repository r,
+			final ObjectId id) throws Exception {
+		final ObjectWalk rw = new ObjectWalk(r);
+		rw.markStart(rw.parseCommit(id));
+		RevCommit c;
+		while ((c = rw.next()) != null)
+			assertTrue(r.hasObject(c.getTree()));
+		RevObject o;
+		while ((o = rw.nextObject()) != null)
+			assertTrue(o.name(), r.hasObject(o));
+	}
+}
@@ -39,7 +39,12 @@
 
 import java.io.File;
 import java.security.MessageDigest;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.spearce.jgit.dircache.DirCache;
+import org.spearce.jgit.dircache.DirCacheBuilder;
+import org.spearce.jgit.dircache.DirCacheEntry;
 import org.spearce.jgit.lib.Constants;
 import org.spearce.jgit.lib.FileMode;
 import org.spearce.jgit.lib.ObjectId;
@@ -161,6 +166,77 @@ public void testComputeFileObjectId() throws Exception {
 		assertEquals(expect, top.getEntryObjectId());
 	}
 
+	public void testReadAheadWalk() throws Exception {
+		// Record every file with a stale modification time, so all of
+		// them have to be hashed and are hashed ahead of the walk.
+		//
+		final DirCache dc = DirCache.read(db);
+		final DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < paths.length; i++) {
+			final DirCacheEntry e = new DirCacheEntry(paths[i]);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			e.setLength(paths[i].length());
+			e.setLastModified(mtime[i] - 10000);
+			e.setObjectId(blobId(paths[i]));
+			b.add(e);
+		}
+		b.finish();
+
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			final TreeWalk tw = new TreeWalk(db);
+			tw.reset();
+			tw.addTree(new FileTreeIterator(trash, dc, pool));
+			tw.setRecursive(true);
+			for (int i = 0; i < paths.length; i++) {
+				assertTrue(tw.next());
+				final FileTreeIterator t;
+				t = tw.getTree(0, FileTreeIterator.class);
+				assertEquals(paths[i], tw.getPathString());
+				assertNotNull(t.current().prefetchedId);
+				assertEquals(dc.getEntry(paths[i]).getObjectId(), tw
+						.getObjectId(0));
+			}
+			assertFalse(tw.next());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	public void testReadAheadSkipsCleanFiles() throws Exception {
+		final DirCache dc = DirCache.read(db);
+		final DirCacheBuilder b = dc.builder();
+		final DirCacheEntry e = new DirCacheEntry(paths[0]);
+		e.setFileMode(FileMode.REGULAR_FILE);
+		e.setLength(paths[0].length());
+		e.setLastModified(mtime[0]);
+		e.setObjectId(blobId(paths[0]));
+		b.add(e);
+		b.finish();
+
+		final ExecutorService pool = Executors.newFixedThreadPool(2);
+		try {
+			final FileTreeIterator top = new FileTreeIterator(trash, dc, pool);
+			assertEquals(paths[0], nameOf(top));
+			assertNull(top.current().prefetchedId);
+			top.next(1);
+			assertEquals(paths[1], nameOf(top));
+			assertNull(top.current().prefetchedId);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static ObjectId blobId(final String content) {
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(Constants.encodeASCII(Constants.TYPE_BLOB));
+		md.update((byte) ' ');
+		md.update(Constants.encodeASCII(content.length()));
+		md.update((byte) 0);
+		md.update(Constants.encode(content));
+		return ObjectId.fromRaw(md.digest());
+	}
+
 	private static String nameOf(final AbstractTreeIterator i) {
 		return RawParseUtils.decode(Constants.CHARSET, i.path, 0, i.pathLen);
 	}
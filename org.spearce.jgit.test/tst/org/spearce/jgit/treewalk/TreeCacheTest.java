@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.treewalk;
+
+import org.spearce.jgit.errors.IncorrectObjectTypeException;
+import org.spearce.jgit.errors.MissingObjectException;
+import org.spearce.jgit.lib.CacheStatistics;
+import org.spearce.jgit.lib.Commit;
+import org.spearce.jgit.lib.Constants;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.ObjectWriter;
+import org.spearce.jgit.lib.PersonIdent;
+import org.spearce.jgit.lib.Repository;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.lib.Tree;
+import org.spearce.jgit.revwalk.ObjectWalk;
+import org.spearce.jgit.revwalk.RevTree;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.util.RawParseUtils;
+
+public class TreeCacheTest extends RepositoryTestCase {
+	private int limit;
+
+	private ObjectWriter ow;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		limit = TreeCache.getStatistics().getLimit();
+		TreeCache.clear();
+		ow = new ObjectWriter(db);
+	}
+
+	public void tearDown() throws Exception {
+		TreeCache.reconfigure(limit);
+		TreeCache.clear();
+		super.tearDown();
+	}
+
+	public void testParserReadsThroughCache() throws Exception {
+		final ObjectId treeId = tree("a", "b");
+
+		final CanonicalTreeParser p1 = new CanonicalTreeParser();
+		p1.reset(db, treeId);
+		final byte[] cached = TreeCache.get(db, treeId);
+		assertSame(p1.idBuffer(), cached);
+
+		final CanonicalTreeParser p2 = new CanonicalTreeParser();
+		p2.reset(db, treeId);
+		assertSame(cached, p2.idBuffer());
+
+		assertEquals("a", path(p2));
+		p2.next(1);
+		assertEquals("b", path(p2));
+		p2.next(1);
+		assertTrue(p2.eof());
+	}
+
+	public void testTreeWalkSharesCache() throws Exception {
+		final ObjectId treeId = tree("a");
+		final long hits = TreeCache.getStatistics().getHitCount();
+		for (int i = 0; i < 3; i++) {
+			final TreeWalk tw = new TreeWalk(db);
+			tw.reset(new ObjectId[] { treeId });
+			assertTrue(tw.next());
+			assertEquals("a", tw.getPathString());
+			assertFalse(tw.next());
+		}
+		assertTrue(TreeCache.getStatistics().getHitCount() >= hits + 2);
+	}
+
+	public void testRevTreeFindsCachedTree() throws Exception {
+		final ObjectId treeId = tree("a");
+		new CanonicalTreeParser().reset(db, treeId);
+		final RevTree t = new RevWalk(db).parseTree(treeId);
+		assertNotNull(TreeCache.get(db, t));
+	}
+
+	public void testOtherRepositoryMissingTree() throws Exception {
+		final ObjectId treeId = tree("a");
+		new CanonicalTreeParser().reset(db, treeId);
+		assertNotNull(TreeCache.get(db, treeId));
+
+		// The second repository has a commit naming the tree, but not the
+		// tree itself; the cached copy from db must not hide that.
+		//
+		final Repository other = createNewEmptyRepo();
+		final ObjectId commitId = commit(other, treeId);
+
+		final ObjectWalk ow = new ObjectWalk(other);
+		ow.markStart(ow.parseCommit(commitId));
+		try {
+			ow.checkConnectivity();
+			fail("Connectivity check accepted a missing tree");
+		} catch (MissingObjectException e) {
+			assertTrue(e.getMessage().indexOf(treeId.name()) >= 0);
+		}
+		other.close();
+	}
+
+	public void testPrunedTreeFailsConnectivity() throws Exception {
+		final ObjectId treeId = tree("a");
+		new CanonicalTreeParser().reset(db, treeId);
+		final ObjectId commitId = commit(db, treeId);
+		assertTrue(db.toFile(treeId).delete());
+
+		final ObjectWalk ow = new ObjectWalk(db);
+		ow.markStart(ow.parseCommit(commitId));
+		try {
+			ow.checkConnectivity();
+			fail("Connectivity check accepted a pruned tree");
+		} catch (MissingObjectException e) {
+			assertTrue(e.getMessage().indexOf(treeId.name()) >= 0);
+		}
+	}
+
+	public void testVerifyCachedTrees() throws Exception {
+		final ObjectId treeId = tree("a");
+		new CanonicalTreeParser().reset(db, treeId);
+		assertTrue(db.toFile(treeId).delete());
+
+		final TreeWalk tw = new TreeWalk(db);
+		tw.reset(new ObjectId[] { treeId });
+		assertTrue(tw.next());
+
+		tw.setVerifyCachedTrees(true);
+		try {
+			tw.reset(new ObjectId[] { treeId });
+			fail("Walked a pruned tree");
+		} catch (MissingObjectException e) {
+			// Expected.
+		}
+	}
+
+	public void testScanForPacksPurges() throws Exception {
+		final ObjectId treeId = tree("a");
+		new CanonicalTreeParser().reset(db, treeId);
+		assertTrue(db.toFile(treeId).delete());
+
+		db.scanForPacks();
+		assertNull(TreeCache.get(db, treeId));
+		try {
+			new CanonicalTreeParser().reset(db, treeId);
+			fail("Parsed a pruned tree");
+		} catch (MissingObjectException e) {
+			// Expected.
+		}
+	}
+
+	public void testOtherRepositoryMisses() throws Exception {
+		final Repository other = createNewEmptyRepo();
+		final TreeCache cache = new TreeCache(16 * 64);
+		final ObjectId a = id(0x00);
+		cache.insert(db, a, new byte[10]);
+		assertNull(cache.lookup(other, a));
+		assertNotNull(cache.lookup(db, a));
+		other.close();
+	}
+
+	public void testSameDirectoryHits() throws Exception {
+		final Repository again = new Repository(db.getDirectory());
+		final TreeCache cache = new TreeCache(16 * 64);
+		final ObjectId a = id(0x00);
+		cache.insert(db, a, new byte[10]);
+		assertNotNull(cache.lookup(again, a));
+		again.close();
+	}
+
+	public void testDiscardRepository() throws Exception {
+		final Repository other = createNewEmptyRepo();
+		final TreeCache cache = new TreeCache(16 * 64);
+		cache.insert(db, id(0x00), new byte[10]);
+		cache.insert(other, id(0x01), new byte[20]);
+		cache.discard(other);
+
+		final CacheStatistics s = cache.statistics();
+		assertEquals(1, s.getEntryCount());
+		assertEquals(10, s.getOpenByteCount());
+		assertNull(cache.lookup(other, id(0x01)));
+		assertNotNull(cache.lookup(db, id(0x00)));
+		other.close();
+	}
+
+	public void testNotATree() throws Exception {
+		final ObjectId blobId = ow.writeBlob("a".getBytes());
+		try {
+			new CanonicalTreeParser().reset(db, blobId);
+			fail("Parsed a blob as a tree");
+		} catch (IncorrectObjectTypeException e) {
+			// Expected.
+		}
+		assertNull(TreeCache.get(db, blobId));
+	}
+
+	public void testDisabled() throws Exception {
+		TreeCache.reconfigure(0);
+		final ObjectId treeId = tree("a");
+		new CanonicalTreeParser().reset(db, treeId);
+		assertNull(TreeCache.get(db, treeId));
+		assertEquals(0, TreeCache.getStatistics().getEntryCount());
+	}
+
+	public void testInvalidLimit() {
+		try {
+			TreeCache.reconfigure(-1);
+			fail("Accepted a negative limit");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testHitAndMissCounts() {
+		final TreeCache c = new TreeCache(16 * 64);
+		final ObjectId a = id(0x00);
+		assertNull(c.lookup(db, a));
+		c.insert(db, a, new byte[10]);
+		assertNotNull(c.lookup(db, a));
+		assertNotNull(c.lookup(db, a));
+
+		final CacheStatistics s = c.statistics();
+		assertEquals(2, s.getHitCount());
+		assertEquals(1, s.getMissCount());
+		assertEquals(1, s.getEntryCount());
+		assertEquals(10, s.getOpenByteCount());
+		assertEquals(16 * 64, s.getLimit());
+		assertEquals(2.0 / 3.0, s.getHitRatio(), 1e-9);
+	}
+
+	public void testEvictsLeastRecentlyUsed() {
+		// 16 segments of 64 bytes each; all ids below share segment 0.
+		final TreeCache cache = new TreeCache(16 * 64);
+		final ObjectId a = id(0x00);
+		final ObjectId b = id(0x10);
+		final ObjectId c = id(0x20);
+
+		cache.insert(db, a, new byte[30]);
+		cache.insert(db, b, new byte[30]);
+		assertNotNull(cache.lookup(db, a));
+		cache.insert(db, c, new byte[30]);
+
+		assertNotNull(cache.lookup(db, a));
+		assertNull(cache.lookup(db, b));
+		assertNotNull(cache.lookup(db, c));
+
+		final CacheStatistics s = cache.statistics();
+		assertEquals(1, s.getEvictionCount());
+		assertEquals(2, s.getEntryCount());
+		assertEquals(60, s.getOpenByteCount());
+	}
+
+	public void testTooLargeNotCached() {
+		final TreeCache cache = new TreeCache(16 * 64);
+		final ObjectId a = id(0x00);
+		cache.insert(db, a, new byte[65]);
+		assertNull(cache.lookup(db, a));
+		assertEquals(0, cache.statistics().getEntryCount());
+	}
+
+	public void testShrinkingLimitEvicts() {
+		final TreeCache cache = new TreeCache(16 * 1024);
+		cache.insert(db, id(0x00), new byte[100]);
+		cache.insert(db, id(0x01), new byte[100]);
+		assertEquals(200, cache.statistics().getOpenByteCount());
+
+		cache.setLimit(16 * 64);
+		final CacheStatistics s = cache.statistics();
+		assertEquals(0, s.getOpenByteCount());
+		assertEquals(0, s.getEntryCount());
+		assertEquals(2, s.getEvictionCount());
+	}
+
+	public void testDiscardAll() {
+		final TreeCache cache = new TreeCache(16 * 1024);
+		cache.insert(db, id(0x00), new byte[0]);
+		cache.insert(db, id(0x01), new byte[100]);
+		cache.lookup(db, id(0x00));
+		cache.discardAll();
+
+		final CacheStatistics s = cache.statistics();
+		assertEquals(0, s.getEntryCount());
+		assertEquals(0, s.getHitCount());
+		assertNull(cache.lookup(db, id(0x00)));
+	}
+
+	private ObjectId tree(final String... names) throws Exception {
+		final ObjectId blobId = ow.writeBlob("x".getBytes());
+		final Tree t = new Tree(db);
+		for (final String n : names)
+			t.addFile(n).setId(blobId);
+		return ow.writeTree(t);
+	}
+
+	private ObjectId commit(final Repository r, final ObjectId treeId)
+			throws Exception {
+		final Commit c = new Commit(r);
+		c.setAuthor(new PersonIdent(jauthor, 1154236443000L, -4 * 60));
+		c.setCommitter(new PersonIdent(jcommitter, 1154236443000L, -4 * 60));
+		c.setMessage("a tree\n");
+		c.setTreeId(treeId);
+		return new ObjectWriter(r).writeCommit(c);
+	}
+
+	private static String path(final CanonicalTreeParser p) {
+		return RawParseUtils.decode(Constants.CHARSET, p.path, p.pathOffset,
+				p.pathLen);
+	}
+
+	private static ObjectId id(final int firstByte) {
+		final byte[] raw = new byte[20];
+		raw[0] = (byte) firstByte;
+		raw[19] = 1;
+		return ObjectId.fromRaw(raw);
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.treewalk.filter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.spearce.jgit.dircache.DirCache;
+import org.spearce.jgit.dircache.DirCacheBuilder;
+import org.spearce.jgit.dircache.DirCacheEntry;
+import org.spearce.jgit.dircache.DirCacheIterator;
+import org.spearce.jgit.lib.FileMode;
+import org.spearce.jgit.lib.ObjectWriter;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.treewalk.FileTreeIterator;
+import org.spearce.jgit.treewalk.TreeWalk;
+
+public class IndexDiffFilterTest extends RepositoryTestCase {
+	private final String[] paths = { "a", "b", "c", "d" };
+
+	private CountingIterator work;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		for (final String p : paths)
+			writeTrashFile(p, "content of " + p);
+	}
+
+	public void testCleanTreeReadsNoFiles() throws Exception {
+		assertEquals(0, diff(index(false)).size());
+		assertEquals(0, work.hashed);
+	}
+
+	public void testTouchedFileIsHashed() throws Exception {
+		final DirCache dc = index(false);
+		final File b = new File(trash, "b");
+		b.setLastModified(b.lastModified() - 10000);
+
+		assertEquals(0, diff(dc).size());
+		assertEquals(1, work.hashed);
+	}
+
+	public void testModifiedSameLength() throws Exception {
+		final DirCache dc = index(false);
+		final File b = new File(trash, "b");
+		final long mtime = b.lastModified();
+		writeTrashFile("b", "CONTENT OF b");
+		b.setLastModified(mtime - 10000);
+
+		final List<String> r = diff(dc);
+		assertEquals(1, r.size());
+		assertEquals("b", r.get(0));
+		assertEquals(1, work.hashed);
+	}
+
+	public void testLengthChangeIsNotHashed() throws Exception {
+		final DirCache dc = index(false);
+		writeTrashFile("c", "longer content of c");
+
+		final List<String> r = diff(dc);
+		assertEquals(1, r.size());
+		assertEquals("c", r.get(0));
+		assertEquals(0, work.hashed);
+	}
+
+	public void testRacilyCleanIsHashed() throws Exception {
+		// Give the entry a modification time after the index file's own
+		// timestamp; its stat information cannot be trusted.
+		//
+		for (final String p : paths) {
+			final File f = new File(trash, p);
+			f.setLastModified(f.lastModified() - 10000);
+		}
+		final File a = new File(trash, "a");
+		final long future = (System.currentTimeMillis() / 1000 + 3600) * 1000;
+		a.setLastModified(future);
+		final DirCache dc = index(true);
+		assertTrue(dc.isRacilyClean(dc.getEntry("a")));
+		assertFalse(dc.isRacilyClean(dc.getEntry("b")));
+
+		writeTrashFile("a", "CONTENT OF a");
+		a.setLastModified(future);
+
+		final List<String> r = diff(dc);
+		assertEquals(1, r.size());
+		assertEquals("a", r.get(0));
+		assertEquals(1, work.hashed);
+	}
+
+	public void testUntrackedAndDeleted() throws Exception {
+		final DirCache dc = index(false);
+		assertTrue(new File(trash, "d").delete());
+		writeTrashFile("u", "untracked");
+
+		final List<String> r = diff(dc);
+		assertEquals(2, r.size());
+		assertEquals("d", r.get(0));
+		assertEquals("u", r.get(1));
+		assertEquals(0, work.hashed);
+	}
+
+	private DirCache index(final boolean onDisk) throws Exception {
+		final ObjectWriter ow = new ObjectWriter(db);
+		final DirCache dc = onDisk ? DirCache.lock(db) : DirCache.read(db);
+		final DirCacheBuilder b = dc.builder();
+		for (final String p : paths) {
+			final File f = new File(trash, p);
+			final DirCacheEntry e = new DirCacheEntry(p);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			e.setLength((int) f.length());
+			e.setLastModified(f.lastModified());
+			final FileInputStream in = new FileInputStream(f);
+			try {
+				e.setObjectId(ow.computeBlobSha1(f.length(), in));
+			} finally {
+				in.close();
+			}
+			b.add(e);
+		}
+		b.finish();
+		if (onDisk) {
+			dc.write();
+			assertTrue(dc.commit());
+		}
+		return dc;
+	}
+
+	private List<String> diff(final DirCache dc) throws Exception {
+		work = new CountingIterator(trash);
+		final TreeWalk tw = new TreeWalk(db);
+		tw.reset();
+		tw.addTree(new DirCacheIterator(dc));
+		tw.addTree(work);
+		tw.setRecursive(true);
+		tw.setFilter(new IndexDiffFilter(0, 1));
+
+		final List<String> r = new ArrayList<String>();
+		while (tw.next())
+			r.add(tw.getPathString());
+		return r;
+	}
+
+	private static class CountingIterator extends FileTreeIterator {
+		int hashed;
+
+		CountingIterator(final File root) {
+			super(root);
+		}
+
+		@Override
+		public byte[] idBuffer() {
+			hashed++;
+			return super.idBuffer();
+		}
+	}
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.treewalk.filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.spearce.jgit.dircache.DirCache;
+import org.spearce.jgit.dircache.DirCacheBuilder;
+import org.spearce.jgit.dircache.DirCacheEntry;
+import org.spearce.jgit.dircache.DirCacheIterator;
+import org.spearce.jgit.lib.FileMode;
+import org.spearce.jgit.lib.RepositoryTestCase;
+import org.spearce.jgit.treewalk.TreeWalk;
+
+public class PathFilterGroupTest extends RepositoryTestCase {
+	private static final String[] PATHS = { "a.", "a/b", "a/c/e", "a/c/f",
+			"a/d", "a0b", "b/x/y/z", "b/x/yy", "c", "d/e" };
+
+	private DirCache dc;
+
+	public void setUp() throws Exception {
+		super.setUp();
+		dc = DirCache.read(db);
+		final DirCacheBuilder b = dc.builder();
+		for (final String p : PATHS) {
+			final DirCacheEntry e = new DirCacheEntry(p);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			b.add(e);
+		}
+		b.finish();
+	}
+
+	public void testFiles() throws Exception {
+		assertLikeOr("a/b", "a/c/f");
+		assertLikeOr("a.", "a0b", "c");
+	}
+
+	public void testDirectories() throws Exception {
+		assertLikeOr("a", "b/x");
+		assertLikeOr("a/c", "d");
+		assertLikeOr("b/x/y", "a/c/e");
+	}
+
+	public void testParentAndChild() throws Exception {
+		assertLikeOr("a", "a/c", "a/c/e");
+		assertLikeOr("b", "b/x/y/z");
+	}
+
+	public void testMissingPaths() throws Exception {
+		assertLikeOr("a/c/g", "b/x/y/zz", "e");
+		assertLikeOr("a0", "b/xy", "0");
+		assertLikeOr("a/b/c", "c/d");
+	}
+
+	public void testRandomGroups() throws Exception {
+		final String[] candidates = { "a", "a.", "a/b", "a/c", "a/c/e",
+				"a/c/f", "a/c/g", "a/d", "a0", "a0b", "b", "b/x", "b/x/y",
+				"b/x/y/z", "b/x/yy", "b/xy", "c", "c/d", "d", "d/e", "e" };
+		final Random rng = new Random(7);
+		for (int round = 0; round < 200; round++) {
+			final List<String> group = new ArrayList<String>();
+			final int n = 2 + rng.nextInt(5);
+			for (int i = 0; i < n; i++)
+				group.add(candidates[rng.nextInt(candidates.length)]);
+			assertLikeOr(group.toArray(new String[group.size()]));
+		}
+	}
+
+	private void assertLikeOr(final String... paths) throws Exception {
+		final List<TreeFilter> filters = new ArrayList<TreeFilter>();
+		for (final String p : paths)
+			filters.add(PathFilter.create(p));
+		final TreeFilter group = PathFilterGroup.createFromStrings(Arrays
+				.asList(paths));
+		final TreeFilter or = OrTreeFilter.create(filters);
+
+		for (final boolean recursive : new boolean[] { true, false }) {
+			assertEquals(group.toString() + " recursive=" + recursive,
+					walk(or, recursive), walk(group, recursive));
+		}
+	}
+
+	private List<String> walk(final TreeFilter filter, final boolean recursive)
+			throws Exception {
+		final TreeWalk tw = new TreeWalk(db);
+		tw.reset();
+		tw.addTree(new DirCacheIterator(dc));
+		tw.setFilter(filter);
+		tw.setRecursive(recursive);
+		final List<String> r = new ArrayList<String>();
+		while (tw.next())
+			r.add(tw.getPathString());
+		return r;
+	}
+}
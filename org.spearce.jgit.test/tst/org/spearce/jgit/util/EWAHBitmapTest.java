@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.util;
+
+import java.io.ByteArrayOutputStream;
+
+import junit.framework.TestCase;
+
+import org.spearce.jgit.errors.CorruptObjectException;
+
+public class EWAHBitmapTest extends TestCase {
+	public void testEmpty() throws Exception {
+		final EWAHBitmap b = new EWAHBitmap();
+		assertEquals(0, b.sizeInBits());
+		assertEquals(0, b.cardinality());
+		assertFalse(b.get(0));
+		assertFalse(b.iterator().hasNext());
+
+		final EWAHBitmap r = roundTrip(b);
+		assertEquals(0, r.sizeInBits());
+		assertFalse(r.iterator().hasNext());
+	}
+
+	public void testSparseAndDense() throws Exception {
+		final int[] bits = { 0, 1, 2, 63, 64, 65, 1000, 5000, 5001, 5002,
+				5003, 100000, 100063 };
+		final EWAHBitmap b = new EWAHBitmap();
+		for (int i = 0; i < bits.length; i++)
+			b.set(bits[i]);
+		assertEquals(100064, b.sizeInBits());
+		assertEquals(bits.length, b.cardinality());
+		assertBits(bits, b);
+		assertBits(bits, roundTrip(b));
+
+		assertTrue(b.get(5001));
+		assertFalse(b.get(5004));
+		assertFalse(b.get(99999));
+		assertFalse(b.get(200000));
+	}
+
+	public void testLongRuns() throws Exception {
+		final int[] bits = new int[3000];
+		for (int i = 0; i < bits.length; i++)
+			bits[i] = 64 * 100 + i;
+		final EWAHBitmap b = new EWAHBitmap();
+		for (int i = 0; i < bits.length; i++)
+			b.set(bits[i]);
+		assertEquals(bits.length, b.cardinality());
+		assertBits(bits, b);
+
+		final EWAHBitmap r = roundTrip(b);
+		assertBits(bits, r);
+
+		// The leading run of zeros compresses into a single marker word.
+		assertTrue(b.serializedSize() < 12 + 8 * 50);
+	}
+
+	public void testSetOutOfOrder() {
+		final EWAHBitmap b = new EWAHBitmap();
+		b.set(10);
+		try {
+			b.set(5);
+			fail("accepted a bit below the last set bit");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	public void testReadTruncated() throws Exception {
+		final EWAHBitmap b = new EWAHBitmap();
+		b.set(3);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		b.writeTo(out);
+		final byte[] raw = out.toByteArray();
+		try {
+			EWAHBitmap.read(raw, 0, raw.length - 1);
+			fail("accepted a truncated bitmap");
+		} catch (CorruptObjectException e) {
+			// expected
+		}
+	}
+
+	public void testValueOf() throws Exception {
+		final long[] words = new long[200];
+		words[0] = 0x5;
+		words[1] = ~0L;
+		words[150] = 1L << 63;
+		final EWAHBitmap b = EWAHBitmap.valueOf(words, 200 * 64);
+		final int[] bits = new int[2 + 64 + 1];
+		bits[0] = 0;
+		bits[1] = 2;
+		for (int i = 0; i < 64; i++)
+			bits[2 + i] = 64 + i;
+		bits[66] = 150 * 64 + 63;
+		assertBits(bits, b);
+		assertBits(bits, roundTrip(b));
+	}
+
+	public void testLogicalOperations() {
+		final EWAHBitmap b = new EWAHBitmap();
+		b.set(1);
+		b.set(70);
+		b.set(6400);
+
+		final long[] w = new long[101];
+		w[0] = 0x3;
+		b.orInto(w);
+		assertEquals(0x3, w[0]);
+		assertEquals(1L << 6, w[1]);
+		assertEquals(1L, w[100]);
+
+		b.xorInto(w);
+		assertEquals(0x1, w[0]);
+		assertEquals(0, w[1]);
+		assertEquals(0, w[100]);
+
+		w[0] = ~0L;
+		b.andNotInto(w);
+		assertEquals(~0x2L, w[0]);
+
+		// Bits beyond the end of the destination are ignored.
+		final long[] small = new long[1];
+		b.orInto(small);
+		assertEquals(0x2, small[0]);
+	}
+
+	private static EWAHBitmap roundTrip(final EWAHBitmap b) throws Exception {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		b.writeTo(out);
+		final byte[] raw = out.toByteArray();
+		assertEquals(b.serializedSize(), raw.length);
+
+		final byte[] buf = new byte[raw.length + 5];
+		System.arraycopy(raw, 0, buf, 3, raw.length);
+		final EWAHBitmap r = EWAHBitmap.read(buf, 3, 3 + raw.length);
+		assertEquals(b.sizeInBits(), r.sizeInBits());
+		assertEquals(b.serializedSize(), r.serializedSize());
+		return r;
+	}
+
+	private static void assertBits(final int[] exp, final EWAHBitmap b) {
+		final EWAHBitmap.BitIterator i = b.iterator();
+		for (int k = 0; k < exp.length; k++) {
+			assertTrue(i.hasNext());
+			assertEquals(exp[k], i.next());
+			assertTrue(b.get(exp[k]));
+		}
+		assertFalse(i.hasNext());
+	}
+}
@@ -39,21 +39,29 @@
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
 
 import org.spearce.jgit.errors.CorruptObjectException;
 import org.spearce.jgit.lib.Constants;
+import org.spearce.jgit.lib.CoreConfig;
 import org.spearce.jgit.lib.LockFile;
+import org.spearce.jgit.lib.ObjectId;
 import org.spearce.jgit.lib.Repository;
+import org.spearce.jgit.util.EWAHBitmap;
 import org.spearce.jgit.util.MutableInteger;
 import org.spearce.jgit.util.NB;
 import org.spearce.jgit.util.TemporaryBuffer;
@@ -76,6 +84,14 @@ public class DirCache {
 
 	private static final int EXT_TREE = 0x54524545 /* 'TREE' */;
 
+	private static final int EXT_LINK = 0x6c696e6b /* 'link' */;
+
+	/**
+	 * Percentage of shared index entries which may be changed before a split
+	 * index writes a new shared index, as C Git's splitIndex.maxPercentChange.
+	 */
+	private static final int MAX_PERCENT_CHANGE = 20;
+
 	private static final int INFO_LEN = DirCacheEntry.INFO_LEN;
 
 	private static final DirCacheEntry[] NO_ENTRIES = {};
@@ -126,7 +142,32 @@ static int cmp(final byte[] aPath, final int aLen, final byte[] bPath,
 	 */
 	public static DirCache read(final File indexLocation)
 			throws CorruptObjectException, IOException {
-		final DirCache c = new DirCache(indexLocation);
+		return read(indexLocation, false);
+	}
+
+	/**
+	 * Create a new in-core index representation and read an index from disk.
+	 * <p>
+	 * The new index will be read before it is returned to the caller. Read
+	 * failures are reported as exceptions and therefore prevent the method from
+	 * returning a partially populated index.
+	 *
+	 * @param indexLocation
+	 *            location of the index file on disk.
+	 * @param mmap
+	 *            true to memory map the index file and decode entries only as
+	 *            they are accessed; see {@link #DirCache(File, boolean)}.
+	 * @return a cache representing the contents of the specified index file (if
+	 *         it exists) or an empty cache if the file does not exist.
+	 * @throws IOException
+	 *             the index file is present but could not be read.
+	 * @throws CorruptObjectException
+	 *             the index file is using a format or extension that this
+	 *             library does not support.
+	 */
+	public static DirCache read(final File indexLocation, final boolean mmap)
+			throws CorruptObjectException, IOException {
+		final DirCache c = new DirCache(indexLocation, mmap);
 		c.read();
 		return c;
 	}
@@ -150,7 +191,10 @@ public static DirCache read(final File indexLocation)
 	 */
 	public static DirCache read(final Repository db)
 			throws CorruptObjectException, IOException {
-		return read(new File(db.getDirectory(), "index"));
+		final DirCache c = read(new File(db.getDirectory(), "index"),
+				isMmap(db));
+		c.configure(db);
+		return c;
 	}
 
 	/**
@@ -174,7 +218,12 @@ public static DirCache read(final Repository db)
 	 */
 	public static DirCache lock(final File indexLocation)
 			throws CorruptObjectException, IOException {
-		final DirCache c = new DirCache(indexLocation);
+		return lock(indexLocation, false);
+	}
+
+	private static DirCache lock(final File indexLocation, final boolean mmap)
+			throws CorruptObjectException, IOException {
+		final DirCache c = new DirCache(indexLocation, mmap);
 		if (!c.lock())
 			throw new IOException("Cannot lock " + indexLocation);
 
@@ -214,18 +263,56 @@ public static DirCache lock(final File indexLocation)
 	 */
 	public static DirCache lock(final Repository db)
 			throws CorruptObjectException, IOException {
-		return lock(new File(db.getDirectory(), "index"));
+		final DirCache c = lock(new File(db.getDirectory(), "index"),
+				isMmap(db));
+		c.configure(db);
+		return c;
+	}
+
+	private static boolean isMmap(final Repository db) {
+		return db.getConfig().getCore().isIndexMmap();
+	}
+
+	private void configure(final Repository db) {
+		final CoreConfig cfg = db.getConfig().getCore();
+		if (cfg.getIndexVersion() != 0)
+			setVersion(cfg.getIndexVersion());
+		if (cfg.isSplitIndex())
+			setSplitIndex(true);
 	}
 
 	/** Location of the current version of the index file. */
 	private final File liveFile;
 
+	/** True if the file is mapped and its entries decoded on demand. */
+	private final boolean mmap;
+
 	/** Modification time of the file at the last read/write we did. */
 	private long lastModified;
 
-	/** Individual file index entries, sorted by path name. */
+	/**
+	 * Individual file index entries, sorted by path name.
+	 * <p>
+	 * If {@link #lazyBuf} is not null a slot may still be null, in which case
+	 * the entry has not been decoded yet; use {@link #entry(int)}.
+	 */
 	private DirCacheEntry[] sortedEntries;
 
+	/** The mapped index file, if entries are decoded on demand. */
+	private ByteBuffer lazyBuf;
+
+	/** Guards decoding of {@link #sortedEntries} from {@link #lazyBuf}. */
+	private final Object lazyLock = new Object();
+
+	/** Position of each entry's record within {@link #lazyBuf}. */
+	private int[] lazyPos;
+
+	/** Position of the undecoded cache tree in {@link #lazyBuf}; -1 if none. */
+	private int lazyTreePos;
+
+	/** Length of the undecoded cache tree extension. */
+	private int lazyTreeLen;
+
 	/** Number of positions within {@link #sortedEntries} that are valid. */
 	private int entryCnt;
 
@@ -235,6 +322,23 @@ public static DirCache lock(final Repository db)
 	/** Our active lock (if we hold it); null if we don't have it locked. */
 	private LockFile myLock;
 
+	/** File format version to write, 2 or 4. */
+	private int version = 2;
+
+	/** True if the index is written as a split index. */
+	private boolean splitIndex;
+
+	/** Name of the shared index our entries are split from; null if none. */
+	private ObjectId baseId;
+
+	/**
+	 * Entries of the shared index, sorted by path name; null if none.
+	 * <p>
+	 * These are private copies, never the instances in {@link #sortedEntries},
+	 * so they still hold what the shared index file holds when we write.
+	 */
+	private DirCacheEntry[] baseEntries;
+
 	/**
 	 * Create a new in-core index representation.
 	 * <p>
@@ -245,10 +349,106 @@ public static DirCache lock(final Repository db)
 	 *            location of the index file on disk.
 	 */
 	public DirCache(final File indexLocation) {
+		this(indexLocation, false);
+	}
+
+	/**
+	 * Create a new in-core index representation.
+	 * <p>
+	 * The new index will be empty. Callers may wish to read from the on disk
+	 * file first with {@link #read()}.
+	 * <p>
+	 * If <code>mmap</code> is true {@link #read()} maps the index file instead
+	 * of copying every entry into the Java heap. Reading only verifies the
+	 * file's checksum and locates the entry records; entries are decoded when
+	 * first accessed, and lookups by path binary search the mapped records,
+	 * decoding only the entries they compare against. This suits short lived
+	 * processes which only look at a few paths of a very large index.
+	 *
+	 * @param indexLocation
+	 *            location of the index file on disk.
+	 * @param mmap
+	 *            true to map the index file and decode entries on demand.
+	 */
+	public DirCache(final File indexLocation, final boolean mmap) {
 		liveFile = indexLocation;
+		this.mmap = mmap;
 		clear();
 	}
 
+	/**
+	 * @return file format version the index is written with, 2 or 4.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Set the file format version the index is written with.
+	 * <p>
+	 * Version 4 compresses each path against the path of the entry before it,
+	 * which makes the index of a large tree with deep paths much smaller, and
+	 * so faster to read and write. Older versions of C Git cannot read it.
+	 *
+	 * @param v
+	 *            the version, 2 or 4.
+	 */
+	public void setVersion(final int v) {
+		if (v != 2 && v != 4)
+			throw new IllegalArgumentException("Unsupported DIRC version " + v);
+		version = v;
+	}
+
+	/**
+	 * @return true if the index is written as a split index.
+	 */
+	public boolean isSplitIndex() {
+		return splitIndex;
+	}
+
+	/**
+	 * Enable or disable writing a split index.
+	 * <p>
+	 * A split index stores most entries in a shared index file next to the
+	 * index, named after its checksum, and only the entries which differ from
+	 * it in the index file itself. Updating a few entries of a very large
+	 * index then only rewrites a small file. A new shared index is written
+	 * once too many of its entries have changed.
+	 * <p>
+	 * Shared index files which are no longer used are not removed.
+	 *
+	 * @param split
+	 *            true to write a split index; false to write all entries into
+	 *            the index file.
+	 */
+	public void setSplitIndex(final boolean split) {
+		splitIndex = split;
+	}
+
+	/**
+	 * Can the stat information of an entry be trusted to detect changes?
+	 * <p>
+	 * An entry whose cached modification time is not older than this index
+	 * file is "racily clean": the work file may have been modified again in
+	 * the same timestamp granule the index was written in, so a matching
+	 * length and modification time does not prove the file is unmodified.
+	 * Such entries must have their content compared instead.
+	 * <p>
+	 * An index which was never read from or written to disk has no timestamp
+	 * of its own, so its entries are never considered racy.
+	 *
+	 * @param e
+	 *            an entry of this index.
+	 * @return true if the entry's content must be checked.
+	 */
+	public boolean isRacilyClean(final DirCacheEntry e) {
+		if (lastModified <= 0)
+			return false;
+		final int smudge_s = (int) (lastModified / 1000);
+		final int smudge_ns = ((int) (lastModified % 1000)) * 1000000;
+		return e.mightBeRacilyClean(smudge_s, smudge_ns);
+	}
+
 	/**
 	 * Create a new builder to update this cache.
 	 * <p>
@@ -277,6 +477,7 @@ void replace(final DirCacheEntry[] e, final int cnt) {
 		sortedEntries = e;
 		entryCnt = cnt;
 		tree = null;
+		clearLazy();
 	}
 
 	/**
@@ -301,7 +502,12 @@ else if (liveFile.lastModified() != lastModified) {
 				final FileInputStream inStream = new FileInputStream(liveFile);
 				try {
 					clear();
-					readFrom(inStream);
+					if (mmap) {
+						readMapped(inStream);
+						if (myLock != null)
+							decodeAll();
+					} else
+						readFrom(inStream);
 				} finally {
 					try {
 						inStream.close();
@@ -324,6 +530,16 @@ public void clear() {
 		sortedEntries = NO_ENTRIES;
 		entryCnt = 0;
 		tree = null;
+		baseId = null;
+		baseEntries = null;
+		clearLazy();
+	}
+
+	private void clearLazy() {
+		lazyBuf = null;
+		lazyPos = null;
+		lazyTreePos = -1;
+		lazyTreeLen = 0;
 	}
 
 	private void readFrom(final FileInputStream inStream) throws IOException,
@@ -339,8 +555,9 @@ private void readFrom(final FileInputStream inStream) throws IOException,
 		if (!is_DIRC(hdr))
 			throw new CorruptObjectException("Not a DIRC file.");
 		final int ver = NB.decodeInt32(hdr, 4);
-		if (ver != 2)
+		if (ver != 2 && ver != 4)
 			throw new CorruptObjectException("Unknown DIRC version " + ver);
+		version = ver;
 		entryCnt = NB.decodeInt32(hdr, 8);
 		if (entryCnt < 0)
 			throw new CorruptObjectException("DIRC has too many entries.");
@@ -349,12 +566,19 @@ private void readFrom(final FileInputStream inStream) throws IOException,
 		//
 		final byte[] infos = new byte[INFO_LEN * entryCnt];
 		sortedEntries = new DirCacheEntry[entryCnt];
-		for (int i = 0; i < entryCnt; i++)
-			sortedEntries[i] = new DirCacheEntry(infos, i * INFO_LEN, in);
+		byte[] prior = ver == 4 ? new byte[0] : null;
+		for (int i = 0; i < entryCnt; i++) {
+			final DirCacheEntry e;
+			e = new DirCacheEntry(infos, i * INFO_LEN, in, prior);
+			sortedEntries[i] = e;
+			if (prior != null)
+				prior = e.path;
+		}
 		lastModified = liveFile.lastModified();
 
 		// After the file entries are index extensions.
 		//
+		byte[] link = null;
 		while (fd.position() - in.available() < sizeOnDisk - 20) {
 			NB.readFully(in, hdr, 0, 8);
 			switch (NB.decodeInt32(hdr, 0)) {
@@ -364,6 +588,11 @@ private void readFrom(final FileInputStream inStream) throws IOException,
 				tree = new DirCacheTree(raw, new MutableInteger(), null);
 				break;
 			}
+			case EXT_LINK: {
+				link = new byte[NB.decodeInt32(hdr, 4)];
+				NB.readFully(in, link, 0, link.length);
+				break;
+			}
 			default:
 				if (hdr[0] >= 'A' && hdr[0] <= 'Z') {
 					// The extension is optional and is here only as
@@ -383,6 +612,280 @@ private void readFrom(final FileInputStream inStream) throws IOException,
 				}
 			}
 		}
+
+		if (link != null)
+			readLink(link);
+	}
+
+	private void readMapped(final FileInputStream inStream)
+			throws IOException, CorruptObjectException {
+		final FileChannel fd = inStream.getChannel();
+		final long sizeOnDisk = fd.size();
+		if (sizeOnDisk > Integer.MAX_VALUE)
+			throw new IOException("DIRC file is too large to map.");
+		if (sizeOnDisk < 12 + Constants.OBJECT_ID_LENGTH)
+			throw new CorruptObjectException("DIRC file is truncated.");
+		final ByteBuffer buf = fd.map(MapMode.READ_ONLY, 0, sizeOnDisk);
+		final int end = (int) sizeOnDisk - Constants.OBJECT_ID_LENGTH;
+
+		// Verify the trailing checksum in one sequential pass, before we
+		// trust any of the offsets stored in the file.
+		//
+		final MessageDigest md = Constants.newMessageDigest();
+		final ByteBuffer content = buf.duplicate();
+		content.position(0);
+		content.limit(end);
+		md.update(content);
+		final byte[] exp = md.digest();
+		for (int i = 0; i < exp.length; i++) {
+			if (exp[i] != buf.get(end + i))
+				throw new CorruptObjectException("DIRC checksum mismatch");
+		}
+
+		final byte[] hdr = new byte[12];
+		for (int i = 0; i < hdr.length; i++)
+			hdr[i] = buf.get(i);
+		if (!is_DIRC(hdr))
+			throw new CorruptObjectException("Not a DIRC file.");
+		final int ver = NB.decodeInt32(hdr, 4);
+		if (ver == 4) {
+			// Prefix compressed paths can only be decoded in order,
+			// which leaves nothing to gain from mapping the file.
+			//
+			readFrom(inStream);
+			return;
+		}
+		if (ver != 2)
+			throw new CorruptObjectException("Unknown DIRC version " + ver);
+		version = ver;
+		final int cnt = NB.decodeInt32(hdr, 8);
+		if (cnt < 0)
+			throw new CorruptObjectException("DIRC has too many entries.");
+
+		// Locate the individual file entries, without decoding them.
+		//
+		final int[] pos = new int[cnt];
+		int ptr = 12;
+		for (int i = 0; i < cnt; i++) {
+			if (end - ptr < INFO_LEN)
+				throw new CorruptObjectException("DIRC file is truncated.");
+			pos[i] = ptr;
+			ptr += DirCacheEntry.recordLength(buf, ptr, end);
+		}
+
+		// After the file entries are index extensions.
+		//
+		int treePos = -1;
+		int treeLen = 0;
+		byte[] link = null;
+		while (ptr < end) {
+			if (end - ptr < 8)
+				throw new CorruptObjectException("DIRC file is truncated.");
+			final int sig = buf.getInt(ptr);
+			final long len = buf.getInt(ptr + 4) & 0xffffffffL;
+			ptr += 8;
+			if (len > end - ptr)
+				throw new CorruptObjectException("DIRC file is truncated.");
+			if (sig == EXT_TREE) {
+				treePos = ptr;
+				treeLen = (int) len;
+			} else if (sig == EXT_LINK) {
+				link = new byte[(int) len];
+				for (int i = 0; i < link.length; i++)
+					link[i] = buf.get(ptr + i);
+			} else if (sig >>> 24 < 'A' || sig >>> 24 > 'Z') {
+				for (int i = 0; i < 4; i++)
+					hdr[i] = buf.get(ptr - 8 + i);
+				throw new CorruptObjectException("DIRC extension '"
+						+ Constants.CHARSET.decode(ByteBuffer.wrap(hdr, 0, 4))
+								.toString()
+						+ "' not supported by this version.");
+			}
+			ptr += (int) len;
+		}
+
+		entryCnt = cnt;
+		sortedEntries = new DirCacheEntry[cnt];
+		lazyBuf = buf;
+		lazyPos = pos;
+		lazyTreePos = treePos;
+		lazyTreeLen = treeLen;
+		lastModified = liveFile.lastModified();
+
+		if (link != null) {
+			// Entries of a split index must be merged with the shared
+			// index before they can be searched.
+			//
+			decodeAll();
+			readLink(link);
+		}
+	}
+
+	/**
+	 * Merge the entries read from a split index with its shared index.
+	 * <p>
+	 * The 'link' extension names the shared index, followed by two bitmaps
+	 * of positions within it: entries which were deleted, and entries which
+	 * are replaced. The first entries of the split index replace the latter
+	 * in order and have no path of their own. All other entries of the split
+	 * index are additions.
+	 *
+	 * @param link
+	 *            payload of the 'link' extension.
+	 * @throws IOException
+	 *             the shared index could not be read.
+	 */
+	private void readLink(final byte[] link) throws IOException {
+		if (link.length < Constants.OBJECT_ID_LENGTH)
+			throw new CorruptObjectException("DIRC link extension is corrupt.");
+		splitIndex = true;
+		final ObjectId id = ObjectId.fromRaw(link, 0);
+		if (id.equals(ObjectId.zeroId()))
+			return;
+
+		EWAHBitmap delete = null;
+		EWAHBitmap replace = null;
+		int ptr = Constants.OBJECT_ID_LENGTH;
+		if (ptr < link.length) {
+			delete = EWAHBitmap.read(link, ptr, link.length);
+			ptr += delete.serializedSize();
+			replace = EWAHBitmap.read(link, ptr, link.length);
+		}
+
+		final File baseFile = sharedIndexFile(id);
+		if (!baseFile.isFile())
+			throw new FileNotFoundException("Shared index " + baseFile
+					+ " is missing.");
+		final DirCache base = new DirCache(baseFile);
+		base.read();
+		final DirCacheEntry[] b = new DirCacheEntry[base.entryCnt];
+		final DirCacheEntry[] merged = new DirCacheEntry[base.entryCnt];
+		for (int i = 0; i < b.length; i++) {
+			b[i] = base.sortedEntries[i];
+			merged[i] = new DirCacheEntry(b[i], b[i].path);
+		}
+
+		int next = 0;
+		if (replace != null) {
+			for (final EWAHBitmap.BitIterator i = replace.iterator(); i
+					.hasNext();) {
+				final int pos = i.next();
+				if (pos >= merged.length || next >= entryCnt
+						|| sortedEntries[next].path.length != 0)
+					throw new CorruptObjectException(
+							"DIRC link replace bitmap is corrupt.");
+				merged[pos] = new DirCacheEntry(sortedEntries[next++],
+						merged[pos].path);
+			}
+		}
+		int remaining = merged.length;
+		if (delete != null) {
+			for (final EWAHBitmap.BitIterator i = delete.iterator(); i
+					.hasNext();) {
+				final int pos = i.next();
+				if (pos >= merged.length)
+					throw new CorruptObjectException(
+							"DIRC link delete bitmap is corrupt.");
+				if (merged[pos] != null) {
+					merged[pos] = null;
+					remaining--;
+				}
+			}
+		}
+
+		// Additions replace any shared entry with the same path and stage.
+		//
+		final DirCacheEntry[] r = new DirCacheEntry[remaining + entryCnt - next];
+		int n = 0;
+		int bi = 0;
+		int ai = next;
+		for (;;) {
+			while (bi < merged.length && merged[bi] == null)
+				bi++;
+			if (bi == merged.length || ai == entryCnt)
+				break;
+			final DirCacheEntry a = sortedEntries[ai];
+			if (a.path.length == 0)
+				throw new CorruptObjectException(
+						"DIRC link replace bitmap is corrupt.");
+			final int cmp = ENT_CMP.compare(merged[bi], a);
+			if (cmp < 0)
+				r[n++] = merged[bi++];
+			else {
+				if (cmp == 0)
+					bi++;
+				r[n++] = a;
+				ai++;
+			}
+		}
+		for (; bi < merged.length; bi++) {
+			if (merged[bi] != null)
+				r[n++] = merged[bi];
+		}
+		for (; ai < entryCnt; ai++) {
+			if (sortedEntries[ai].path.length == 0)
+				throw new CorruptObjectException(
+						"DIRC link replace bitmap is corrupt.");
+			r[n++] = sortedEntries[ai];
+		}
+
+		sortedEntries = r;
+		entryCnt = n;
+		baseId = id;
+		baseEntries = b;
+	}
+
+	private File sharedIndexFile(final ObjectId id) {
+		return new File(liveFile.getParentFile(), "sharedindex." + id.name());
+	}
+
+	/**
+	 * Get an entry, decoding it from the mapped file if necessary.
+	 * <p>
+	 * Lookups such as {@link #getEntry(String)} may run on several threads at
+	 * once (see FileTreeIterator), so an entry is decoded while holding
+	 * {@link #lazyLock}, and only once. Reading an already decoded slot
+	 * without the lock is safe as a DirCacheEntry's fields are all final.
+	 *
+	 * @param i
+	 *            position of the entry.
+	 * @return the entry.
+	 */
+	private DirCacheEntry entry(final int i) {
+		DirCacheEntry e = sortedEntries[i];
+		if (e == null) {
+			synchronized (lazyLock) {
+				e = sortedEntries[i];
+				if (e == null) {
+					e = new DirCacheEntry(lazyBuf, lazyPos[i]);
+					sortedEntries[i] = e;
+				}
+			}
+		}
+		return e;
+	}
+
+	/** Decode all entries in the range [from, to). */
+	private void decode(final int from, final int to) {
+		if (lazyBuf != null) {
+			for (int i = from; i < to; i++)
+				entry(i);
+		}
+	}
+
+	/**
+	 * Decode everything still in the mapped file, and drop our reference to it.
+	 * <p>
+	 * Some platforms (Windows) refuse to replace a file that is still mapped,
+	 * so this is done whenever the index is locked, read while locked, written
+	 * or committed.
+	 */
+	private void decodeAll() {
+		if (lazyBuf != null) {
+			getCacheTree(false);
+			decode(0, entryCnt);
+			clearLazy();
+		}
 	}
 
 	private static boolean is_DIRC(final byte[] hdr) {
@@ -404,6 +907,7 @@ private static boolean is_DIRC(final byte[] hdr) {
 	 *             hold the lock.
 	 */
 	public boolean lock() throws IOException {
+		decodeAll();
 		final LockFile tmp = new LockFile(liveFile);
 		if (tmp.lock()) {
 			tmp.setNeedStatInformation(true);
@@ -446,6 +950,139 @@ public void write() throws IOException {
 	}
 
 	private void writeTo(final OutputStream os) throws IOException {
+		decodeAll();
+
+		if (lastModified > 0) {
+			final int smudge_s = (int) (lastModified / 1000);
+			final int smudge_ns = ((int) (lastModified % 1000)) * 1000000;
+			for (int i = 0; i < entryCnt; i++) {
+				final DirCacheEntry e = sortedEntries[i];
+				if (e.mightBeRacilyClean(smudge_s, smudge_ns))
+					e.smudgeRacilyClean();
+			}
+		}
+
+		if (!splitIndex) {
+			writeIndex(os, sortedEntries, entryCnt, 0, true, null);
+			return;
+		}
+
+		// Write only the entries which differ from the shared index,
+		// starting a new shared index once too many of them do.
+		//
+		final EWAHBitmap delete = new EWAHBitmap();
+		final EWAHBitmap replace = new EWAHBitmap();
+		final List<DirCacheEntry> replaced = new ArrayList<DirCacheEntry>();
+		final List<DirCacheEntry> added = new ArrayList<DirCacheEntry>();
+		if (baseEntries != null) {
+			final DirCacheEntry[] b = baseEntries;
+			int bi = 0;
+			int ci = 0;
+			while (bi < b.length || ci < entryCnt) {
+				final int cmp;
+				if (bi == b.length)
+					cmp = 1;
+				else if (ci == entryCnt)
+					cmp = -1;
+				else
+					cmp = ENT_CMP.compare(b[bi], sortedEntries[ci]);
+				if (cmp < 0)
+					delete.set(bi++);
+				else if (cmp > 0)
+					added.add(sortedEntries[ci++]);
+				else {
+					if (!b[bi].isSameMetaData(sortedEntries[ci])) {
+						replace.set(bi);
+						replaced.add(sortedEntries[ci]);
+					}
+					bi++;
+					ci++;
+				}
+			}
+		}
+		if (baseEntries == null
+				|| (delete.cardinality() + replaced.size() + added.size())
+						* 100 > MAX_PERCENT_CHANGE * baseEntries.length) {
+			writeSharedIndex();
+			writeIndex(os, NO_ENTRIES, 0, 0, true, link(new EWAHBitmap(),
+					new EWAHBitmap()));
+			return;
+		}
+
+		final int cnt = replaced.size() + added.size();
+		final DirCacheEntry[] ents = new DirCacheEntry[cnt];
+		replaced.toArray(ents);
+		for (int i = 0; i < added.size(); i++)
+			ents[replaced.size() + i] = added.get(i);
+		writeIndex(os, ents, cnt, replaced.size(), true, link(delete, replace));
+	}
+
+	private byte[] link(final EWAHBitmap delete, final EWAHBitmap replace)
+			throws IOException {
+		final ByteArrayOutputStream bb = new ByteArrayOutputStream();
+		baseId.copyRawTo(bb);
+		delete.writeTo(bb);
+		replace.writeTo(bb);
+		return bb.toByteArray();
+	}
+
+	/**
+	 * Write all entries into a new shared index, named by its checksum.
+	 *
+	 * @throws IOException
+	 *             the shared index could not be written.
+	 */
+	private void writeSharedIndex() throws IOException {
+		final File dir = liveFile.getParentFile();
+		final File tmp = File.createTempFile("sharedindex_", null, dir);
+		final byte[] sum;
+		try {
+			sum = writeIndex(new BufferedOutputStream(new FileOutputStream(
+					tmp)), sortedEntries, entryCnt, 0, false, null);
+		} catch (IOException err) {
+			tmp.delete();
+			throw err;
+		}
+
+		final ObjectId id = ObjectId.fromRaw(sum);
+		final File dst = sharedIndexFile(id);
+		if (dst.exists())
+			tmp.delete();
+		else if (!tmp.renameTo(dst)) {
+			tmp.delete();
+			throw new IOException("Cannot write " + dst);
+		}
+
+		final DirCacheEntry[] b = new DirCacheEntry[entryCnt];
+		for (int i = 0; i < entryCnt; i++)
+			b[i] = new DirCacheEntry(sortedEntries[i], sortedEntries[i].path);
+		baseId = id;
+		baseEntries = b;
+	}
+
+	/**
+	 * Write an index file.
+	 *
+	 * @param os
+	 *            stream to write to; closed before returning.
+	 * @param ents
+	 *            entries to write, sorted by path name except for the
+	 *            leading stripped entries.
+	 * @param cnt
+	 *            number of entries to write.
+	 * @param stripped
+	 *            number of leading entries to write without their path.
+	 * @param extensions
+	 *            true to write the cache tree extension.
+	 * @param link
+	 *            payload of the 'link' extension; null to omit it.
+	 * @return checksum of the file.
+	 * @throws IOException
+	 *             the stream could not be written.
+	 */
+	private byte[] writeIndex(final OutputStream os,
+			final DirCacheEntry[] ents, final int cnt, final int stripped,
+			final boolean extensions, final byte[] link) throws IOException {
 		final MessageDigest foot = Constants.newMessageDigest();
 		final DigestOutputStream dos = new DigestOutputStream(os, foot);
 
@@ -453,29 +1090,20 @@ private void writeTo(final OutputStream os) throws IOException {
 		//
 		final byte[] tmp = new byte[128];
 		System.arraycopy(SIG_DIRC, 0, tmp, 0, SIG_DIRC.length);
-		NB.encodeInt32(tmp, 4, /* version */2);
-		NB.encodeInt32(tmp, 8, entryCnt);
+		NB.encodeInt32(tmp, 4, version);
+		NB.encodeInt32(tmp, 8, cnt);
 		dos.write(tmp, 0, 12);
 
 		// Write the individual file entries.
 		//
-		if (lastModified <= 0) {
-			// Write a new index, as no entries require smudging.
-			//
-			for (int i = 0; i < entryCnt; i++)
-				sortedEntries[i].write(dos);
-		} else {
-			final int smudge_s = (int) (lastModified / 1000);
-			final int smudge_ns = ((int) (lastModified % 1000)) * 1000000;
-			for (int i = 0; i < entryCnt; i++) {
-				final DirCacheEntry e = sortedEntries[i];
-				if (e.mightBeRacilyClean(smudge_s, smudge_ns))
-					e.smudgeRacilyClean();
-				e.write(dos);
-			}
+		byte[] prior = version == 4 ? new byte[0] : null;
+		for (int i = 0; i < cnt; i++) {
+			final byte[] p = ents[i].write(dos, prior, i < stripped);
+			if (prior != null)
+				prior = p;
 		}
 
-		if (tree != null) {
+		if (extensions && tree != null) {
 			final TemporaryBuffer bb = new TemporaryBuffer();
 			tree.write(tmp, bb);
 			bb.close();
@@ -486,8 +1114,17 @@ private void writeTo(final OutputStream os) throws IOException {
 			bb.writeTo(dos, null);
 		}
 
-		os.write(foot.digest());
+		if (link != null) {
+			NB.encodeInt32(tmp, 0, EXT_LINK);
+			NB.encodeInt32(tmp, 4, link.length);
+			dos.write(tmp, 0, 8);
+			dos.write(link);
+		}
+
+		final byte[] sum = foot.digest();
+		os.write(sum);
 		os.close();
+		return sum;
 	}
 
 	/**
@@ -505,6 +1142,7 @@ public boolean commit() {
 		final LockFile tmp = myLock;
 		requireLocked(tmp);
 		myLock = null;
+		decodeAll();
 		if (!tmp.commit())
 			return false;
 		lastModified = tmp.getCommitLastModified();
@@ -558,11 +1196,11 @@ int findEntry(final byte[] p, final int pLen) {
 		int high = entryCnt;
 		do {
 			int mid = (low + high) >> 1;
-			final int cmp = cmp(p, pLen, sortedEntries[mid]);
+			final int cmp = cmp(p, pLen, entry(mid));
 			if (cmp < 0)
 				high = mid;
 			else if (cmp == 0) {
-				while (mid > 0 && cmp(p, pLen, sortedEntries[mid - 1]) == 0)
+				while (mid > 0 && cmp(p, pLen, entry(mid - 1)) == 0)
 					mid--;
 				return mid;
 			} else
@@ -583,10 +1221,10 @@ else if (cmp == 0) {
 	 * @return position of the next entry whose path is after the input.
 	 */
 	public int nextEntry(final int position) {
-		DirCacheEntry last = sortedEntries[position];
+		DirCacheEntry last = entry(position);
 		int nextIdx = position + 1;
 		while (nextIdx < entryCnt) {
-			final DirCacheEntry next = sortedEntries[nextIdx];
+			final DirCacheEntry next = entry(nextIdx);
 			if (cmp(last, next) != 0)
 				break;
 			last = next;
@@ -597,7 +1235,7 @@ public int nextEntry(final int position) {
 
 	int nextEntry(final byte[] p, final int pLen, int nextIdx) {
 		while (nextIdx < entryCnt) {
-			final DirCacheEntry next = sortedEntries[nextIdx];
+			final DirCacheEntry next = entry(nextIdx);
 			if (!DirCacheTree.peq(p, next.path, pLen))
 				break;
 			nextIdx++;
@@ -630,7 +1268,7 @@ public int getEntryCount() {
 	 * @return the entry at position <code>i</code>.
 	 */
 	public DirCacheEntry getEntry(final int i) {
-		return sortedEntries[i];
+		return entry(i);
 	}
 
 	/**
@@ -642,7 +1280,7 @@ public DirCacheEntry getEntry(final int i) {
 	 */
 	public DirCacheEntry getEntry(final String path) {
 		final int i = findEntry(path);
-		return i < 0 ? null : sortedEntries[i];
+		return i < 0 ? null : entry(i);
 	}
 
 	/**
@@ -663,12 +1301,14 @@ public DirCacheEntry[] getEntriesWithin(String path) {
 			eIdx = -(eIdx + 1);
 		final int lastIdx = nextEntry(p, pLen, eIdx);
 		final DirCacheEntry[] r = new DirCacheEntry[lastIdx - eIdx];
+		decode(eIdx, lastIdx);
 		System.arraycopy(sortedEntries, eIdx, r, 0, r.length);
 		return r;
 	}
 
 	void toArray(final int i, final DirCacheEntry[] dst, final int off,
 			final int cnt) {
+		decode(i, i + cnt);
 		System.arraycopy(sortedEntries, i, dst, off, cnt);
 	}
 
@@ -685,9 +1325,18 @@ void toArray(final int i, final DirCacheEntry[] dst, final int off,
 	 *         and <code>build</code> was false.
 	 */
 	public DirCacheTree getCacheTree(final boolean build) {
+		if (tree == null && lazyTreePos >= 0) {
+			final byte[] raw = new byte[lazyTreeLen];
+			final ByteBuffer b = lazyBuf.duplicate();
+			b.position(lazyTreePos);
+			b.get(raw);
+			tree = new DirCacheTree(raw, new MutableInteger(), null);
+			lazyTreePos = -1;
+		}
 		if (build) {
 			if (tree == null)
 				tree = new DirCacheTree();
+			decode(0, entryCnt);
 			tree.validate(sortedEntries, entryCnt, 0, 0);
 		}
 		return tree;
@@ -45,6 +45,7 @@
 import java.nio.ByteBuffer;
 import java.util.Arrays;
 
+import org.spearce.jgit.errors.CorruptObjectException;
 import org.spearce.jgit.lib.AnyObjectId;
 import org.spearce.jgit.lib.Constants;
 import org.spearce.jgit.lib.FileMode;
@@ -91,6 +92,11 @@ public class DirCacheEntry {
 
 	private static final int ASSUME_VALID = 0x80;
 
+	/** Flag in the first byte of {@link #P_FLAGS} marking extended flags. */
+	private static final int EXTENDED = 0x40;
+
+	private static final byte[] NO_NAME = {};
+
 	/** (Possibly shared) header information storage. */
 	private final byte[] info;
 
@@ -101,12 +107,38 @@ public class DirCacheEntry {
 	final byte[] path;
 
 	DirCacheEntry(final byte[] sharedInfo, final int infoAt,
-			final InputStream in) throws IOException {
+			final InputStream in, final byte[] priorPath) throws IOException {
 		info = sharedInfo;
 		infoOffset = infoAt;
 
 		NB.readFully(in, info, infoOffset, INFO_LEN);
 
+		if (priorPath != null) {
+			// Version 4 compresses the path against the prior entry's path:
+			// the number of bytes to drop from the end of it, followed by
+			// a '\0' terminated suffix. There is no padding.
+			//
+			if ((info[infoOffset + P_FLAGS] & EXTENDED) != 0)
+				throw new CorruptObjectException(
+						"DIRC extended flags not supported.");
+			final int strip = readVarint(in);
+			if (strip > priorPath.length)
+				throw new CorruptObjectException("DIRC path prefix invalid.");
+			final int keep = priorPath.length - strip;
+			final ByteArrayOutputStream tmp = new ByteArrayOutputStream();
+			tmp.write(priorPath, 0, keep);
+			for (;;) {
+				final int c = in.read();
+				if (c < 0)
+					throw new EOFException("Short read of block.");
+				if (c == 0)
+					break;
+				tmp.write(c);
+			}
+			path = tmp.toByteArray();
+			return;
+		}
+
 		int pathLen = NB.decodeUInt16(info, infoOffset + P_FLAGS) & NAME_MASK;
 		int skipped = 0;
 		if (pathLen < NAME_MASK) {
@@ -140,6 +172,53 @@ public class DirCacheEntry {
 		NB.skipFully(in, expLen - actLen - skipped);
 	}
 
+	DirCacheEntry(final ByteBuffer buf, final int pos) {
+		info = new byte[INFO_LEN];
+		infoOffset = 0;
+
+		final ByteBuffer b = buf.duplicate();
+		b.position(pos);
+		b.get(info);
+		path = new byte[pathLength(buf, pos, buf.limit())];
+		b.get(path);
+	}
+
+	/**
+	 * Compute the length of the record stored at a position.
+	 *
+	 * @param buf
+	 *            buffer holding index records.
+	 * @param pos
+	 *            position of the first byte of the record.
+	 * @param end
+	 *            position just past the last byte records may use.
+	 * @return length of the record, including its padding.
+	 * @throws CorruptObjectException
+	 *             the record extends past <code>end</code>.
+	 */
+	static int recordLength(final ByteBuffer buf, final int pos, final int end)
+			throws CorruptObjectException {
+		final int actLen = INFO_LEN + pathLength(buf, pos, end);
+		final int expLen = (actLen + 8) & ~7;
+		if (expLen > end - pos)
+			throw new CorruptObjectException("DIRC file is truncated.");
+		return expLen;
+	}
+
+	private static int pathLength(final ByteBuffer buf, final int pos,
+			final int end) {
+		int pathLen = buf.getShort(pos + P_FLAGS) & NAME_MASK;
+		if (pathLen == NAME_MASK) {
+			// Longer names are terminated by the first '\0' of the padding.
+			//
+			int p = pos + INFO_LEN + NAME_MASK;
+			while (p < end && buf.get(p) != 0)
+				p++;
+			pathLen = p - (pos + INFO_LEN);
+		}
+		return pathLen;
+	}
+
 	/**
 	 * Create an empty entry.
 	 *
@@ -167,10 +246,64 @@ public DirCacheEntry(final byte[] newPath) {
 			NB.encodeInt16(info, infoOffset + P_FLAGS, NAME_MASK);
 	}
 
+	/**
+	 * Create a copy of an entry.
+	 *
+	 * @param src
+	 *            the entry to copy the meta fields from.
+	 * @param newPath
+	 *            path of the copy, in the standard encoding.
+	 */
+	DirCacheEntry(final DirCacheEntry src, final byte[] newPath) {
+		this(newPath);
+		copyMetaData(src);
+	}
+
 	void write(final OutputStream os) throws IOException {
-		final int pathLen = path.length;
-		os.write(info, infoOffset, INFO_LEN);
-		os.write(path, 0, pathLen);
+		write(os, null, false);
+	}
+
+	/**
+	 * Write this entry.
+	 *
+	 * @param os
+	 *            stream to write to.
+	 * @param priorPath
+	 *            path written by the prior entry, to write in the prefix
+	 *            compressed version 4 format; null for version 2.
+	 * @param stripName
+	 *            true to write the entry with an empty path, as done for
+	 *            entries replacing a shared index entry in a split index.
+	 * @return the path written, for use as the next entry's prior path.
+	 * @throws IOException
+	 *             the stream could not be written.
+	 */
+	byte[] write(final OutputStream os, final byte[] priorPath,
+			final boolean stripName) throws IOException {
+		final byte[] name = stripName ? NO_NAME : path;
+		final int pathLen = name.length;
+		if (stripName) {
+			final byte[] tmp = new byte[INFO_LEN];
+			System.arraycopy(info, infoOffset, tmp, 0, INFO_LEN);
+			final int flags = NB.decodeUInt16(tmp, P_FLAGS);
+			NB.encodeInt16(tmp, P_FLAGS, flags & ~NAME_MASK);
+			os.write(tmp, 0, INFO_LEN);
+		} else {
+			os.write(info, infoOffset, INFO_LEN);
+		}
+
+		if (priorPath != null) {
+			int common = 0;
+			while (common < pathLen && common < priorPath.length
+					&& name[common] == priorPath[common])
+				common++;
+			writeVarint(os, priorPath.length - common);
+			os.write(name, common, pathLen - common);
+			os.write(0);
+			return name;
+		}
+
+		os.write(name, 0, pathLen);
 
 		// Index records are padded out to the next 8 byte alignment
 		// for historical reasons related to how C Git read the files.
@@ -179,6 +312,44 @@ void write(final OutputStream os) throws IOException {
 		final int expLen = (actLen + 8) & ~7;
 		if (actLen != expLen)
 			os.write(nullpad, 0, expLen - actLen);
+		return name;
+	}
+
+	/**
+	 * @param other
+	 *            another entry.
+	 * @return true if both entries have the same stat data, flags and object.
+	 */
+	boolean isSameMetaData(final DirCacheEntry other) {
+		for (int i = 0; i < INFO_LEN; i++) {
+			if (info[infoOffset + i] != other.info[other.infoOffset + i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int readVarint(final InputStream in) throws IOException {
+		int c = in.read();
+		if (c < 0)
+			throw new EOFException("Short read of block.");
+		int val = c & 0x7f;
+		while ((c & 0x80) != 0) {
+			c = in.read();
+			if (c < 0)
+				throw new EOFException("Short read of block.");
+			val = ((val + 1) << 7) | (c & 0x7f);
+		}
+		return val;
+	}
+
+	private static void writeVarint(final OutputStream os, int val)
+			throws IOException {
+		final byte[] buf = new byte[5];
+		int p = buf.length - 1;
+		buf[p] = (byte) (val & 0x7f);
+		while ((val >>>= 7) != 0)
+			buf[--p] = (byte) (0x80 | (--val & 0x7f));
+		os.write(buf, p, buf.length - p);
 	}
 
 	/**
@@ -210,7 +381,7 @@ final boolean mightBeRacilyClean(final int smudge_s, final int smudge_ns) {
 		if (smudge_s < mtime)
 			return true;
 		if (smudge_s == mtime)
-			return smudge_ns <= NB.decodeInt32(info, base + 4) / 1000000;
+			return smudge_ns <= NB.decodeInt32(info, base + 4);
 		return false;
 	}
 
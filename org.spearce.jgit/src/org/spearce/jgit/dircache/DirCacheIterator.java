@@ -220,4 +220,16 @@ private void parseEntry() {
 	public DirCacheEntry getDirCacheEntry() {
 		return currentSubtree == null ? currentEntry : null;
 	}
+
+	/**
+	 * Is the current entry's stat information too recent to be trusted?
+	 *
+	 * @return true if the iterator is positioned on a file whose content must
+	 *         be compared, as its stat information may be racily clean.
+	 * @see DirCache#isRacilyClean(DirCacheEntry)
+	 */
+	public boolean isRacilyClean() {
+		return currentSubtree == null && currentEntry != null
+				&& cache.isRacilyClean(currentEntry);
+	}
 }
@@ -137,7 +137,7 @@ static final int hexUInt32(final byte[] bs, final int p) {
 	int w5;
 
 	/**
-	 * For ObjectIdMap
+	 * Get the first 8 bits of the ObjectId.
 	 * 
 	 * @return a discriminator usable for a fan-out style map
 	 */
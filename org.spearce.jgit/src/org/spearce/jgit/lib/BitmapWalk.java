@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevObject;
+import org.spearce.jgit.revwalk.RevTag;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.treewalk.TreeWalk;
+import org.spearce.jgit.util.EWAHBitmap;
+
+/**
+ * Computes the objects of one pack which are reachable from a set of objects.
+ * <p>
+ * The result is an uncompressed bitmap over the pack's objects in offset
+ * order. Commits which already have a bitmap are not walked; their bitmap is
+ * merged into the result instead, so only the history between the starting
+ * points and the nearest bitmapped commits is parsed.
+ * <p>
+ * The walk fails if any reachable object is not in the pack, as a bitmap must
+ * describe the complete closure of its commit.
+ */
+abstract class BitmapWalk {
+	private final Repository db;
+
+	private final int objectCnt;
+
+	private final RevWalk revWalk;
+
+	private final TreeWalk treeWalk;
+
+	private final ObjectId[] treeIds = new ObjectId[1];
+
+	/**
+	 * Create a new walk.
+	 *
+	 * @param repo
+	 *            repository to read objects from.
+	 * @param objectCount
+	 *            number of objects in the pack.
+	 */
+	BitmapWalk(final Repository repo, final int objectCount) {
+		db = repo;
+		objectCnt = objectCount;
+		revWalk = new RevWalk(db);
+		revWalk.setRetainBody(false);
+		treeWalk = new TreeWalk(db);
+	}
+
+	/**
+	 * Find the bit of an object.
+	 *
+	 * @param id
+	 *            the object.
+	 * @return position of the object in the pack's offset order; -1 if the
+	 *         object is not in the pack.
+	 */
+	abstract int findPosition(AnyObjectId id);
+
+	/**
+	 * Get the existing bitmap of a commit.
+	 *
+	 * @param commit
+	 *            the commit.
+	 * @return all objects reachable from the commit; null if the commit has
+	 *         no bitmap and must be walked.
+	 */
+	abstract EWAHBitmap getBitmap(AnyObjectId commit);
+
+	/**
+	 * Invoked for every object the walk visits itself.
+	 * <p>
+	 * Objects merged in from an existing bitmap are not reported.
+	 *
+	 * @param nthPosition
+	 *            position of the object in the pack's offset order.
+	 * @param type
+	 *            type code of the object.
+	 */
+	void onObject(final int nthPosition, final int type) {
+		// Do nothing by default.
+	}
+
+	/**
+	 * Compute the objects reachable from a set of starting points.
+	 *
+	 * @param starts
+	 *            objects to start from; any type is permitted.
+	 * @return uncompressed bitmap of all reachable objects, as for
+	 *         {@link EWAHBitmap#valueOf(long[], int)}; null if some reachable
+	 *         object is not in the pack.
+	 * @throws IOException
+	 *             an object could not be read.
+	 */
+	long[] reach(final Collection<? extends AnyObjectId> starts)
+			throws IOException {
+		final long[] bits = new long[(objectCnt + 63) >>> 6];
+		final ArrayList<RevObject> pending = new ArrayList<RevObject>();
+		for (final AnyObjectId id : starts)
+			pending.add(revWalk.parseAny(id));
+
+		while (!pending.isEmpty()) {
+			final RevObject o = pending.remove(pending.size() - 1);
+			final int pos = findPosition(o);
+			if (pos < 0)
+				return null;
+			if (isSet(bits, pos))
+				continue;
+
+			switch (o.getType()) {
+			case Constants.OBJ_COMMIT: {
+				final EWAHBitmap b = getBitmap(o);
+				if (b != null) {
+					b.orInto(bits);
+					continue;
+				}
+				final RevCommit c = (RevCommit) o;
+				revWalk.parse(c);
+				for (final RevCommit p : c.getParents())
+					pending.add(p);
+				pending.add(c.getTree());
+				break;
+			}
+			case Constants.OBJ_TAG: {
+				final RevTag t = (RevTag) o;
+				revWalk.parse(t);
+				pending.add(t.getObject());
+				break;
+			}
+			case Constants.OBJ_TREE:
+				if (!markTree(o, bits))
+					return null;
+				break;
+			}
+			set(bits, pos);
+			onObject(pos, o.getType());
+		}
+		return bits;
+	}
+
+	private boolean markTree(final AnyObjectId root, final long[] bits)
+			throws IOException {
+		final ArrayList<ObjectId> trees = new ArrayList<ObjectId>();
+		trees.add(root.toObjectId());
+		boolean isRoot = true;
+		while (!trees.isEmpty()) {
+			treeIds[0] = trees.remove(trees.size() - 1);
+			if (!isRoot) {
+				final int pos = findPosition(treeIds[0]);
+				if (pos < 0)
+					return false;
+				if (isSet(bits, pos))
+					continue;
+				set(bits, pos);
+				onObject(pos, Constants.OBJ_TREE);
+			}
+			isRoot = false;
+
+			treeWalk.reset(treeIds);
+			while (treeWalk.next()) {
+				switch (treeWalk.getFileMode(0).getObjectType()) {
+				case Constants.OBJ_TREE:
+					trees.add(treeWalk.getObjectId(0));
+					break;
+				case Constants.OBJ_BLOB: {
+					final ObjectId id = treeWalk.getObjectId(0);
+					final int pos = findPosition(id);
+					if (pos < 0)
+						return false;
+					if (!isSet(bits, pos)) {
+						set(bits, pos);
+						onObject(pos, Constants.OBJ_BLOB);
+					}
+					break;
+				}
+				default:
+					// Gitlinks name commits of another repository.
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	/** Release the parsed objects retained by this walk. */
+	void dispose() {
+		revWalk.dispose();
+	}
+
+	static boolean isSet(final long[] bits, final int pos) {
+		return (bits[pos >>> 6] & (1L << (pos & 63))) != 0;
+	}
+
+	private static void set(final long[] bits, final int pos) {
+		bits[pos >>> 6] |= 1L << (pos & 63);
+	}
+}
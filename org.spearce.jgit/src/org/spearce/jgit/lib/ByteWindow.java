@@ -62,8 +62,6 @@
 
 	final int size;
 
-	int lastAccessed;
-
 	final long start;
 
 	final long end;
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+/**
+ * Snapshot of the counters kept by one of the byte limited caches.
+ *
+ * @see WindowCache#getDeltaBaseCacheStatistics()
+ * @see org.spearce.jgit.treewalk.TreeCache#getStatistics()
+ */
+public class CacheStatistics {
+	private final long hitCount;
+
+	private final long missCount;
+
+	private final long evictionCount;
+
+	private final long openByteCount;
+
+	private final int entryCount;
+
+	private final int limit;
+
+	/**
+	 * Create a snapshot of a cache's counters.
+	 *
+	 * @param hits
+	 *            lookups that found their entry.
+	 * @param misses
+	 *            lookups that did not find their entry.
+	 * @param evictions
+	 *            entries removed to keep within the byte limit.
+	 * @param bytes
+	 *            bytes currently held.
+	 * @param entries
+	 *            entries currently held.
+	 * @param maxBytes
+	 *            maximum number of bytes the cache may hold.
+	 */
+	public CacheStatistics(final long hits, final long misses,
+			final long evictions, final long bytes, final int entries,
+			final int maxBytes) {
+		hitCount = hits;
+		missCount = misses;
+		evictionCount = evictions;
+		openByteCount = bytes;
+		entryCount = entries;
+		limit = maxBytes;
+	}
+
+	/** @return number of lookups that found their entry in the cache. */
+	public long getHitCount() {
+		return hitCount;
+	}
+
+	/** @return number of lookups that did not find their entry. */
+	public long getMissCount() {
+		return missCount;
+	}
+
+	/** @return number of entries removed to keep within the byte limit. */
+	public long getEvictionCount() {
+		return evictionCount;
+	}
+
+	/** @return number of bytes currently cached. */
+	public long getOpenByteCount() {
+		return openByteCount;
+	}
+
+	/** @return number of entries currently cached. */
+	public int getEntryCount() {
+		return entryCount;
+	}
+
+	/** @return maximum number of bytes the cache may hold. */
+	public int getLimit() {
+		return limit;
+	}
+
+	/** @return fraction of lookups which were hits; 0 if none were made. */
+	public double getHitRatio() {
+		final long total = hitCount + missCount;
+		return total == 0 ? 0 : ((double) hitCount) / total;
+	}
+
+	public String toString() {
+		return "CacheStatistics[hits=" + hitCount + ", misses=" + missCount
+				+ ", evictions=" + evictionCount + ", bytes=" + openByteCount
+				+ ", entries=" + entryCount + ", limit=" + limit + "]";
+	}
+}
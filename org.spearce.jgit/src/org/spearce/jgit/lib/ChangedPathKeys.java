@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * Bloom filter keys of a set of paths.
+ * <p>
+ * A commit graph may hold a changed-path Bloom filter for each commit. The
+ * filter contains every path the commit changed relative to its first parent,
+ * and every parent directory of those paths. Testing the keys of a path
+ * against a commit's filter can prove the commit did not change the path,
+ * without reading any tree.
+ * <p>
+ * The hash functions are those of version 1 of C git's filters: two seeded
+ * murmur3 hashes of the path, combined by double hashing. As in C git, path
+ * bytes are sign extended while hashing.
+ */
+public class ChangedPathKeys {
+	/** The only hash version understood. */
+	static final int HASH_VERSION = 1;
+
+	/** Number of hash functions in filters this library writes. */
+	static final int NUM_HASHES = 7;
+
+	/** Size of filters this library writes, in bits per path. */
+	static final int BITS_PER_ENTRY = 10;
+
+	/** More changed paths than this give a filter matching everything. */
+	static final int MAX_CHANGED_PATHS = 512;
+
+	private static final int SEED0 = 0x293ae76f;
+
+	private static final int SEED1 = 0x7e646e2c;
+
+	/**
+	 * For each path, a pair of base hashes for the path and each of its
+	 * parent directories.
+	 */
+	private final int[][] keys;
+
+	/**
+	 * Compute the keys of some paths.
+	 * 
+	 * @param paths
+	 *            paths relative to the root of the repository, using '/' to
+	 *            delimit directories.
+	 */
+	public ChangedPathKeys(final Collection<String> paths) {
+		keys = new int[paths.size()][];
+		int i = 0;
+		for (final String p : paths) {
+			final byte[] raw = Constants.encode(p);
+			int len = raw.length;
+			while (len > 0 && raw[len - 1] == '/')
+				len--;
+
+			int n = 0;
+			final int[] k = new int[2 * (countSlashes(raw, len) + 1)];
+			while (len > 0) {
+				k[n++] = murmur3(SEED0, raw, 0, len);
+				k[n++] = murmur3(SEED1, raw, 0, len);
+				do
+					len--;
+				while (len > 0 && raw[len] != '/');
+			}
+			keys[i] = new int[n];
+			System.arraycopy(k, 0, keys[i], 0, n);
+			i++;
+		}
+	}
+
+	private static int countSlashes(final byte[] raw, final int len) {
+		int n = 0;
+		for (int i = 0; i < len; i++)
+			if (raw[i] == '/')
+				n++;
+		return n;
+	}
+
+	/**
+	 * Test the paths against one commit's filter.
+	 * 
+	 * @param filter
+	 *            buffer holding the filter.
+	 * @param off
+	 *            position of the filter within the buffer.
+	 * @param len
+	 *            length of the filter in bytes. An empty filter matches
+	 *            everything.
+	 * @param numHashes
+	 *            number of hash functions the filter was created with.
+	 * @return false if the commit definitely did not change any of the paths;
+	 *         true if it may have.
+	 */
+	boolean mightContain(final ByteBuffer filter, final int off,
+			final int len, final int numHashes) {
+		if (len == 0)
+			return true;
+		final long bits = 8L * len;
+		for (final int[] k : keys) {
+			// A path can only be present if it and all of its
+			// parent directories are.
+			//
+			boolean maybe = true;
+			for (int i = 0; maybe && i < k.length; i += 2) {
+				final int h0 = k[i];
+				final int h1 = k[i + 1];
+				for (int j = 0; j < numHashes; j++) {
+					final long bit = ((h0 + j * h1) & 0xffffffffL) % bits;
+					final int b = filter.get(off + (int) (bit >>> 3));
+					if ((b & (1 << (bit & 7))) == 0) {
+						maybe = false;
+						break;
+					}
+				}
+			}
+			if (maybe)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Add a path to a filter.
+	 * 
+	 * @param filter
+	 *            the filter's bits.
+	 * @param path
+	 *            buffer holding the path.
+	 * @param len
+	 *            length of the path.
+	 */
+	static void add(final byte[] filter, final byte[] path, final int len) {
+		final int h0 = murmur3(SEED0, path, 0, len);
+		final int h1 = murmur3(SEED1, path, 0, len);
+		final long bits = 8L * filter.length;
+		for (int j = 0; j < NUM_HASHES; j++) {
+			final long bit = ((h0 + j * h1) & 0xffffffffL) % bits;
+			filter[(int) (bit >>> 3)] |= 1 << (bit & 7);
+		}
+	}
+
+	/**
+	 * Compute the 32 bit murmur3 hash of a byte sequence.
+	 * <p>
+	 * Bytes are sign extended, matching C git's version 1 filters.
+	 * 
+	 * @param seed
+	 *            initial value of the hash.
+	 * @param b
+	 *            buffer holding the bytes.
+	 * @param off
+	 *            position of the first byte.
+	 * @param len
+	 *            number of bytes to hash.
+	 * @return the hash.
+	 */
+	@SuppressWarnings("fallthrough")
+	static int murmur3(int seed, final byte[] b, final int off, final int len) {
+		final int c1 = 0xcc9e2d51;
+		final int c2 = 0x1b873593;
+		final int end4 = off + (len & ~3);
+		int p = off;
+		for (; p < end4; p += 4) {
+			int k = b[p] | (b[p + 1] << 8) | (b[p + 2] << 16)
+					| (b[p + 3] << 24);
+			k *= c1;
+			k = Integer.rotateLeft(k, 15);
+			k *= c2;
+			seed ^= k;
+			seed = Integer.rotateLeft(seed, 13) * 5 + 0xe6546b64;
+		}
+
+		int k1 = 0;
+		switch (len & 3) {
+		case 3:
+			k1 ^= b[p + 2] << 16;
+			// fall through
+		case 2:
+			k1 ^= b[p + 1] << 8;
+			// fall through
+		case 1:
+			k1 ^= b[p];
+			k1 *= c1;
+			k1 = Integer.rotateLeft(k1, 15);
+			k1 *= c2;
+			seed ^= k1;
+		}
+
+		seed ^= len;
+		seed ^= seed >>> 16;
+		seed *= 0x85ebca6b;
+		seed ^= seed >>> 13;
+		seed *= 0xc2b2ae35;
+		seed ^= seed >>> 16;
+		return seed;
+	}
+}
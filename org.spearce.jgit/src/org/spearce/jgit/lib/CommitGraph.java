@@ -0,0 +1,531 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import org.spearce.jgit.util.NB;
+
+/**
+ * A commit-graph file, searched directly in a memory mapped file.
+ * <p>
+ * The commit-graph file lists every commit reachable from the refs at the
+ * time it was written, sorted by object name, along with each commit's root
+ * tree, parents, commit time and generation number. Walkers can learn the
+ * shape of the history from this table without inflating and parsing the
+ * commit objects themselves.
+ * <p>
+ * The generation number of a commit without parents is 1; the generation of
+ * any other commit is one more than the largest generation of its parents. A
+ * commit can therefore never reach a commit with an equal or larger
+ * generation, which lets reachability queries stop early.
+ * <p>
+ * The file format is the one written by <code>git commit-graph write</code>.
+ * Only a single graph file is supported, not split commit-graph chains.
+ * <p>
+ * The file may also hold a changed-path Bloom filter for each commit, which
+ * path limited walks can test to skip commits without diffing their trees.
+ * See {@link ChangedPathKeys}.
+ * <p>
+ * Only absolute buffer accessors are used, so the instance is safe for use by
+ * concurrent readers.
+ */
+public class CommitGraph {
+	/** Generation number returned for commits the graph does not contain. */
+	public static final int GENERATION_UNKNOWN = Integer.MAX_VALUE;
+
+	/** Largest generation number the file format can hold. */
+	static final int GENERATION_MAX = 0x3fffffff;
+
+	static final byte[] SIGNATURE = { 'C', 'G', 'P', 'H' };
+
+	static final int CHUNK_OID_FANOUT = 0x4f494446 /* OIDF */;
+
+	static final int CHUNK_OID_LOOKUP = 0x4f49444c /* OIDL */;
+
+	static final int CHUNK_COMMIT_DATA = 0x43444154 /* CDAT */;
+
+	static final int CHUNK_EXTRA_EDGES = 0x45444745 /* EDGE */;
+
+	static final int CHUNK_BLOOM_INDEXES = 0x42494458 /* BIDX */;
+
+	static final int CHUNK_BLOOM_DATA = 0x42444154 /* BDAT */;
+
+	static final int BLOOM_HDR_LEN = 12;
+
+	static final int PARENT_NONE = 0x70000000;
+
+	static final int PARENT_EXTRA = 0x80000000;
+
+	static final int PARENT_LAST = 0x80000000;
+
+	static final int COMMIT_DATA_LEN = Constants.OBJECT_ID_LENGTH + 16;
+
+	private static final int HDR_LEN = 8;
+
+	private static final int FANOUT = 256;
+
+	/**
+	 * Open an existing commit-graph file for reading.
+	 *
+	 * @param path
+	 *            the commit-graph file.
+	 * @return access to the graph.
+	 * @throws java.io.FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read, is in an unknown
+	 *             format or is corrupt.
+	 */
+	public static CommitGraph open(final File path) throws IOException {
+		final FileInputStream fd = new FileInputStream(path);
+		try {
+			final FileChannel fc = fd.getChannel();
+			final long len = fc.size();
+			if (len > Integer.MAX_VALUE)
+				throw new IOException("Commit graph " + path + " is too large");
+			return new CommitGraph(fc.map(MapMode.READ_ONLY, 0, len));
+		} catch (IOException ioe) {
+			final IOException err;
+			err = new IOException("Unreadable commit graph: "
+					+ path.getAbsolutePath());
+			err.initCause(ioe);
+			throw err;
+		} finally {
+			try {
+				fd.close();
+			} catch (IOException err2) {
+				// ignore
+			}
+		}
+	}
+
+	private final ByteBuffer map;
+
+	private final int[] chunkIds;
+
+	private final int[] chunkPos;
+
+	private final int commitCnt;
+
+	private final int fanoutPos;
+
+	private final int namesPos;
+
+	private final int dataPos;
+
+	private final int edgesPos;
+
+	private final int edgesLen;
+
+	private final int bloomIdxPos;
+
+	private final int bloomDataPos;
+
+	private final int bloomDataLen;
+
+	private final int bloomHashes;
+
+	private final int bloomBitsPerEntry;
+
+	CommitGraph(final ByteBuffer buf) throws IOException {
+		map = buf;
+		final int end = map.limit() - Constants.OBJECT_ID_LENGTH;
+		if (end < HDR_LEN)
+			throw new IOException("Commit graph is truncated");
+		for (int i = 0; i < SIGNATURE.length; i++) {
+			if (map.get(i) != SIGNATURE[i])
+				throw new IOException("Not a commit graph");
+		}
+		final int version = map.get(4) & 0xff;
+		if (version != 1)
+			throw new IOException("Unsupported commit graph version "
+					+ version);
+		final int hashVersion = map.get(5) & 0xff;
+		if (hashVersion != 1)
+			throw new IOException("Unsupported commit graph hash version "
+					+ hashVersion);
+		final int chunkCnt = map.get(6) & 0xff;
+		if (map.get(7) != 0)
+			throw new IOException("Commit graph chains are not supported");
+
+		// The chunk table has one more entry than there are chunks,
+		// giving the end of the last chunk.
+		//
+		if (end < HDR_LEN + 12 * (chunkCnt + 1))
+			throw new IOException("Commit graph is truncated");
+		chunkIds = new int[chunkCnt + 1];
+		chunkPos = new int[chunkCnt + 1];
+		for (int i = 0; i <= chunkCnt; i++) {
+			final int p = HDR_LEN + 12 * i;
+			final long pos = map.getLong(p + 4);
+			if (pos < 0 || pos > end || (i > 0 && pos < chunkPos[i - 1]))
+				throw new IOException("Commit graph chunk table is corrupt");
+			chunkIds[i] = map.getInt(p);
+			chunkPos[i] = (int) pos;
+		}
+
+		fanoutPos = requireChunk(CHUNK_OID_FANOUT, 4 * FANOUT);
+		commitCnt = map.getInt(fanoutPos + 4 * (FANOUT - 1));
+		for (int i = 0, last = 0; i < FANOUT; i++) {
+			final int n = map.getInt(fanoutPos + 4 * i);
+			if (n < last)
+				throw new IOException("Commit graph fan-out is corrupt");
+			last = n;
+		}
+		namesPos = requireChunk(CHUNK_OID_LOOKUP, (long) commitCnt
+				* Constants.OBJECT_ID_LENGTH);
+		dataPos = requireChunk(CHUNK_COMMIT_DATA, (long) commitCnt
+				* COMMIT_DATA_LEN);
+		final int edges = findChunk(CHUNK_EXTRA_EDGES);
+		edgesPos = edges < 0 ? 0 : chunkPos[edges];
+		edgesLen = edges < 0 ? 0 : (chunkPos[edges + 1] - edgesPos) / 4;
+
+		// Filters in an unknown hash version, or without a complete
+		// index, are ignored as though the file had none.
+		//
+		final int bidx = findChunk(CHUNK_BLOOM_INDEXES);
+		final int bdat = findChunk(CHUNK_BLOOM_DATA);
+		if (bidx >= 0 && bdat >= 0
+				&& chunkPos[bidx + 1] - chunkPos[bidx] >= 4L * commitCnt
+				&& chunkPos[bdat + 1] - chunkPos[bdat] >= BLOOM_HDR_LEN
+				&& map.getInt(chunkPos[bdat]) == ChangedPathKeys.HASH_VERSION) {
+			bloomIdxPos = chunkPos[bidx];
+			bloomDataPos = chunkPos[bdat] + BLOOM_HDR_LEN;
+			bloomDataLen = chunkPos[bdat + 1] - bloomDataPos;
+			bloomHashes = map.getInt(chunkPos[bdat] + 4);
+			bloomBitsPerEntry = map.getInt(chunkPos[bdat] + 8);
+		} else {
+			bloomIdxPos = -1;
+			bloomDataPos = 0;
+			bloomDataLen = 0;
+			bloomHashes = 0;
+			bloomBitsPerEntry = 0;
+		}
+	}
+
+	/**
+	 * Locate an optional chunk of the file.
+	 *
+	 * @param id
+	 *            the chunk identifier.
+	 * @return index of the chunk within the chunk table; -1 if the file does
+	 *         not have the chunk.
+	 */
+	int findChunk(final int id) {
+		for (int i = 0; i < chunkIds.length - 1; i++) {
+			if (chunkIds[i] == id)
+				return i;
+		}
+		return -1;
+	}
+
+	private int requireChunk(final int id, final long len) throws IOException {
+		final int i = findChunk(id);
+		if (i < 0) {
+			final byte[] name = new byte[4];
+			NB.encodeInt32(name, 0, id);
+			throw new IOException("Commit graph lacks required chunk "
+					+ new String(name, "US-ASCII"));
+		}
+		if (chunkPos[i + 1] - chunkPos[i] < len)
+			throw new IOException("Commit graph chunk is truncated");
+		return chunkPos[i];
+	}
+
+	/** @return number of commits in the graph. */
+	public int getCommitCount() {
+		return commitCnt;
+	}
+
+	/**
+	 * Locate a commit within the graph.
+	 *
+	 * @param id
+	 *            name of the commit.
+	 * @return position of the commit, in the range [0, getCommitCount()); -1
+	 *         if the graph does not contain the commit.
+	 */
+	public int findPosition(final AnyObjectId id) {
+		final int levelOne = id.getFirstByte();
+		int high = map.getInt(fanoutPos + 4 * levelOne);
+		int low = levelOne == 0 ? 0 : map.getInt(fanoutPos + 4
+				* (levelOne - 1));
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = compare(id, namesPos + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	private int compare(final AnyObjectId objId, final int p) {
+		int cmp;
+
+		cmp = NB.compareUInt32(objId.w1, map.getInt(p));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(objId.w2, map.getInt(p + 4));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(objId.w3, map.getInt(p + 8));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(objId.w4, map.getInt(p + 12));
+		if (cmp != 0)
+			return cmp;
+
+		return NB.compareUInt32(objId.w5, map.getInt(p + 16));
+	}
+
+	/**
+	 * Get the name of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return name of the commit.
+	 */
+	public ObjectId getObjectId(final int pos) {
+		final MutableObjectId id = new MutableObjectId();
+		getObjectId(pos, id);
+		return id.toObjectId();
+	}
+
+	/**
+	 * Get the name of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @param dst
+	 *            receives the name of the commit.
+	 */
+	public void getObjectId(final int pos, final MutableObjectId dst) {
+		read(namesPos + pos * Constants.OBJECT_ID_LENGTH, dst);
+	}
+
+	/**
+	 * Get the root tree of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @param dst
+	 *            receives the name of the commit's tree.
+	 */
+	public void getTreeId(final int pos, final MutableObjectId dst) {
+		read(dataPos + pos * COMMIT_DATA_LEN, dst);
+	}
+
+	private void read(final int p, final MutableObjectId dst) {
+		dst.w1 = map.getInt(p);
+		dst.w2 = map.getInt(p + 4);
+		dst.w3 = map.getInt(p + 8);
+		dst.w4 = map.getInt(p + 12);
+		dst.w5 = map.getInt(p + 16);
+	}
+
+	/**
+	 * Get the number of parents of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return number of parents.
+	 * @throws IllegalStateException
+	 *             the commit's entry in the graph is corrupt.
+	 */
+	public int getParentCount(final int pos) {
+		final int p = dataPos + pos * COMMIT_DATA_LEN
+				+ Constants.OBJECT_ID_LENGTH;
+		if (map.getInt(p) == PARENT_NONE)
+			return 0;
+		final int p2 = map.getInt(p + 4);
+		if (p2 == PARENT_NONE)
+			return 1;
+		if ((p2 & PARENT_EXTRA) == 0)
+			return 2;
+		int e = p2 & ~PARENT_EXTRA;
+		int n = 2;
+		while ((edge(e) & PARENT_LAST) == 0) {
+			e++;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Get a parent of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @param nth
+	 *            which parent to return, in the range [0, getParentCount()).
+	 * @return position of the parent.
+	 * @throws IllegalStateException
+	 *             the commit's entry in the graph is corrupt.
+	 */
+	public int getParent(final int pos, final int nth) {
+		final int p = dataPos + pos * COMMIT_DATA_LEN
+				+ Constants.OBJECT_ID_LENGTH;
+		final int r;
+		if (nth == 0)
+			r = map.getInt(p);
+		else {
+			final int p2 = map.getInt(p + 4);
+			if ((p2 & PARENT_EXTRA) == 0)
+				r = p2;
+			else
+				r = edge((p2 & ~PARENT_EXTRA) + nth - 1) & ~PARENT_LAST;
+		}
+		if (r < 0 || r >= commitCnt)
+			throw new IllegalStateException("Commit graph parent of "
+					+ getObjectId(pos).name() + " is corrupt");
+		return r;
+	}
+
+	private int edge(final int e) {
+		if (e < 0 || e >= edgesLen)
+			throw new IllegalStateException(
+					"Commit graph extra edge list is corrupt");
+		return map.getInt(edgesPos + 4 * e);
+	}
+
+	/**
+	 * Get the commit time of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return time, expressed as seconds since the epoch.
+	 */
+	public int getCommitTime(final int pos) {
+		final int p = dataPos + pos * COMMIT_DATA_LEN
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		return map.getInt(p + 4);
+	}
+
+	/**
+	 * Get the generation number of a commit.
+	 *
+	 * @param pos
+	 *            position of the commit.
+	 * @return the generation number; 0 if the graph was written without
+	 *         computing generation numbers.
+	 */
+	public int getGeneration(final int pos) {
+		final int p = dataPos + pos * COMMIT_DATA_LEN
+				+ Constants.OBJECT_ID_LENGTH + 8;
+		return map.getInt(p) >>> 2;
+	}
+
+	/** @return true if the graph holds changed-path Bloom filters. */
+	public boolean hasChangedPaths() {
+		return bloomIdxPos >= 0;
+	}
+
+	/**
+	 * Test if a commit may have changed any of some paths.
+	 * <p>
+	 * The commit's filter describes its difference from its first parent, or
+	 * from the empty tree if it has no parents.
+	 * 
+	 * @param pos
+	 *            position of the commit.
+	 * @param paths
+	 *            keys of the paths to test.
+	 * @return false if the commit definitely did not change any of the paths;
+	 *         true if it may have, or if the graph has no filter for it.
+	 */
+	public boolean mayHaveChanged(final int pos, final ChangedPathKeys paths) {
+		final int start = bloomFilterStart(pos);
+		if (start < 0)
+			return true;
+		final int end = bloomFilterEnd(pos);
+		return paths.mightContain(map, bloomDataPos + start, end - start,
+				bloomHashes);
+	}
+
+	/**
+	 * Get a copy of a commit's changed-path filter, for reuse in a new graph.
+	 * 
+	 * @param pos
+	 *            position of the commit.
+	 * @return the filter's bits; null if the graph has no filter for the
+	 *         commit, or its filters were created with other settings than
+	 *         {@link CommitGraphWriter} uses.
+	 */
+	byte[] getChangedPathFilter(final int pos) {
+		if (bloomHashes != ChangedPathKeys.NUM_HASHES
+				|| bloomBitsPerEntry != ChangedPathKeys.BITS_PER_ENTRY)
+			return null;
+		final int start = bloomFilterStart(pos);
+		if (start < 0)
+			return null;
+		final byte[] r = new byte[bloomFilterEnd(pos) - start];
+		for (int i = 0; i < r.length; i++)
+			r[i] = map.get(bloomDataPos + start + i);
+		return r;
+	}
+
+	/** @return offset of the filter in the data; -1 if it is unusable. */
+	private int bloomFilterStart(final int pos) {
+		if (bloomIdxPos < 0)
+			return -1;
+		final int start = pos == 0 ? 0 : map.getInt(bloomIdxPos + 4
+				* (pos - 1));
+		final int end = map.getInt(bloomIdxPos + 4 * pos);
+		if (start < 0 || end < start || end > bloomDataLen)
+			return -1;
+		return start;
+	}
+
+	private int bloomFilterEnd(final int pos) {
+		return map.getInt(bloomIdxPos + 4 * pos);
+	}
+}
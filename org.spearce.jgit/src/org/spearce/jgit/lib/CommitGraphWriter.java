@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.spearce.jgit.errors.MissingObjectException;
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevObject;
+import org.spearce.jgit.revwalk.RevTag;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.treewalk.EmptyTreeIterator;
+import org.spearce.jgit.treewalk.TreeWalk;
+import org.spearce.jgit.treewalk.filter.TreeFilter;
+import org.spearce.jgit.util.NB;
+
+/**
+ * Creates a {@link CommitGraph} file.
+ * <p>
+ * The graph holds every commit reachable from the starting points. Commits
+ * created later are not in the graph, and are parsed from their objects as
+ * before; the graph is only rewritten to cover them.
+ * <p>
+ * The graph can also hold a changed-path Bloom filter for each commit. Filters
+ * are copied from the repository's current graph where it has them, so
+ * rewriting the graph only diffs the commits created since it was written.
+ */
+public class CommitGraphWriter {
+	private final Repository db;
+
+	private boolean changedPaths;
+
+	private int filtersComputed;
+
+	/**
+	 * Create a writer for a repository's commit graph.
+	 *
+	 * @param repo
+	 *            the repository whose commits are written.
+	 */
+	public CommitGraphWriter(final Repository repo) {
+		db = repo;
+
+		final CommitGraph old = repo.getCommitGraph();
+		changedPaths = old != null && old.hasChangedPaths();
+	}
+
+	/**
+	 * @return true if changed-path Bloom filters are written. By default they
+	 *         are written if the repository's current graph has them.
+	 */
+	public boolean isChangedPaths() {
+		return changedPaths;
+	}
+
+	/**
+	 * Set whether changed-path Bloom filters are written.
+	 *
+	 * @param on
+	 *            true to write a filter for each commit.
+	 */
+	public void setChangedPaths(final boolean on) {
+		changedPaths = on;
+	}
+
+	/**
+	 * @return number of changed-path filters the last write computed by
+	 *         diffing trees; the others were copied from the current graph.
+	 */
+	public int getChangedPathFiltersComputed() {
+		return filtersComputed;
+	}
+
+	/**
+	 * Write the graph of all commits reachable from the repository's refs.
+	 * <p>
+	 * The graph replaces <code>objects/info/commit-graph</code>.
+	 *
+	 * @return number of commits in the new graph.
+	 * @throws IOException
+	 *             the commits could not be read, or the file could not be
+	 *             written.
+	 */
+	public int write() throws IOException {
+		final List<ObjectId> starts = new ArrayList<ObjectId>();
+		for (final Ref r : db.getAllRefs().values()) {
+			if (r.getObjectId() != null)
+				starts.add(r.getObjectId());
+		}
+
+		final File path = new File(db.getObjectsDirectory(), "info"
+				+ File.separatorChar + "commit-graph");
+		path.getParentFile().mkdirs();
+		final LockFile lck = new LockFile(path);
+		if (!lck.lock())
+			throw new IOException("Cannot lock " + path);
+		final int cnt;
+		try {
+			final OutputStream os = lck.getOutputStream();
+			cnt = write(new BufferedOutputStream(os), starts);
+		} catch (IOException err) {
+			lck.unlock();
+			throw err;
+		} catch (RuntimeException err) {
+			lck.unlock();
+			throw err;
+		} catch (Error err) {
+			lck.unlock();
+			throw err;
+		}
+		if (!lck.commit())
+			throw new IOException("Cannot commit " + path);
+		return cnt;
+	}
+
+	/**
+	 * Write the graph of all commits reachable from the starting points.
+	 *
+	 * @param os
+	 *            stream to write the graph to; closed before returning.
+	 * @param starts
+	 *            objects to start from. Annotated tags are peeled; objects
+	 *            which do not lead to a commit are ignored.
+	 * @return number of commits written.
+	 * @throws IOException
+	 *             the commits could not be read, or the stream could not be
+	 *             written.
+	 */
+	public int write(final OutputStream os,
+			final Collection<? extends AnyObjectId> starts) throws IOException {
+		final RevCommit[] commits = collect(starts);
+		final int n = commits.length;
+
+		// Resolve parents to positions, and count the edges which do
+		// not fit into the two parent slots of an octopus merge.
+		//
+		final int[][] parents = new int[n][];
+		int edgeCnt = 0;
+		for (int i = 0; i < n; i++) {
+			final RevCommit[] p = commits[i].getParents();
+			final int[] pos = new int[p.length];
+			for (int k = 0; k < p.length; k++) {
+				pos[k] = Arrays.binarySearch(commits, p[k]);
+				if (pos[k] < 0)
+					throw new MissingObjectException(p[k],
+							Constants.TYPE_COMMIT);
+			}
+			parents[i] = pos;
+			if (pos.length > 2)
+				edgeCnt += pos.length - 1;
+		}
+		final int[] generation = computeGenerations(parents);
+		final byte[][] filters = changedPaths ? computeFilters(commits) : null;
+
+		final MessageDigest md = Constants.newMessageDigest();
+		final DigestOutputStream out = new DigestOutputStream(os, md);
+		final byte[] buf = new byte[CommitGraph.COMMIT_DATA_LEN];
+
+		int chunkCnt = edgeCnt > 0 ? 4 : 3;
+		long filterLen = 0;
+		if (filters != null) {
+			chunkCnt += 2;
+			for (final byte[] f : filters)
+				filterLen += f.length;
+		}
+		buf[0] = 'C';
+		buf[1] = 'G';
+		buf[2] = 'P';
+		buf[3] = 'H';
+		buf[4] = 1; // version
+		buf[5] = 1; // SHA-1
+		buf[6] = (byte) chunkCnt;
+		buf[7] = 0; // base graphs
+		out.write(buf, 0, 8);
+
+		long pos = 8 + 12 * (chunkCnt + 1);
+		pos = chunk(out, buf, CommitGraph.CHUNK_OID_FANOUT, pos, 4 * 256);
+		pos = chunk(out, buf, CommitGraph.CHUNK_OID_LOOKUP, pos, (long) n
+				* Constants.OBJECT_ID_LENGTH);
+		pos = chunk(out, buf, CommitGraph.CHUNK_COMMIT_DATA, pos, (long) n
+				* CommitGraph.COMMIT_DATA_LEN);
+		if (edgeCnt > 0)
+			pos = chunk(out, buf, CommitGraph.CHUNK_EXTRA_EDGES, pos,
+					4L * edgeCnt);
+		if (filters != null) {
+			pos = chunk(out, buf, CommitGraph.CHUNK_BLOOM_INDEXES, pos,
+					4L * n);
+			pos = chunk(out, buf, CommitGraph.CHUNK_BLOOM_DATA, pos,
+					CommitGraph.BLOOM_HDR_LEN + filterLen);
+		}
+		chunk(out, buf, 0, pos, 0);
+
+		for (int b = 0, i = 0; b < 256; b++) {
+			while (i < n && commits[i].getFirstByte() == b)
+				i++;
+			NB.encodeInt32(buf, 0, i);
+			out.write(buf, 0, 4);
+		}
+
+		for (int i = 0; i < n; i++) {
+			commits[i].copyRawTo(buf, 0);
+			out.write(buf, 0, Constants.OBJECT_ID_LENGTH);
+		}
+
+		int edge = 0;
+		for (int i = 0; i < n; i++) {
+			final RevCommit c = commits[i];
+			final int[] p = parents[i];
+			c.getTree().copyRawTo(buf, 0);
+			int o = Constants.OBJECT_ID_LENGTH;
+			NB.encodeInt32(buf, o, p.length > 0 ? p[0]
+					: CommitGraph.PARENT_NONE);
+			if (p.length < 2)
+				NB.encodeInt32(buf, o + 4, CommitGraph.PARENT_NONE);
+			else if (p.length == 2)
+				NB.encodeInt32(buf, o + 4, p[1]);
+			else {
+				NB.encodeInt32(buf, o + 4, CommitGraph.PARENT_EXTRA | edge);
+				edge += p.length - 1;
+			}
+			NB.encodeInt32(buf, o + 8, generation[i] << 2);
+			NB.encodeInt32(buf, o + 12, c.getCommitTime());
+			out.write(buf, 0, CommitGraph.COMMIT_DATA_LEN);
+		}
+
+		for (int i = 0; i < n; i++) {
+			final int[] p = parents[i];
+			if (p.length <= 2)
+				continue;
+			for (int k = 1; k < p.length; k++) {
+				int v = p[k];
+				if (k == p.length - 1)
+					v |= CommitGraph.PARENT_LAST;
+				NB.encodeInt32(buf, 0, v);
+				out.write(buf, 0, 4);
+			}
+		}
+
+		if (filters != null) {
+			int end = 0;
+			for (final byte[] f : filters) {
+				end += f.length;
+				NB.encodeInt32(buf, 0, end);
+				out.write(buf, 0, 4);
+			}
+
+			NB.encodeInt32(buf, 0, ChangedPathKeys.HASH_VERSION);
+			NB.encodeInt32(buf, 4, ChangedPathKeys.NUM_HASHES);
+			NB.encodeInt32(buf, 8, ChangedPathKeys.BITS_PER_ENTRY);
+			out.write(buf, 0, CommitGraph.BLOOM_HDR_LEN);
+			for (final byte[] f : filters)
+				out.write(f);
+		}
+
+		os.write(md.digest());
+		os.close();
+		return n;
+	}
+
+	private static long chunk(final OutputStream out, final byte[] buf,
+			final int id, final long pos, final long len) throws IOException {
+		NB.encodeInt32(buf, 0, id);
+		NB.encodeInt32(buf, 4, (int) (pos >>> 32));
+		NB.encodeInt32(buf, 8, (int) pos);
+		out.write(buf, 0, 12);
+		return pos + len;
+	}
+
+	private RevCommit[] collect(final Collection<? extends AnyObjectId> starts)
+			throws IOException {
+		final RevWalk rw = new RevWalk(db);
+		rw.setRetainBody(false);
+		for (final AnyObjectId id : starts) {
+			RevObject o = rw.parseAny(id);
+			while (o instanceof RevTag) {
+				o = ((RevTag) o).getObject();
+				rw.parse(o);
+			}
+			if (o instanceof RevCommit)
+				rw.markStart((RevCommit) o);
+		}
+
+		final List<RevCommit> all = new ArrayList<RevCommit>();
+		for (final RevCommit c : rw)
+			all.add(c);
+		final RevCommit[] r = all.toArray(new RevCommit[all.size()]);
+		Arrays.sort(r);
+		return r;
+	}
+
+	private byte[][] computeFilters(final RevCommit[] commits)
+			throws IOException {
+		final CommitGraph old = db.getCommitGraph();
+		final TreeWalk tw = new TreeWalk(db);
+		tw.setRecursive(true);
+		tw.setFilter(TreeFilter.ANY_DIFF);
+
+		filtersComputed = 0;
+		final byte[][] r = new byte[commits.length][];
+		for (int i = 0; i < commits.length; i++) {
+			final RevCommit c = commits[i];
+			if (old != null) {
+				final int pos = old.findPosition(c);
+				if (pos >= 0)
+					r[i] = old.getChangedPathFilter(pos);
+			}
+			if (r[i] == null || r[i].length == 0) {
+				r[i] = computeFilter(tw, c);
+				filtersComputed++;
+			}
+		}
+		return r;
+	}
+
+	/**
+	 * Create the changed-path filter of one commit.
+	 * <p>
+	 * The filter holds each path which differs from the commit's first parent
+	 * (or from the empty tree, for a root commit), and each parent directory
+	 * of those paths. A commit changing more than
+	 * {@link ChangedPathKeys#MAX_CHANGED_PATHS} paths gets a filter with every
+	 * bit set, which matches any path.
+	 */
+	private static byte[] computeFilter(final TreeWalk tw, final RevCommit c)
+			throws IOException {
+		tw.reset();
+		if (c.getParentCount() > 0)
+			tw.addTree(c.getParent(0).getTree());
+		else
+			tw.addTree(new EmptyTreeIterator());
+		tw.addTree(c.getTree());
+
+		// Directories are reached once per changed path below them, so
+		// paths are collected through a set. ISO-8859-1 maps each byte to
+		// one char, preserving paths which are not valid UTF-8.
+		//
+		final Set<String> seen = new HashSet<String>();
+		final List<byte[]> paths = new ArrayList<byte[]>();
+		while (tw.next()) {
+			final byte[] p = tw.getPathBuffer();
+			int len = tw.getPathLength();
+			while (len > 0) {
+				if (seen.add(new String(p, 0, len, "ISO-8859-1"))) {
+					final byte[] raw = new byte[len];
+					System.arraycopy(p, 0, raw, 0, len);
+					paths.add(raw);
+				}
+				do
+					len--;
+				while (len > 0 && p[len] != '/');
+			}
+			if (paths.size() > ChangedPathKeys.MAX_CHANGED_PATHS)
+				return new byte[] { (byte) 0xff };
+		}
+
+		final int bits = paths.size() * ChangedPathKeys.BITS_PER_ENTRY;
+		final byte[] filter = new byte[Math.max(1, (bits + 7) / 8)];
+		for (final byte[] p : paths)
+			ChangedPathKeys.add(filter, p, p.length);
+		return filter;
+	}
+
+	/**
+	 * Compute the generation number of every commit.
+	 * <p>
+	 * Parents are visited before their children with an explicit stack, as
+	 * histories can be far too deep for recursion.
+	 */
+	private static int[] computeGenerations(final int[][] parents) {
+		final int n = parents.length;
+		final int[] generation = new int[n];
+		final int[] stack = new int[n];
+		for (int i = 0; i < n; i++) {
+			if (generation[i] != 0)
+				continue;
+			int sp = 0;
+			stack[sp++] = i;
+			while (sp > 0) {
+				final int c = stack[sp - 1];
+				if (generation[c] != 0) {
+					sp--;
+					continue;
+				}
+				int max = 0;
+				boolean ready = true;
+				for (final int p : parents[c]) {
+					if (generation[p] == 0) {
+						// Only one parent at a time, so the stack is a
+						// path through the history and cannot overflow.
+						stack[sp++] = p;
+						ready = false;
+						break;
+					}
+					if (generation[p] > max)
+						max = generation[p];
+				}
+				if (ready) {
+					generation[c] = Math.min(max + 1,
+							CommitGraph.GENERATION_MAX);
+					sp--;
+				}
+			}
+		}
+		return generation;
+	}
+}
@@ -46,13 +46,38 @@
 public class CoreConfig {
 	private static final int DEFAULT_COMPRESSION = Deflater.DEFAULT_COMPRESSION;
 
+	/** Default value of {@link #getStreamFileThreshold()}: 50 MiB. */
+	public static final int DEFAULT_STREAM_FILE_THRESHOLD = 50 * 1024 * 1024;
+
 	private final int compression;
 
 	private final int packIndexVersion;
 
+	private final int streamFileThreshold;
+
+	private final boolean packedIndexMmap;
+
+	private final boolean packedRefsMmap;
+
+	private final boolean indexMmap;
+
+	private final int indexVersion;
+
+	private final boolean splitIndex;
+
+	private final boolean commitGraph;
+
 	CoreConfig(final RepositoryConfig rc) {
 		compression = rc.getInt("core", "compression", DEFAULT_COMPRESSION);
 		packIndexVersion = rc.getInt("pack", "indexversion", 0);
+		streamFileThreshold = rc.getInt("core", "streamfilethreshold",
+				DEFAULT_STREAM_FILE_THRESHOLD);
+		packedIndexMmap = rc.getBoolean("core", "packedindexmmap", false);
+		packedRefsMmap = rc.getBoolean("core", "packedrefsmmap", false);
+		indexMmap = rc.getBoolean("core", "indexmmap", false);
+		indexVersion = rc.getInt("index", "version", 0);
+		splitIndex = rc.getBoolean("core", "splitindex", false);
+		commitGraph = rc.getBoolean("core", "commitgraph", true);
 	}
 
 	/**
@@ -70,4 +95,64 @@ public int getCompression() {
 	public int getPackIndexVersion() {
 		return packIndexVersion;
 	}
+
+	/**
+	 * @return size in bytes above which object contents should be streamed
+	 *         rather than fully materialized in memory.
+	 * @see ObjectLoader#openStream()
+	 */
+	public int getStreamFileThreshold() {
+		return streamFileThreshold;
+	}
+
+	/**
+	 * @return true if pack indexes should be memory mapped and searched in
+	 *         place, rather than read into the Java heap.
+	 * @see PackIndex#open(java.io.File, boolean)
+	 */
+	public boolean isPackedIndexMmap() {
+		return packedIndexMmap;
+	}
+
+	/**
+	 * @return true if the packed-refs file should be memory mapped, rather
+	 *         than read into the Java heap, before it is searched.
+	 */
+	public boolean isPackedRefsMmap() {
+		return packedRefsMmap;
+	}
+
+	/**
+	 * @return true if the index file should be memory mapped and its entries
+	 *         decoded on demand, rather than read into the Java heap.
+	 * @see org.spearce.jgit.dircache.DirCache#DirCache(java.io.File, boolean)
+	 */
+	public boolean isIndexMmap() {
+		return indexMmap;
+	}
+
+	/**
+	 * @return the index file format version to write; 0 to keep the version
+	 *         of the existing file.
+	 * @see org.spearce.jgit.dircache.DirCache#setVersion(int)
+	 */
+	public int getIndexVersion() {
+		return indexVersion;
+	}
+
+	/**
+	 * @return true if the index should be written as a split index.
+	 * @see org.spearce.jgit.dircache.DirCache#setSplitIndex(boolean)
+	 */
+	public boolean isSplitIndex() {
+		return splitIndex;
+	}
+
+	/**
+	 * @return true if the commit graph file should be used to parse commits.
+	 * @see Repository#getCommitGraph()
+	 */
+	public boolean isCommitGraph() {
+		return commitGraph;
+	}
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+/**
+ * Encodes the instruction stream of a Git pack delta.
+ * <p>
+ * The output is the format read by {@link BinaryDelta#apply(byte[], byte[])}:
+ * the base and result lengths, followed by a sequence of copy (from the base)
+ * and insert (literal) instructions.
+ */
+class DeltaEncoder {
+	/** Largest copy a single instruction can describe to older readers. */
+	private static final int MAX_COPY = 0x10000;
+
+	/** Largest literal run a single insert instruction can carry. */
+	private static final int MAX_INSERT = 0x7f;
+
+	private final int limit;
+
+	private byte[] buf;
+
+	private int size;
+
+	/**
+	 * Create an encoder for a new delta.
+	 * 
+	 * @param baseSize
+	 *            length of the base object the delta is applied to.
+	 * @param resultSize
+	 *            length of the object the delta produces.
+	 * @param limit
+	 *            maximum number of bytes the encoded delta may occupy. If the
+	 *            instructions exceed this limit the append methods return false
+	 *            and the caller should abandon the delta.
+	 */
+	DeltaEncoder(final int baseSize, final int resultSize, final int limit) {
+		this.limit = limit;
+		buf = new byte[Math.min(Math.max(limit, 32), 8192)];
+		writeVarint(baseSize);
+		writeVarint(resultSize);
+	}
+
+	private void writeVarint(int sz) {
+		ensure(5);
+		while (sz >= 0x80) {
+			buf[size++] = (byte) (0x80 | (sz & 0x7f));
+			sz >>>= 7;
+		}
+		buf[size++] = (byte) sz;
+	}
+
+	/**
+	 * Insert literal bytes into the result.
+	 * 
+	 * @param text
+	 *            buffer holding the bytes.
+	 * @param off
+	 *            first byte of <code>text</code> to insert.
+	 * @param cnt
+	 *            number of bytes to insert.
+	 * @return true if the delta is still within its limit.
+	 */
+	boolean insert(final byte[] text, int off, int cnt) {
+		while (cnt > 0) {
+			final int n = Math.min(cnt, MAX_INSERT);
+			if (size + 1 + n > limit)
+				return false;
+			ensure(1 + n);
+			buf[size++] = (byte) n;
+			System.arraycopy(text, off, buf, size, n);
+			size += n;
+			off += n;
+			cnt -= n;
+		}
+		return true;
+	}
+
+	/**
+	 * Copy a region of the base into the result.
+	 * 
+	 * @param offset
+	 *            position within the base to start copying from.
+	 * @param cnt
+	 *            number of bytes to copy.
+	 * @return true if the delta is still within its limit.
+	 */
+	boolean copy(int offset, int cnt) {
+		while (cnt > 0) {
+			final int n = Math.min(cnt, MAX_COPY);
+			if (size + 8 > limit)
+				return false;
+			ensure(8);
+
+			final int cmdPtr = size++;
+			int cmd = 0x80;
+			if ((offset & 0xff) != 0) {
+				buf[size++] = (byte) offset;
+				cmd |= 0x01;
+			}
+			if ((offset & 0xff00) != 0) {
+				buf[size++] = (byte) (offset >>> 8);
+				cmd |= 0x02;
+			}
+			if ((offset & 0xff0000) != 0) {
+				buf[size++] = (byte) (offset >>> 16);
+				cmd |= 0x04;
+			}
+			if ((offset & 0xff000000) != 0) {
+				buf[size++] = (byte) (offset >>> 24);
+				cmd |= 0x08;
+			}
+
+			// A length of exactly MAX_COPY is encoded by omitting
+			// all of the length bytes.
+			//
+			if (n != MAX_COPY) {
+				if ((n & 0xff) != 0) {
+					buf[size++] = (byte) n;
+					cmd |= 0x10;
+				}
+				if ((n & 0xff00) != 0) {
+					buf[size++] = (byte) (n >>> 8);
+					cmd |= 0x20;
+				}
+			}
+			buf[cmdPtr] = (byte) cmd;
+
+			offset += n;
+			cnt -= n;
+		}
+		return true;
+	}
+
+	/** @return number of bytes encoded so far. */
+	int size() {
+		return size;
+	}
+
+	/** @return the encoded delta, trimmed to its exact length. */
+	byte[] toByteArray() {
+		final byte[] r = new byte[size];
+		System.arraycopy(buf, 0, r, 0, size);
+		return r;
+	}
+
+	private void ensure(final int need) {
+		if (size + need > buf.length) {
+			final byte[] n = new byte[Math.max(buf.length * 2, size + need)];
+			System.arraycopy(buf, 0, n, 0, size);
+			buf = n;
+		}
+	}
+}
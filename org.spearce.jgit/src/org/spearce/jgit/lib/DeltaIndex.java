@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+/**
+ * Index of a base object, used to compute deltas against that base.
+ * <p>
+ * The base is split into non-overlapping blocks of {@link #BLOCK_SIZE} bytes
+ * and a hash of each block is recorded in a chained hash table. A result is
+ * then scanned with a rolling hash over the same number of bytes. Each
+ * position whose hash appears in the table is checked against the base, and
+ * the longest match is extended forwards and backwards and emitted as a copy
+ * instruction. Bytes not covered by a copy are emitted as literal inserts.
+ * <p>
+ * Instances are immutable once constructed and may be used to encode deltas
+ * for any number of results, from any number of threads.
+ */
+class DeltaIndex {
+	/** Number of bytes hashed together to find a candidate match. */
+	static final int BLOCK_SIZE = 16;
+
+	/** Maximum number of blocks kept in any one hash chain. */
+	private static final int MAX_CHAIN_LENGTH = 64;
+
+	/** Multiplier of the polynomial rolling hash. */
+	private static final int P = 31;
+
+	/** {@link #P} raised to the power {@link #BLOCK_SIZE} - 1. */
+	private static final int P_TOP;
+
+	static {
+		int t = 1;
+		for (int i = 1; i < BLOCK_SIZE; i++)
+			t *= P;
+		P_TOP = t;
+	}
+
+	private final byte[] base;
+
+	/** First entry of each hash chain, as an index into the entry arrays. */
+	private final int[] table;
+
+	private final int[] entryHash;
+
+	private final int[] entryPos;
+
+	/** Next entry in the same chain, or -1 at the end of the chain. */
+	private final int[] entryNext;
+
+	/**
+	 * Build the index for a base object.
+	 * 
+	 * @param base
+	 *            the complete base object. The array is retained by the index
+	 *            and must not be modified while the index is in use.
+	 */
+	DeltaIndex(final byte[] base) {
+		this.base = base;
+
+		final int blocks = base.length / BLOCK_SIZE;
+		int tsz = 16;
+		while (tsz < blocks)
+			tsz <<= 1;
+		table = new int[tsz];
+		for (int i = 0; i < tsz; i++)
+			table[i] = -1;
+
+		entryHash = new int[blocks];
+		entryPos = new int[blocks];
+		entryNext = new int[blocks];
+		final int[] chainLen = new int[tsz];
+
+		// Insert from the end of the base so the chains list the
+		// earliest copy of a repeated block first.
+		//
+		int n = 0;
+		for (int b = blocks - 1; b >= 0; b--) {
+			final int pos = b * BLOCK_SIZE;
+			final int h = hash(base, pos);
+			final int slot = slot(h);
+			if (chainLen[slot] >= MAX_CHAIN_LENGTH)
+				continue;
+			chainLen[slot]++;
+			entryHash[n] = h;
+			entryPos[n] = pos;
+			entryNext[n] = table[slot];
+			table[slot] = n++;
+		}
+	}
+
+	/** @return the base object this index was built from. */
+	byte[] getBase() {
+		return base;
+	}
+
+	/** @return approximate number of bytes of heap used by this index. */
+	long getIndexSize() {
+		return 4L * (table.length + 3 * entryPos.length);
+	}
+
+	/**
+	 * Compute a delta which recreates a result from this index's base.
+	 * 
+	 * @param res
+	 *            the complete result object.
+	 * @param limit
+	 *            maximum size of the delta, in bytes; 0 for no limit.
+	 * @return the encoded delta; null if the delta would be larger than
+	 *         <code>limit</code>.
+	 */
+	byte[] encode(final byte[] res, final int limit) {
+		final int max = limit > 0 ? limit : Integer.MAX_VALUE;
+		final DeltaEncoder enc = new DeltaEncoder(base.length, res.length, max);
+		final int end = res.length;
+
+		int insStart = 0;
+		int p = 0;
+		if (end >= BLOCK_SIZE) {
+			int h = hash(res, 0);
+			for (;;) {
+				int bestPos = -1;
+				int bestLen = 0;
+				for (int e = table[slot(h)]; e >= 0; e = entryNext[e]) {
+					if (entryHash[e] != h)
+						continue;
+					final int len = matchLength(entryPos[e], res, p);
+					if (len > bestLen) {
+						bestPos = entryPos[e];
+						bestLen = len;
+					}
+				}
+
+				if (bestLen >= BLOCK_SIZE) {
+					// Grow the match backwards into the pending insert, as
+					// the match may have started before the block boundary.
+					//
+					int back = 0;
+					while (p - back > insStart && bestPos - back > 0
+							&& base[bestPos - back - 1] == res[p - back - 1])
+						back++;
+
+					if (!enc.insert(res, insStart, p - back - insStart))
+						return null;
+					if (!enc.copy(bestPos - back, bestLen + back))
+						return null;
+					p += bestLen;
+					insStart = p;
+					if (end - p < BLOCK_SIZE)
+						break;
+					h = hash(res, p);
+					continue;
+				}
+
+				if (end - p <= BLOCK_SIZE)
+					break;
+				h = step(h, res[p], res[p + BLOCK_SIZE]);
+				p++;
+
+				if (enc.size() + (p - insStart) > max)
+					return null;
+			}
+		}
+
+		if (!enc.insert(res, insStart, end - insStart))
+			return null;
+		return enc.toByteArray();
+	}
+
+	private int matchLength(final int bPos, final byte[] res, final int rPos) {
+		final int n = Math.min(base.length - bPos, res.length - rPos);
+		int i = 0;
+		while (i < n && base[bPos + i] == res[rPos + i])
+			i++;
+		return i;
+	}
+
+	private static int hash(final byte[] buf, final int ptr) {
+		int h = 0;
+		for (int i = 0; i < BLOCK_SIZE; i++)
+			h = h * P + (buf[ptr + i] & 0xff);
+		return h;
+	}
+
+	private static int step(final int h, final int out, final int in) {
+		return (h - (out & 0xff) * P_TOP) * P + (in & 0xff);
+	}
+
+	private int slot(final int h) {
+		return (h ^ (h >>> 16)) & (table.length - 1);
+	}
+}
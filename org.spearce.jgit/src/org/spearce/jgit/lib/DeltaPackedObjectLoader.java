@@ -39,6 +39,7 @@
 package org.spearce.jgit.lib;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.DataFormatException;
 
 import org.spearce.jgit.errors.CorruptObjectException;
@@ -53,18 +54,40 @@ abstract class DeltaPackedObjectLoader extends PackedObjectLoader {
 			final long dataOffset, final long objectOffset, final int deltaSz) {
 		super(curs, pr, dataOffset, objectOffset);
 		objectType = -1;
+		objectSize = -1;
 		deltaSize = deltaSz;
 	}
 
 	public int getType() throws IOException {
-		if (objectType < 0)
-			getCachedBytes();
+		if (objectType < 0) {
+			final UnpackedObjectCache.Entry cache = pack.readCache(dataOffset);
+			if (cache != null)
+				objectType = cache.type;
+			else
+				objectType = getBaseLoader().getType();
+		}
 		return objectType;
 	}
 
 	public long getSize() throws IOException {
-		if (objectType < 0)
-			getCachedBytes();
+		if (objectSize < 0) {
+			final UnpackedObjectCache.Entry cache = pack.readCache(dataOffset);
+			if (cache != null) {
+				objectSize = cache.data.length;
+				return objectSize;
+			}
+
+			// The result size is the second field of the delta header, so
+			// only the first few bytes of the delta need to be inflated.
+			//
+			final InputStream in = pack.openInflaterStream(dataOffset);
+			try {
+				DeltaStream.readVarInt(in);
+				objectSize = (int) DeltaStream.readVarInt(in);
+			} finally {
+				in.close();
+			}
+		}
 		return objectSize;
 	}
 
@@ -98,6 +121,17 @@ public byte[] getCachedBytes() throws IOException {
 		}
 	}
 
+	@Override
+	public InputStream openStream() throws IOException {
+		final int threshold = pack.getStreamFileThreshold();
+		if (getSize() <= threshold)
+			return super.openStream();
+		curs.release();
+		final PackedObjectLoader baseLoader = getBaseLoader();
+		return new DeltaStream(pack.openInflaterStream(dataOffset), baseLoader,
+				threshold);
+	}
+
 	@Override
 	public long getRawSize() {
 		return deltaSize;
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import org.spearce.jgit.errors.CorruptObjectException;
+import org.spearce.jgit.util.NB;
+
+/**
+ * Applies a git pack delta to a base object while reading the delta as a
+ * stream.
+ * <p>
+ * This is the streaming counterpart of {@link BinaryDelta#apply(byte[], byte[])}.
+ * The delta instructions are consumed sequentially, so only the base needs to
+ * support random access. Bases no larger than the stream threshold are held in
+ * memory; larger bases are spooled to a temporary file first, keeping the heap
+ * footprint bounded regardless of object size.
+ */
+class DeltaStream extends InputStream {
+	private final InputStream delta;
+
+	private final long resultSize;
+
+	private byte[] baseData;
+
+	private File baseFile;
+
+	private RandomAccessFile baseRaf;
+
+	private final byte[] singleByte = new byte[1];
+
+	/** Bytes remaining in the current copy or insert instruction. */
+	private int cmdRemaining;
+
+	/** True if the current instruction copies from the base. */
+	private boolean cmdCopy;
+
+	/** Next position to read from the base for a copy instruction. */
+	private long copyOffset;
+
+	private long produced;
+
+	/**
+	 * Create a stream applying a delta to its base.
+	 *
+	 * @param deltaIn
+	 *            the inflated delta instruction stream. Closed when this
+	 *            stream is closed.
+	 * @param base
+	 *            loader for the base object the delta applies to.
+	 * @param threshold
+	 *            bases larger than this number of bytes are spooled to a
+	 *            temporary file instead of being loaded into memory.
+	 * @throws IOException
+	 *             the delta header could not be read, or the base could not be
+	 *             loaded.
+	 */
+	DeltaStream(final InputStream deltaIn, final ObjectLoader base,
+			final int threshold) throws IOException {
+		delta = deltaIn;
+		try {
+			final long baseSize = readVarInt(delta);
+			resultSize = readVarInt(delta);
+			if (base.getSize() != baseSize)
+				throw new CorruptObjectException("base length incorrect");
+			if (baseSize <= threshold)
+				baseData = base.getCachedBytes();
+			else
+				spool(base);
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/** @return size of the object produced by applying the delta. */
+	long getResultSize() {
+		return resultSize;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int n = read(singleByte, 0, 1);
+		return n == 1 ? singleByte[0] & 0xff : -1;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (cmdRemaining == 0 && !nextCommand())
+			return -1;
+
+		len = Math.min(len, cmdRemaining);
+		if (cmdCopy) {
+			readBase(copyOffset, b, off, len);
+			copyOffset += len;
+		} else
+			NB.readFully(delta, b, off, len);
+		cmdRemaining -= len;
+		produced += len;
+		return len;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			delta.close();
+		} finally {
+			baseData = null;
+			if (baseRaf != null) {
+				baseRaf.close();
+				baseRaf = null;
+			}
+			if (baseFile != null) {
+				baseFile.delete();
+				baseFile = null;
+			}
+		}
+	}
+
+	private boolean nextCommand() throws IOException {
+		final int cmd = delta.read();
+		if (cmd < 0) {
+			if (produced != resultSize)
+				throw new CorruptObjectException("delta result length"
+						+ " incorrect");
+			return false;
+		}
+
+		if ((cmd & 0x80) != 0) {
+			// Determine the segment of the base which should
+			// be copied into the output. The segment is given
+			// as an offset and a length.
+			//
+			long offset = 0;
+			if ((cmd & 0x01) != 0)
+				offset = readByte();
+			if ((cmd & 0x02) != 0)
+				offset |= readByte() << 8;
+			if ((cmd & 0x04) != 0)
+				offset |= readByte() << 16;
+			if ((cmd & 0x08) != 0)
+				offset |= ((long) readByte()) << 24;
+
+			int size = 0;
+			if ((cmd & 0x10) != 0)
+				size = readByte();
+			if ((cmd & 0x20) != 0)
+				size |= readByte() << 8;
+			if ((cmd & 0x40) != 0)
+				size |= readByte() << 16;
+			if (size == 0)
+				size = 0x10000;
+
+			cmdCopy = true;
+			copyOffset = offset;
+			cmdRemaining = size;
+		} else if (cmd != 0) {
+			// Anything else the data is literal within the delta
+			// itself.
+			//
+			cmdCopy = false;
+			cmdRemaining = cmd;
+		} else {
+			// cmd == 0 has been reserved for future encoding but
+			// for now its not acceptable.
+			//
+			throw new CorruptObjectException("unsupported delta command 0");
+		}
+
+		if (produced + cmdRemaining > resultSize)
+			throw new CorruptObjectException("delta result length incorrect");
+		return true;
+	}
+
+	private void readBase(final long pos, final byte[] b, final int off,
+			final int len) throws IOException {
+		if (baseData != null) {
+			if (pos + len > baseData.length)
+				throw new CorruptObjectException("delta copy beyond base");
+			System.arraycopy(baseData, (int) pos, b, off, len);
+		} else {
+			if (pos + len > baseRaf.length())
+				throw new CorruptObjectException("delta copy beyond base");
+			baseRaf.seek(pos);
+			baseRaf.readFully(b, off, len);
+		}
+	}
+
+	private void spool(final ObjectLoader base) throws IOException {
+		baseFile = File.createTempFile("jgit_", ".base");
+		final byte[] buf = new byte[8192];
+		final InputStream in = base.openStream();
+		try {
+			final FileOutputStream out = new FileOutputStream(baseFile);
+			try {
+				int n;
+				while ((n = in.read(buf)) > 0)
+					out.write(buf, 0, n);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		baseRaf = new RandomAccessFile(baseFile, "r");
+	}
+
+	private int readByte() throws IOException {
+		final int c = delta.read();
+		if (c < 0)
+			throw new EOFException("Short delta instruction");
+		return c;
+	}
+
+	/**
+	 * Read a delta header size from the start of a delta.
+	 *
+	 * @param in
+	 *            the inflated delta stream.
+	 * @return the decoded size.
+	 * @throws IOException
+	 *             the stream ended before the size was complete.
+	 */
+	static long readVarInt(final InputStream in) throws IOException {
+		long r = 0;
+		int shift = 0;
+		int c;
+		do {
+			c = in.read();
+			if (c < 0)
+				throw new EOFException("Short delta header");
+			r |= ((long) (c & 0x7f)) << shift;
+			shift += 7;
+		} while ((c & 0x80) != 0);
+		return r;
+	}
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.spearce.jgit.errors.MissingObjectException;
+import org.spearce.jgit.lib.PackWriter.ObjectToPack;
+
+/**
+ * Sliding window delta search over a sorted run of objects.
+ * <p>
+ * Each object in the run is compared against the objects which came just
+ * before it, and the smallest delta found is recorded as the object's new
+ * representation. Similar objects should therefore appear next to each other
+ * in the run; {@link PackWriter} sorts them by type, path and size first.
+ * <p>
+ * A window is used by only one thread. Separate windows may search disjoint
+ * runs of the same pack concurrently.
+ */
+class DeltaWindow {
+	/** Objects smaller than this are never worth deltifying. */
+	private static final int MIN_OBJECT_SIZE = 50;
+
+	/** Objects larger than this are never loaded for delta search. */
+	private static final int BIG_FILE_THRESHOLD = 50 * 1024 * 1024;
+
+	private final PackWriter writer;
+
+	private final Repository db;
+
+	private final WindowCursor curs = new WindowCursor();
+
+	private final int maxDepth;
+
+	private final long maxMemory;
+
+	/** Ring buffer of the most recently searched objects. */
+	private final Entry[] window;
+
+	/** Slot of {@link #window} the next object will be stored in. */
+	private int next;
+
+	/** Bytes held by the window's objects and their indexes. */
+	private long loaded;
+
+	DeltaWindow(final PackWriter writer, final Repository db,
+			final int windowSize, final long memoryLimit, final int maxDepth) {
+		this.writer = writer;
+		this.db = db;
+		this.maxDepth = maxDepth;
+		this.maxMemory = memoryLimit;
+		window = new Entry[Math.max(windowSize, 1)];
+	}
+
+	/**
+	 * Search for deltas for every object in a run.
+	 * 
+	 * @param list
+	 *            the objects, in search order.
+	 * @throws IOException
+	 *             an object could not be read from the repository, or the
+	 *             search was cancelled.
+	 */
+	void search(final List<ObjectToPack> list) throws IOException {
+		try {
+			for (final ObjectToPack res : list) {
+				if (writer.deltaSearchCancelled())
+					throw new IOException("Packing cancelled during delta search");
+				search(res);
+				writer.deltaSearchProgress(1);
+			}
+		} finally {
+			curs.release();
+		}
+	}
+
+	private void search(final ObjectToPack res) throws IOException {
+		if (res.getSize() < MIN_OBJECT_SIZE
+				|| res.getSize() > BIG_FILE_THRESHOLD)
+			return;
+
+		final byte[] resData = load(res);
+		Entry best = null;
+		byte[] bestDelta = null;
+
+		for (int i = 1; i < window.length; i++) {
+			final Entry src = window[(next - i + window.length) % window.length];
+			if (src == null)
+				break;
+			if (src.object.getType() != res.getType())
+				break;
+			if (src.depth >= maxDepth)
+				continue;
+
+			final int limit;
+			if (bestDelta != null)
+				limit = bestDelta.length - 1;
+			else
+				limit = maxDeltaSize(res.getSize(), src.depth);
+			if (limit <= 0)
+				continue;
+
+			// Skip bases which are obviously too different in size
+			// to produce a delta under the limit.
+			//
+			final int srcSize = src.data.length;
+			if (res.getSize() < srcSize / 32)
+				continue;
+			if (srcSize < res.getSize() && res.getSize() - srcSize >= limit)
+				continue;
+
+			final byte[] delta = index(src).encode(resData, limit);
+			if (delta != null) {
+				best = src;
+				bestDelta = delta;
+			}
+		}
+
+		int depth = 0;
+		if (best != null) {
+			depth = best.depth + 1;
+			res.disposeLoader();
+			res.setDeltaBase(best.object);
+			writer.cacheDelta(res, best.data.length, bestDelta);
+		}
+		add(res, resData, depth);
+	}
+
+	private int maxDeltaSize(final int resSize, final int srcDepth) {
+		// Deltas deeper in a chain cost more to read back, so the
+		// deeper the base the smaller the delta must be to be worth it.
+		//
+		final long max = resSize / 2 - 20;
+		return (int) (max * (maxDepth - srcDepth) / maxDepth);
+	}
+
+	private byte[] load(final ObjectToPack otp) throws IOException {
+		final ObjectLoader ldr = db.openObject(curs, otp);
+		if (ldr == null)
+			throw new MissingObjectException(otp, "unknown");
+		final byte[] data = ldr.getCachedBytes();
+		curs.release();
+		return data;
+	}
+
+	private DeltaIndex index(final Entry e) {
+		if (e.index == null) {
+			e.index = new DeltaIndex(e.data);
+			loaded += e.index.getIndexSize();
+		}
+		return e.index;
+	}
+
+	private void add(final ObjectToPack otp, final byte[] data, final int depth) {
+		final Entry old = window[next];
+		if (old != null)
+			release(old);
+
+		final Entry e = new Entry(otp, data, depth);
+		window[next] = e;
+		next = (next + 1) % window.length;
+		loaded += data.length;
+
+		// Keep the newest entry even if it alone exceeds the limit;
+		// the next object must still be able to use it as a base.
+		//
+		if (0 < maxMemory) {
+			for (int i = 1; i < window.length && maxMemory < loaded; i++) {
+				final int slot = (next + i - 1) % window.length;
+				final Entry o = window[slot];
+				if (o != null && o != e) {
+					release(o);
+					window[slot] = null;
+				}
+			}
+		}
+	}
+
+	private void release(final Entry e) {
+		loaded -= e.data.length;
+		if (e.index != null)
+			loaded -= e.index.getIndexSize();
+	}
+
+	private static class Entry {
+		final ObjectToPack object;
+
+		final byte[] data;
+
+		final int depth;
+
+		DeltaIndex index;
+
+		Entry(final ObjectToPack object, final byte[] data, final int depth) {
+			this.object = object;
+			this.data = data;
+			this.depth = depth;
+		}
+	}
+}
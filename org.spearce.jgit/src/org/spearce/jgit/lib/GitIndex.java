@@ -776,16 +776,28 @@ public void checkout(File wd) throws IOException {
 	 */
 	public void checkoutEntry(File wd, Entry e) throws IOException {
 		ObjectLoader ol = db.openBlob(e.sha1);
-		byte[] bytes = ol.getBytes();
 		File file = new File(wd, e.getName());
 		file.delete();
 		file.getParentFile().mkdirs();
-		FileChannel channel = new FileOutputStream(file).getChannel();
-		ByteBuffer buffer = ByteBuffer.wrap(bytes);
-		int j = channel.write(buffer);
-		if (j != bytes.length)
-			throw new IOException("Could not write file " + file);
-		channel.close();
+		InputStream in = ol.openStream();
+		try {
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				final byte[] buf = new byte[8192];
+				long total = 0;
+				int n;
+				while ((n = in.read(buf)) > 0) {
+					out.write(buf, 0, n);
+					total += n;
+				}
+				if (total != ol.getSize())
+					throw new IOException("Could not write file " + file);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
 		if (config_filemode() && File_hasExecute()) {
 			if (FileMode.EXECUTABLE_FILE.equals(e.mode)) {
 				if (!File_canExecute(file))
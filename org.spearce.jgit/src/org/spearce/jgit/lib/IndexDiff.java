@@ -40,7 +40,15 @@
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.spearce.jgit.lib.GitIndex.Entry;
 
@@ -75,6 +83,24 @@ public IndexDiff(Tree tree, GitIndex index) {
 		this.index = index;
 	}
 	
+	private ExecutorService executor;
+
+	/**
+	 * Set the pool used to check working directory files for modification.
+	 * <p>
+	 * Checking a file may require reading and hashing its content, so the
+	 * checks are run in parallel. By default {@link #diff()} creates a private
+	 * pool with one thread per available processor for the duration of the
+	 * call.
+	 *
+	 * @param pool
+	 *            the pool to use; null to use a private pool. The caller
+	 *            remains responsible for shutting down a supplied pool.
+	 */
+	public void setExecutor(final ExecutorService pool) {
+		executor = pool;
+	}
+
 	boolean anyChanges = false;
 	
 	/**
@@ -84,6 +110,7 @@ public IndexDiff(Tree tree, GitIndex index) {
 	 */
 	public boolean diff() throws IOException {
 		final File root = index.getRepository().getWorkDir();
+		final List<Entry> present = new ArrayList<Entry>();
 		new IndexTreeWalker(index, tree, root, new AbstractIndexTreeVisitor() {
 			public void visitEntry(TreeEntry treeEntry, Entry indexEntry, File file) {
 				if (treeEntry == null) {
@@ -105,18 +132,69 @@ public void visitEntry(TreeEntry treeEntry, Entry indexEntry, File file) {
 						missing.add(indexEntry.getName());
 						anyChanges = true;
 					} else {
-						if (indexEntry.isModified(root, true)) {
-							modified.add(indexEntry.getName());
-							anyChanges = true;
-						}
+						present.add(indexEntry);
 					}
 				}
 			}
 		}).walk();
+		checkModified(root, present);
 		
 		return anyChanges;
 	}
 
+	private void checkModified(final File root, final List<Entry> entries)
+			throws IOException {
+		final int cpus = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = executor;
+		if (pool == null) {
+			if (cpus < 2 || entries.size() < 2) {
+				for (final Entry e : entries)
+					if (e.isModified(root, true))
+						modified(e);
+				return;
+			}
+			pool = Executors.newFixedThreadPool(Math.min(cpus, entries.size()));
+		}
+
+		try {
+			final List<Future<Boolean>> results;
+			results = new ArrayList<Future<Boolean>>(entries.size());
+			for (final Entry e : entries) {
+				results.add(pool.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						return Boolean.valueOf(e.isModified(root, true));
+					}
+				}));
+			}
+			for (int i = 0; i < entries.size(); i++) {
+				if (results.get(i).get().booleanValue())
+					modified(entries.get(i));
+			}
+		} catch (InterruptedException err) {
+			final InterruptedIOException e;
+			e = new InterruptedIOException("Interrupted checking files");
+			e.initCause(err);
+			throw e;
+		} catch (ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			final IOException e = new IOException(cause.getMessage());
+			e.initCause(cause);
+			throw e;
+		} finally {
+			if (pool != executor)
+				pool.shutdown();
+		}
+	}
+
+	private void modified(final Entry e) {
+		modified.add(e.getName());
+		anyChanges = true;
+	}
+
 	HashSet<String> added = new HashSet<String>();
 	HashSet<String> changed = new HashSet<String>();
 	HashSet<String> removed = new HashSet<String>();
@@ -1,5 +1,6 @@
 /*
  * Copyright (C) 2007, Robin Rosenberg <robin.rosenberg@dewire.com>
+ * Copyright (C) 2008, Google Inc.
  *
  * All rights reserved.
  *
@@ -37,165 +38,330 @@
 
 package org.spearce.jgit.lib;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeMap;
 
 /**
- * Very much like a map, but specialized to partition the data on the first byte
- * of the key. This is about twice as fast. See test class.
- *
- * Inspiration is taken from the Git pack file format which uses this technique
- * to improve lookup performance.
+ * Map from {@link ObjectId} to any value, using open addressing.
+ * <p>
+ * Keys and values are stored in two parallel arrays, probed linearly from
+ * the slot selected by the first 32 bits of the key. As object names are
+ * SHA-1 hashes those bits are already evenly distributed, so no further
+ * hashing is needed, and a lookup is usually a single comparison. Unlike a
+ * {@link java.util.HashMap} or {@link java.util.TreeMap} no node is allocated
+ * per entry; entries are only created while iterating {@link #entrySet()}.
+ * <p>
+ * Keys are compared by their raw value, so any ObjectId subclass finds the
+ * entry stored under an equal ObjectId. Null keys are not permitted; null
+ * values are.
  *
  * @param <V>
  *            The value we map ObjectId's to.
- *
  */
 public class ObjectIdMap<V> extends AbstractMap<ObjectId, V> {
+	private static final int MIN_SIZE = 32;
+
+	/** Marks a slot whose entry was removed; compared by reference. */
+	private static final ObjectId REMOVED = ObjectId
+			.fromRaw(new byte[Constants.OBJECT_ID_LENGTH]);
+
+	/** Number of entries in the map. */
+	private int size;
+
+	/** Number of slots holding an entry or {@link #REMOVED}. */
+	private int used;
+
+	/** Incremented on every structural change, to detect misuse. */
+	private int modCount;
+
+	private ObjectId[] keys;
+
+	private Object[] values;
+
+	private Set<Map.Entry<ObjectId, V>> entrySet;
+
+	/** Construct an empty ObjectIdMap. */
+	public ObjectIdMap() {
+		this(0);
+	}
 
-	@SuppressWarnings("unchecked")
-	final Map<ObjectId, V>[] level0 = new Map[256];
-	
 	/**
-	 * Construct an ObjectIdMap with an underlying TreeMap implementation
+	 * Construct an empty ObjectIdMap sized for an expected number of entries.
+	 *
+	 * @param expectedSize
+	 *            number of entries the map should hold without growing.
 	 */
-	public ObjectIdMap() {
-		this(new TreeMap());
+	public ObjectIdMap(final int expectedSize) {
+		int n = MIN_SIZE;
+		while (n / 2 <= expectedSize && n < (1 << 30))
+			n <<= 1;
+		keys = new ObjectId[n];
+		values = new Object[n];
 	}
 
 	/**
-	 * Construct an ObjectIdMap with the same underlying map implementation as
-	 * the provided example.
+	 * Construct an ObjectIdMap.
+	 * <p>
+	 * Earlier versions partitioned the keys over 256 copies of the sample
+	 * map. The map now stores its entries itself, so the sample is ignored.
 	 *
 	 * @param sample
+	 *            ignored.
+	 * @deprecated use {@link #ObjectIdMap()} instead.
 	 */
-	@SuppressWarnings("unchecked")
-	public ObjectIdMap(Map sample) {
-		try {
-			Method m=sample.getClass().getMethod("clone", (Class[])null);
-			for (int i=0; i<256; ++i) {
-				level0[i] = (Map)m.invoke(sample, (Object[])null);
-			}
-		} catch (IllegalAccessException e) {
-			throw new IllegalArgumentException(e);
-		} catch (IllegalArgumentException e) {
-			throw new IllegalArgumentException(e);
-		} catch (InvocationTargetException e) {
-			throw new IllegalArgumentException(e);
-		} catch (SecurityException e) {
-			throw new IllegalArgumentException(e);
-		} catch (NoSuchMethodException e) {
-			throw new IllegalArgumentException(e);
-		}
-	}
-	
+	@Deprecated
+	public ObjectIdMap(final Map sample) {
+		this(0);
+	}
+
 	public void clear() {
-		for (int i=0; i<256; ++i)
-			level0[i].clear();
+		keys = new ObjectId[MIN_SIZE];
+		values = new Object[MIN_SIZE];
+		size = 0;
+		used = 0;
+		modCount++;
+	}
+
+	public int size() {
+		return size;
 	}
 
-	public boolean containsKey(Object key) {
-		return submap((ObjectId)key).containsKey(key);
+	public boolean isEmpty() {
+		return size == 0;
 	}
 
-	private final Map<ObjectId, V> submap(ObjectId key) {
-		return level0[key.getFirstByte()];
+	public boolean containsKey(final Object key) {
+		return key instanceof AnyObjectId && find((AnyObjectId) key) >= 0;
 	}
 
-	public boolean containsValue(Object value) {
-		for (int i=0; i<256; ++i)
-			if (level0[i].containsValue(value))
+	public boolean containsValue(final Object value) {
+		for (int i = 0; i < keys.length; i++) {
+			final ObjectId k = keys[i];
+			if (k != null && k != REMOVED && eq(value, values[i]))
 				return true;
+		}
 		return false;
 	}
 
-	private Set<Map.Entry<ObjectId, V>> entrySet =
-		new AbstractSet<Map.Entry<ObjectId, V>>() {
-
-			@Override
-			final public Iterator<Map.Entry<ObjectId, V>> iterator() {
-				return new Iterator<Entry<ObjectId,V>>() {
-					private int levelIndex;
-					private boolean hasNext;
-					private Iterator<Map.Entry<ObjectId, V>> levelIterator;
-					private Iterator<Map.Entry<ObjectId, V>> lastIterator;
-					{
-						step();
-					}
-					public boolean hasNext() {
-						return hasNext;
-					}
-					public java.util.Map.Entry<ObjectId, V> next() {
-						Entry<ObjectId, V> ret = levelIterator.next();
-						step();
-						return ret;
-					}
-					public void remove() {
-						lastIterator.remove();
-					}
-
-					private void step() {
-						hasNext = false;
-						lastIterator = levelIterator;
-						while ((levelIterator==null || !(hasNext=levelIterator.hasNext()))) {
-							if (levelIndex < level0.length)
-								levelIterator = level0[levelIndex++].entrySet().iterator();
-							else
-								break;
-						}
-					}
-				};
+	@SuppressWarnings("unchecked")
+	public V get(final Object key) {
+		if (!(key instanceof AnyObjectId))
+			return null;
+		final int i = find((AnyObjectId) key);
+		return i >= 0 ? (V) values[i] : null;
+	}
+
+	@SuppressWarnings("unchecked")
+	public V put(final ObjectId key, final V value) {
+		final int mask = keys.length - 1;
+		int i = key.w1 & mask;
+		int free = -1;
+		ObjectId k;
+		while ((k = keys[i]) != null) {
+			if (k == REMOVED) {
+				if (free < 0)
+					free = i;
+			} else if (AnyObjectId.equals(k, key)) {
+				final V old = (V) values[i];
+				values[i] = value;
+				return old;
 			}
+			i = (i + 1) & mask;
+		}
 
-			@Override
-			public int size() {
-				int ret=0;
-				for (int i=0; i<256; ++i)
-					ret += level0[i].size();
-				return ret;
+		if (free < 0) {
+			if ((used + 1) * 2 > keys.length) {
+				rehash(size + 1);
+				put(key, value);
+				return null;
 			}
-	};
+			free = i;
+			used++;
+		}
+		keys[free] = key;
+		values[free] = value;
+		size++;
+		modCount++;
+		return null;
+	}
 
+	@SuppressWarnings("unchecked")
+	public V remove(final Object key) {
+		if (!(key instanceof AnyObjectId))
+			return null;
+		final int i = find((AnyObjectId) key);
+		if (i < 0)
+			return null;
+		final V old = (V) values[i];
+		removeAt(i);
+		return old;
+	}
 
 	public Set<Map.Entry<ObjectId, V>> entrySet() {
+		if (entrySet == null)
+			entrySet = new EntrySet();
 		return entrySet;
 	}
 
-	public V get(Object key) {
-		return submap((ObjectId)key).get(key);
+	private int find(final AnyObjectId key) {
+		final int mask = keys.length - 1;
+		int i = key.w1 & mask;
+		ObjectId k;
+		while ((k = keys[i]) != null) {
+			if (k != REMOVED && AnyObjectId.equals(k, key))
+				return i;
+			i = (i + 1) & mask;
+		}
+		return -1;
 	}
 
-	public boolean isEmpty() {
-		for (int i=0; i<256; ++i)
-			if (!level0[i].isEmpty())
-				return false;
-		return true;
+	private void removeAt(final int i) {
+		keys[i] = REMOVED;
+		values[i] = null;
+		size--;
+		modCount++;
 	}
 
-	@SuppressWarnings("unchecked")
-	public V put(ObjectId key, V value) {
-		return submap(key).put(key, value);
-	}
+	private void rehash(final int need) {
+		final ObjectId[] oldKeys = keys;
+		final Object[] oldValues = values;
+		int n = MIN_SIZE;
+		while (n / 2 <= need && n < (1 << 30))
+			n <<= 1;
 
-	public void putAll(Map<? extends ObjectId, ? extends V> arg0) {
-		for (ObjectId k : arg0.keySet()) {
-			V v=arg0.get(k);
-			put(k,v);
+		keys = new ObjectId[n];
+		values = new Object[n];
+		final int mask = n - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			final ObjectId k = oldKeys[j];
+			if (k != null && k != REMOVED) {
+				int i = k.w1 & mask;
+				while (keys[i] != null)
+					i = (i + 1) & mask;
+				keys[i] = k;
+				values[i] = oldValues[j];
+			}
 		}
+		used = size;
 	}
 
-	public V remove(Object key) {
-		return submap((ObjectId) key).remove(key);
+	private static boolean eq(final Object a, final Object b) {
+		return a == null ? b == null : a.equals(b);
 	}
 
-	public int size() {
-		return entrySet().size();
+	private class EntrySet extends AbstractSet<Map.Entry<ObjectId, V>> {
+		public Iterator<Map.Entry<ObjectId, V>> iterator() {
+			return new EntryIterator();
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public void clear() {
+			ObjectIdMap.this.clear();
+		}
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<ObjectId, V>> {
+		private final ObjectId[] table = keys;
+
+		private int expModCount = modCount;
+
+		private int next = -1;
+
+		private int last = -1;
+
+		EntryIterator() {
+			advance();
+		}
+
+		public boolean hasNext() {
+			return next < table.length;
+		}
+
+		public Map.Entry<ObjectId, V> next() {
+			if (expModCount != modCount)
+				throw new ConcurrentModificationException();
+			if (next >= table.length)
+				throw new NoSuchElementException();
+			last = next;
+			advance();
+			return new Entry(last);
+		}
+
+		public void remove() {
+			if (last < 0)
+				throw new IllegalStateException();
+			if (expModCount != modCount)
+				throw new ConcurrentModificationException();
+			removeAt(last);
+			expModCount = modCount;
+			last = -1;
+		}
+
+		private void advance() {
+			ObjectId k;
+			do
+				next++;
+			while (next < table.length
+					&& ((k = table[next]) == null || k == REMOVED));
+		}
 	}
 
+	private class Entry implements Map.Entry<ObjectId, V> {
+		private final ObjectId key;
+
+		private final int slot;
+
+		Entry(final int i) {
+			key = keys[i];
+			slot = i;
+		}
+
+		public ObjectId getKey() {
+			return key;
+		}
+
+		@SuppressWarnings("unchecked")
+		public V getValue() {
+			if (!isCurrent())
+				return get(key);
+			return (V) values[slot];
+		}
+
+		@SuppressWarnings("unchecked")
+		public V setValue(final V value) {
+			if (!isCurrent())
+				return put(key, value);
+			final V old = (V) values[slot];
+			values[slot] = value;
+			return old;
+		}
+
+		public boolean equals(final Object o) {
+			if (!(o instanceof Map.Entry))
+				return false;
+			final Map.Entry e = (Map.Entry) o;
+			return eq(key, e.getKey()) && eq(getValue(), e.getValue());
+		}
+
+		public int hashCode() {
+			final V v = getValue();
+			return key.hashCode() ^ (v == null ? 0 : v.hashCode());
+		}
+
+		public String toString() {
+			return key.name() + "=" + getValue();
+		}
+
+		private boolean isCurrent() {
+			return slot < keys.length && keys[slot] == key;
+		}
+	}
 }
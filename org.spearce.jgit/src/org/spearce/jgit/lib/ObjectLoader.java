@@ -38,7 +38,9 @@
 
 package org.spearce.jgit.lib;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.MessageDigest;
 
 /**
@@ -126,6 +128,24 @@ public final byte[] getBytes() throws IOException {
 	 */
 	public abstract byte[] getCachedBytes() throws IOException;
 
+	/**
+	 * Open a stream over the bytes of this object.
+	 * <p>
+	 * Objects larger than the repository's <code>core.streamFileThreshold</code>
+	 * are inflated (and if necessary, have their deltas applied) incrementally
+	 * as the stream is read, so the object is never fully held in memory.
+	 * Smaller objects are served from {@link #getCachedBytes()}.
+	 * <p>
+	 * Callers must close the returned stream.
+	 * 
+	 * @return a stream of the object's content.
+	 * @throws IOException
+	 *             the object cannot be read.
+	 */
+	public InputStream openStream() throws IOException {
+		return new ByteArrayInputStream(getCachedBytes());
+	}
+
 	/**
 	 * @return raw object type from object header, as stored in storage (pack,
 	 *         loose file). This may be different from {@link #getType()} result
@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.spearce.jgit.util.EWAHBitmap;
+import org.spearce.jgit.util.NB;
+
+/**
+ * Reachability bitmaps of a pack, read from its <code>.bitmap</code> file.
+ * <p>
+ * Each bitmap belongs to one commit of the pack, and has a bit set for every
+ * object of the pack reachable from that commit. Bit <code>i</code> stands
+ * for the <code>i</code>th object in pack offset order, as found through the
+ * {@link PackReverseIndex}. Four more bitmaps record the type of every
+ * object, so objects can be packed again without reading them first.
+ * <p>
+ * A stored bitmap may be XOR compressed against the bitmap of an earlier
+ * entry; such bitmaps are expanded the first time they are requested.
+ *
+ * @see PackBitmapIndexWriter
+ */
+class PackBitmapIndex {
+	/**
+	 * Open an existing bitmap index file for a pack.
+	 *
+	 * @param bitmapFile
+	 *            the <code>.bitmap</code> file to read.
+	 * @param packIndex
+	 *            forward index of the same pack.
+	 * @param reverseIndex
+	 *            reverse index of the same pack.
+	 * @return the bitmap index; null if the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read, is not a bitmap
+	 *             index, or was created for a different pack.
+	 */
+	static PackBitmapIndex open(final File bitmapFile,
+			final PackIndex packIndex, final PackReverseIndex reverseIndex)
+			throws IOException {
+		final FileInputStream fd;
+		try {
+			fd = new FileInputStream(bitmapFile);
+		} catch (FileNotFoundException fnfe) {
+			return null;
+		}
+		final byte[] buf;
+		try {
+			final long len = fd.getChannel().size();
+			if (len > Integer.MAX_VALUE)
+				throw new IOException("Bitmap index is too large: "
+						+ bitmapFile);
+			buf = new byte[(int) len];
+			NB.readFully(fd, buf, 0, buf.length);
+		} finally {
+			fd.close();
+		}
+		return new PackBitmapIndex(bitmapFile, buf, packIndex, reverseIndex);
+	}
+
+	private final PackIndex index;
+
+	private final PackReverseIndex reverseIndex;
+
+	private final int objectCnt;
+
+	/** Uncompressed type bitmaps, indexed by object type code. */
+	private final long[][] types;
+
+	private final ObjectIdSubclassMap<Entry> bitmaps;
+
+	private PackBitmapIndex(final File file, final byte[] buf,
+			final PackIndex packIndex, final PackReverseIndex revIndex)
+			throws IOException {
+		index = packIndex;
+		reverseIndex = revIndex;
+		objectCnt = (int) packIndex.getObjectCount();
+
+		final int end = buf.length - Constants.OBJECT_ID_LENGTH;
+		final int hdr = PackBitmapIndexWriter.HEADER_LENGTH;
+		if (end < hdr)
+			throw new IOException("Truncated bitmap index: " + file);
+		final byte[] sig = PackBitmapIndexWriter.SIGNATURE;
+		for (int i = 0; i < sig.length; i++)
+			if (buf[i] != sig[i])
+				throw new IOException("Not a bitmap index: " + file);
+		final int version = NB.decodeUInt16(buf, 4);
+		if (version != PackBitmapIndexWriter.VERSION)
+			throw new IOException("Unsupported bitmap index version "
+					+ version + ": " + file);
+		final int flags = NB.decodeUInt16(buf, 6);
+		if ((flags & PackBitmapIndexWriter.OPT_FULL_DAG) == 0)
+			throw new IOException("Bitmap index does not cover full DAG: "
+					+ file);
+		final int entryCnt = NB.decodeInt32(buf, 8);
+
+		final byte[] packChecksum = packIndex.getPackChecksum();
+		for (int i = 0; i < Constants.OBJECT_ID_LENGTH; i++)
+			if (buf[12 + i] != packChecksum[i])
+				throw new IOException("Bitmap index does not match pack: "
+						+ file);
+
+		int ptr = hdr;
+		types = new long[Constants.OBJ_TAG + 1][];
+		for (final int type : PackBitmapIndexWriter.TYPE_ORDER) {
+			final EWAHBitmap b = EWAHBitmap.read(buf, ptr, end);
+			ptr += b.serializedSize();
+			types[type] = new long[(objectCnt + 63) >>> 6];
+			b.orInto(types[type]);
+		}
+
+		final Entry[] list = new Entry[entryCnt];
+		bitmaps = new ObjectIdSubclassMap<Entry>();
+		for (int i = 0; i < entryCnt; i++) {
+			if (end - ptr < 6)
+				throw new IOException("Truncated bitmap index: " + file);
+			final long nth = NB.decodeUInt32(buf, ptr);
+			final int xorOffset = buf[ptr + 4] & 0xff;
+			ptr += 6;
+			if (nth >= objectCnt || xorOffset > i)
+				throw new IOException("Corrupt bitmap index: " + file);
+
+			final EWAHBitmap b = EWAHBitmap.read(buf, ptr, end);
+			ptr += b.serializedSize();
+			final Entry e = new Entry(index.getObjectId(nth), b);
+			if (xorOffset > 0)
+				e.xorBase = list[i - xorOffset];
+			list[i] = e;
+			bitmaps.add(e);
+		}
+	}
+
+	/** @return number of objects in the pack. */
+	int getObjectCount() {
+		return objectCnt;
+	}
+
+	/**
+	 * Find the bit of an object.
+	 *
+	 * @param id
+	 *            the object to look for.
+	 * @return position of the object in the pack's offset order; -1 if the
+	 *         object is not in the pack.
+	 */
+	int findPosition(final AnyObjectId id) {
+		final long offset = index.findOffset(id);
+		if (offset == -1)
+			return -1;
+		return reverseIndex.findPosition(offset);
+	}
+
+	/**
+	 * Get the object of a bit.
+	 *
+	 * @param nthPosition
+	 *            position of the object in the pack's offset order.
+	 * @return the object's id.
+	 */
+	ObjectId getObject(final int nthPosition) {
+		return reverseIndex.findObjectByPosition(nthPosition);
+	}
+
+	/**
+	 * Get the type of the object of a bit.
+	 *
+	 * @param nthPosition
+	 *            position of the object in the pack's offset order.
+	 * @return the object's type code; {@link Constants#OBJ_BAD} if the type
+	 *         bitmaps do not cover the object.
+	 */
+	int getType(final int nthPosition) {
+		final int w = nthPosition >>> 6;
+		final long m = 1L << (nthPosition & 63);
+		for (final int type : PackBitmapIndexWriter.TYPE_ORDER)
+			if ((types[type][w] & m) != 0)
+				return type;
+		return Constants.OBJ_BAD;
+	}
+
+	/**
+	 * Get the reachability bitmap of a commit.
+	 *
+	 * @param commit
+	 *            the commit.
+	 * @return all objects reachable from the commit; null if the index has no
+	 *         bitmap for it.
+	 */
+	synchronized EWAHBitmap getBitmap(final AnyObjectId commit) {
+		final Entry e = bitmaps.get(commit);
+		return e != null ? e.resolve(objectCnt) : null;
+	}
+
+	private static class Entry extends ObjectId {
+		private EWAHBitmap bitmap;
+
+		/** Entry the stored bitmap was XOR'ed against; null once resolved. */
+		Entry xorBase;
+
+		Entry(final AnyObjectId id, final EWAHBitmap b) {
+			super(id);
+			bitmap = b;
+		}
+
+		EWAHBitmap resolve(final int objectCnt) {
+			if (xorBase != null) {
+				final long[] w = new long[(objectCnt + 63) >>> 6];
+				xorBase.resolve(objectCnt).orInto(w);
+				bitmap.xorInto(w);
+				bitmap = EWAHBitmap.valueOf(w, objectCnt);
+				xorBase = null;
+			}
+			return bitmap;
+		}
+	}
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevFlag;
+import org.spearce.jgit.revwalk.RevObject;
+import org.spearce.jgit.revwalk.RevSort;
+import org.spearce.jgit.revwalk.RevTag;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.transport.PackedObjectInfo;
+import org.spearce.jgit.util.EWAHBitmap;
+import org.spearce.jgit.util.NB;
+
+/**
+ * Creates a {@link PackBitmapIndex} file for a pack.
+ * <p>
+ * Bitmaps are written for the commits of the pack which have no child within
+ * it, and for every {@value #SELECTION_INTERVAL}th commit along the way, so a
+ * walk from any other commit reaches a bitmapped one quickly. Commits are
+ * processed parents first, letting each bitmap build on those of its
+ * ancestors instead of walking the entire history again.
+ * <p>
+ * A commit only gets a bitmap if every object reachable from it is in the
+ * pack.
+ * <p>
+ * The file format is the one of C Git's <code>.bitmap</code> files:
+ * <ul>
+ * <li>4 byte signature <code>BITM</code></li>
+ * <li>2 byte version number, currently 1</li>
+ * <li>2 byte flags; 1 means the bitmaps cover the full history</li>
+ * <li>4 byte number of bitmapped commits</li>
+ * <li>20 byte checksum of the pack the index was created for</li>
+ * <li>EWAH bitmaps of the commits, trees, blobs and tags of the pack</li>
+ * <li>for each bitmapped commit its 4 byte position in the <code>.idx</code>,
+ * a 1 byte distance to an earlier entry the bitmap is XOR'ed against (0 for
+ * none), 1 byte of flags and the EWAH bitmap</li>
+ * <li>20 byte checksum of all preceding bytes of this file</li>
+ * </ul>
+ * This writer never XOR compresses bitmaps.
+ */
+public class PackBitmapIndexWriter {
+	/** Signature at the start of every bitmap index file. */
+	static final byte[] SIGNATURE = { 'B', 'I', 'T', 'M' };
+
+	/** Format version written by this class. */
+	static final int VERSION = 1;
+
+	/** Flag stating that the bitmaps describe the complete closure. */
+	static final int OPT_FULL_DAG = 1;
+
+	/** Length of the fixed header preceding the type bitmaps. */
+	static final int HEADER_LENGTH = 12 + Constants.OBJECT_ID_LENGTH;
+
+	/** Order the type bitmaps appear in within the file. */
+	static final int[] TYPE_ORDER = { Constants.OBJ_COMMIT,
+			Constants.OBJ_TREE, Constants.OBJ_BLOB, Constants.OBJ_TAG };
+
+	/** Number of commits walked between two selected commits. */
+	public static final int SELECTION_INTERVAL = 100;
+
+	private final Repository db;
+
+	/**
+	 * Create a writer for the bitmaps of a repository's packs.
+	 *
+	 * @param repo
+	 *            the repository whose objects are indexed.
+	 */
+	public PackBitmapIndexWriter(final Repository repo) {
+		db = repo;
+	}
+
+	/**
+	 * Write the bitmap index of an existing pack.
+	 * <p>
+	 * Commits are found by walking from the repository's refs. The index
+	 * replaces the pack's <code>.bitmap</code> file.
+	 *
+	 * @param pack
+	 *            the pack to index.
+	 * @return number of bitmaps written.
+	 * @throws IOException
+	 *             the objects could not be read, or the file could not be
+	 *             written.
+	 */
+	public int write(final PackFile pack) throws IOException {
+		final List<ObjectId> tips = new ArrayList<ObjectId>();
+		for (final Ref r : db.getAllRefs().values()) {
+			if (r.getObjectId() != null)
+				tips.add(r.getObjectId());
+		}
+
+		final List<PackedObjectInfo> list = new ArrayList<PackedObjectInfo>(
+				(int) pack.getObjectCount());
+		for (final PackIndex.MutableEntry me : pack) {
+			final PackedObjectInfo oe = new PackedObjectInfo(me.toObjectId());
+			oe.setOffset(me.getOffset());
+			list.add(oe);
+		}
+
+		final File path = pack.getBitmapIndexFile();
+		final LockFile lck = new LockFile(path);
+		if (!lck.lock())
+			throw new IOException("Cannot lock " + path);
+		final int cnt;
+		try {
+			final OutputStream os = lck.getOutputStream();
+			try {
+				cnt = write(os, list, pack.getPackChecksum(), tips);
+			} finally {
+				os.close();
+			}
+		} catch (IOException err) {
+			lck.unlock();
+			throw err;
+		} catch (RuntimeException err) {
+			lck.unlock();
+			throw err;
+		} catch (Error err) {
+			lck.unlock();
+			throw err;
+		}
+		if (!lck.commit())
+			throw new IOException("Cannot commit " + path);
+		return cnt;
+	}
+
+	/**
+	 * Write the bitmap index for a set of packed objects.
+	 * <p>
+	 * After writing the stream is flushed but remains open.
+	 *
+	 * @param dst
+	 *            the stream the bitmap index will be written to. If not
+	 *            already buffered it will be automatically wrapped in a
+	 *            buffered stream.
+	 * @param toStore
+	 *            the objects of the pack with their offsets, sorted exactly as
+	 *            they were (or will be) passed to
+	 *            {@link PackIndexWriter#write(List, byte[])}.
+	 * @param packDataChecksum
+	 *            checksum signature of the entire pack data content.
+	 * @param tips
+	 *            objects to find the commits from. Annotated tags are peeled;
+	 *            objects which do not lead to a commit are ignored.
+	 * @return number of bitmaps written.
+	 * @throws IOException
+	 *             the objects could not be read, or the stream could not be
+	 *             written.
+	 */
+	public int write(final OutputStream dst,
+			final List<? extends PackedObjectInfo> toStore,
+			final byte[] packDataChecksum,
+			final Collection<? extends AnyObjectId> tips) throws IOException {
+		final int cnt = toStore.size();
+		final long[] offsets = new long[cnt];
+		for (int i = 0; i < cnt; i++)
+			offsets[i] = toStore.get(i).getOffset();
+		Arrays.sort(offsets);
+
+		final long[][] types = new long[Constants.OBJ_TAG + 1][];
+		for (final int type : TYPE_ORDER)
+			types[type] = new long[(cnt + 63) >>> 6];
+
+		final ObjectIdSubclassMap<Entry> built = new ObjectIdSubclassMap<Entry>();
+		final List<Entry> entries = new ArrayList<Entry>();
+		final BitmapWalk bw = new BitmapWalk(db, cnt) {
+			@Override
+			int findPosition(final AnyObjectId id) {
+				final int nth = findIndexPosition(toStore, id);
+				if (nth < 0)
+					return -1;
+				return Arrays.binarySearch(offsets, toStore.get(nth)
+						.getOffset());
+			}
+
+			@Override
+			EWAHBitmap getBitmap(final AnyObjectId commit) {
+				final Entry e = built.get(commit);
+				return e != null ? e.bitmap : null;
+			}
+
+			@Override
+			void onObject(final int nthPosition, final int type) {
+				types[type][nthPosition >>> 6] |= 1L << (nthPosition & 63);
+			}
+		};
+		try {
+			final List<AnyObjectId> one = new ArrayList<AnyObjectId>(1);
+			one.add(null);
+			for (final RevCommit c : select(tips)) {
+				final int nth = findIndexPosition(toStore, c);
+				if (nth < 0)
+					continue;
+				one.set(0, c);
+				final long[] bits = bw.reach(one);
+				if (bits == null)
+					continue;
+				final Entry e = new Entry(c, nth, EWAHBitmap
+						.valueOf(bits, cnt));
+				built.add(e);
+				entries.add(e);
+			}
+
+			// Tags and other objects only reachable from the tips still
+			// need their types recorded.
+			final List<AnyObjectId> inPack = new ArrayList<AnyObjectId>();
+			for (final AnyObjectId id : tips)
+				if (findIndexPosition(toStore, id) >= 0)
+					inPack.add(id);
+			bw.reach(inPack);
+		} finally {
+			bw.dispose();
+		}
+
+		final DigestOutputStream out = new DigestOutputStream(
+				dst instanceof BufferedOutputStream ? dst
+						: new BufferedOutputStream(dst), Constants
+						.newMessageDigest());
+		final byte[] tmp = new byte[8];
+		out.write(SIGNATURE);
+		NB.encodeInt16(tmp, 0, VERSION);
+		NB.encodeInt16(tmp, 2, OPT_FULL_DAG);
+		NB.encodeInt32(tmp, 4, entries.size());
+		out.write(tmp, 0, 8);
+		out.write(packDataChecksum);
+		for (final int type : TYPE_ORDER)
+			EWAHBitmap.valueOf(types[type], cnt).writeTo(out);
+		for (final Entry e : entries) {
+			NB.encodeInt32(tmp, 0, e.nth);
+			tmp[4] = 0; // not XOR compressed
+			tmp[5] = 0; // flags
+			out.write(tmp, 0, 6);
+			e.bitmap.writeTo(out);
+		}
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		return entries.size();
+	}
+
+	/** @return commits to create bitmaps for, parents before children. */
+	private List<RevCommit> select(final Collection<? extends AnyObjectId> tips)
+			throws IOException {
+		final RevWalk rw = new RevWalk(db);
+		rw.setRetainBody(false);
+		rw.sort(RevSort.TOPO, true);
+		rw.sort(RevSort.REVERSE, true);
+		for (final AnyObjectId id : tips) {
+			RevObject o = rw.parseAny(id);
+			while (o instanceof RevTag) {
+				o = ((RevTag) o).getObject();
+				rw.parse(o);
+			}
+			if (o instanceof RevCommit)
+				rw.markStart((RevCommit) o);
+		}
+
+		final List<RevCommit> all = new ArrayList<RevCommit>();
+		for (final RevCommit c : rw)
+			all.add(c);
+
+		final RevFlag hasChild = rw.newFlag("HAS_CHILD");
+		for (final RevCommit c : all) {
+			for (final RevCommit p : c.getParents())
+				p.add(hasChild);
+		}
+		final List<RevCommit> r = new ArrayList<RevCommit>();
+		for (int i = 0; i < all.size(); i++) {
+			final RevCommit c = all.get(i);
+			if (!c.has(hasChild) || i % SELECTION_INTERVAL == 0)
+				r.add(c);
+		}
+		return r;
+	}
+
+	private static int findIndexPosition(
+			final List<? extends PackedObjectInfo> list, final AnyObjectId id) {
+		int low = 0;
+		int high = list.size();
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = id.compareTo(list.get(mid));
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	private static class Entry extends ObjectId {
+		final int nth;
+
+		final EWAHBitmap bitmap;
+
+		Entry(final AnyObjectId id, final int nthPosition, final EWAHBitmap b) {
+			super(id);
+			nth = nthPosition;
+			bitmap = b;
+		}
+	}
+}
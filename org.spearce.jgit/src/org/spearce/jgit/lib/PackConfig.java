@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+/**
+ * The standard "pack" configuration parameters, used when generating packs.
+ */
+public class PackConfig {
+	private static final int MB = 1024 * 1024;
+
+	private final int deltaWindow;
+
+	private final int deltaWindowMemory;
+
+	private final int deltaDepth;
+
+	private final int deltaCacheSize;
+
+	private final int deltaCacheLimit;
+
+	private final int threads;
+
+	private final boolean writeReverseIndex;
+
+	private final boolean useBitmaps;
+
+	PackConfig(final RepositoryConfig rc) {
+		deltaWindow = rc.getInt("pack", "window",
+				PackWriter.DEFAULT_DELTA_SEARCH_WINDOW_SIZE);
+		deltaWindowMemory = rc.getInt("pack", "windowmemory", 0);
+		deltaDepth = rc.getInt("pack", "depth",
+				PackWriter.DEFAULT_MAX_DELTA_DEPTH);
+		deltaCacheSize = rc.getInt("pack", "deltacachesize", 256 * MB);
+		deltaCacheLimit = rc.getInt("pack", "deltacachelimit", 1000);
+		threads = rc.getInt("pack", "threads", 0);
+		writeReverseIndex = rc.getBoolean("pack", "writereverseindex", true);
+		useBitmaps = rc.getBoolean("pack", "usebitmaps", true);
+	}
+
+	/**
+	 * @return number of objects to try as delta bases for each object.
+	 */
+	public int getDeltaWindow() {
+		return deltaWindow;
+	}
+
+	/**
+	 * @return bytes of object data each delta search thread may hold in its
+	 *         window; 0 for no limit.
+	 */
+	public int getDeltaWindowMemory() {
+		return deltaWindowMemory;
+	}
+
+	/**
+	 * @return maximum length of a delta chain.
+	 */
+	public int getDeltaDepth() {
+		return deltaDepth;
+	}
+
+	/**
+	 * @return total bytes of computed deltas to keep between the search and
+	 *         the writing of the pack.
+	 */
+	public int getDeltaCacheSize() {
+		return deltaCacheSize;
+	}
+
+	/**
+	 * @return largest single computed delta to keep between the search and
+	 *         the writing of the pack.
+	 */
+	public int getDeltaCacheLimit() {
+		return deltaCacheLimit;
+	}
+
+	/**
+	 * @return number of threads to search for deltas with; 0 to use one
+	 *         thread per available processor.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * @return true if a <code>.rev</code> reverse index should be written
+	 *         next to each new pack index.
+	 */
+	public boolean isWriteReverseIndex() {
+		return writeReverseIndex;
+	}
+
+	/**
+	 * @return true if reachability bitmaps should be used to enumerate the
+	 *         objects of a pack, when they are available.
+	 */
+	public boolean isUseBitmaps() {
+		return useBitmaps;
+	}
+}
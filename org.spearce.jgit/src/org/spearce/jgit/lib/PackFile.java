@@ -41,6 +41,7 @@
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Iterator;
 import java.util.zip.CRC32;
@@ -56,12 +57,22 @@
  * objects are similar.
  */
 public class PackFile implements Iterable<PackIndex.MutableEntry> {
+	private final Repository repo;
+
 	private final WindowedFile pack;
 
 	private final PackIndex idx;
 
+	private final File revFile;
+
 	private PackReverseIndex reverseIdx;
 
+	private final File bitmapFile;
+
+	private PackBitmapIndex bitmapIdx;
+
+	private boolean bitmapIdxLoaded;
+
 	/**
 	 * Construct a reader for an existing, pre-indexed packfile.
 	 * 
@@ -76,6 +87,7 @@ public class PackFile implements Iterable<PackIndex.MutableEntry> {
 	 */
 	public PackFile(final Repository parentRepo, final File idxFile,
 			final File packFile) throws IOException {
+		repo = parentRepo;
 		pack = new WindowedFile(packFile) {
 			@Override
 			protected void onOpen() throws IOException {
@@ -83,10 +95,41 @@ protected void onOpen() throws IOException {
 			}
 		};
 		try {
-			idx = PackIndex.open(idxFile);
+			idx = PackIndex.open(idxFile, parentRepo != null
+					&& parentRepo.getConfig().getCore().isPackedIndexMmap());
 		} catch (IOException ioe) {
 			throw ioe;
 		}
+		revFile = reverseIndexFile(idxFile);
+		bitmapFile = bitmapIndexFile(idxFile);
+	}
+
+	/**
+	 * Get the reverse index file belonging to a pack index.
+	 *
+	 * @param idxFile
+	 *            path of the <code>.idx</code> file.
+	 * @return path of the <code>.rev</code> file that accompanies it.
+	 */
+	public static File reverseIndexFile(final File idxFile) {
+		String name = idxFile.getName();
+		if (name.endsWith(".idx"))
+			name = name.substring(0, name.length() - 4);
+		return new File(idxFile.getParentFile(), name + ".rev");
+	}
+
+	/**
+	 * Get the bitmap index file belonging to a pack index.
+	 *
+	 * @param idxFile
+	 *            path of the <code>.idx</code> file.
+	 * @return path of the <code>.bitmap</code> file that accompanies it.
+	 */
+	public static File bitmapIndexFile(final File idxFile) {
+		String name = idxFile.getName();
+		if (name.endsWith(".idx"))
+			name = name.substring(0, name.length() - 4);
+		return new File(idxFile.getParentFile(), name + ".bitmap");
 	}
 
 	final PackedObjectLoader resolveBase(final WindowCursor curs, final long ofs)
@@ -191,6 +234,34 @@ ObjectId findObjectForOffset(final long offset) {
 		return getReverseIdx().findObject(offset);
 	}
 
+	File getBitmapIndexFile() {
+		return bitmapFile;
+	}
+
+	byte[] getPackChecksum() {
+		return idx.getPackChecksum();
+	}
+
+	/**
+	 * Get the reachability bitmaps of this pack.
+	 *
+	 * @return the bitmap index; null if the pack has none, or it could not be
+	 *         read.
+	 */
+	synchronized PackBitmapIndex getBitmapIndex() {
+		if (!bitmapIdxLoaded) {
+			bitmapIdxLoaded = true;
+			try {
+				bitmapIdx = PackBitmapIndex.open(bitmapFile, idx,
+						getReverseIdx());
+			} catch (IOException err) {
+				// Without bitmaps objects are enumerated by walking, as
+				// they always were.
+			}
+		}
+		return bitmapIdx;
+	}
+
 	final UnpackedObjectCache.Entry readCache(final long position) {
 		return UnpackedObjectCache.get(pack, position);
 	}
@@ -206,6 +277,27 @@ final byte[] decompress(final long position, final int totalSize,
 		return dstbuf;
 	}
 
+	/**
+	 * Open a stream inflating the zlib data starting at a position.
+	 *
+	 * @param position
+	 *            offset of the first byte of the compressed data.
+	 * @return stream of the inflated data. Must be closed by the caller.
+	 */
+	final InputStream openInflaterStream(final long position) {
+		return new CachedInflaterInputStream(new WindowedFileInputStream(pack,
+				position));
+	}
+
+	/**
+	 * @return size in bytes above which objects from this pack are streamed.
+	 */
+	final int getStreamFileThreshold() {
+		if (repo == null)
+			return CoreConfig.DEFAULT_STREAM_FILE_THRESHOLD;
+		return repo.getConfig().getCore().getStreamFileThreshold();
+	}
+
 	final void copyRawData(final PackedObjectLoader loader,
 			final OutputStream out, final byte buf[]) throws IOException {
 		final long objectOffset = loader.objectOffset;
@@ -336,9 +428,17 @@ private long findEndOffset(final long startOffset)
 		return getReverseIdx().findNextOffset(startOffset, maxOffset);
 	}
 
-	private PackReverseIndex getReverseIdx() {
-		if (reverseIdx == null)
-			reverseIdx = new PackReverseIndex(idx);
+	private synchronized PackReverseIndex getReverseIdx() {
+		if (reverseIdx == null) {
+			try {
+				reverseIdx = PackReverseIndex.open(revFile, idx);
+			} catch (IOException err) {
+				// A damaged or stale reverse index is only an optimization;
+				// rebuild the table from the forward index instead.
+			}
+			if (reverseIdx == null)
+				reverseIdx = new PackReverseIndex(idx);
+		}
 		return reverseIdx;
 	}
 }
@@ -42,6 +42,8 @@
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Iterator;
 
 import org.spearce.jgit.errors.MissingObjectException;
@@ -57,6 +59,9 @@
  * </p>
  */
 public abstract class PackIndex implements Iterable<PackIndex.MutableEntry> {
+	/** Footer checksum of the pack file this index describes. */
+	protected byte[] packChecksum;
+
 	/**
 	 * Open an existing pack <code>.idx</code> file for reading.
 	 * <p>
@@ -75,6 +80,35 @@ public abstract class PackIndex implements Iterable<PackIndex.MutableEntry> {
 	 *             unrecognized data version, or unexpected data corruption.
 	 */
 	public static PackIndex open(final File idxFile) throws IOException {
+		return open(idxFile, false);
+	}
+
+	/**
+	 * Open an existing pack <code>.idx</code> file for reading.
+	 * <p>
+	 * The format of the file will be automatically detected and a proper access
+	 * implementation for that format will be constructed and returned to the
+	 * caller. The file may or may not be held open by the returned instance.
+	 * </p>
+	 * <p>
+	 * If <code>mmap</code> is true and the index is in version 2 format the
+	 * file is memory mapped and searched in place rather than being copied
+	 * into the Java heap. Version 1 indexes are always read into the heap.
+	 * </p>
+	 *
+	 * @param idxFile
+	 *            existing pack .idx to read.
+	 * @param mmap
+	 *            true to prefer a memory mapped implementation.
+	 * @return access implementation for the requested file.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read due to security errors,
+	 *             unrecognized data version, or unexpected data corruption.
+	 */
+	public static PackIndex open(final File idxFile, final boolean mmap)
+			throws IOException {
 		final FileInputStream fd = new FileInputStream(idxFile);
 		try {
 			final byte[] hdr = new byte[8];
@@ -82,8 +116,14 @@ public static PackIndex open(final File idxFile) throws IOException {
 			if (isTOC(hdr)) {
 				final int v = NB.decodeInt32(hdr, 4);
 				switch (v) {
-				case 2:
+				case 2: {
+					final FileChannel fc = fd.getChannel();
+					final long len = fc.size();
+					if (mmap && len <= Integer.MAX_VALUE)
+						return new PackIndexV2Mapped(fc.map(MapMode.READ_ONLY,
+								0, len));
 					return new PackIndexV2(fd);
+				}
 				default:
 					throw new IOException("Unsupported pack index version " + v);
 				}
@@ -201,6 +241,32 @@ final ObjectId getObjectId(final int nthPosition) {
 		return getObjectId(((long) u31) << 1 | one);
 	}
 
+	/**
+	 * Get the pack file offset for the n-th object entry returned by
+	 * {@link #iterator()}.
+	 *
+	 * @param nthPosition
+	 *            position within the traversal of {@link #iterator()} that the
+	 *            caller needs the offset for. The first returned
+	 *            {@link MutableEntry} is 0, the second is 1, etc.
+	 * @return offset of the object's header within the pack.
+	 */
+	abstract long getOffset(long nthPosition);
+
+	/**
+	 * Get the pack file offset for the n-th object entry returned by
+	 * {@link #iterator()}.
+	 *
+	 * @param nthPosition
+	 *            unsigned 32 bit position within the traversal of
+	 *            {@link #iterator()} that the caller needs the offset for.
+	 *            Positions past 2**31-1 are negative, but still valid.
+	 * @return offset of the object's header within the pack.
+	 */
+	final long getOffset(final int nthPosition) {
+		return getOffset(nthPosition & 0xffffffffL);
+	}
+
 	/**
 	 * Locate the file offset position for the requested object.
 	 * 
@@ -234,6 +300,14 @@ abstract long findCRC32(AnyObjectId objId) throws MissingObjectException,
 	 */
 	abstract boolean hasCRC32Support();
 
+	/**
+	 * @return checksum of the pack file this index was created for, as stored
+	 *         in the index footer.
+	 */
+	byte[] getPackChecksum() {
+		return packChecksum;
+	}
+
 	/**
 	 * Represent mutable entry of pack index consisting of object id and offset
 	 * in pack (both mutable).
@@ -79,6 +79,9 @@ class PackIndexV1 extends PackIndex {
 			}
 		}
 		objectCnt = idxHeader[255];
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		NB.readFully(fd, packChecksum, 0, packChecksum.length);
 	}
 
 	long getObjectCount() {
@@ -97,13 +100,27 @@ long getOffset64Count() {
 
 	@Override
 	ObjectId getObjectId(final long nthPosition) {
+		final int levelOne = findLevelOne(nthPosition);
+		final int p = getLevelTwo(nthPosition, levelOne);
+		final int dataIdx = ((4 + Constants.OBJECT_ID_LENGTH) * p) + 4;
+		return ObjectId.fromRaw(idxdata[levelOne], dataIdx);
+	}
+
+	@Override
+	long getOffset(final long nthPosition) {
+		final int levelOne = findLevelOne(nthPosition);
+		final int p = getLevelTwo(nthPosition, levelOne);
+		final int dataIdx = (4 + Constants.OBJECT_ID_LENGTH) * p;
+		return NB.decodeUInt32(idxdata[levelOne], dataIdx);
+	}
+
+	private int findLevelOne(final long nthPosition) {
 		int levelOne = Arrays.binarySearch(idxHeader, nthPosition + 1);
-		long base;
 		if (levelOne >= 0) {
 			// If we hit the bucket exactly the item is in the bucket, or
 			// any bucket before it which has the same object count.
 			//
-			base = idxHeader[levelOne];
+			final long base = idxHeader[levelOne];
 			while (levelOne > 0 && base == idxHeader[levelOne - 1])
 				levelOne--;
 		} else {
@@ -111,11 +128,12 @@ ObjectId getObjectId(final long nthPosition) {
 			//
 			levelOne = -(levelOne + 1);
 		}
+		return levelOne;
+	}
 
-		base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
-		final int p = (int) (nthPosition - base);
-		final int dataIdx = ((4 + Constants.OBJECT_ID_LENGTH) * p) + 4;
-		return ObjectId.fromRaw(idxdata[levelOne], dataIdx);
+	private int getLevelTwo(final long nthPosition, final int levelOne) {
+		final long base = levelOne > 0 ? idxHeader[levelOne - 1] : 0;
+		return (int) (nthPosition - base);
 	}
 
 	long findOffset(final AnyObjectId objId) {
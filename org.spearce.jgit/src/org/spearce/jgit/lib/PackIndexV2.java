@@ -142,6 +142,9 @@ class PackIndexV2 extends PackIndex {
 		} else {
 			offset64 = NO_BYTES;
 		}
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		NB.readFully(fd, packChecksum, 0, packChecksum.length);
 	}
 
 	@Override
@@ -156,13 +159,29 @@ long getOffset64Count() {
 
 	@Override
 	ObjectId getObjectId(final long nthPosition) {
+		final int levelOne = findLevelOne(nthPosition);
+		final int p = getLevelTwo(nthPosition, levelOne);
+		final int p4 = p << 2;
+		return ObjectId.fromRaw(names[levelOne], p4 + p); // p * 5
+	}
+
+	@Override
+	long getOffset(final long nthPosition) {
+		final int levelOne = findLevelOne(nthPosition);
+		final int levelTwo = getLevelTwo(nthPosition, levelOne);
+		final long p = NB.decodeUInt32(offset32[levelOne], levelTwo << 2);
+		if ((p & IS_O64) != 0)
+			return NB.decodeUInt64(offset64, (8 * (int) (p & ~IS_O64)));
+		return p;
+	}
+
+	private int findLevelOne(final long nthPosition) {
 		int levelOne = Arrays.binarySearch(fanoutTable, nthPosition + 1);
-		long base;
 		if (levelOne >= 0) {
 			// If we hit the bucket exactly the item is in the bucket, or
 			// any bucket before it which has the same object count.
 			//
-			base = fanoutTable[levelOne];
+			final long base = fanoutTable[levelOne];
 			while (levelOne > 0 && base == fanoutTable[levelOne - 1])
 				levelOne--;
 		} else {
@@ -170,11 +189,12 @@ ObjectId getObjectId(final long nthPosition) {
 			//
 			levelOne = -(levelOne + 1);
 		}
+		return levelOne;
+	}
 
-		base = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
-		final int p = (int) (nthPosition - base);
-		final int p4 = p << 2;
-		return ObjectId.fromRaw(names[levelOne], p4 + p); // p * 5
+	private int getLevelTwo(final long nthPosition, final int levelOne) {
+		final long base = levelOne > 0 ? fanoutTable[levelOne - 1] : 0;
+		return (int) (nthPosition - base);
 	}
 
 	@Override
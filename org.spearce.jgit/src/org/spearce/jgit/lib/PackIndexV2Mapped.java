@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.spearce.jgit.errors.MissingObjectException;
+import org.spearce.jgit.util.NB;
+
+/**
+ * Version 2 pack index searched directly in a memory mapped file.
+ * <p>
+ * Unlike {@link PackIndexV2} this implementation does not copy the tables
+ * into the Java heap. Opening the index only maps the file, and lookups
+ * binary search the mapped name table in place. The operating system pages
+ * the file in and out as needed, so many large indexes can be open at once
+ * without their size counting against the heap.
+ * <p>
+ * Only absolute buffer accessors are used, so the instance is safe for use by
+ * concurrent readers.
+ */
+class PackIndexV2Mapped extends PackIndex {
+	private static final long IS_O64 = 1L << 31;
+
+	private static final int FANOUT = 256;
+
+	private static final int FANOUT_POS = 8;
+
+	private static final int NAMES_POS = FANOUT_POS + 4 * FANOUT;
+
+	private final ByteBuffer map;
+
+	private final long objectCnt;
+
+	private final int crc32Pos;
+
+	private final int offset32Pos;
+
+	private final int offset64Pos;
+
+	private final long offset64Cnt;
+
+	/**
+	 * Wrap a mapped version 2 index file.
+	 *
+	 * @param buf
+	 *            the complete index file, including its 8 byte header.
+	 * @throws IOException
+	 *             the buffer is too short to hold the tables described by its
+	 *             fan-out table.
+	 */
+	PackIndexV2Mapped(final ByteBuffer buf) throws IOException {
+		map = buf;
+		objectCnt = fanout(FANOUT - 1);
+
+		final long n = objectCnt;
+		final long trailer = 2 * Constants.OBJECT_ID_LENGTH;
+		final long crcPos = NAMES_POS + n * Constants.OBJECT_ID_LENGTH;
+		final long o32Pos = crcPos + 4 * n;
+		final long o64Pos = o32Pos + 4 * n;
+		final long o64Len = map.limit() - trailer - o64Pos;
+		if (o64Len < 0 || o64Len % 8 != 0)
+			throw new IOException("Pack index has invalid length "
+					+ map.limit() + " for " + n + " objects");
+
+		crc32Pos = (int) crcPos;
+		offset32Pos = (int) o32Pos;
+		offset64Pos = (int) o64Pos;
+		offset64Cnt = o64Len / 8;
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		final int csumPos = (int) (map.limit() - trailer);
+		for (int i = 0; i < packChecksum.length; i++)
+			packChecksum[i] = map.get(csumPos + i);
+	}
+
+	@Override
+	long getObjectCount() {
+		return objectCnt;
+	}
+
+	@Override
+	long getOffset64Count() {
+		return offset64Cnt;
+	}
+
+	@Override
+	ObjectId getObjectId(final long nthPosition) {
+		final int p = NAMES_POS + (int) nthPosition * Constants.OBJECT_ID_LENGTH;
+		return new ObjectId(map.getInt(p), map.getInt(p + 4), map
+				.getInt(p + 8), map.getInt(p + 12), map.getInt(p + 16));
+	}
+
+	@Override
+	long getOffset(final long nthPosition) {
+		final long p = map.getInt(offset32Pos + 4 * (int) nthPosition)
+				& 0xffffffffL;
+		if ((p & IS_O64) != 0)
+			return map.getLong(offset64Pos + 8 * (int) (p & ~IS_O64));
+		return p;
+	}
+
+	@Override
+	long findOffset(final AnyObjectId objId) {
+		final int nth = findPosition(objId);
+		if (nth == -1)
+			return -1;
+		return getOffset(nth);
+	}
+
+	@Override
+	long findCRC32(final AnyObjectId objId) throws MissingObjectException {
+		final int nth = findPosition(objId);
+		if (nth == -1)
+			throw new MissingObjectException(objId.copy(), "unknown");
+		return map.getInt(crc32Pos + 4 * nth) & 0xffffffffL;
+	}
+
+	@Override
+	boolean hasCRC32Support() {
+		return true;
+	}
+
+	public Iterator<MutableEntry> iterator() {
+		return new EntriesIteratorV2Mapped();
+	}
+
+	private long fanout(final int levelOne) {
+		return map.getInt(FANOUT_POS + 4 * levelOne) & 0xffffffffL;
+	}
+
+	private int findPosition(final AnyObjectId objId) {
+		final int levelOne = objId.getFirstByte();
+		int low = levelOne > 0 ? (int) fanout(levelOne - 1) : 0;
+		int high = (int) fanout(levelOne);
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final int cmp = compare(objId, NAMES_POS + mid
+					* Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	private int compare(final AnyObjectId objId, final int p) {
+		int cmp;
+
+		cmp = NB.compareUInt32(objId.w1, map.getInt(p));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(objId.w2, map.getInt(p + 4));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(objId.w3, map.getInt(p + 8));
+		if (cmp != 0)
+			return cmp;
+
+		cmp = NB.compareUInt32(objId.w4, map.getInt(p + 12));
+		if (cmp != 0)
+			return cmp;
+
+		return NB.compareUInt32(objId.w5, map.getInt(p + 16));
+	}
+
+	private class EntriesIteratorV2Mapped extends EntriesIterator {
+		public MutableEntry next() {
+			if (returnedNumber >= objectCnt)
+				throw new NoSuchElementException();
+			final int p = NAMES_POS + (int) returnedNumber
+					* Constants.OBJECT_ID_LENGTH;
+			objectId.w1 = map.getInt(p);
+			objectId.w2 = map.getInt(p + 4);
+			objectId.w3 = map.getInt(p + 8);
+			objectId.w4 = map.getInt(p + 12);
+			objectId.w5 = map.getInt(p + 16);
+			objectId.setOffset(getOffset(returnedNumber));
+			returnedNumber++;
+			return objectId;
+		}
+	}
+}
@@ -37,6 +37,13 @@
 
 package org.spearce.jgit.lib;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Arrays;
 
 import org.spearce.jgit.errors.CorruptObjectException;
@@ -48,6 +55,12 @@
  * instead of object id. Such offset-based reverse lookups are performed in
  * O(log n) time.
  * </p>
+ * <p>
+ * The index is either computed from the forward index, or memory mapped from
+ * a <code>.rev</code> file written by {@link PackReverseIndexWriter}. A mapped
+ * index costs no heap and is available immediately, as the forward index
+ * supplies the offsets during the binary search.
+ * </p>
  *
  * @see PackIndex
  * @see PackFile
@@ -72,6 +85,80 @@ class PackReverseIndex {
 	/** Position of the corresponding {@link #offsets64} in {@link #index}. */
 	private final int nth64[];
 
+	/**
+	 * Positions in {@link #index}, sorted by offset, if this reverse index
+	 * was mapped from a file. Null when the arrays above are in use.
+	 */
+	private final IntBuffer mapped;
+
+	/**
+	 * Open an existing reverse index file for a pack.
+	 *
+	 * @param revFile
+	 *            the <code>.rev</code> file to map.
+	 * @param packIndex
+	 *            forward index of the same pack.
+	 * @return the mapped reverse index; null if the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read, is not a reverse
+	 *             index, or was created for a different pack.
+	 */
+	static PackReverseIndex open(final File revFile, final PackIndex packIndex)
+			throws IOException {
+		final FileInputStream fd;
+		try {
+			fd = new FileInputStream(revFile);
+		} catch (FileNotFoundException fnfe) {
+			return null;
+		}
+		try {
+			final long cnt = packIndex.getObjectCount();
+			final int hdr = PackReverseIndexWriter.HEADER_LENGTH;
+			final int trailer = 2 * Constants.OBJECT_ID_LENGTH;
+			final long expLen = hdr + 4 * cnt + trailer;
+			final long len = fd.getChannel().size();
+			if (len != expLen || expLen > Integer.MAX_VALUE)
+				throw new IOException("Reverse index has wrong length "
+						+ len + ", expected " + expLen + ": " + revFile);
+
+			final MappedByteBuffer map = fd.getChannel().map(MapMode.READ_ONLY,
+					0, len);
+			final byte[] sig = PackReverseIndexWriter.SIGNATURE;
+			for (int i = 0; i < sig.length; i++)
+				if (map.get(i) != sig[i])
+					throw new IOException("Not a reverse index: " + revFile);
+			final int version = map.getInt(4);
+			if (version != PackReverseIndexWriter.VERSION)
+				throw new IOException("Unsupported reverse index version "
+						+ version + ": " + revFile);
+			if (map.getInt(8) != PackReverseIndexWriter.OID_VERSION)
+				throw new IOException("Unsupported reverse index hash: "
+						+ revFile);
+
+			final byte[] packChecksum = packIndex.getPackChecksum();
+			final int csumPos = (int) (expLen - trailer);
+			for (int i = 0; i < Constants.OBJECT_ID_LENGTH; i++)
+				if (map.get(csumPos + i) != packChecksum[i])
+					throw new IOException("Reverse index does not match pack: "
+							+ revFile);
+
+			map.position(hdr);
+			map.limit(csumPos);
+			return new PackReverseIndex(packIndex, map.slice().asIntBuffer());
+		} finally {
+			fd.close();
+		}
+	}
+
+	private PackReverseIndex(final PackIndex packIndex, final IntBuffer order) {
+		index = packIndex;
+		mapped = order;
+		offsets32 = null;
+		offsets64 = null;
+		nth32 = null;
+		nth64 = null;
+	}
+
 	/**
 	 * Create reverse index from straight/forward pack index, by indexing all
 	 * its entries.
@@ -81,6 +168,7 @@ class PackReverseIndex {
 	 */
 	PackReverseIndex(final PackIndex packIndex) {
 		index = packIndex;
+		mapped = null;
 
 		final long cnt = index.getObjectCount();
 		final long n64 = index.getOffset64Count();
@@ -127,6 +215,12 @@ class PackReverseIndex {
 	 * @return object id for this offset, or null if no object was found.
 	 */
 	ObjectId findObject(final long offset) {
+		if (mapped != null) {
+			final int k = searchMapped(offset);
+			if (k < 0)
+				return null;
+			return index.getObjectId(mapped.get(k));
+		}
 		if (offset <= Integer.MAX_VALUE) {
 			final int i32 = Arrays.binarySearch(offsets32, (int) offset);
 			if (i32 < 0)
@@ -157,6 +251,16 @@ ObjectId findObject(final long offset) {
 	 */
 	long findNextOffset(final long offset, final long maxOffset)
 			throws CorruptObjectException {
+		if (mapped != null) {
+			final int k = searchMapped(offset);
+			if (k < 0)
+				throw new CorruptObjectException(
+						"Can't find object in (reverse) pack index for the specified offset "
+								+ offset);
+			if (k + 1 == mapped.limit())
+				return maxOffset;
+			return index.getOffset(mapped.get(k + 1));
+		}
 		if (offset <= Integer.MAX_VALUE) {
 			final int i32 = Arrays.binarySearch(offsets32, (int) offset);
 			if (i32 < 0)
@@ -182,4 +286,56 @@ long findNextOffset(final long offset, final long maxOffset)
 			return offsets64[i64 + 1];
 		}
 	}
+
+	/**
+	 * Find the position of an object within the pack's offset order.
+	 *
+	 * @param offset
+	 *            start offset of the object.
+	 * @return number of objects stored before the object in the pack; -1 if
+	 *         no object starts at the offset.
+	 */
+	int findPosition(final long offset) {
+		if (mapped != null)
+			return searchMapped(offset);
+		if (offset <= Integer.MAX_VALUE) {
+			final int i32 = Arrays.binarySearch(offsets32, (int) offset);
+			return i32 < 0 ? -1 : i32;
+		} else {
+			final int i64 = Arrays.binarySearch(offsets64, offset);
+			return i64 < 0 ? -1 : offsets32.length + i64;
+		}
+	}
+
+	/**
+	 * Get the object at a position within the pack's offset order.
+	 *
+	 * @param nthPosition
+	 *            position of the object, as returned by
+	 *            {@link #findPosition(long)}.
+	 * @return object id of the object at that position.
+	 */
+	ObjectId findObjectByPosition(final int nthPosition) {
+		if (mapped != null)
+			return index.getObjectId(mapped.get(nthPosition));
+		if (nthPosition < offsets32.length)
+			return index.getObjectId(nth32[nthPosition]);
+		return index.getObjectId(nth64[nthPosition - offsets32.length]);
+	}
+
+	private int searchMapped(final long offset) {
+		int low = 0;
+		int high = mapped.limit();
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final long o = index.getOffset(mapped.get(mid));
+			if (offset < o)
+				high = mid;
+			else if (offset == o)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
 }
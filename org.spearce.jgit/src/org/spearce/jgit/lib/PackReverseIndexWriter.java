@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.spearce.jgit.transport.PackedObjectInfo;
+import org.spearce.jgit.util.NB;
+
+/**
+ * Creates a reverse index to support offset based lookups in a pack.
+ * <p>
+ * Reverse index files (the <code>.rev</code> suffix next to a pack's
+ * <code>.idx</code>) list the index position of every object, ordered by the
+ * object's offset within the pack. Having this table on disk lets
+ * {@link PackFile} answer offset to object queries without first building a
+ * {@link PackReverseIndex} in memory.
+ * <p>
+ * The file format is:
+ * <ul>
+ * <li>4 byte signature <code>RIDX</code></li>
+ * <li>4 byte version number, currently 1</li>
+ * <li>4 byte hash function identifier, 1 for SHA-1</li>
+ * <li>for each object in pack offset order, its 4 byte position in the
+ * <code>.idx</code></li>
+ * <li>20 byte checksum of the pack the index was created for</li>
+ * <li>20 byte checksum of all preceding bytes of this file</li>
+ * </ul>
+ */
+public class PackReverseIndexWriter {
+	/** Signature at the start of every reverse index file. */
+	static final byte[] SIGNATURE = { 'R', 'I', 'D', 'X' };
+
+	/** Format version written by this class. */
+	static final int VERSION = 1;
+
+	/** Hash function identifier for SHA-1 object names. */
+	static final int OID_VERSION = 1;
+
+	/** Length of the fixed header preceding the position table. */
+	static final int HEADER_LENGTH = 12;
+
+	private final DigestOutputStream out;
+
+	private final byte[] tmp;
+
+	/**
+	 * Create a new writer.
+	 *
+	 * @param dst
+	 *            the stream the reverse index will be written to. If not
+	 *            already buffered it will be automatically wrapped in a
+	 *            buffered stream. Callers are always responsible for closing
+	 *            the stream.
+	 */
+	public PackReverseIndexWriter(final OutputStream dst) {
+		out = new DigestOutputStream(dst instanceof BufferedOutputStream ? dst
+				: new BufferedOutputStream(dst), Constants.newMessageDigest());
+		tmp = new byte[4];
+	}
+
+	/**
+	 * Write the reverse index for a set of objects.
+	 * <p>
+	 * After writing the stream passed to the constructor is flushed but remains
+	 * open.
+	 *
+	 * @param toStore
+	 *            the objects of the pack, sorted exactly as they were (or will
+	 *            be) passed to {@link PackIndexWriter#write(List, byte[])}.
+	 * @param packDataChecksum
+	 *            checksum signature of the entire pack data content. This is
+	 *            traditionally the last 20 bytes of the pack file's own stream.
+	 * @throws IOException
+	 *             an error occurred while writing to the output stream.
+	 */
+	public void write(final List<? extends PackedObjectInfo> toStore,
+			final byte[] packDataChecksum) throws IOException {
+		final int cnt = toStore.size();
+		final long[] offsets = new long[cnt];
+		for (int i = 0; i < cnt; i++)
+			offsets[i] = toStore.get(i).getOffset();
+		Arrays.sort(offsets);
+
+		final int[] order = new int[cnt];
+		for (int i = 0; i < cnt; i++)
+			order[Arrays.binarySearch(offsets, toStore.get(i).getOffset())] = i;
+
+		out.write(SIGNATURE);
+		NB.encodeInt32(tmp, 0, VERSION);
+		out.write(tmp, 0, 4);
+		NB.encodeInt32(tmp, 0, OID_VERSION);
+		out.write(tmp, 0, 4);
+		for (final int nth : order) {
+			NB.encodeInt32(tmp, 0, nth);
+			out.write(tmp, 0, 4);
+		}
+
+		out.write(packDataChecksum);
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+	}
+}
@@ -45,6 +45,7 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -59,6 +60,7 @@
 import org.spearce.jgit.revwalk.RevSort;
 import org.spearce.jgit.transport.PackedObjectInfo;
 import org.spearce.jgit.util.CountingOutputStream;
+import org.spearce.jgit.util.EWAHBitmap;
 import org.spearce.jgit.util.NB;
 
 /**
@@ -84,14 +86,15 @@
  * </p>
  * <p>
  * Class provide set of configurable options and {@link ProgressMonitor}
- * support, as operations may take a long time for big repositories. Deltas
- * searching algorithm is <b>NOT IMPLEMENTED</b> yet - this implementation
- * relies only on deltas and objects reuse.
+ * support, as operations may take a long time for big repositories. Objects
+ * may be written by reusing deltas or whole objects already stored in local
+ * packs, and when {@link #setDeltaCompress(boolean)} is enabled new deltas are
+ * searched for among the objects which still need one.
  * </p>
  * <p>
  * This class is not thread safe, it is intended to be used in one thread, with
  * one instance per created pack. Subsequent calls to writePack result in
- * undefined behavior.
+ * undefined behavior. The delta search may use additional threads internally.
  * </p>
  */
 
@@ -112,6 +115,14 @@ public class PackWriter {
 	 */
 	public static final String SEARCHING_REUSE_PROGRESS = "Compressing objects";
 
+	/**
+	 * Title of {@link ProgressMonitor} task used during searching for new
+	 * deltas.
+	 *
+	 * @see #writePack(OutputStream)
+	 */
+	public static final String SEARCHING_DELTAS_PROGRESS = "Searching for deltas";
+
 	/**
 	 * Title of {@link ProgressMonitor} task used during writing out pack
 	 * (objects)
@@ -148,6 +159,20 @@ public class PackWriter {
 	 */
 	public static final int DEFAULT_MAX_DELTA_DEPTH = 50;
 
+	/**
+	 * Default value of the delta compression option.
+	 *
+	 * @see #setDeltaCompress(boolean)
+	 */
+	public static final boolean DEFAULT_DELTA_COMPRESS = false;
+
+	/**
+	 * Default number of objects to try as delta bases for each object.
+	 *
+	 * @see #setDeltaSearchWindowSize(int)
+	 */
+	public static final int DEFAULT_DELTA_SEARCH_WINDOW_SIZE = 10;
+
 	private static final int PACK_VERSION_GENERATED = 2;
 
 	@SuppressWarnings("unchecked")
@@ -191,10 +216,35 @@ public class PackWriter {
 
 	private int maxDeltaDepth = DEFAULT_MAX_DELTA_DEPTH;
 
+	private boolean deltaCompress = DEFAULT_DELTA_COMPRESS;
+
+	private int deltaSearchWindowSize;
+
+	private long deltaSearchMemoryLimit;
+
+	private long deltaCacheSize;
+
+	private int deltaCacheLimit;
+
+	private int threads;
+
+	private long deltaCacheUsed;
+
 	private int outputVersion;
 
 	private boolean thin;
 
+	private boolean useBitmaps;
+
+	/** Bitmap index the objects the other side has were counted with. */
+	private PackBitmapIndex haveIndex;
+
+	/** Objects the other side has, as positions in {@link #haveIndex}. */
+	private long[] haveBits;
+
+	/** Objects to find bitmap commits from, if the pack gets bitmaps. */
+	private Collection<? extends AnyObjectId> bitmapTips;
+
 	/**
 	 * Create writer for specified repository.
 	 * <p>
@@ -213,6 +263,15 @@ public PackWriter(final Repository repo, final ProgressMonitor monitor) {
 		this.db = repo;
 		this.monitor = monitor;
 		this.deflater = new Deflater(db.getConfig().getCore().getCompression());
+
+		final PackConfig pc = db.getConfig().getPack();
+		maxDeltaDepth = pc.getDeltaDepth();
+		deltaSearchWindowSize = pc.getDeltaWindow();
+		deltaSearchMemoryLimit = pc.getDeltaWindowMemory();
+		deltaCacheSize = pc.getDeltaCacheSize();
+		deltaCacheLimit = pc.getDeltaCacheLimit();
+		threads = pc.getThreads();
+		useBitmaps = pc.isUseBitmaps();
 	}
 
 	/**
@@ -342,6 +401,147 @@ public void setMaxDeltaDepth(int maxDeltaDepth) {
 		this.maxDeltaDepth = maxDeltaDepth;
 	}
 
+	/**
+	 * Check whether writer searches for new deltas between the objects it
+	 * packs.
+	 * <p>
+	 * Default setting: {@value #DEFAULT_DELTA_COMPRESS}
+	 * </p>
+	 *
+	 * @return true if new deltas are computed; false if only existing deltas
+	 *         can be reused.
+	 */
+	public boolean isDeltaCompress() {
+		return deltaCompress;
+	}
+
+	/**
+	 * Set whether writer searches for new deltas between the objects it packs.
+	 * <p>
+	 * When enabled, objects which are not already stored as a reusable delta
+	 * are sorted by type, path and size, and each one is compared against the
+	 * objects just before it in that order. The smallest delta found, if any,
+	 * is written instead of the whole object. This makes packs built from
+	 * loose objects much smaller, at the cost of CPU time while packing.
+	 * Paths are only recorded for sorting when this option is enabled before
+	 * {@link #preparePack(Collection, Collection, boolean, boolean)} is
+	 * invoked.
+	 * </p>
+	 * <p>
+	 * Default setting: {@value #DEFAULT_DELTA_COMPRESS}
+	 * </p>
+	 *
+	 * @param deltaCompress
+	 *            true to search for new deltas.
+	 */
+	public void setDeltaCompress(boolean deltaCompress) {
+		this.deltaCompress = deltaCompress;
+	}
+
+	/**
+	 * Get the number of objects each object is compared against during delta
+	 * search.
+	 * <p>
+	 * Default setting: <code>pack.window</code> from the repository
+	 * configuration, or {@value #DEFAULT_DELTA_SEARCH_WINDOW_SIZE}.
+	 * </p>
+	 *
+	 * @return size of the delta search window.
+	 */
+	public int getDeltaSearchWindowSize() {
+		return deltaSearchWindowSize;
+	}
+
+	/**
+	 * Set the number of objects each object is compared against during delta
+	 * search. Larger windows find more deltas but take longer.
+	 *
+	 * @param objectCount
+	 *            size of the delta search window.
+	 */
+	public void setDeltaSearchWindowSize(int objectCount) {
+		deltaSearchWindowSize = objectCount;
+	}
+
+	/**
+	 * Get the limit on object data each delta search thread holds in memory.
+	 * <p>
+	 * Default setting: <code>pack.windowmemory</code> from the repository
+	 * configuration, or 0 (no limit).
+	 * </p>
+	 *
+	 * @return bytes per thread; 0 if only the window size limits memory.
+	 */
+	public long getDeltaSearchMemoryLimit() {
+		return deltaSearchMemoryLimit;
+	}
+
+	/**
+	 * Set the limit on object data each delta search thread holds in memory.
+	 * When the limit is exceeded the oldest objects are dropped from the
+	 * search window, even if the window is not yet full.
+	 *
+	 * @param memoryLimit
+	 *            bytes per thread; 0 if only the window size limits memory.
+	 */
+	public void setDeltaSearchMemoryLimit(long memoryLimit) {
+		deltaSearchMemoryLimit = memoryLimit;
+	}
+
+	/**
+	 * Get the number of threads used during delta search.
+	 * <p>
+	 * Default setting: <code>pack.threads</code> from the repository
+	 * configuration, or 0 (one per available processor).
+	 * </p>
+	 *
+	 * @return number of threads; 0 for one per available processor.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of threads used during delta search.
+	 *
+	 * @param threads
+	 *            number of threads; 0 for one per available processor.
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Check whether reachability bitmaps are used to find the objects to pack.
+	 * <p>
+	 * Default setting: <code>pack.usebitmaps</code> from the repository
+	 * configuration, or true.
+	 * </p>
+	 *
+	 * @return true if bitmaps are used when available.
+	 */
+	public boolean isUseBitmaps() {
+		return useBitmaps;
+	}
+
+	/**
+	 * Set whether reachability bitmaps are used to find the objects to pack.
+	 * <p>
+	 * When enabled, and a pack has bitmaps covering all interesting and
+	 * uninteresting objects given to
+	 * {@link #preparePack(Collection, Collection, boolean, boolean)}, the
+	 * objects are computed from the bitmaps instead of walking the history
+	 * and parsing every tree. Objects found this way are packed in the order
+	 * of the existing pack, and have no path for delta search.
+	 * </p>
+	 *
+	 * @param useBitmaps
+	 *            true to use bitmaps when available.
+	 */
+	public void setUseBitmaps(boolean useBitmaps) {
+		this.useBitmaps = useBitmaps;
+	}
+
 	/**
 	 * Set the pack index file format version this instance will create.
 	 *
@@ -440,6 +640,11 @@ public void preparePack(final Collection<ObjectId> interestingObjects,
 			final Collection<ObjectId> uninterestingObjects,
 			final boolean thin, final boolean ignoreMissingUninteresting)
 			throws IOException {
+		bitmapTips = interestingObjects;
+		if (useBitmaps
+				&& findObjectsWithBitmaps(interestingObjects,
+						uninterestingObjects, thin, ignoreMissingUninteresting))
+			return;
 		ObjectWalk walker = setUpWalker(interestingObjects,
 				uninterestingObjects, thin, ignoreMissingUninteresting);
 		findObjectsToPack(walker);
@@ -484,6 +689,55 @@ public void writeIndex(final OutputStream indexStream) throws IOException {
 		iw.write(list, packcsum);
 	}
 
+	/**
+	 * Create a reverse index file to match the pack file just written.
+	 * <p>
+	 * This method has the same preconditions as {@link #writeIndex(OutputStream)}.
+	 *
+	 * @param revStream
+	 *            output for the reverse index data. Caller is responsible for
+	 *            closing this stream.
+	 * @throws IOException
+	 *             the reverse index data could not be written to the supplied
+	 *             stream.
+	 * @see PackReverseIndexWriter
+	 */
+	public void writeReverseIndex(final OutputStream revStream)
+			throws IOException {
+		new PackReverseIndexWriter(revStream).write(sortByName(), packcsum);
+	}
+
+	/**
+	 * Create a bitmap index file to match the pack file just written.
+	 * <p>
+	 * This method has the same preconditions as {@link #writeIndex(OutputStream)}.
+	 * Bitmaps are selected among the commits reachable from the interesting
+	 * objects given to
+	 * {@link #preparePack(Collection, Collection, boolean, boolean)}, or from
+	 * all packed commits if the pack was prepared from an iterator. Only
+	 * commits whose entire history is in the pack get a bitmap, so a pack
+	 * with uninteresting objects usually gets none.
+	 *
+	 * @param bitmapStream
+	 *            output for the bitmap index data. Caller is responsible for
+	 *            closing this stream.
+	 * @return number of bitmaps written.
+	 * @throws IOException
+	 *             the objects could not be read, or the bitmap index data
+	 *             could not be written to the supplied stream.
+	 * @see PackBitmapIndexWriter
+	 */
+	public int writeBitmapIndex(final OutputStream bitmapStream)
+			throws IOException {
+		final Collection<? extends AnyObjectId> tips;
+		if (bitmapTips != null)
+			tips = bitmapTips;
+		else
+			tips = objectsLists[Constants.OBJ_COMMIT];
+		return new PackBitmapIndexWriter(db).write(bitmapStream,
+				sortByName(), packcsum, tips);
+	}
+
 	private List<ObjectToPack> sortByName() {
 		if (sortedByName == null) {
 			sortedByName = new ArrayList<ObjectToPack>(objectsMap.size());
@@ -522,6 +776,8 @@ private List<ObjectToPack> sortByName() {
 	public void writePack(OutputStream packStream) throws IOException {
 		if (reuseDeltas || reuseObjects)
 			searchForReuse();
+		if (deltaCompress)
+			searchForDeltas();
 
 		if (!(packStream instanceof BufferedOutputStream))
 			packStream = new BufferedOutputStream(packStream);
@@ -563,6 +819,149 @@ private void searchForReuse() throws IOException {
 		monitor.endTask();
 	}
 
+	private void searchForDeltas() throws IOException {
+		// Only objects which still have to be written whole can benefit.
+		// Each needs its type and size known up front so the list can be
+		// sorted into an order where similar objects are adjacent.
+		//
+		final ArrayList<ObjectToPack> list = new ArrayList<ObjectToPack>();
+		for (List<ObjectToPack> objs : objectsLists) {
+			for (ObjectToPack otp : objs) {
+				if (otp.isDeltaRepresentation())
+					continue;
+				final ObjectLoader ldr;
+				if (otp.hasReuseLoader())
+					ldr = otp.getReuseLoader();
+				else
+					ldr = db.openObject(windowCursor, otp);
+				if (ldr == null)
+					throw new MissingObjectException(otp, "unknown");
+				otp.setSize((int) ldr.getSize());
+				list.add(otp);
+			}
+		}
+		windowCursor.release();
+		if (list.isEmpty())
+			return;
+
+		Collections.sort(list, new Comparator<ObjectToPack>() {
+			public int compare(final ObjectToPack a, final ObjectToPack b) {
+				int cmp = a.getType() - b.getType();
+				if (cmp != 0)
+					return cmp;
+
+				cmp = (a.getPathHash() >>> 1) - (b.getPathHash() >>> 1);
+				if (cmp != 0)
+					return cmp;
+
+				// Largest first, so deltas remove data rather than add it.
+				return b.getSize() - a.getSize();
+			}
+		});
+
+		int threadCnt = threads;
+		if (threadCnt <= 0)
+			threadCnt = Runtime.getRuntime().availableProcessors();
+		threadCnt = Math.max(1, Math.min(threadCnt, list.size()));
+
+		monitor.beginTask(SEARCHING_DELTAS_PROGRESS, list.size());
+		if (threadCnt == 1) {
+			newDeltaWindow().search(list);
+		} else {
+			searchForDeltas(list, threadCnt);
+		}
+		monitor.endTask();
+	}
+
+	private void searchForDeltas(final List<ObjectToPack> list,
+			final int threadCnt) throws IOException {
+		// Split the list into one run per thread. Runs end at a change
+		// of path, so objects which could be deltas of each other are
+		// searched by the same window.
+		//
+		final List<List<ObjectToPack>> runs = new ArrayList<List<ObjectToPack>>();
+		final int perThread = (list.size() + threadCnt - 1) / threadCnt;
+		int start = 0;
+		while (start < list.size()) {
+			int end = Math.min(start + perThread, list.size());
+			while (end < list.size()
+					&& list.get(end - 1).getPathHash() == list.get(end)
+							.getPathHash()
+					&& list.get(end - 1).getType() == list.get(end).getType())
+				end++;
+			runs.add(list.subList(start, end));
+			start = end;
+		}
+
+		final DeltaSearchThread[] workers = new DeltaSearchThread[runs.size()];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new DeltaSearchThread(newDeltaWindow(), runs.get(i));
+			workers[i].start();
+		}
+
+		IOException err = null;
+		for (final DeltaSearchThread t : workers) {
+			try {
+				t.join();
+			} catch (InterruptedException ie) {
+				if (err == null)
+					err = new IOException("Interrupted during delta search");
+			}
+			if (t.error != null && err == null)
+				err = t.error;
+		}
+		if (err != null)
+			throw err;
+	}
+
+	private DeltaWindow newDeltaWindow() {
+		return new DeltaWindow(this, db, deltaSearchWindowSize,
+				deltaSearchMemoryLimit, maxDeltaDepth);
+	}
+
+	synchronized boolean deltaSearchCancelled() {
+		return monitor.isCancelled();
+	}
+
+	synchronized void deltaSearchProgress(final int completed) {
+		monitor.update(completed);
+	}
+
+	/**
+	 * Keep a computed delta in memory until it is written, if worthwhile.
+	 * <p>
+	 * Deltas which are not kept are computed again when the object is written.
+	 * Small deltas are always kept while the cache has room, as are large
+	 * deltas which are much smaller than the objects they were computed from.
+	 */
+	synchronized void cacheDelta(final ObjectToPack otp, final int srcSize,
+			final byte[] delta) {
+		if (deltaCacheSize > 0 && deltaCacheUsed + delta.length > deltaCacheSize)
+			return;
+		if (delta.length >= deltaCacheLimit
+				&& (srcSize >> 20) + (otp.getSize() >> 21) <= (delta.length >> 10))
+			return;
+		deltaCacheUsed += delta.length;
+		otp.setCachedDelta(delta);
+	}
+
+	private byte[] computeDelta(final ObjectToPack otp) throws IOException {
+		final byte[] delta = otp.getCachedDelta();
+		if (delta != null)
+			return delta;
+
+		final ObjectToPack base = otp.getDeltaBase();
+		final ObjectLoader baseLdr = db.openObject(windowCursor, base);
+		if (baseLdr == null)
+			throw new MissingObjectException(base, "unknown");
+		final DeltaIndex idx = new DeltaIndex(baseLdr.getCachedBytes());
+
+		final ObjectLoader resLdr = db.openObject(windowCursor, otp);
+		if (resLdr == null)
+			throw new MissingObjectException(otp, "unknown");
+		return idx.encode(resLdr.getCachedBytes(), 0);
+	}
+
 	private void selectDeltaReuseForObject(final ObjectToPack otp,
 			final Collection<PackedObjectLoader> loaders) throws IOException {
 		PackedObjectLoader bestLoader = null;
@@ -575,7 +974,7 @@ private void selectDeltaReuseForObject(final ObjectToPack otp,
 			ObjectToPack otpBase = objectsMap.get(idBase);
 
 			// only if base is in set of objects to write or thin-pack's edge
-			if ((otpBase != null || (thin && edgeObjects.get(idBase) != null))
+			if ((otpBase != null || (thin && isEdgeObject(idBase)))
 			// select smallest possible delta if > 1 available
 					&& isBetterDeltaReuseLoader(bestLoader, loader)) {
 				bestLoader = loader;
@@ -589,6 +988,16 @@ && isBetterDeltaReuseLoader(bestLoader, loader)) {
 		}
 	}
 
+	private boolean isEdgeObject(final AnyObjectId id) {
+		if (edgeObjects.get(id) != null)
+			return true;
+		if (haveBits != null) {
+			final int pos = haveIndex.findPosition(id);
+			return pos >= 0 && BitmapWalk.isSet(haveBits, pos);
+		}
+		return false;
+	}
+
 	private static boolean isBetterDeltaReuseLoader(
 			PackedObjectLoader currentLoader, PackedObjectLoader loader)
 			throws IOException {
@@ -683,9 +1092,13 @@ private void writeWholeObject(final ObjectToPack otp) throws IOException {
 	}
 
 	private void writeDeltaObject(final ObjectToPack otp) throws IOException {
+		// A delta without a reuse loader was found by our own search.
 		final PackedObjectLoader loader = otp.getReuseLoader();
+		final byte[] delta = loader == null ? computeDelta(otp) : null;
+		final long rawSize = loader != null ? loader.getRawSize() : delta.length;
+
 		if (deltaBaseAsOffset && otp.getDeltaBase() != null) {
-			writeObjectHeader(Constants.OBJ_OFS_DELTA, loader.getRawSize());
+			writeObjectHeader(Constants.OBJ_OFS_DELTA, rawSize);
 
 			final ObjectToPack deltaBase = otp.getDeltaBase();
 			long offsetDiff = otp.getOffset() - deltaBase.getOffset();
@@ -697,12 +1110,22 @@ private void writeDeltaObject(final ObjectToPack otp) throws IOException {
 
 			out.write(buf, pos, buf.length - pos);
 		} else {
-			writeObjectHeader(Constants.OBJ_REF_DELTA, loader.getRawSize());
+			writeObjectHeader(Constants.OBJ_REF_DELTA, rawSize);
 			otp.getDeltaBaseId().copyRawTo(buf, 0);
 			out.write(buf, 0, Constants.OBJECT_ID_LENGTH);
 		}
-		loader.copyRawData(out, buf);
-		otp.disposeLoader();
+
+		if (loader != null) {
+			loader.copyRawData(out, buf);
+			otp.disposeLoader();
+		} else {
+			final DeflaterOutputStream deflaterOut = new DeflaterOutputStream(
+					out, deflater);
+			deflaterOut.write(delta);
+			deflaterOut.finish();
+			deflater.reset();
+			otp.clearCachedDelta();
+		}
 	}
 
 	private void writeObjectHeader(final int objectType, long dataLength)
@@ -767,34 +1190,175 @@ private void findObjectsToPack(final ObjectWalk walker)
 			monitor.update(1);
 		}
 		while ((o = walker.nextObject()) != null) {
-			addObject(o);
+			addObject(o, walker.getPathString());
 			monitor.update(1);
 		}
 		monitor.endTask();
 	}
 
+	/**
+	 * Count the objects to pack with the bitmaps of a single pack.
+	 * <p>
+	 * The objects to pack are those reachable from the interesting objects,
+	 * minus those reachable from the uninteresting ones. This needs no tree
+	 * to be parsed when the starting points have bitmaps, but is only
+	 * possible if every object reachable from both sets is in the same pack.
+	 *
+	 * @return true if the objects were counted; false if no pack covers the
+	 *         starting points, and the objects must be found by walking.
+	 */
+	private boolean findObjectsWithBitmaps(
+			final Collection<ObjectId> interestingObjects,
+			final Collection<ObjectId> uninterestingObjects,
+			final boolean thinPack, final boolean ignoreMissingUninteresting)
+			throws IOException {
+		final List<ObjectId> haves = new ArrayList<ObjectId>();
+		for (final ObjectId id : uninterestingObjects) {
+			if (db.hasObject(id))
+				haves.add(id);
+			else if (!ignoreMissingUninteresting)
+				return false;
+		}
+
+		for (final PackFile pack : db.getPacks()) {
+			final PackBitmapIndex bitmaps = pack.getBitmapIndex();
+			if (bitmaps == null)
+				continue;
+
+			monitor.beginTask(COUNTING_OBJECTS_PROGRESS,
+					ProgressMonitor.UNKNOWN);
+			final BitmapWalk bw = new BitmapWalk(db, bitmaps.getObjectCount()) {
+				@Override
+				int findPosition(final AnyObjectId id) {
+					return bitmaps.findPosition(id);
+				}
+
+				@Override
+				EWAHBitmap getBitmap(final AnyObjectId commit) {
+					return bitmaps.getBitmap(commit);
+				}
+			};
+			final long[] want;
+			final long[] have;
+			try {
+				want = bw.reach(interestingObjects);
+				have = want != null ? bw.reach(haves) : null;
+			} finally {
+				bw.dispose();
+			}
+			if (have == null) {
+				monitor.endTask();
+				continue;
+			}
+
+			for (int w = 0; w < want.length; w++)
+				want[w] &= ~have[w];
+			for (int pos = 0; pos < bitmaps.getObjectCount(); pos++) {
+				if (!BitmapWalk.isSet(want, pos))
+					continue;
+				final ObjectId id = bitmaps.getObject(pos);
+				int type = bitmaps.getType(pos);
+				if (type == Constants.OBJ_BAD) {
+					// Objects not reachable from a bitmapped commit, such
+					// as annotated tags, may lack a type.
+					final ObjectLoader ldr = db.openObject(windowCursor, id);
+					if (ldr == null)
+						throw new MissingObjectException(id, "unknown");
+					type = ldr.getType();
+				}
+				addObject(id, type, null);
+				monitor.update(1);
+			}
+			monitor.endTask();
+
+			if (thinPack && !haves.isEmpty()) {
+				haveIndex = bitmaps;
+				haveBits = have;
+				thin = true;
+			}
+			return true;
+		}
+		return false;
+	}
+
 	private void addObject(RevObject object)
 			throws IncorrectObjectTypeException {
+		addObject(object, null);
+	}
+
+	private void addObject(final RevObject object, final String path)
+			throws IncorrectObjectTypeException {
 		if (object.has(RevFlag.UNINTERESTING)) {
 			edgeObjects.add(object);
 			thin = true;
 			return;
 		}
+		addObject(object, object.getType(), path);
+	}
 
-		final ObjectToPack otp = new ObjectToPack(object);
+	private void addObject(final AnyObjectId object, final int type,
+			final String path) throws IncorrectObjectTypeException {
+		final ObjectToPack otp = new ObjectToPack(object, type);
+		if (deltaCompress && path != null)
+			otp.setPathHash(pathHash(path));
 		try {
-			objectsLists[object.getType()].add(otp);
+			objectsLists[type].add(otp);
 		} catch (ArrayIndexOutOfBoundsException x) {
-			throw new IncorrectObjectTypeException(object,
+			throw new IncorrectObjectTypeException(object.toObjectId(),
 					"COMMIT nor TREE nor BLOB nor TAG");
 		} catch (UnsupportedOperationException x) {
 			// index pointing to "dummy" empty list
-			throw new IncorrectObjectTypeException(object,
+			throw new IncorrectObjectTypeException(object.toObjectId(),
 					"COMMIT nor TREE nor BLOB nor TAG");
 		}
 		objectsMap.add(otp);
 	}
 
+	/**
+	 * Hash a path for sorting objects before delta search.
+	 * <p>
+	 * This is the name hash of C Git's pack-objects. The last characters of
+	 * the path are weighted most, so files with the same name or extension
+	 * sort near each other even when in different directories.
+	 */
+	private static int pathHash(final String path) {
+		int hash = 0;
+		for (int i = 0; i < path.length(); i++) {
+			final char c = path.charAt(i);
+			if (Character.isWhitespace(c))
+				continue;
+			hash = (hash >>> 2) + (c << 24);
+		}
+		return hash;
+	}
+
+	private static class DeltaSearchThread extends Thread {
+		private final DeltaWindow window;
+
+		private final List<ObjectToPack> list;
+
+		IOException error;
+
+		DeltaSearchThread(final DeltaWindow window,
+				final List<ObjectToPack> list) {
+			super("PackWriter-DeltaSearch");
+			this.window = window;
+			this.list = list;
+		}
+
+		@Override
+		public void run() {
+			try {
+				window.search(list);
+			} catch (IOException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				error = new IOException("Delta search failed: " + e);
+				error.initCause(e);
+			}
+		}
+	}
+
 	/**
 	 * Class holding information about object that is going to be packed by
 	 * {@link PackWriter}. Information include object representation in a
@@ -810,15 +1374,67 @@ static class ObjectToPack extends PackedObjectInfo {
 
 		private boolean wantWrite;
 
+		private final int type;
+
+		private int size;
+
+		private int pathHash;
+
+		private byte[] cachedDelta;
+
 		/**
 		 * Construct object for specified object id. <br/> By default object is
 		 * marked as not written and non-delta packed (as a whole object).
 		 *
 		 * @param src
 		 *            object id of object for packing
+		 * @param type
+		 *            real type code of the object, not its in-pack type.
 		 */
-		ObjectToPack(AnyObjectId src) {
+		ObjectToPack(AnyObjectId src, final int type) {
 			super(src);
+			this.type = type;
+		}
+
+		int getType() {
+			return type;
+		}
+
+		/**
+		 * @return inflated size of the object; only known once the delta
+		 *         search has started.
+		 */
+		int getSize() {
+			return size;
+		}
+
+		void setSize(final int size) {
+			this.size = size;
+		}
+
+		int getPathHash() {
+			return pathHash;
+		}
+
+		void setPathHash(final int hash) {
+			pathHash = hash;
+		}
+
+		/**
+		 * @return delta computed by delta search against
+		 *         {@link #getDeltaBase()}, if it was kept in memory; null
+		 *         otherwise.
+		 */
+		byte[] getCachedDelta() {
+			return cachedDelta;
+		}
+
+		void setCachedDelta(final byte[] delta) {
+			cachedDelta = delta;
+		}
+
+		void clearCachedDelta() {
+			cachedDelta = null;
 		}
 
 		/**
@@ -858,6 +1474,7 @@ void setDeltaBase(ObjectId deltaBase) {
 
 		void clearDeltaBase() {
 			this.deltaBase = null;
+			this.cachedDelta = null;
 		}
 
 		/**
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+/**
+ * Bloom filter over the names of all objects in a set of packs.
+ * <p>
+ * A repository with many packs has to search the index of every pack before
+ * it can conclude an object is not packed. The filter answers most of those
+ * questions with a few memory reads: if {@link #mightContain(AnyObjectId)}
+ * returns false, no pack in the set holds the object. A true result may be a
+ * false positive, and the packs must still be searched.
+ * <p>
+ * Object names are SHA-1 hashes, so the bit positions are derived directly
+ * from the words of the name by double hashing, without hashing them again.
+ * The filter is immutable once built and may be shared between threads.
+ */
+class PackedObjectFilter {
+	/** Number of bit positions tested per object. */
+	private static final int HASHES = 7;
+
+	/**
+	 * Minimum number of filter bits per object. With {@link #HASHES} this
+	 * gives a false positive rate of about 1%, or less once the table is
+	 * rounded up to a power of two.
+	 */
+	private static final int BITS_PER_OBJECT = 10;
+
+	/** Largest filter, in bits: 256 MiB of memory. */
+	private static final long MAX_BITS = 1L << 31;
+
+	private final PackFile[] packs;
+
+	private final long[] bits;
+
+	private final int mask;
+
+	/**
+	 * Build a filter over every object of the given packs.
+	 *
+	 * @param packs
+	 *            the packs to index. The array is remembered so callers can
+	 *            test with {@link #isFor(PackFile[])} if their pack list has
+	 *            been replaced since; it must not be modified.
+	 */
+	PackedObjectFilter(final PackFile[] packs) {
+		long cnt = 0;
+		for (final PackFile p : packs)
+			cnt += p.getObjectCount();
+
+		long n = 64;
+		while (n < cnt * BITS_PER_OBJECT && n < MAX_BITS)
+			n <<= 1;
+
+		this.packs = packs;
+		bits = new long[(int) (n >>> 6)];
+		mask = (int) (n - 1);
+		for (final PackFile p : packs) {
+			for (final PackIndex.MutableEntry e : p)
+				add(e);
+		}
+	}
+
+	/**
+	 * @param p
+	 *            the pack list currently in use.
+	 * @return true if this filter was built from exactly this pack list.
+	 */
+	boolean isFor(final PackFile[] p) {
+		return packs == p;
+	}
+
+	/**
+	 * Test if an object might be in one of the packs.
+	 *
+	 * @param id
+	 *            name of the object.
+	 * @return false if the object is definitely not in any of the packs; true
+	 *         if it may be.
+	 */
+	boolean mightContain(final AnyObjectId id) {
+		int h = id.w2;
+		final int step = id.w3 | 1;
+		for (int i = 0; i < HASHES; i++) {
+			final int b = h & mask;
+			if ((bits[b >>> 6] & (1L << b)) == 0)
+				return false;
+			h += step;
+		}
+		return true;
+	}
+
+	private void add(final AnyObjectId id) {
+		int h = id.w2;
+		final int step = id.w3 | 1;
+		for (int i = 0; i < HASHES; i++) {
+			final int b = h & mask;
+			bits[b >>> 6] |= 1L << b;
+			h += step;
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.spearce.jgit.util.NB;
+import org.spearce.jgit.util.RawParseUtils;
+
+/**
+ * The contents of a <code>packed-refs</code> file, parsed on demand.
+ * <p>
+ * Opening the file only reads (or maps) its bytes. Because the refs in the
+ * file are sorted by name a single ref can be found by binary searching the
+ * raw lines, and all refs sharing a prefix can be listed by scanning forward
+ * from the first match, without ever building a map of the entire file. Each
+ * ref is parsed at most once; later lookups return the same {@link Ref}.
+ * <p>
+ * Files written without the <code>sorted</code> trait are checked for order
+ * when opened, and fully parsed into a map if they are not in fact sorted.
+ */
+class PackedRefs {
+	private static final String TRAITS = "# pack-refs with:";
+
+	/** Length of an object id and the space separating it from the name. */
+	private static final int NAME_OFFSET = Constants.OBJECT_ID_LENGTH * 2 + 1;
+
+	static final PackedRefs EMPTY = new PackedRefs(ByteBuffer
+			.wrap(new byte[0]));
+
+	/**
+	 * Read a packed-refs file.
+	 *
+	 * @param file
+	 *            the file to read.
+	 * @param mmap
+	 *            true to memory map the file rather than copying it into the
+	 *            Java heap.
+	 * @return the file contents.
+	 * @throws IOException
+	 *             the file cannot be read.
+	 */
+	static PackedRefs open(final File file, final boolean mmap)
+			throws IOException {
+		final FileInputStream in = new FileInputStream(file);
+		try {
+			final FileChannel fc = in.getChannel();
+			final long len = fc.size();
+			if (len > Integer.MAX_VALUE)
+				throw new IOException("packed-refs too large: " + file);
+			if (mmap)
+				return new PackedRefs(fc.map(MapMode.READ_ONLY, 0, len));
+			final byte[] buf = new byte[(int) len];
+			NB.readFully(in, buf, 0, buf.length);
+			return new PackedRefs(ByteBuffer.wrap(buf));
+		} finally {
+			in.close();
+		}
+	}
+
+	private final ByteBuffer buf;
+
+	private final int end;
+
+	private final int dataStart;
+
+	/** Refs parsed so far, by name. */
+	private final Map<String, Ref> parsed;
+
+	/** All refs of the file, once {@link #getAll()} was called. */
+	private Map<String, Ref> all;
+
+	private PackedRefs(final ByteBuffer b) {
+		buf = b;
+		end = b.limit();
+		parsed = new HashMap<String, Ref>();
+
+		boolean sorted = false;
+		int p = 0;
+		if (end > 0 && buf.get(0) == '#') {
+			final int eol = endOfLine(0);
+			final String hdr = decode(0, eol);
+			if (hdr.startsWith(TRAITS))
+				sorted = (" " + hdr.substring(TRAITS.length()) + " ")
+						.contains(" sorted ");
+			p = eol + 1;
+		}
+		dataStart = p;
+
+		if (!sorted && !isSorted())
+			getAll();
+	}
+
+	/**
+	 * Get a single ref.
+	 *
+	 * @param name
+	 *            the complete name of the ref, e.g. "refs/heads/master".
+	 * @return the ref; null if the file does not contain it.
+	 */
+	Ref get(final String name) {
+		if (all != null)
+			return all.get(name);
+
+		Ref r = parsed.get(name);
+		if (r == null) {
+			final byte[] key = Constants.encode(name);
+			final int p = lowerBound(key);
+			if (p < end && compare(key, p, false) == 0)
+				r = parse(p);
+		}
+		return r;
+	}
+
+	/**
+	 * Get all refs whose names start with a prefix.
+	 *
+	 * @param prefix
+	 *            the prefix, e.g. "refs/heads/". The empty string lists all
+	 *            refs.
+	 * @return the matching refs, sorted by name.
+	 */
+	List<Ref> getRefs(final String prefix) {
+		final List<Ref> r = new ArrayList<Ref>();
+		if (all != null) {
+			for (final Ref ref : all.values()) {
+				if (ref.getName().startsWith(prefix))
+					r.add(ref);
+			}
+			Collections.sort(r, RefComparator.INSTANCE);
+			return r;
+		}
+
+		final byte[] key = Constants.encode(prefix);
+		for (int p = lowerBound(key); p < end; p = nextRecord(p)) {
+			if (isBlank(p))
+				continue;
+			if (compare(key, p, true) != 0)
+				break;
+			r.add(parse(p));
+		}
+		return r;
+	}
+
+	/**
+	 * @return every ref in the file, by name. The map cannot be modified.
+	 */
+	Map<String, Ref> getAll() {
+		if (all == null) {
+			final Map<String, Ref> m = new HashMap<String, Ref>();
+			for (int p = dataStart; p < end; p = nextRecord(p)) {
+				if (isBlank(p))
+					continue;
+				final Ref r = parse(p);
+				m.put(r.getName(), r);
+			}
+			all = Collections.unmodifiableMap(m);
+		}
+		return all;
+	}
+
+	/** @return position of the first record whose name is not before key. */
+	private int lowerBound(final byte[] key) {
+		int low = dataStart;
+		int high = end;
+		while (low < high) {
+			final int p = recordStart((low + high) >>> 1);
+			if (compare(key, p, false) <= 0)
+				high = p;
+			else
+				low = nextRecord(p);
+		}
+		return low;
+	}
+
+	/**
+	 * Compare a name to the name of the record at <code>p</code>.
+	 *
+	 * @param key
+	 *            encoded name to compare.
+	 * @param p
+	 *            start of a record.
+	 * @param prefix
+	 *            true to treat key as a prefix, matching any record name that
+	 *            starts with it.
+	 * @return &lt; 0, 0 or &gt; 0 as key sorts before, equal to, or after the
+	 *         record's name.
+	 */
+	private int compare(final byte[] key, final int p, final boolean prefix) {
+		final int eol = endOfLine(p);
+		if (eol - p <= NAME_OFFSET)
+			return 1; // Not a ref; sorts before any name.
+		int n = p + NAME_OFFSET;
+		int k = 0;
+		for (; k < key.length && n < eol; k++, n++) {
+			final int cmp = (key[k] & 0xff) - (buf.get(n) & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		if (k < key.length)
+			return 1;
+		if (n < eol && !prefix)
+			return -1;
+		return 0;
+	}
+
+	private Ref parse(final int p) {
+		final int eol = endOfLine(p);
+		if (eol - p <= NAME_OFFSET || buf.get(p + NAME_OFFSET - 1) != ' ')
+			throw corrupt(p);
+		final String name = decode(p + NAME_OFFSET, eol);
+		Ref r = parsed.get(name);
+		if (r != null)
+			return r;
+
+		final ObjectId id = parseId(p, eol);
+		if (eol + 1 < end && buf.get(eol + 1) == '^') {
+			final int peelEnd = endOfLine(eol + 1);
+			final ObjectId peeled = parseId(eol + 2, peelEnd);
+			r = new Ref(Ref.Storage.PACKED, name, id, peeled);
+		} else {
+			r = new Ref(Ref.Storage.PACKED, name, id);
+		}
+		parsed.put(name, r);
+		return r;
+	}
+
+	private ObjectId parseId(final int p, final int eol) {
+		final byte[] hex = new byte[Constants.OBJECT_ID_LENGTH * 2];
+		if (eol - p < hex.length)
+			throw corrupt(p);
+		for (int i = 0; i < hex.length; i++)
+			hex[i] = buf.get(p + i);
+		try {
+			return ObjectId.fromString(hex, 0);
+		} catch (IllegalArgumentException notId) {
+			throw corrupt(p);
+		}
+	}
+
+	private boolean isSorted() {
+		int prior = -1;
+		for (int p = dataStart; p < end; p = nextRecord(p)) {
+			if (isBlank(p))
+				continue;
+			if (prior >= 0 && compareNames(prior, p) >= 0)
+				return false;
+			prior = p;
+		}
+		return true;
+	}
+
+	private int compareNames(final int a, final int b) {
+		final int aEnd = endOfLine(a);
+		final int bEnd = endOfLine(b);
+		int i = a + NAME_OFFSET;
+		int j = b + NAME_OFFSET;
+		for (; i < aEnd && j < bEnd; i++, j++) {
+			final int cmp = (buf.get(i) & 0xff) - (buf.get(j) & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return (aEnd - i) - (bEnd - j);
+	}
+
+	private boolean isBlank(final int p) {
+		final byte c = buf.get(p);
+		return c == '\n' || c == '#';
+	}
+
+	/** @return start of the ref record containing position p. */
+	private int recordStart(final int p) {
+		int s = lineStart(p);
+		if (buf.get(s) == '^' && s > dataStart)
+			s = lineStart(s - 1);
+		return s;
+	}
+
+	private int lineStart(int p) {
+		while (p > dataStart && buf.get(p - 1) != '\n')
+			p--;
+		return p;
+	}
+
+	private int endOfLine(int p) {
+		while (p < end && buf.get(p) != '\n')
+			p++;
+		return p;
+	}
+
+	/** @return start of the record after the one at p. */
+	private int nextRecord(final int p) {
+		int n = endOfLine(p) + 1;
+		while (n < end && buf.get(n) == '^')
+			n = endOfLine(n) + 1;
+		return n;
+	}
+
+	private String decode(final int p, final int eol) {
+		final byte[] b = new byte[eol - p];
+		for (int i = 0; i < b.length; i++)
+			b[i] = buf.get(p + i);
+		return RawParseUtils.decode(Constants.CHARSET, b, 0, b.length);
+	}
+
+	private static RuntimeException corrupt(final int p) {
+		return new RuntimeException("Cannot read packed refs: bad line at "
+				+ p);
+	}
+}
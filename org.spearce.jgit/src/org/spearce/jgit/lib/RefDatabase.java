@@ -47,7 +47,10 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.spearce.jgit.errors.ObjectWritingException;
@@ -60,6 +63,15 @@ class RefDatabase {
 	private static final String[] refSearchPaths = { "", REFS_SLASH,
 			R_TAGS, Constants.R_HEADS, Constants.R_REMOTES };
 
+	/**
+	 * Directories modified this recently (in milliseconds) may still change
+	 * without their modification time changing, as the file system only
+	 * records times at a coarse granularity. Their listing is not reused.
+	 */
+	private static final long RACY_DIR_WINDOW = 2500;
+
+	private static final String[] NO_NAMES = {};
+
 	private final Repository db;
 
 	private final File gitDir;
@@ -69,9 +81,13 @@ class RefDatabase {
 	private Map<String, Ref> looseRefs;
 	private Map<String, Long> looseRefsMTime;
 
+	private Map<String, LooseDir> looseDirs;
+
+	private RefSnapshot snapshot;
+
 	private final File packedRefsFile;
 
-	private Map<String, Ref> packedRefs;
+	private PackedRefs packedRefs;
 
 	private long packedRefsLastModified;
 
@@ -94,7 +110,9 @@ class RefDatabase {
 	void clearCache() {
 		looseRefs = new HashMap<String, Ref>();
 		looseRefsMTime = new HashMap<String, Long>();
-		packedRefs = new HashMap<String, Ref>();
+		looseDirs = new HashMap<String, LooseDir>();
+		snapshot = null;
+		packedRefs = PackedRefs.EMPTY;
 		packedRefsLastModified = 0;
 		packedRefsLength = 0;
 	}
@@ -159,7 +177,7 @@ void link(final String name, final String target) throws IOException {
 	}
 
 	void setModified() {
-		lastRefModification = refModificationCounter++;
+		lastRefModification = ++refModificationCounter;
 	}
 
 	Ref readRef(final String partialName) throws IOException {
@@ -173,10 +191,55 @@ Ref readRef(final String partialName) throws IOException {
 	}
 
 	/**
-	 * @return all known refs (heads, tags, remotes).
+	 * @return all known refs (heads, tags, remotes). The map cannot be
+	 *         modified.
 	 */
 	Map<String, Ref> getAllRefs() {
-		return readRefs();
+		return getSnapshot().getRefs();
+	}
+
+	/**
+	 * @return the current snapshot of all refs, updated from disk.
+	 */
+	RefSnapshot getSnapshot() {
+		final Map<String, Ref> avail = readRefs();
+		if (snapshot == null || !sameRefs(snapshot.getRefs(), avail)) {
+			setModified();
+			snapshot = new RefSnapshot(avail, lastRefModification);
+		} else if (snapshot.getVersion() != lastRefModification) {
+			snapshot = new RefSnapshot(snapshot.getRefs(), lastRefModification);
+		}
+		db.fireRefsMaybeChanged();
+		return snapshot;
+	}
+
+	/**
+	 * Test if refs may have changed since a snapshot was taken.
+	 * <p>
+	 * This does not access the disk. Changes made by this process are seen
+	 * immediately, changes made by others only once a scan (such as
+	 * {@link #getSnapshot()}) has noticed them.
+	 *
+	 * @param s
+	 *            a snapshot previously obtained from this database.
+	 * @return true if the snapshot is out of date.
+	 */
+	boolean isModifiedSince(final RefSnapshot s) {
+		return s.getVersion() != lastRefModification;
+	}
+
+	private static boolean sameRefs(final Map<String, Ref> a,
+			final Map<String, Ref> b) {
+		if (a.size() != b.size())
+			return false;
+		// Unchanged refs are reused from the cache, so the same instance
+		// is returned for a ref unless it was re-read from disk.
+		//
+		for (final Map.Entry<String, Ref> e : b.entrySet()) {
+			if (a.get(e.getKey()) != e.getValue())
+				return false;
+		}
+		return true;
 	}
 
 	/**
@@ -184,18 +247,23 @@ Map<String, Ref> getAllRefs() {
 	 *         contains the ref with the full tag name ("refs/tags/v1.0").
 	 */
 	Map<String, Ref> getTags() {
+		final Map<String, Ref> avail = new HashMap<String, Ref>();
+		refreshPackedRefs();
+		for (final Ref r : packedRefs.getRefs(R_TAGS))
+			avail.put(r.getName(), r);
+		readLooseRefs(avail, R_TAGS, new File(refsDir, "tags"), System
+				.currentTimeMillis());
+
 		final Map<String, Ref> tags = new HashMap<String, Ref>();
-		for (final Ref r : readRefs().values()) {
-			if (r.getName().startsWith(R_TAGS))
-				tags.put(r.getName().substring(R_TAGS.length()), r);
-		}
+		for (final Ref r : avail.values())
+			tags.put(r.getName().substring(R_TAGS.length()), r);
 		return tags;
 	}
 
 	private Map<String, Ref> readRefs() {
 		final HashMap<String, Ref> avail = new HashMap<String, Ref>();
 		readPackedRefs(avail);
-		readLooseRefs(avail, REFS_SLASH, refsDir);
+		readLooseRefs(avail, REFS_SLASH, refsDir, System.currentTimeMillis());
 		try {
 			final Ref r = readRefBasic(Constants.HEAD, 0);
 			if (r != null && r.getObjectId() != null)
@@ -203,27 +271,59 @@ private Map<String, Ref> readRefs() {
 		} catch (IOException e) {
 			// ignore here
 		}
-		db.fireRefsMaybeChanged();
 		return avail;
 	}
 
 	private void readPackedRefs(final Map<String, Ref> avail) {
 		refreshPackedRefs();
-		avail.putAll(packedRefs);
+		avail.putAll(packedRefs.getAll());
 	}
 
 	private void readLooseRefs(final Map<String, Ref> avail,
-			final String prefix, final File dir) {
+			final String prefix, final File dir, final long now) {
+		// Loose refs are only ever created, replaced or deleted by renaming
+		// or removing files, each of which updates the modification time of
+		// the directory. If it is unchanged so is the set of refs inside.
+		//
+		final long mtime = dir.lastModified();
+		LooseDir d = looseDirs.get(prefix);
+		if (d != null && d.lastModified == mtime && !d.racy) {
+			for (final String name : d.files) {
+				final Ref ref = looseRefs.get(prefix + name);
+				if (ref != null)
+					avail.put(ref.getName(), ref);
+				else
+					readOneLooseRef(avail, prefix + name, new File(dir, name));
+			}
+			for (final String name : d.dirs)
+				readLooseRefs(avail, prefix + name + "/", new File(dir, name),
+						now);
+			return;
+		}
+
 		final File[] entries = dir.listFiles();
-		if (entries == null)
+		if (entries == null) {
+			looseDirs.remove(prefix);
 			return;
+		}
 
+		final List<String> files = new ArrayList<String>(entries.length);
+		final List<String> dirs = new ArrayList<String>();
 		for (final File ent : entries) {
 			final String entName = ent.getName();
 			if (".".equals(entName) || "..".equals(entName))
 				continue;
-			readOneLooseRef(avail, prefix + entName, ent);
+			if (ent.isDirectory()) {
+				dirs.add(entName);
+				readLooseRefs(avail, prefix + entName + "/", ent, now);
+			} else {
+				files.add(entName);
+				readOneLooseRef(avail, prefix + entName, ent);
+			}
 		}
+		d = new LooseDir(mtime, now - mtime < RACY_DIR_WINDOW, files
+				.toArray(NO_NAMES), dirs.toArray(NO_NAMES));
+		looseDirs.put(prefix, d);
 	}
 
 	private void readOneLooseRef(final Map<String, Ref> avail,
@@ -241,13 +341,6 @@ private void readOneLooseRef(final Map<String, Ref> avail,
 			looseRefsMTime.remove(refName);
 		}
 
-		// Recurse into the directory.
-		//
-		if (ent.isDirectory()) {
-			readLooseRefs(avail, refName + "/", ent);
-			return;
-		}
-
 		// Assume its a valid loose reference we need to cache.
 		//
 		try {
@@ -364,50 +457,22 @@ private void refreshPackedRefs() {
 		if (currTime == 0) {
 			packedRefsLastModified = 0;
 			packedRefsLength = 0;
-			packedRefs = new HashMap<String, Ref>();
+			packedRefs = PackedRefs.EMPTY;
 			return;
 		}
 
-		final Map<String, Ref> newPackedRefs = new HashMap<String, Ref>();
 		try {
-			final BufferedReader b = openReader(packedRefsFile);
-			try {
-				String p;
-				Ref last = null;
-				while ((p = b.readLine()) != null) {
-					if (p.charAt(0) == '#')
-						continue;
-
-					if (p.charAt(0) == '^') {
-						if (last == null)
-							throw new IOException("Peeled line before ref.");
-
-						final ObjectId id = ObjectId.fromString(p.substring(1));
-						last = new Ref(Ref.Storage.PACKED, last.getName(), last
-								.getObjectId(), id);
-						newPackedRefs.put(last.getName(), last);
-						continue;
-					}
-
-					final int sp = p.indexOf(' ');
-					final ObjectId id = ObjectId.fromString(p.substring(0, sp));
-					final String name = new String(p.substring(sp + 1));
-					last = new Ref(Ref.Storage.PACKED, name, id);
-					newPackedRefs.put(last.getName(), last);
-				}
-			} finally {
-				b.close();
-			}
+			final boolean mmap = db.getConfig().getCore().isPackedRefsMmap();
+			packedRefs = PackedRefs.open(packedRefsFile, mmap);
 			packedRefsLastModified = currTime;
 			packedRefsLength = currLen;
-			packedRefs = newPackedRefs;
 			setModified();
 		} catch (FileNotFoundException noPackedRefs) {
-			// Ignore it and leave the new map empty.
+			// Ignore it and leave the list empty.
 			//
 			packedRefsLastModified = 0;
 			packedRefsLength = 0;
-			packedRefs = newPackedRefs;
+			packedRefs = PackedRefs.EMPTY;
 		} catch (IOException e) {
 			throw new RuntimeException("Cannot read packed refs", e);
 		}
@@ -428,12 +493,14 @@ private void lockAndWriteFile(File file, byte[] content) throws IOException {
 	}
 
 	void removePackedRef(String name) throws IOException {
-		packedRefs.remove(name);
-		writePackedRefs();
+		final Map<String, Ref> all;
+		all = new HashMap<String, Ref>(packedRefs.getAll());
+		all.remove(name);
+		writePackedRefs(all.values());
 	}
 
-	private void writePackedRefs() throws IOException {
-		new RefWriter(packedRefs.values()) {
+	private void writePackedRefs(final Collection<Ref> all) throws IOException {
+		new RefWriter(all) {
 			@Override
 			protected void writeFile(String name, byte[] content) throws IOException {
 				lockAndWriteFile(new File(db.getDirectory(), name), content);
@@ -457,4 +524,22 @@ private static BufferedReader openReader(final File fileLocation)
 				fileLocation), Constants.CHARSET));
 	}
 
+	/** Names found in a loose ref directory when it was last listed. */
+	private static class LooseDir {
+		final long lastModified;
+
+		final boolean racy;
+
+		final String[] files;
+
+		final String[] dirs;
+
+		LooseDir(final long lastModified, final boolean racy,
+				final String[] files, final String[] dirs) {
+			this.lastModified = lastModified;
+			this.racy = racy;
+			this.files = files;
+			this.dirs = dirs;
+		}
+	}
 }
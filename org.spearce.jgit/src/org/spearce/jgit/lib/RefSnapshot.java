@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * An immutable view of all refs of a repository at one point in time.
+ * <p>
+ * Snapshots are obtained from {@link Repository#getRefSnapshot()}. Each
+ * snapshot carries a version number; a newer snapshot with the same version is
+ * the same snapshot. {@link Repository#refsChangedSince(RefSnapshot)} can be
+ * used to cheaply test if a snapshot is (as far as the repository knows) still
+ * current, without scanning the refs directory.
+ */
+public class RefSnapshot {
+	private final Map<String, Ref> refs;
+
+	private final int version;
+
+	RefSnapshot(final Map<String, Ref> refs, final int version) {
+		this.refs = Collections.unmodifiableMap(refs);
+		this.version = version;
+	}
+
+	/**
+	 * @return all refs (heads, tags, remotes and HEAD) of the snapshot, keyed
+	 *         by name. The map cannot be modified.
+	 */
+	public Map<String, Ref> getRefs() {
+		return refs;
+	}
+
+	/**
+	 * @return version number of this snapshot. Versions increase each time a
+	 *         change to the refs is detected.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	public String toString() {
+		return "RefSnapshot[" + version + ", " + refs.size() + " refs]";
+	}
+}
@@ -140,6 +140,9 @@ public static enum Result {
 	/** New value the caller wants this ref to have. */
 	private ObjectId newValue;
 
+	/** Value the caller expects the ref to hold when it is locked. */
+	private ObjectId expValue;
+
 	/** Does this specification ask for forced updated (rewind/reset)? */
 	private boolean force;
 
@@ -193,6 +196,33 @@ public void setNewObjectId(final AnyObjectId id) {
 		newValue = id.toObjectId();
 	}
 
+	/**
+	 * @return the expected value of the ref after the lock is taken, but
+	 *         before update occurs. Null to avoid the compare and swap test.
+	 *         Use {@link ObjectId#zeroId()} to indicate expectation of a
+	 *         non-existant ref.
+	 */
+	public ObjectId getExpectedOldObjectId() {
+		return expValue;
+	}
+
+	/**
+	 * Set the value the ref must hold when it is locked.
+	 * <p>
+	 * If the ref's current value differs once the lock has been obtained the
+	 * update is aborted with {@link Result#LOCK_FAILURE}, as another writer
+	 * changed the ref since the caller last read it.
+	 *
+	 * @param id
+	 *            the expected value of the ref after the lock is taken, but
+	 *            before update occurs. Null to avoid the compare and swap
+	 *            test. Use {@link ObjectId#zeroId()} to indicate expectation
+	 *            of a non-existant ref.
+	 */
+	public void setExpectedOldObjectId(final AnyObjectId id) {
+		expValue = id != null ? id.toObjectId() : null;
+	}
+
 	/**
 	 * Check if this update wants to forcefully change the ref.
 	 * 
@@ -374,6 +404,12 @@ private Result updateImpl(final RevWalk walk, final Store store)
 			return Result.LOCK_FAILURE;
 		try {
 			oldValue = db.idOf(name);
+			if (expValue != null) {
+				final ObjectId o = oldValue != null ? oldValue : ObjectId
+						.zeroId();
+				if (!AnyObjectId.equals(expValue, o))
+					return Result.LOCK_FAILURE;
+			}
 			if (oldValue == null)
 				return store.store(lock, Result.NEW);
 
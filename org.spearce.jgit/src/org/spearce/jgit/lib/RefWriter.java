@@ -122,12 +122,11 @@ public void writePackedRefs() throws IOException {
 		}
 
 		final StringWriter w = new StringWriter();
-		if (peeled) {
-			w.write("# pack-refs with:");
-			if (peeled)
-				w.write(" peeled");
-			w.write('\n');
-		}
+		w.write("# pack-refs with:");
+		if (peeled)
+			w.write(" peeled");
+		w.write(" sorted");
+		w.write('\n');
 
 		final char[] tmp = new char[Constants.OBJECT_ID_LENGTH * 2];
 		for (final Ref r : refs) {
@@ -56,6 +56,7 @@
 import org.spearce.jgit.errors.IncorrectObjectTypeException;
 import org.spearce.jgit.errors.RevisionSyntaxException;
 import org.spearce.jgit.stgit.StGitPatch;
+import org.spearce.jgit.treewalk.TreeCache;
 import org.spearce.jgit.util.FS;
 
 /**
@@ -82,6 +83,12 @@
  *
  */
 public class Repository {
+	/** Fewest packs for which a {@link PackedObjectFilter} is built. */
+	private static final int PACK_FILTER_MIN_PACKS = 2;
+
+	/** Lookups missing every pack before a filter is built. */
+	private static final int PACK_FILTER_MISSES = 64;
+
 	private final File gitDir;
 
 	private final File[] objectsDirs;
@@ -92,8 +99,23 @@ public class Repository {
 
 	private PackFile[] packs;
 
+	/**
+	 * Filter over the objects of {@link #packs}; null until enough lookups
+	 * have missed all packs to make building it worthwhile.
+	 */
+	private volatile PackedObjectFilter packFilter;
+
+	/** Lookups that searched every pack without finding the object. */
+	private int packMisses;
+
 	private GitIndex index;
 
+	private CommitGraph commitGraph;
+
+	private long commitGraphModified;
+
+	private long commitGraphLength;
+
 	private List<RepositoryListener> listeners = new Vector<RepositoryListener>(); // thread safe
 	static private List<RepositoryListener> allListeners = new Vector<RepositoryListener>(); // thread safe
 
@@ -133,7 +155,7 @@ public Repository(final File d) throws IOException {
 			getConfig().create();
 		}
 		if (isExisting)
-			scanForPacks();
+			packs = listPacks();
 	}
 
 	private Collection<File> readObjectsDirs(File objectsDir, Collection<File> ret) throws IOException {
@@ -191,6 +213,38 @@ public File getObjectsDirectory() {
 		return objectsDirs[0];
 	}
 
+	/**
+	 * Get the commit graph of this repository.
+	 * <p>
+	 * The graph is reopened if the file changed since it was last opened. A
+	 * graph which cannot be read is treated as though it did not exist, as
+	 * the same information is also available from the commit objects.
+	 *
+	 * @return the commit graph; null if the repository does not have one, or
+	 *         <code>core.commitGraph</code> is false.
+	 */
+	public synchronized CommitGraph getCommitGraph() {
+		if (!getConfig().getCore().isCommitGraph())
+			return null;
+		final File path = new File(getObjectsDirectory(), "info"
+				+ File.separatorChar + "commit-graph");
+		final long modified = path.lastModified();
+		final long length = path.length();
+		if (modified == 0) {
+			commitGraph = null;
+		} else if (modified != commitGraphModified
+				|| length != commitGraphLength) {
+			try {
+				commitGraph = CommitGraph.open(path);
+			} catch (IOException err) {
+				commitGraph = null;
+			}
+		}
+		commitGraphModified = modified;
+		commitGraphLength = length;
+		return commitGraph;
+	}
+
 	/**
 	 * @return the configuration of this repository
 	 */
@@ -226,14 +280,27 @@ public File toFile(final AnyObjectId objectId) {
 	 *         known shared repositories.
 	 */
 	public boolean hasObject(final AnyObjectId objectId) {
-		int k = packs.length;
-		if (k > 0) {
+		final PackFile[] p = packs;
+		if (mayBePacked(p, objectId)) {
+			int k = p.length;
 			do {
-				if (packs[--k].hasObject(objectId))
+				if (p[--k].hasObject(objectId))
 					return true;
 			} while (k > 0);
+			packMissed(p);
 		}
-		return toFile(objectId).isFile();
+		return hasLooseObject(objectId);
+	}
+
+	private boolean hasLooseObject(final AnyObjectId objectId) {
+		final String n = objectId.name();
+		final String d = n.substring(0, 2);
+		final String f = n.substring(2);
+		for (int i = 0; i < objectsDirs.length; ++i) {
+			if (new File(new File(objectsDirs[i], d), f).isFile())
+				return true;
+		}
+		return false;
 	}
 
 	/**
@@ -261,11 +328,12 @@ public ObjectLoader openObject(final AnyObjectId id)
 	 */
 	public ObjectLoader openObject(final WindowCursor curs, final AnyObjectId id)
 			throws IOException {
-		int k = packs.length;
-		if (k > 0) {
+		final PackFile[] p = packs;
+		if (mayBePacked(p, id)) {
+			int k = p.length;
 			do {
 				try {
-					final ObjectLoader ol = packs[--k].get(curs, id);
+					final ObjectLoader ol = p[--k].get(curs, id);
 					if (ol != null)
 						return ol;
 				} catch (IOException ioe) {
@@ -277,7 +345,7 @@ public ObjectLoader openObject(final WindowCursor curs, final AnyObjectId id)
 					try {
 						curs.release();
 						System.gc();
-						final ObjectLoader ol = packs[k].get(curs, id);
+						final ObjectLoader ol = p[k].get(curs, id);
 						if (ol != null)
 							return ol;
 					} catch (IOException ioe2) {
@@ -289,6 +357,7 @@ public ObjectLoader openObject(final WindowCursor curs, final AnyObjectId id)
 					}
 				}
 			} while (k > 0);
+			packMissed(p);
 		}
 		try {
 			return new UnpackedObjectLoader(this, id.toObjectId());
@@ -297,6 +366,49 @@ public ObjectLoader openObject(final WindowCursor curs, final AnyObjectId id)
 		}
 	}
 
+	/**
+	 * Test if an object could be in one of the packs.
+	 * <p>
+	 * Loose objects are never covered by the filter, as other processes may
+	 * create them at any time; callers must still look for a loose object
+	 * when this method returns false.
+	 *
+	 * @param p
+	 *            the pack list the caller is about to search.
+	 * @param id
+	 *            name of the object.
+	 * @return false if no pack in p holds the object.
+	 */
+	private boolean mayBePacked(final PackFile[] p, final AnyObjectId id) {
+		if (p.length == 0)
+			return false;
+		final PackedObjectFilter f = packFilter;
+		return f == null || !f.isFor(p) || f.mightContain(id);
+	}
+
+	private void packMissed(final PackFile[] p) {
+		if (p.length < PACK_FILTER_MIN_PACKS)
+			return;
+		final PackedObjectFilter f = packFilter;
+		if ((f == null || !f.isFor(p)) && ++packMisses >= PACK_FILTER_MISSES)
+			buildPackFilter(p);
+	}
+
+	private synchronized void buildPackFilter(final PackFile[] p) {
+		final PackedObjectFilter f = packFilter;
+		if (packs == p && (f == null || !f.isFor(p))) {
+			packFilter = new PackedObjectFilter(p);
+			packMisses = 0;
+		}
+	}
+
+	/**
+	 * @return the packs of this repository and its alternates.
+	 */
+	public PackFile[] getPacks() {
+		return packs.clone();
+	}
+
 	/**
 	 * Open object in all packs containing specified object.
 	 *
@@ -761,6 +873,7 @@ void closePacks() {
 			packs[k].close();
 		}
 		packs = new PackFile[0];
+		packFilter = null;
 	}
 
 	/**
@@ -790,19 +903,29 @@ public void openPack(final File pack, final File idx) throws IOException {
 		System.arraycopy(cur, 0, arr, 1, cur.length);
 		arr[0] = new PackFile(this, idx, pack);
 		packs = arr;
+		packFilter = null;
 	}
 
 	/**
 	 * Scan the object dirs, including alternates for packs
 	 * to use.
+	 * <p>
+	 * Trees cached from this repository are discarded, as the scan may be
+	 * picking up a repack which pruned some of them.
 	 */
 	public void scanForPacks() {
+		packs = listPacks();
+		packFilter = null;
+		TreeCache.purge(this);
+	}
+
+	private PackFile[] listPacks() {
 		final ArrayList<PackFile> p = new ArrayList<PackFile>();
 		for (int i=0; i<objectsDirs.length; ++i)
 			scanForPacks(new File(objectsDirs[i], "pack"), p);
 		final PackFile[] arr = new PackFile[p.size()];
 		p.toArray(arr);
-		packs = arr;
+		return arr;
 	}
 
 	private void scanForPacks(final File packDir, Collection<PackFile> packList) {
@@ -924,12 +1047,43 @@ public String getBranch() throws IOException {
 	}
 	
 	/**
-	 * @return all known refs (heads, tags, remotes).
+	 * @return all known refs (heads, tags, remotes). The map cannot be
+	 *         modified.
 	 */
 	public Map<String, Ref> getAllRefs() {
 		return refs.getAllRefs();
 	}
 
+	/**
+	 * Get a snapshot of all refs.
+	 * <p>
+	 * The refs directory is scanned incrementally: loose ref directories whose
+	 * modification time has not changed, and a packed-refs file with the same
+	 * modification time and length, are not read again. If nothing changed
+	 * the previous snapshot is returned.
+	 *
+	 * @return the current snapshot of all refs (heads, tags, remotes).
+	 */
+	public RefSnapshot getRefSnapshot() {
+		return refs.getSnapshot();
+	}
+
+	/**
+	 * Test if refs may have changed since a snapshot was taken.
+	 * <p>
+	 * This is a constant time test which does not access the disk. Ref updates
+	 * made through this repository are seen immediately; changes made by
+	 * other processes are seen only after the next scan, such as
+	 * {@link #getRefSnapshot()} or {@link #scanForRepoChanges()}.
+	 *
+	 * @param snapshot
+	 *            a snapshot previously obtained from this repository.
+	 * @return true if the snapshot may be out of date.
+	 */
+	public boolean refsChangedSince(final RefSnapshot snapshot) {
+		return refs.isModifiedSince(snapshot);
+	}
+
 	/**
 	 * @return all tags; key is short tag name ("v1.0") and value of the entry
 	 *         contains the ref with the full tag name ("refs/tags/v1.0").
@@ -94,6 +94,8 @@ public static RepositoryConfig openUserConfig() {
 
 	private TransferConfig transfer;
 
+	private PackConfig pack;
+
 	private List<Entry> entries;
 
 	private Map<String, Object> byName;
@@ -134,6 +136,13 @@ public TransferConfig getTransfer() {
 		return transfer;
 	}
 
+	/**
+	 * @return pack generation configuration values
+	 */
+	public PackConfig getPack() {
+		return pack;
+	}
+
 	/**
 	 * Obtain an integer value from the configuration.
 	 *
@@ -535,6 +544,7 @@ public void create() {
 
 		core = new CoreConfig(this);
 		transfer = new TransferConfig(this);
+		pack = new PackConfig(this);
 	}
 
 	/**
@@ -678,6 +688,7 @@ public void load() throws IOException {
 
 		core = new CoreConfig(this);
 		transfer = new TransferConfig(this);
+		pack = new PackConfig(this);
 	}
 
 	private void clear() {
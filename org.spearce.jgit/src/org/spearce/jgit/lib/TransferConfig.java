@@ -41,10 +41,23 @@
  * The standard "transfer", "fetch" and "receive" configuration parameters.
  */
 public class TransferConfig {
+	/** Default number of concurrent requests a walking fetch may issue. */
+	public static final int DEFAULT_FETCH_THREADS = 5;
+
 	private final boolean fsckObjects;
 
+	private final int fetchThreads;
+
+	private final boolean denyDeletes;
+
+	private final boolean denyNonFastForwards;
+
 	TransferConfig(final RepositoryConfig rc) {
 		fsckObjects = rc.getBoolean("receive", "fsckobjects", false);
+		denyDeletes = rc.getBoolean("receive", "denydeletes", false);
+		denyNonFastForwards = rc.getBoolean("receive",
+				"denynonfastforwards", false);
+		fetchThreads = rc.getInt("fetch", "threads", DEFAULT_FETCH_THREADS);
 	}
 
 	/**
@@ -53,4 +66,26 @@ public class TransferConfig {
 	public boolean isFsckObjects() {
 		return fsckObjects;
 	}
+
+	/**
+	 * @return number of files a walking (dumb protocol) fetch may download at
+	 *         once; 1 or less to download one file at a time.
+	 */
+	public int getFetchThreads() {
+		return fetchThreads;
+	}
+
+	/**
+	 * @return should a push be refused permission to delete refs?
+	 */
+	public boolean isDenyDeletes() {
+		return denyDeletes;
+	}
+
+	/**
+	 * @return should a push be refused permission to rewind refs?
+	 */
+	public boolean isDenyNonFastForwards() {
+		return denyNonFastForwards;
+	}
 }
@@ -35,131 +35,172 @@
  * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 
-package org.spearce.jgit.lib;
 
-import java.lang.ref.SoftReference;
+package org.spearce.jgit.lib;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches inflated objects (mostly delta bases) read from pack files.
+ * <p>
+ * The cache is split into a fixed number of independently locked segments, so
+ * threads reading unrelated objects do not serialize on a single monitor.
+ * Each segment keeps its entries in a hash table for lookup and in a list
+ * ordered by last access for eviction.
+ * <p>
+ * Entries are held by strong references and the cache is bounded by the total
+ * number of bytes it holds. When a store pushes the cache over its limit the
+ * least recently used entries are evicted, choosing each time the segment
+ * whose oldest entry was accessed longest ago. Objects larger than a quarter
+ * of the limit are not admitted, so a single huge object cannot flush all of
+ * the hot bases.
+ */
 class UnpackedObjectCache {
-	private static final int CACHE_SZ = 256;
-
 	private static final int MB = 1024 * 1024;
 
-	private static final SoftReference<Entry> DEAD;
+	/** Default number of hash table slots, across all segments. */
+	static final int DEFAULT_SLOTS = 1024;
 
-	private static int hash(final WindowedFile pack, final long position) {
-		int h = pack.hash + (int) position;
-		h += h >>> 16;
-		h += h >>> 8;
-		return h & (CACHE_SZ - 1);
-	}
+	private static final int SEGMENTS = 16;
+
+	private static volatile int maxByteCount;
 
-	private static int maxByteCount;
+	private static volatile Segment[] segments;
 
-	private static final Slot[] cache;
+	private static final AtomicLong clock = new AtomicLong();
 
-	private static Slot lruHead;
+	private static final AtomicLong hitCount = new AtomicLong();
 
-	private static Slot lruTail;
+	private static final AtomicLong missCount = new AtomicLong();
 
-	private static int openByteCount;
+	private static final AtomicLong evictionCount = new AtomicLong();
 
 	static {
-		DEAD = new SoftReference<Entry>(null);
 		maxByteCount = 10 * MB;
-
-		cache = new Slot[CACHE_SZ];
-		for (int i = 0; i < CACHE_SZ; i++)
-			cache[i] = new Slot();
+		segments = createSegments(DEFAULT_SLOTS);
 	}
 
-	static synchronized void reconfigure(final int dbLimit) {
-		if (maxByteCount != dbLimit) {
-			maxByteCount = dbLimit;
-			releaseMemory();
-		}
+	private static Segment[] createSegments(final int slots) {
+		final int perSegment = slotsPerSegment(slots);
+		final Segment[] r = new Segment[SEGMENTS];
+		for (int i = 0; i < r.length; i++)
+			r[i] = new Segment(perSegment);
+		return r;
 	}
 
-	static synchronized Entry get(final WindowedFile pack, final long position) {
-		final Slot e = cache[hash(pack, position)];
-		if (e.provider == pack && e.position == position) {
-			final Entry buf = e.data.get();
-			if (buf != null) {
-				moveToHead(e);
-				return buf;
-			}
-		}
-		return null;
+	private static int slotsPerSegment(final int slots) {
+		int perSegment = 1;
+		while (perSegment * SEGMENTS < slots)
+			perSegment <<= 1;
+		return perSegment;
 	}
 
-	static synchronized void store(final WindowedFile pack,
-			final long position, final byte[] data, final int objectType) {
-		if (data.length > maxByteCount)
-			return; // Too large to cache.
-
-		final Slot e = cache[hash(pack, position)];
-		clearEntry(e);
+	private static int hash(final WindowedFile pack, final long position) {
+		int h = pack.hash * 31 + (int) position + (int) (position >>> 32);
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
+	}
 
-		openByteCount += data.length;
+	static void reconfigure(final int dbLimit) {
+		maxByteCount = dbLimit;
 		releaseMemory();
+	}
 
-		e.provider = pack;
-		e.position = position;
-		e.data = new SoftReference<Entry>(new Entry(data, objectType));
-		moveToHead(e);
+	static synchronized void reconfigure(final int dbLimit, final int slots) {
+		if (slots <= 0)
+			throw new IllegalArgumentException("Invalid slot count " + slots);
+		if (segments[0].table.length != slotsPerSegment(slots))
+			segments = createSegments(slots);
+		reconfigure(dbLimit);
 	}
 
-	private static void releaseMemory() {
-		while (openByteCount > maxByteCount && lruTail != null) {
-			final Slot currOldest = lruTail;
-			final Slot nextOldest = currOldest.lruPrev;
+	static Entry get(final WindowedFile pack, final long position) {
+		final int h = hash(pack, position);
+		final Segment s = segments[h & (SEGMENTS - 1)];
+		s.lock.lock();
+		try {
+			final Slot e = s.find(h, pack, position);
+			if (e != null) {
+				s.moveToHead(e);
+				hitCount.incrementAndGet();
+				return e.value;
+			}
+		} finally {
+			s.lock.unlock();
+		}
+		missCount.incrementAndGet();
+		return null;
+	}
 
-			clearEntry(currOldest);
-			currOldest.lruPrev = null;
-			currOldest.lruNext = null;
+	static void store(final WindowedFile pack, final long position,
+			final byte[] data, final int objectType) {
+		if (data.length > maxByteCount / 4)
+			return; // Too large to cache.
 
-			if (nextOldest == null)
-				lruHead = null;
-			else
-				nextOldest.lruNext = null;
-			lruTail = nextOldest;
+		final int h = hash(pack, position);
+		final Segment s = segments[h & (SEGMENTS - 1)];
+		s.lock.lock();
+		try {
+			s.put(h, pack, position, new Entry(data, objectType));
+		} finally {
+			s.lock.unlock();
 		}
+		releaseMemory();
 	}
 
-	static synchronized void purge(final WindowedFile file) {
-		for (final Slot e : cache) {
-			if (e.provider == file) {
-				clearEntry(e);
-				unlink(e);
+	static void purge(final WindowedFile file) {
+		for (final Segment s : segments) {
+			s.lock.lock();
+			try {
+				s.removeAll(file);
+			} finally {
+				s.lock.unlock();
 			}
 		}
 	}
 
-	private static void moveToHead(final Slot e) {
-		unlink(e);
-		e.lruPrev = null;
-		e.lruNext = lruHead;
-		if (lruHead != null)
-			lruHead.lruPrev = e;
-		else
-			lruTail = e;
-		lruHead = e;
+	/** @return a snapshot of the cache's counters. */
+	static CacheStatistics getStatistics() {
+		long bytes = 0;
+		int entries = 0;
+		for (final Segment s : segments) {
+			bytes += s.byteCount;
+			entries += s.entryCount;
+		}
+		return new CacheStatistics(hitCount.get(), missCount.get(),
+				evictionCount.get(), bytes, entries, maxByteCount);
 	}
 
-	private static void unlink(final Slot e) {
-		final Slot prev = e.lruPrev;
-		final Slot next = e.lruNext;
-		if (prev != null)
-			prev.lruNext = next;
-		if (next != null)
-			next.lruPrev = prev;
+	private static long openByteCount(final Segment[] segs) {
+		long r = 0;
+		for (final Segment s : segs)
+			r += s.byteCount;
+		return r;
 	}
 
-	private static void clearEntry(final Slot e) {
-		final Entry old = e.data.get();
-		if (old != null)
-			openByteCount -= old.data.length;
-		e.provider = null;
-		e.data = DEAD;
+	private static void releaseMemory() {
+		final Segment[] segs = segments;
+		while (openByteCount(segs) > maxByteCount) {
+			Segment oldest = null;
+			for (final Segment s : segs) {
+				if (s.entryCount > 0
+						&& (oldest == null || s.tailTick < oldest.tailTick))
+					oldest = s;
+			}
+			if (oldest == null)
+				break;
+
+			oldest.lock.lock();
+			try {
+				if (oldest.lruTail != null) {
+					oldest.remove(oldest.lruTail);
+					evictionCount.incrementAndGet();
+				}
+			} finally {
+				oldest.lock.unlock();
+			}
+		}
 	}
 
 	private UnpackedObjectCache() {
@@ -178,14 +219,146 @@ static class Entry {
 	}
 
 	private static class Slot {
+		final int hash;
+
+		final WindowedFile provider;
+
+		final long position;
+
+		Entry value;
+
+		long tick;
+
+		Slot chainNext;
+
 		Slot lruPrev;
 
 		Slot lruNext;
 
-		WindowedFile provider;
+		Slot(final int h, final WindowedFile pack, final long pos) {
+			hash = h;
+			provider = pack;
+			position = pos;
+		}
+	}
+
+	/** A hash table and access list guarded by a single lock. */
+	private static class Segment {
+		final ReentrantLock lock = new ReentrantLock();
+
+		final Slot[] table;
+
+		Slot lruHead;
+
+		Slot lruTail;
+
+		/** Access tick of {@link #lruTail}; read without the lock. */
+		volatile long tailTick = Long.MAX_VALUE;
+
+		/** Bytes held; read without the lock. */
+		volatile long byteCount;
+
+		volatile int entryCount;
+
+		Segment(final int slots) {
+			table = new Slot[slots];
+		}
+
+		private int index(final int h) {
+			return (h >>> 4) & (table.length - 1);
+		}
+
+		Slot find(final int h, final WindowedFile pack, final long position) {
+			for (Slot e = table[index(h)]; e != null; e = e.chainNext) {
+				if (e.hash == h && e.provider == pack
+						&& e.position == position)
+					return e;
+			}
+			return null;
+		}
+
+		void put(final int h, final WindowedFile pack, final long position,
+				final Entry value) {
+			Slot e = find(h, pack, position);
+			if (e != null) {
+				byteCount += value.data.length - e.value.data.length;
+				e.value = value;
+				moveToHead(e);
+				return;
+			}
 
-		long position;
+			e = new Slot(h, pack, position);
+			e.value = value;
+			final int i = index(h);
+			e.chainNext = table[i];
+			table[i] = e;
+			byteCount += value.data.length;
+			entryCount++;
+			moveToHead(e);
+		}
 
-		SoftReference<Entry> data = DEAD;
+		void removeAll(final WindowedFile pack) {
+			Slot e = lruHead;
+			while (e != null) {
+				final Slot next = e.lruNext;
+				if (e.provider == pack)
+					remove(e);
+				e = next;
+			}
+		}
+
+		void remove(final Slot e) {
+			final int i = index(e.hash);
+			Slot prior = null;
+			for (Slot c = table[i]; c != null; prior = c, c = c.chainNext) {
+				if (c == e) {
+					if (prior == null)
+						table[i] = c.chainNext;
+					else
+						prior.chainNext = c.chainNext;
+					break;
+				}
+			}
+			unlink(e);
+			byteCount -= e.value.data.length;
+			entryCount--;
+			updateTailTick();
+		}
+
+		void moveToHead(final Slot e) {
+			e.tick = clock.incrementAndGet();
+			if (lruHead == e) {
+				if (lruTail == e)
+					updateTailTick();
+				return;
+			}
+			unlink(e);
+			e.lruNext = lruHead;
+			if (lruHead != null)
+				lruHead.lruPrev = e;
+			lruHead = e;
+			if (lruTail == null)
+				lruTail = e;
+			updateTailTick();
+		}
+
+		private void unlink(final Slot e) {
+			final Slot prev = e.lruPrev;
+			final Slot next = e.lruNext;
+			if (prev != null)
+				prev.lruNext = next;
+			else if (lruHead == e)
+				lruHead = next;
+			if (next != null)
+				next.lruPrev = prev;
+			else if (lruTail == e)
+				lruTail = prev;
+			e.lruPrev = null;
+			e.lruNext = null;
+		}
+
+		private void updateTailTick() {
+			tailTick = lruTail != null ? lruTail.tick : Long.MAX_VALUE;
+		}
 	}
 }
@@ -38,25 +38,51 @@
 
 package org.spearce.jgit.lib;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
 import org.spearce.jgit.errors.CorruptObjectException;
 import org.spearce.jgit.util.MutableInteger;
+import org.spearce.jgit.util.NB;
 import org.spearce.jgit.util.RawParseUtils;
 
 /**
  * Loose object loader. This class loads an object not stored in a pack.
+ * <p>
+ * Objects up to the repository's stream threshold are inflated as soon as the
+ * loader is created. For larger objects only the header is parsed; the content
+ * is inflated from disk on demand by {@link #openStream()}.
  */
 public class UnpackedObjectLoader extends ObjectLoader {
-	private final int objectType;
+	/** Compressed bytes read to parse the header of a large object. */
+	private static final int HEADER_READ_SIZE = 8192;
 
-	private final int objectSize;
+	private int objectType;
 
-	private final byte[] bytes;
+	private int objectSize;
+
+	private byte[] bytes;
+
+	/** Loose object file to stream from, if its content was not read. */
+	private File file;
+
+	/** Complete compressed form, if it was supplied but not yet inflated. */
+	private byte[] compressedData;
+
+	/** True if the whole object, header included, is one zlib stream. */
+	private boolean legacyFormat;
+
+	/**
+	 * Length of the header: inflated bytes for the legacy format, compressed
+	 * bytes for the new style format.
+	 */
+	private int headerLength;
 
 	/**
 	 * Construct an ObjectLoader for the specified SHA-1
@@ -69,22 +95,28 @@ public class UnpackedObjectLoader extends ObjectLoader {
 	 */
 	public UnpackedObjectLoader(final Repository db, final ObjectId id)
 			throws IOException {
-		this(readCompressed(db, id), id);
-	}
+		setId(id);
 
-	private static byte[] readCompressed(final Repository db, final ObjectId id)
-			throws FileNotFoundException, IOException {
-		final FileInputStream objStream = new FileInputStream(db.toFile(id));
+		final int threshold = db.getConfig().getCore().getStreamFileThreshold();
+		final File path = db.toFile(id);
+		final FileInputStream objStream = new FileInputStream(path);
 		final byte[] compressed;
+		final boolean complete;
 		try {
-			compressed = new byte[objStream.available()];
-			int off = 0;
-			while (off < compressed.length)
-				off += objStream.read(compressed, off, compressed.length - off);
+			final long length = objStream.getChannel().size();
+			complete = length <= threshold;
+			if (complete)
+				compressed = new byte[(int) length];
+			else
+				compressed = new byte[(int) Math.min(length, HEADER_READ_SIZE)];
+			NB.readFully(objStream, compressed, 0, compressed.length);
 		} finally {
 			objStream.close();
 		}
-		return compressed;
+
+		parse(compressed, id, complete, threshold);
+		if (bytes == null && compressedData == null)
+			file = path;
 	}
 
 	/**
@@ -98,13 +130,12 @@ private static byte[] readCompressed(final Repository db, final ObjectId id)
 	 */
 	public UnpackedObjectLoader(final byte[] compressed)
 			throws CorruptObjectException {
-		this(compressed, null);
+		parse(compressed, null, true, Integer.MAX_VALUE);
 	}
 
-	private UnpackedObjectLoader(final byte[] compressed, final ObjectId id)
+	private void parse(final byte[] compressed, final ObjectId id,
+			final boolean complete, final int threshold)
 			throws CorruptObjectException {
-		setId(id);
-
 		// Try to determine if this is a legacy format loose object or
 		// a new style loose object. The legacy format was completely
 		// compressed with zlib so the first byte must be 0x78 (15-bit
@@ -140,10 +171,18 @@ private UnpackedObjectLoader(final byte[] compressed, final ObjectId id)
 					throw new CorruptObjectException(id, "negative size");
 				if (hdr[p.value++] != 0)
 					throw new CorruptObjectException(id, "garbage after size");
-				bytes = new byte[objectSize];
-				if (p.value < avail)
-					System.arraycopy(hdr, p.value, bytes, 0, avail - p.value);
-				decompress(id, inflater, avail - p.value);
+				if (complete && objectSize <= threshold) {
+					bytes = new byte[objectSize];
+					if (p.value < avail)
+						System.arraycopy(hdr, p.value, bytes, 0, avail
+								- p.value);
+					decompress(id, inflater, avail - p.value);
+				} else {
+					legacyFormat = true;
+					headerLength = p.value;
+					if (complete)
+						compressedData = compressed;
+				}
 			} else {
 				int p = 0;
 				int c = compressed[p++] & 0xff;
@@ -168,9 +207,15 @@ private UnpackedObjectLoader(final byte[] compressed, final ObjectId id)
 				}
 
 				objectSize = size;
-				bytes = new byte[objectSize];
-				inflater.setInput(compressed, p, compressed.length - p);
-				decompress(id, inflater, 0);
+				if (complete && objectSize <= threshold) {
+					bytes = new byte[objectSize];
+					inflater.setInput(compressed, p, compressed.length - p);
+					decompress(id, inflater, 0);
+				} else {
+					headerLength = p;
+					if (complete)
+						compressedData = compressed;
+				}
 			}
 		} finally {
 			InflaterCache.release(inflater);
@@ -202,9 +247,45 @@ public long getSize() {
 
 	@Override
 	public byte[] getCachedBytes() throws IOException {
+		if (bytes == null) {
+			final byte[] data = new byte[objectSize];
+			final InputStream in = openStream();
+			try {
+				NB.readFully(in, data, 0, objectSize);
+			} finally {
+				in.close();
+			}
+			bytes = data;
+			compressedData = null;
+			file = null;
+		}
 		return bytes;
 	}
 
+	@Override
+	public InputStream openStream() throws IOException {
+		if (bytes != null)
+			return new ByteArrayInputStream(bytes);
+
+		final InputStream raw;
+		if (compressedData != null)
+			raw = new ByteArrayInputStream(compressedData);
+		else
+			raw = new BufferedInputStream(new FileInputStream(file));
+		try {
+			if (legacyFormat) {
+				final InputStream in = new CachedInflaterInputStream(raw);
+				NB.skipFully(in, headerLength);
+				return in;
+			}
+			NB.skipFully(raw, headerLength);
+			return new CachedInflaterInputStream(raw);
+		} catch (IOException err) {
+			raw.close();
+			throw err;
+		}
+	}
+
 	@Override
 	public int getRawType() {
 		return objectType;
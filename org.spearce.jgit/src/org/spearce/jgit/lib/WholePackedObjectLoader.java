@@ -38,6 +38,7 @@
 package org.spearce.jgit.lib;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.zip.DataFormatException;
 
 import org.spearce.jgit.errors.CorruptObjectException;
@@ -78,6 +79,14 @@ public byte[] getCachedBytes() throws IOException {
 		}
 	}
 
+	@Override
+	public InputStream openStream() throws IOException {
+		if (objectSize <= pack.getStreamFileThreshold())
+			return super.openStream();
+		curs.release();
+		return pack.openInflaterStream(dataOffset);
+	}
+
 	@Override
 	public int getRawType() {
 		return objectType;
@@ -40,16 +40,34 @@
 
 import java.io.IOException;
 import java.lang.ref.ReferenceQueue;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The WindowCache manages reusable <code>Windows</code> and inflaters used by
  * the other windowed file access classes.
+ * <p>
+ * Windows are held in a hash table of immutable entry chains. Readers scan a
+ * chain without taking any lock, so cache hits from many threads proceed in
+ * parallel. Loading a missing window or unlinking an entry requires the lock
+ * protecting that chain; the chains are spread over a fixed number of lock
+ * stripes, so threads loading windows for unrelated positions rarely wait on
+ * each other.
+ * <p>
+ * Eviction uses the CLOCK algorithm: every hit sets the entry's reference bit,
+ * and a single hand sweeps the table clearing set bits and evicting the first
+ * entries it finds whose bit was already clear. Entries are evicted until the
+ * cache is back within its configured byte limit.
  */
 public class WindowCache {
 	private static final int KB = 1024;
 
 	private static final int MB = 1024 * KB;
 
+	private static final int LOCK_STRIPES = 32;
+
 	private static final int bits(int newSize) {
 		if (newSize < 4096)
 			throw new IllegalArgumentException("Invalid window size");
@@ -68,20 +86,14 @@ private static final int bits(int newSize) {
 
 	static final ReferenceQueue<?> clearedWindowQueue;
 
-	private static ByteWindow[] windows;
-
-	private static int openWindowCount;
-
-	private static int openByteCount;
-
-	private static int accessClock;
+	private static volatile Table table;
 
 	static {
 		maxByteCount = 10 * MB;
 		windowSizeShift = bits(8 * KB);
 		windowSize = 1 << windowSizeShift;
 		mmap = false;
-		windows = new ByteWindow[maxByteCount / windowSize];
+		table = new Table(maxByteCount / windowSize);
 		clearedWindowQueue = new ReferenceQueue<Object>();
 	}
 
@@ -99,7 +111,8 @@ private static final int bits(int newSize) {
 	 * @param packedGitMMAP
 	 *            true to enable use of mmap when creating windows.
 	 * @param deltaBaseCacheLimit
-	 *            number of bytes to hold in the delta base cache.
+	 *            number of bytes to hold in the delta base cache. The number
+	 *            of delta base cache slots is left as it is.
 	 */
 	public static void reconfigure(final int packedGitLimit,
 			final int packedGitWindowSize, final boolean packedGitMMAP,
@@ -108,6 +121,41 @@ public static void reconfigure(final int packedGitLimit,
 		UnpackedObjectCache.reconfigure(deltaBaseCacheLimit);
 	}
 
+	/**
+	 * Modify the configuration of the window cache.
+	 * <p>
+	 * The new configuration is applied immediately. If the new limits are
+	 * smaller than what what is currently cached, older entries will be purged
+	 * as soon as possible to allow the cache to meet the new limit. Changing
+	 * the number of delta base cache slots discards the delta base cache.
+	 * 
+	 * @param packedGitLimit
+	 *            maximum number of bytes to hold within this instance.
+	 * @param packedGitWindowSize
+	 *            number of bytes per window within the cache.
+	 * @param packedGitMMAP
+	 *            true to enable use of mmap when creating windows.
+	 * @param deltaBaseCacheLimit
+	 *            number of bytes to hold in the delta base cache.
+	 * @param deltaBaseCacheSlots
+	 *            number of hash table slots in the delta base cache.
+	 */
+	public static void reconfigure(final int packedGitLimit,
+			final int packedGitWindowSize, final boolean packedGitMMAP,
+			final int deltaBaseCacheLimit, final int deltaBaseCacheSlots) {
+		reconfigureImpl(packedGitLimit, packedGitWindowSize, packedGitMMAP);
+		UnpackedObjectCache.reconfigure(deltaBaseCacheLimit,
+				deltaBaseCacheSlots);
+	}
+
+	/**
+	 * @return current hit, miss, eviction and size counters of the delta base
+	 *         cache.
+	 */
+	public static CacheStatistics getDeltaBaseCacheStatistics() {
+		return UnpackedObjectCache.getStatistics();
+	}
+
 	private static synchronized void reconfigureImpl(final int packedGitLimit,
 			final int packedGitWindowSize, final boolean packedGitMMAP) {
 		boolean prune = false;
@@ -135,28 +183,15 @@ private static synchronized void reconfigureImpl(final int packedGitLimit,
 			// We have to throw away every window we have. None
 			// of them are suitable for the new configuration.
 			//
-			for (int i = 0; i < openWindowCount; i++) {
-				final ByteWindow win = windows[i];
-				if (--win.provider.openCount == 0)
-					win.provider.cacheClose();
-				windows[i] = null;
-			}
-			windows = new ByteWindow[maxByteCount / windowSize];
-			openWindowCount = 0;
-			openByteCount = 0;
+			final Table old = table;
+			table = new Table(maxByteCount / windowSize);
+			old.close();
 		} else if (prune) {
 			// Our memory limit was decreased so we should try
 			// to drop windows to ensure we meet the new lower
 			// limit we were just given.
 			//
-			final int wincnt = maxByteCount / windowSize;
-			releaseMemory(wincnt, null, 0, 0);
-
-			if (wincnt != windows.length) {
-				final ByteWindow[] n = new ByteWindow[wincnt];
-				System.arraycopy(windows, 0, n, 0, openWindowCount);
-				windows = n;
-			}
+			table.releaseMemory();
 		}
 	}
 
@@ -176,131 +211,26 @@ private static synchronized void reconfigureImpl(final int packedGitLimit,
 	 *             the window was not found in the cache and the given provider
 	 *             was unable to load the window on demand.
 	 */
-	public static synchronized final void get(final WindowCursor curs,
+	public static final void get(final WindowCursor curs,
 			final WindowedFile wp, final long position) throws IOException {
-		final int id = (int) (position >> windowSizeShift);
-		int idx = binarySearch(wp, id);
-		if (0 <= idx) {
-			final ByteWindow<?> w = windows[idx];
-			if ((curs.handle = w.get()) != null) {
-				w.lastAccessed = ++accessClock;
-				curs.window = w;
-				return;
-			}
+		final Table t = table;
+		final int id = (int) (position >> t.windowSizeShift);
+		if (t.scan(curs, wp, id))
+			return;
+
+		// The file must be open before we take any chain lock. Opening
+		// a file reads its header back through this cache, and may need
+		// the lock of some other chain to do so.
+		//
+		open(wp);
+		boolean loaded = false;
+		try {
+			loaded = t.load(curs, wp, id);
+		} finally {
+			if (!loaded)
+				close(wp);
 		}
-
-		if (++wp.openCount == 1) {
-			try {
-				wp.cacheOpen();
-			} catch (IOException ioe) {
-				wp.openCount = 0;
-				throw ioe;
-			} catch (RuntimeException ioe) {
-				wp.openCount = 0;
-				throw ioe;
-			} catch (Error ioe) {
-				wp.openCount = 0;
-				throw ioe;
-			}
-
-			// The cacheOpen may have mapped the window we are trying to
-			// map ourselves. Retrying the search ensures that does not
-			// happen to us.
-			//
-			idx = binarySearch(wp, id);
-			if (0 <= idx) {
-				final ByteWindow<?> w = windows[idx];
-				if ((curs.handle = w.get()) != null) {
-					w.lastAccessed = ++accessClock;
-					curs.window = w;
-					return;
-				}
-			}
-		}
-
-		idx = -(idx + 1);
-		final int wSz = windowSize(wp, id);
-		idx = releaseMemory(windows.length, wp, idx, wSz);
-
-		if (idx < 0)
-			idx = 0;
-		final int toMove = openWindowCount - idx;
-		if (toMove > 0)
-			System.arraycopy(windows, idx, windows, idx + 1, toMove);
-		wp.loadWindow(curs, id, id << windowSizeShift, wSz);
-		windows[idx] = curs.window;
-		openWindowCount++;
-		openByteCount += curs.window.size;
-	}
-
-	private static int releaseMemory(final int maxWindowCount,
-			final WindowedFile willRead, int insertionIndex, final int willAdd) {
-		for (;;) {
-			final ByteWindow<?> w = (ByteWindow<?>) clearedWindowQueue.poll();
-			if (w == null)
-				break;
-			final int oldest = binarySearch(w.provider, w.id);
-			if (oldest < 0 || windows[oldest] != w)
-				continue; // Must have been evicted by our other controls.
-
-			final WindowedFile p = w.provider;
-			if (--p.openCount == 0 && p != willRead)
-				p.cacheClose();
-
-			openByteCount -= w.size;
-			final int toMove = openWindowCount - oldest - 1;
-			if (toMove > 0)
-				System.arraycopy(windows, oldest + 1, windows, oldest, toMove);
-			windows[--openWindowCount] = null;
-			if (oldest < insertionIndex)
-				insertionIndex--;
-		}
-
-		while (openWindowCount >= maxWindowCount
-				|| (openWindowCount > 0 && openByteCount + willAdd > maxByteCount)) {
-			int oldest = 0;
-			for (int k = openWindowCount - 1; k > 0; k--) {
-				if (windows[k].lastAccessed < windows[oldest].lastAccessed)
-					oldest = k;
-			}
-
-			final ByteWindow w = windows[oldest];
-			final WindowedFile p = w.provider;
-			if (--p.openCount == 0 && p != willRead)
-				p.cacheClose();
-
-			openByteCount -= w.size;
-			final int toMove = openWindowCount - oldest - 1;
-			if (toMove > 0)
-				System.arraycopy(windows, oldest + 1, windows, oldest, toMove);
-			windows[--openWindowCount] = null;
-			w.enqueue();
-			if (oldest < insertionIndex)
-				insertionIndex--;
-		}
-
-		return insertionIndex;
-	}
-
-	private static final int binarySearch(final WindowedFile sprov,
-			final int sid) {
-		if (openWindowCount == 0)
-			return -1;
-		final int shc = sprov.hash;
-		int high = openWindowCount;
-		int low = 0;
-		do {
-			final int mid = (low + high) / 2;
-			final ByteWindow mw = windows[mid];
-			if (mw.provider == sprov && mw.id == sid)
-				return mid;
-			final int mhc = mw.provider.hash;
-			if (mhc < shc || (shc == mhc && mw.id < sid))
-				low = mid + 1;
-			else
-				high = mid;
-		} while (low < high);
-		return -(low + 1);
+		t.releaseMemory();
 	}
 
 	/**
@@ -315,30 +245,336 @@ private static final int binarySearch(final WindowedFile sprov,
 	 *            the window provider whose windows should be removed from the
 	 *            cache.
 	 */
-	public static synchronized final void purge(final WindowedFile wp) {
-		int d = 0;
-		for (int s = 0; s < openWindowCount; s++) {
-			final ByteWindow win = windows[s];
-			if (win.provider != wp)
-				windows[d++] = win;
-			else
-				openByteCount -= win.size;
+	public static final void purge(final WindowedFile wp) {
+		table.purge(wp);
+	}
+
+	private static void open(final WindowedFile wp) throws IOException {
+		synchronized (wp) {
+			if (++wp.openCount == 1) {
+				try {
+					wp.cacheOpen();
+				} catch (IOException ioe) {
+					wp.openCount = 0;
+					throw ioe;
+				} catch (RuntimeException ioe) {
+					wp.openCount = 0;
+					throw ioe;
+				} catch (Error ioe) {
+					wp.openCount = 0;
+					throw ioe;
+				}
+			}
 		}
-		openWindowCount = d;
+	}
 
-		if (wp.openCount > 0) {
-			wp.openCount = 0;
-			wp.cacheClose();
+	private static void close(final WindowedFile wp) {
+		synchronized (wp) {
+			if (wp.openCount > 0 && --wp.openCount == 0)
+				wp.cacheClose();
 		}
 	}
 
-	private static int windowSize(final WindowedFile file, final int id) {
-		final long len = file.length();
-		final long pos = id << windowSizeShift;
-		return len < pos + windowSize ? (int) (len - pos) : windowSize;
+	private static void release(final ArrayList<ByteWindow<?>> removed) {
+		for (final ByteWindow<?> w : removed)
+			close(w.provider);
+	}
+
+	private static int hash(final WindowedFile wp, final int id) {
+		int h = wp.hash + id * 31;
+		h ^= (h >>> 20) ^ (h >>> 12);
+		return h ^ (h >>> 7) ^ (h >>> 4);
 	}
 
 	private WindowCache() {
 		throw new UnsupportedOperationException();
 	}
+
+	/**
+	 * One generation of the cache.
+	 * <p>
+	 * A table is replaced as a whole when the window size or access mode
+	 * changes, as none of its windows would be usable afterwards.
+	 */
+	private static class Table {
+		final int windowSizeShift;
+
+		final int windowSize;
+
+		private final AtomicReferenceArray<Entry> chains;
+
+		private final ReentrantLock[] locks;
+
+		private final ReentrantLock evictLock;
+
+		private final AtomicInteger openByteCount;
+
+		private final AtomicInteger openWindowCount;
+
+		/** Next chain the CLOCK hand will examine; guarded by evictLock. */
+		private int hand;
+
+		private volatile boolean closed;
+
+		Table(final int windowCount) {
+			windowSizeShift = WindowCache.windowSizeShift;
+			windowSize = WindowCache.windowSize;
+			int sz = 64;
+			while (sz < 2 * windowCount)
+				sz <<= 1;
+			chains = new AtomicReferenceArray<Entry>(sz);
+
+			locks = new ReentrantLock[LOCK_STRIPES];
+			for (int i = 0; i < locks.length; i++)
+				locks[i] = new ReentrantLock();
+			evictLock = new ReentrantLock();
+			openByteCount = new AtomicInteger();
+			openWindowCount = new AtomicInteger();
+		}
+
+		private int slot(final WindowedFile wp, final int id) {
+			return hash(wp, id) & (chains.length() - 1);
+		}
+
+		private ReentrantLock lockFor(final int slot) {
+			return locks[slot & (LOCK_STRIPES - 1)];
+		}
+
+		boolean scan(final WindowCursor curs, final WindowedFile wp,
+				final int id) {
+			return scan(chains.get(slot(wp, id)), curs, wp, id);
+		}
+
+		private static boolean scan(Entry e, final WindowCursor curs,
+				final WindowedFile wp, final int id) {
+			for (; e != null; e = e.next) {
+				final ByteWindow<?> w = e.window;
+				if (w.provider == wp && w.id == id) {
+					final Object h = w.get();
+					if (h == null)
+						return false;
+					e.referenced = true;
+					curs.window = w;
+					curs.handle = h;
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Load a window into the cursor, caching it if possible.
+		 * 
+		 * @return true if the window was added to the cache and now holds the
+		 *         provider open; false if the caller must release its open.
+		 */
+		boolean load(final WindowCursor curs, final WindowedFile wp,
+				final int id) throws IOException {
+			final int s = slot(wp, id);
+			final ReentrantLock lock = lockFor(s);
+			final ArrayList<ByteWindow<?>> removed;
+			lock.lock();
+			try {
+				final Entry head = chains.get(s);
+				if (scan(head, curs, wp, id))
+					return false;
+
+				final long pos = ((long) id) << windowSizeShift;
+				wp.loadWindow(curs, id, pos, windowSize(wp, pos));
+				if (closed)
+					return false;
+
+				// A window whose data was cleared by the garbage collector
+				// may still be in the chain; drop it before adding its
+				// replacement.
+				//
+				removed = new ArrayList<ByteWindow<?>>(1);
+				Entry n = unlink(head, wp, id, removed);
+				n = new Entry(n, curs.window);
+				n.referenced = true;
+				chains.set(s, n);
+				openWindowCount.incrementAndGet();
+				openByteCount.addAndGet(curs.window.size);
+			} finally {
+				lock.unlock();
+			}
+			release(removed);
+			return true;
+		}
+
+		private int windowSize(final WindowedFile file, final long pos) {
+			final long len = file.length();
+			return len < pos + windowSize ? (int) (len - pos) : windowSize;
+		}
+
+		void releaseMemory() {
+			ByteWindow<?> w = (ByteWindow<?>) clearedWindowQueue.poll();
+			if (w == null && openByteCount.get() <= maxByteCount)
+				return;
+
+			final ArrayList<ByteWindow<?>> removed;
+			removed = new ArrayList<ByteWindow<?>>();
+			evictLock.lock();
+			try {
+				for (; w != null; w = (ByteWindow<?>) clearedWindowQueue.poll())
+					remove(w, removed);
+
+				final int n = chains.length();
+				int idle = 0;
+				while (openByteCount.get() > maxByteCount
+						&& openWindowCount.get() > 0 && idle < 2 * n) {
+					final int s = hand;
+					hand = (s + 1) & (n - 1);
+					if (chains.get(s) == null || !sweep(s, removed))
+						idle++;
+					else
+						idle = 0;
+				}
+			} finally {
+				evictLock.unlock();
+			}
+			release(removed);
+		}
+
+		/**
+		 * Advance the CLOCK hand over one chain.
+		 * 
+		 * @return true if a window was evicted from the chain.
+		 */
+		private boolean sweep(final int s, final ArrayList<ByteWindow<?>> removed) {
+			final ReentrantLock lock = lockFor(s);
+			lock.lock();
+			try {
+				final Entry head = chains.get(s);
+				Entry victim = null;
+				for (Entry e = head; e != null; e = e.next) {
+					if (e.window.get() == null || !e.referenced) {
+						victim = e;
+						break;
+					}
+					e.referenced = false;
+				}
+				if (victim == null)
+					return false;
+				final ByteWindow<?> w = victim.window;
+				chains.set(s, unlink(head, w.provider, w.id, removed));
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void remove(final ByteWindow<?> w,
+				final ArrayList<ByteWindow<?>> removed) {
+			final int s = slot(w.provider, w.id);
+			final ReentrantLock lock = lockFor(s);
+			lock.lock();
+			try {
+				final Entry head = chains.get(s);
+				for (Entry e = head; e != null; e = e.next) {
+					if (e.window == w) {
+						chains.set(s, unlink(head, w.provider, w.id, removed));
+						break;
+					}
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void purge(final WindowedFile wp) {
+			final ArrayList<ByteWindow<?>> removed;
+			removed = new ArrayList<ByteWindow<?>>();
+			for (int s = 0; s < chains.length(); s++) {
+				if (chains.get(s) == null)
+					continue;
+				final ReentrantLock lock = lockFor(s);
+				lock.lock();
+				try {
+					Entry r = null;
+					for (Entry e = chains.get(s); e != null; e = e.next) {
+						if (e.window.provider == wp)
+							drop(e.window, removed);
+						else
+							r = new Entry(r, e);
+					}
+					chains.set(s, r);
+				} finally {
+					lock.unlock();
+				}
+			}
+			release(removed);
+		}
+
+		void close() {
+			closed = true;
+			final ArrayList<ByteWindow<?>> removed;
+			removed = new ArrayList<ByteWindow<?>>();
+			for (int s = 0; s < chains.length(); s++) {
+				final ReentrantLock lock = lockFor(s);
+				lock.lock();
+				try {
+					for (Entry e = chains.get(s); e != null; e = e.next)
+						drop(e.window, removed);
+					chains.set(s, null);
+				} finally {
+					lock.unlock();
+				}
+			}
+			release(removed);
+		}
+
+		/**
+		 * Copy a chain, leaving out the entry for one window.
+		 * <p>
+		 * Must be invoked while holding the lock for the chain.
+		 */
+		private Entry unlink(final Entry head, final WindowedFile wp,
+				final int id, final ArrayList<ByteWindow<?>> removed) {
+			Entry r = null;
+			for (Entry e = head; e != null; e = e.next) {
+				final ByteWindow<?> w = e.window;
+				if (w.provider == wp && w.id == id) {
+					drop(w, removed);
+					return append(r, e.next);
+				}
+				r = new Entry(r, e);
+			}
+			return head;
+		}
+
+		private void drop(final ByteWindow<?> w,
+				final ArrayList<ByteWindow<?>> removed) {
+			openWindowCount.decrementAndGet();
+			openByteCount.addAndGet(-w.size);
+			removed.add(w);
+		}
+
+		/** Reattach a reversed prefix copy in front of an existing tail. */
+		private static Entry append(Entry reversed, Entry tail) {
+			for (; reversed != null; reversed = reversed.next)
+				tail = new Entry(tail, reversed);
+			return tail;
+		}
+	}
+
+	private static class Entry {
+		final Entry next;
+
+		final ByteWindow<?> window;
+
+		/** CLOCK reference bit, set on every hit. */
+		volatile boolean referenced;
+
+		Entry(final Entry n, final ByteWindow<?> w) {
+			next = n;
+			window = w;
+		}
+
+		Entry(final Entry n, final Entry src) {
+			next = n;
+			window = src.window;
+			referenced = src.referenced;
+		}
+	}
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.lib;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Sequentially reads a {@link WindowedFile} through the window cache.
+ * <p>
+ * Only the window currently being read is referenced by the stream, so reading
+ * an arbitrarily long region requires only bounded memory.
+ */
+class WindowedFileInputStream extends InputStream {
+	private final WindowedFile file;
+
+	private final WindowCursor curs;
+
+	private final byte[] singleByte = new byte[1];
+
+	private long position;
+
+	/**
+	 * Create a stream positioned within a file.
+	 *
+	 * @param f
+	 *            the file to read from.
+	 * @param pos
+	 *            offset of the first byte the stream will return.
+	 */
+	WindowedFileInputStream(final WindowedFile f, final long pos) {
+		file = f;
+		curs = new WindowCursor();
+		position = pos;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int n = read(singleByte, 0, 1);
+		return n == 1 ? singleByte[0] & 0xff : -1;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len)
+			throws IOException {
+		if (len == 0)
+			return 0;
+		final int n = file.read(position, b, off, len, curs);
+		if (n <= 0)
+			return -1;
+		position += n;
+		return n;
+	}
+
+	@Override
+	public void close() {
+		curs.release();
+	}
+}
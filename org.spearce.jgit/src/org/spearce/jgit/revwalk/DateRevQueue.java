@@ -42,19 +42,53 @@
 import org.spearce.jgit.errors.IncorrectObjectTypeException;
 import org.spearce.jgit.errors.MissingObjectException;
 
-/** A queue of commits sorted by commit time order. */
+/**
+ * A queue of commits sorted by commit time order.
+ * <p>
+ * The queue is a binary heap stored in an array, so adding or removing a
+ * commit costs O(log n) even when many branches are open at once. Commits
+ * with equal sort keys are returned in the order they were added.
+ */
 public class DateRevQueue extends AbstractRevQueue {
-	private Entry head;
+	private static final int INITIAL_SIZE = 64;
+
+	/** Heap of queued commits; the next commit is at index 0. */
+	private RevCommit[] heap;
+
+	/** Order each commit in {@link #heap} was added in, to break ties. */
+	private long[] order;
+
+	/** Number of commits in {@link #heap}. */
+	private int size;
 
-	private Entry free;
+	/** Value of {@link #order} for the next commit added. */
+	private long nextOrder;
+
+	private final boolean byGeneration;
 
 	/** Create an empty date queue. */
 	public DateRevQueue() {
+		this(false);
+	}
+
+	/**
+	 * Create an empty queue.
+	 *
+	 * @param generationFirst
+	 *            true to sort commits by descending generation number before
+	 *            commit time. A commit is then never returned before one of
+	 *            its descendants, even if the commit times are skewed.
+	 */
+	DateRevQueue(final boolean generationFirst) {
 		super();
+		byGeneration = generationFirst;
+		heap = new RevCommit[INITIAL_SIZE];
+		order = new long[INITIAL_SIZE];
 	}
 
 	DateRevQueue(final Generator s) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		this(false);
 		for (;;) {
 			final RevCommit c = s.next();
 			if (c == null)
@@ -64,30 +98,71 @@ public DateRevQueue() {
 	}
 
 	public void add(final RevCommit c) {
-		Entry q = head;
-		final long when = c.commitTime;
-		final Entry n = newEntry(c);
-		if (q == null || when > q.commit.commitTime) {
-			n.next = q;
-			head = n;
-		} else {
-			Entry p = q.next;
-			while (p != null && p.commit.commitTime > when) {
-				q = p;
-				p = q.next;
-			}
-			n.next = q.next;
-			q.next = n;
+		insert(c, nextOrder++);
+	}
+
+	private void insert(final RevCommit c, final long o) {
+		if (size == heap.length) {
+			final int n = size * 2;
+			final RevCommit[] nh = new RevCommit[n];
+			final long[] no = new long[n];
+			System.arraycopy(heap, 0, nh, 0, size);
+			System.arraycopy(order, 0, no, 0, size);
+			heap = nh;
+			order = no;
+		}
+
+		int i = size++;
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (!before(c, o, heap[parent], order[parent]))
+				break;
+			heap[i] = heap[parent];
+			order[i] = order[parent];
+			i = parent;
 		}
+		heap[i] = c;
+		order[i] = o;
+	}
+
+	private boolean before(final RevCommit a, final long aOrder,
+			final RevCommit b, final long bOrder) {
+		if (byGeneration && a.generation != b.generation)
+			return a.generation > b.generation;
+		if (a.commitTime != b.commitTime)
+			return a.commitTime > b.commitTime;
+		return aOrder < bOrder;
 	}
 
 	public RevCommit next() {
-		final Entry q = head;
-		if (q == null)
+		if (size == 0)
 			return null;
-		head = q.next;
-		freeEntry(q);
-		return q.commit;
+		final RevCommit r = heap[0];
+		final int n = --size;
+		final RevCommit c = heap[n];
+		final long o = order[n];
+		heap[n] = null;
+
+		if (n > 0) {
+			int i = 0;
+			for (;;) {
+				int child = 2 * i + 1;
+				if (child >= n)
+					break;
+				if (child + 1 < n
+						&& before(heap[child + 1], order[child + 1],
+								heap[child], order[child]))
+					child++;
+				if (!before(heap[child], order[child], c, o))
+					break;
+				heap[i] = heap[child];
+				order[i] = order[child];
+				i = child;
+			}
+			heap[i] = c;
+			order[i] = o;
+		}
+		return r;
 	}
 
 	/**
@@ -96,25 +171,27 @@ public RevCommit next() {
 	 * @return the next available commit; null if there are no commits left.
 	 */
 	public RevCommit peek() {
-		return head != null ? head.commit : null;
+		return size > 0 ? heap[0] : null;
 	}
 
 	public void clear() {
-		head = null;
-		free = null;
+		heap = new RevCommit[INITIAL_SIZE];
+		order = new long[INITIAL_SIZE];
+		size = 0;
+		nextOrder = 0;
 	}
 
 	boolean everbodyHasFlag(final int f) {
-		for (Entry q = head; q != null; q = q.next) {
-			if ((q.commit.flags & f) == 0)
+		for (int i = 0; i < size; i++) {
+			if ((heap[i].flags & f) == 0)
 				return false;
 		}
 		return true;
 	}
 
 	boolean anybodyHasFlag(final int f) {
-		for (Entry q = head; q != null; q = q.next) {
-			if ((q.commit.flags & f) != 0)
+		for (int i = 0; i < size; i++) {
+			if ((heap[i].flags & f) != 0)
 				return true;
 		}
 		return false;
@@ -126,34 +203,17 @@ int outputType() {
 	}
 
 	public String toString() {
+		final DateRevQueue q = new DateRevQueue(byGeneration);
+		for (int i = 0; i < size; i++)
+			q.insert(heap[i], order[i]);
+
 		final StringBuffer s = new StringBuffer();
-		for (Entry q = head; q != null; q = q.next) {
-			s.append(q.commit.name());
+		for (RevCommit c = q.next(); c != null; c = q.next()) {
+			s.append(c.name());
 			s.append(' ');
-			s.append(q.commit.commitTime);
+			s.append(c.commitTime);
 			s.append('\n');
 		}
 		return s.toString();
 	}
-
-	private Entry newEntry(final RevCommit c) {
-		Entry r = free;
-		if (r == null)
-			r = new Entry();
-		else
-			free = r.next;
-		r.commit = c;
-		return r;
-	}
-
-	private void freeEntry(final Entry e) {
-		e.next = free;
-		free = e;
-	}
-
-	static class Entry {
-		Entry next;
-
-		RevCommit commit;
-	}
 }
@@ -54,6 +54,10 @@
  * flags will be automatically released on the next reset of the RevWalk, but
  * not until then, as they are assigned to commits throughout the history.
  * <p>
+ * Commits are visited in descending generation number order, so a commit is
+ * never examined before all of its descendants, even if their commit times
+ * are skewed. Commits not in the commit graph come first, by commit time.
+ * <p>
  * Several internal flags are reused here for a different purpose, but this
  * should not have any impact as this generator should be run alone, and without
  * any other generators wrapped around it.
@@ -75,7 +79,7 @@ class MergeBaseGenerator extends Generator {
 
 	MergeBaseGenerator(final RevWalk w) {
 		walker = w;
-		pending = new DateRevQueue();
+		pending = new DateRevQueue(true);
 	}
 
 	void init(final AbstractRevQueue p) {
@@ -323,17 +323,22 @@ public RevObject nextObject() throws MissingObjectException,
 	 */
 	public void checkConnectivity() throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
-		for (;;) {
-			final RevCommit c = next();
-			if (c == null)
-				break;
-		}
-		for (;;) {
-			final RevObject o = nextObject();
-			if (o == null)
-				break;
-			if (o instanceof RevBlob && !db.hasObject(o))
-				throw new MissingObjectException(o, Constants.TYPE_BLOB);
+		treeWalk.setVerifyCachedTrees(true);
+		try {
+			for (;;) {
+				final RevCommit c = next();
+				if (c == null)
+					break;
+			}
+			for (;;) {
+				final RevObject o = nextObject();
+				if (o == null)
+					break;
+				if (o instanceof RevBlob && !db.hasObject(o))
+					throw new MissingObjectException(o, Constants.TYPE_BLOB);
+			}
+		} finally {
+			treeWalk.setVerifyCachedTrees(false);
 		}
 	}
 
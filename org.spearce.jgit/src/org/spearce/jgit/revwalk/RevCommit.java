@@ -44,6 +44,7 @@
 import org.spearce.jgit.errors.MissingObjectException;
 import org.spearce.jgit.lib.AnyObjectId;
 import org.spearce.jgit.lib.Commit;
+import org.spearce.jgit.lib.CommitGraph;
 import org.spearce.jgit.lib.Constants;
 import org.spearce.jgit.lib.MutableObjectId;
 import org.spearce.jgit.lib.ObjectLoader;
@@ -64,6 +65,15 @@ public class RevCommit extends RevObject {
 
 	int inDegree;
 
+	/**
+	 * Generation number from the commit graph.
+	 * <p>
+	 * {@link CommitGraph#GENERATION_UNKNOWN} if the commit is not in the
+	 * graph; such commits sort as though they were newer than every commit
+	 * in the graph, which they are, as the graph is closed under parents.
+	 */
+	int generation = CommitGraph.GENERATION_UNKNOWN;
+
 	private byte[] buffer;
 
 	/**
@@ -79,13 +89,69 @@ protected RevCommit(final AnyObjectId id) {
 	@Override
 	void parse(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		final CommitGraph graph = walk.getCommitGraph();
+		final int pos = graph != null ? graph.findPosition(this) : -1;
+		if (pos >= 0) {
+			parseGraph(walk, graph, pos);
+			if (walk.isRetainBody())
+				parseBody(walk);
+		} else
+			parseCanonical(walk, loadCanonical(walk));
+	}
+
+	/**
+	 * Load the raw commit body, if it was not retained when parsing.
+	 *
+	 * @param walk
+	 *            revision walker owning this reference.
+	 * @throws MissingObjectException
+	 *             the commit does not exist.
+	 * @throws IncorrectObjectTypeException
+	 *             the object is not a commit.
+	 * @throws IOException
+	 *             a pack file or loose object could not be read.
+	 */
+	void parseBody(final RevWalk walk) throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		if (buffer == null)
+			buffer = loadCanonical(walk);
+	}
+
+	private byte[] loadCanonical(final RevWalk walk)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
 		final ObjectLoader ldr = walk.db.openObject(walk.curs, this);
 		if (ldr == null)
 			throw new MissingObjectException(this, TYPE_COMMIT);
 		final byte[] data = ldr.getCachedBytes();
 		if (Constants.OBJ_COMMIT != ldr.getType())
 			throw new IncorrectObjectTypeException(this, TYPE_COMMIT);
-		parseCanonical(walk, data);
+		return data;
+	}
+
+	void parseGraph(final RevWalk walk, final CommitGraph graph, final int pos) {
+		final MutableObjectId idBuffer = walk.idBuffer;
+		graph.getTreeId(pos, idBuffer);
+		tree = walk.lookupTree(idBuffer);
+
+		if (parents == null) {
+			final int nParents = graph.getParentCount(pos);
+			if (nParents == 0)
+				parents = NO_PARENTS;
+			else {
+				final RevCommit[] pList = new RevCommit[nParents];
+				for (int i = 0; i < nParents; i++) {
+					graph.getObjectId(graph.getParent(pos, i), idBuffer);
+					pList[i] = walk.lookupCommit(idBuffer);
+				}
+				parents = pList;
+			}
+		}
+
+		commitTime = graph.getCommitTime(pos);
+		final int g = graph.getGeneration(pos);
+		generation = g != 0 ? g : CommitGraph.GENERATION_UNKNOWN;
+		flags |= PARSED;
 	}
 
 	void parseCanonical(final RevWalk walk, final byte[] raw) {
@@ -132,7 +198,8 @@ else if (nParents == 1) {
 			commitTime = RawParseUtils.parseBase10(raw, ptr, null);
 		}
 
-		buffer = raw;
+		if (walk.isRetainBody())
+			buffer = raw;
 		flags |= PARSED;
 	}
 	
@@ -259,7 +326,10 @@ public final RevCommit[] getParents() {
 	 * 
 	 * @return the raw unparsed commit body. This is <b>NOT A COPY</b>.
 	 *         Altering the contents of this buffer may alter the walker's
-	 *         knowledge of this commit, and the results it produces.
+	 *         knowledge of this commit, and the results it produces. Null
+	 *         if the walker does not retain commit bodies and the body was
+	 *         not loaded by {@link RevWalk#parseBody(RevObject)}.
+	 * @see RevWalk#setRetainBody(boolean)
 	 */
 	public final byte[] getRawBuffer() {
 		return buffer;
@@ -48,6 +48,7 @@
 import org.spearce.jgit.errors.MissingObjectException;
 import org.spearce.jgit.errors.RevWalkException;
 import org.spearce.jgit.lib.AnyObjectId;
+import org.spearce.jgit.lib.CommitGraph;
 import org.spearce.jgit.lib.Constants;
 import org.spearce.jgit.lib.MutableObjectId;
 import org.spearce.jgit.lib.ObjectId;
@@ -89,7 +90,8 @@ public class RevWalk implements Iterable<RevCommit> {
 	 * For a RevCommit this indicates we have pulled apart the tree and parent
 	 * references from the raw bytes available in the repository and translated
 	 * those to our own local RevTree and RevCommit instances. The raw buffer is
-	 * also available for message and other header filtering.
+	 * also available for message and other header filtering, unless the walker
+	 * does not retain commit bodies.
 	 * <p>
 	 * For a RevTag this indicates we have pulled part the tag references to
 	 * find out who the tag refers to, and what that object's type is.
@@ -175,6 +177,12 @@ public class RevWalk implements Iterable<RevCommit> {
 
 	private TreeFilter treeFilter;
 
+	private boolean retainBody = true;
+
+	private CommitGraph commitGraph;
+
+	private boolean commitGraphLoaded;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 * 
@@ -203,6 +211,45 @@ public Repository getRepository() {
 		return db;
 	}
 
+	/**
+	 * @return true if the raw body of parsed commits is kept in memory.
+	 * @see #setRetainBody(boolean)
+	 */
+	public boolean isRetainBody() {
+		return retainBody;
+	}
+
+	/**
+	 * Set whether the raw body of parsed commits is kept in memory.
+	 * <p>
+	 * By default the raw body of every commit is loaded when the commit is
+	 * parsed, so messages and identities can be examined by RevFilters and by
+	 * the application. Walks which only need the shape of the history, such
+	 * as merge base computations, can disable this. Parents, tree and commit
+	 * time are then read from the repository's commit graph, if it has one,
+	 * without reading the commit objects at all.
+	 * <p>
+	 * Commits parsed while bodies are not retained have a null
+	 * {@link RevCommit#getRawBuffer()}; use {@link #parseBody(RevObject)} to
+	 * load a body when it is needed. RevFilters which examine the body must
+	 * not be used.
+	 *
+	 * @param retain
+	 *            true to load and keep commit bodies; false to skip them.
+	 */
+	public void setRetainBody(final boolean retain) {
+		retainBody = retain;
+	}
+
+	/** @return the repository's commit graph; null if there is none. */
+	CommitGraph getCommitGraph() {
+		if (!commitGraphLoaded) {
+			commitGraph = db.getCommitGraph();
+			commitGraphLoaded = true;
+		}
+		return commitGraph;
+	}
+
 	/**
 	 * Mark a commit to start graph traversal from.
 	 * <p>
@@ -321,6 +368,10 @@ public void markUninteresting(final RevCommit c)
 	 * commits, and then executes a walk until an answer can be obtained.
 	 * Currently allocated RevFlags that have been added to RevCommit instances
 	 * will be retained through the reset.
+	 * <p>
+	 * If <code>base</code> is in the repository's commit graph the walk only
+	 * visits commits whose generation number is larger than the generation of
+	 * <code>base</code>, as no other commit can reach it.
 	 * 
 	 * @param base
 	 *            commit the caller thinks is reachable from <code>tip</code>.
@@ -348,6 +399,11 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		try {
 			finishDelayedFreeFlags();
 			reset(~freeFlags & APP_FLAGS);
+			if ((base.flags & PARSED) == 0)
+				base.parse(this);
+			if (base.generation != CommitGraph.GENERATION_UNKNOWN)
+				return isReachable(base, tip);
+
 			filter = RevFilter.MERGE_BASE;
 			treeFilter = TreeFilter.ALL;
 			markStart(tip);
@@ -359,6 +415,44 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		}
 	}
 
+	private boolean isReachable(final RevCommit base, final RevCommit tip)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final int minGeneration = base.generation;
+		final LIFORevQueue q = new LIFORevQueue();
+		if ((tip.flags & PARSED) == 0)
+			tip.parse(this);
+		tip.flags |= SEEN;
+		roots.add(tip);
+		q.add(tip);
+		try {
+			for (;;) {
+				final RevCommit c = q.next();
+				if (c == null)
+					return false;
+				if (c == base)
+					return true;
+
+				// The parents of a commit have smaller generations than
+				// the commit itself, so a commit whose generation is not
+				// larger than base's cannot reach base.
+				//
+				if (c.generation <= minGeneration)
+					continue;
+				for (final RevCommit p : c.parents) {
+					if ((p.flags & SEEN) != 0)
+						continue;
+					if ((p.flags & PARSED) == 0)
+						p.parse(this);
+					p.flags |= SEEN;
+					q.add(p);
+				}
+			}
+		} finally {
+			curs.release();
+		}
+	}
+
 	/**
 	 * Pop the next most recent commit.
 	 * 
@@ -680,6 +774,14 @@ public RevObject parseAny(final AnyObjectId id)
 			throws MissingObjectException, IOException {
 		RevObject r = objects.get(id);
 		if (r == null) {
+			final CommitGraph graph = getCommitGraph();
+			if (graph != null && graph.findPosition(id) >= 0) {
+				final RevCommit c = createCommit(id);
+				c.parse(this);
+				objects.add(c);
+				return c;
+			}
+
 			final ObjectLoader ldr = db.openObject(id);
 			if (ldr == null)
 				throw new MissingObjectException(id.toObjectId(), "unknown");
@@ -714,6 +816,8 @@ public RevObject parseAny(final AnyObjectId id)
 			objects.add(r);
 		} else if ((r.flags & PARSED) == 0)
 			r.parse(this);
+		else if (retainBody && r instanceof RevCommit)
+			((RevCommit) r).parseBody(this);
 		return r;
 	}
 
@@ -732,9 +836,31 @@ public RevObject parseAny(final AnyObjectId id)
 	 */
 	public void parse(final RevObject obj) throws MissingObjectException,
 			IOException {
-		if ((obj.flags & PARSED) != 0)
-			return;
-		obj.parse(this);
+		if ((obj.flags & PARSED) == 0)
+			obj.parse(this);
+		else if (retainBody && obj instanceof RevCommit)
+			((RevCommit) obj).parseBody(this);
+	}
+
+	/**
+	 * Ensure the object's content, including a commit's body, is parsed.
+	 * <p>
+	 * Unlike {@link #parse(RevObject)} this also loads the raw body of a
+	 * commit when the walker does not retain commit bodies.
+	 *
+	 * @param obj
+	 *            the object the caller needs to be parsed.
+	 * @throws MissingObjectException
+	 *             the supplied does not exist.
+	 * @throws IOException
+	 *             a pack file or loose object could not be read.
+	 * @see #setRetainBody(boolean)
+	 */
+	public void parseBody(final RevObject obj) throws MissingObjectException,
+			IOException {
+		parse(obj);
+		if (obj instanceof RevCommit)
+			((RevCommit) obj).parseBody(this);
 	}
 
 	/**
@@ -928,6 +1054,8 @@ protected void reset(int retainFlags) {
 	 * All RevFlag instances are also invalidated, and must not be reused.
 	 */
 	public void dispose() {
+		commitGraph = null;
+		commitGraphLoaded = false;
 		freeFlags = APP_FLAGS;
 		delayFreeFlags = 0;
 		carryFlags = UNINTERESTING;
@@ -38,10 +38,13 @@
 package org.spearce.jgit.revwalk;
 
 import java.io.IOException;
+import java.util.Collection;
 
 import org.spearce.jgit.errors.IncorrectObjectTypeException;
 import org.spearce.jgit.errors.MissingObjectException;
 import org.spearce.jgit.errors.StopWalkException;
+import org.spearce.jgit.lib.ChangedPathKeys;
+import org.spearce.jgit.lib.CommitGraph;
 import org.spearce.jgit.lib.ObjectId;
 import org.spearce.jgit.revwalk.filter.RevFilter;
 import org.spearce.jgit.treewalk.TreeWalk;
@@ -58,6 +61,14 @@
  * the commit is colored with {@link RevWalk#REWRITE}, allowing a later pass
  * implemented by {@link RewriteGenerator} to remove those colored commits from
  * the DAG.
+ * <p>
+ * If the filter limits the walk to changes of known paths and the
+ * repository's commit graph has changed-path Bloom filters, a commit with one
+ * parent is first tested against its filter. A commit whose filter proves it
+ * did not change any of the paths is colored without reading its trees. Like
+ * C git, a path is only considered changed if it or something below it
+ * changed; a commit that only replaced a file named like one of the path's
+ * parent directories is treated as not changing the path.
  * 
  * @see RewriteGenerator
  */
@@ -70,10 +81,22 @@ class RewriteTreeFilter extends RevFilter {
 
 	private final TreeWalk pathFilter;
 
+	/**
+	 * Bloom filter keys of the filter's paths; null if it does not limit the
+	 * walk to changes of known paths.
+	 */
+	private final ChangedPathKeys pathKeys;
+
 	RewriteTreeFilter(final RevWalk walker, final TreeFilter t) {
 		pathFilter = new TreeWalk(walker.db);
 		pathFilter.setFilter(t);
 		pathFilter.setRecursive(t.shouldBeRecursive());
+
+		final Collection<String> paths = t.getPathsBestEffort();
+		if (paths != null && t.includesOnlyChanges())
+			pathKeys = new ChangedPathKeys(paths);
+		else
+			pathKeys = null;
 	}
 
 	@Override
@@ -89,6 +112,21 @@ public boolean include(final RevWalk walker, final RevCommit c)
 		//
 		final RevCommit[] pList = c.parents;
 		final int nParents = pList.length;
+		if (nParents == 1 && pathKeys != null) {
+			// Our only parent is the first parent our graph filter was
+			// created against; a merge is not reduced to one parent
+			// before it is tested here.
+			//
+			final CommitGraph graph = walker.getCommitGraph();
+			if (graph != null && graph.hasChangedPaths()) {
+				final int pos = graph.findPosition(c);
+				if (pos >= 0 && !graph.mayHaveChanged(pos, pathKeys)) {
+					c.flags |= REWRITE;
+					return false;
+				}
+			}
+		}
+
 		final TreeWalk tw = pathFilter;
 		final ObjectId[] trees = new ObjectId[nParents + 1];
 		for (int i = 0; i < nParents; i++) {
@@ -188,6 +188,7 @@ private String enableCapabilities() {
 	private void writePack(final Map<String, RemoteRefUpdate> refUpdates,
 			final ProgressMonitor monitor) throws IOException {
 		final PackWriter writer = new PackWriter(local, monitor);
+		writer.setDeltaCompress(true);
 		final ArrayList<ObjectId> remoteObjects = new ArrayList<ObjectId>(
 				getRefs().size());
 		final ArrayList<ObjectId> newObjects = new ArrayList<ObjectId>(
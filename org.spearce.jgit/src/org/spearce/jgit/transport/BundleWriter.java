@@ -90,6 +90,7 @@ public class BundleWriter {
 	 */
 	public BundleWriter(final Repository repo, final ProgressMonitor monitor) {
 		packWriter = new PackWriter(repo, monitor);
+		packWriter.setDeltaCompress(true);
 		include = new TreeMap<String, ObjectId>();
 		assume = new HashSet<RevCommit>();
 	}
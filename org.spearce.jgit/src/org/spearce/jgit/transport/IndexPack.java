@@ -43,12 +43,20 @@
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
@@ -63,9 +71,11 @@
 import org.spearce.jgit.lib.MutableObjectId;
 import org.spearce.jgit.lib.ObjectChecker;
 import org.spearce.jgit.lib.ObjectId;
-import org.spearce.jgit.lib.ObjectIdMap;
 import org.spearce.jgit.lib.ObjectLoader;
+import org.spearce.jgit.lib.PackFile;
+import org.spearce.jgit.lib.PackConfig;
 import org.spearce.jgit.lib.PackIndexWriter;
+import org.spearce.jgit.lib.PackReverseIndexWriter;
 import org.spearce.jgit.lib.ProgressMonitor;
 import org.spearce.jgit.lib.Repository;
 import org.spearce.jgit.util.NB;
@@ -117,6 +127,8 @@ public static IndexPack create(final Repository db, final InputStream is)
 		base = new File(objdir, n.substring(0, n.length() - suffix.length()));
 		final IndexPack ip = new IndexPack(db, is, base);
 		ip.setIndexVersion(db.getConfig().getCore().getPackIndexVersion());
+		ip.setWriteReverseIndex(db.getConfig().getPack().isWriteReverseIndex());
+		ip.setThreads(db.getConfig().getPack().getThreads());
 		return ip;
 	}
 
@@ -144,10 +156,16 @@ public static IndexPack create(final Repository db, final InputStream is)
 
 	private int outputVersion;
 
+	private boolean writeReverseIndex;
+
+	private int threads = 1;
+
 	private final File dstPack;
 
 	private final File dstIdx;
 
+	private final File dstRev;
+
 	private long objectCount;
 
 	private PackedObjectInfo[] entries;
@@ -158,9 +176,7 @@ public static IndexPack create(final Repository db, final InputStream is)
 
 	private final CRC32 crc = new CRC32();
 
-	private ObjectIdMap<ArrayList<UnresolvedDelta>> baseById;
-
-	private HashMap<Long, ArrayList<UnresolvedDelta>> baseByPos;
+	private UnresolvedDeltaTable deltas;
 
 	private byte[] objectData;
 
@@ -200,11 +216,13 @@ public IndexPack(final Repository db, final InputStream src,
 			final String nam = dstBase.getName();
 			dstPack = new File(dir, nam + ".pack");
 			dstIdx = new File(dir, nam + ".idx");
+			dstRev = new File(dir, nam + ".rev");
 			packOut = new RandomAccessFile(dstPack, "rw");
 			packOut.setLength(0);
 		} else {
 			dstPack = null;
 			dstIdx = null;
+			dstRev = null;
 		}
 	}
 
@@ -220,6 +238,32 @@ public void setIndexVersion(final int version) {
 		outputVersion = version;
 	}
 
+	/**
+	 * Set the number of threads used to resolve delta compressed objects.
+	 * <p>
+	 * Delta chains rooted at different base objects are independent of each
+	 * other, and are resolved in parallel when more than one thread is used.
+	 *
+	 * @param threads
+	 *            number of threads to use. The special value 0 uses one
+	 *            thread per available processor.
+	 * @see PackConfig#getThreads()
+	 */
+	public void setThreads(final int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * Configure this index pack instance to also write a reverse index.
+	 *
+	 * @param write
+	 *            true to write a <code>.rev</code> file next to the index.
+	 * @see PackReverseIndexWriter
+	 */
+	public void setWriteReverseIndex(final boolean write) {
+		writeReverseIndex = write;
+	}
+
 	/**
 	 * Configure this index pack instance to make a thin pack complete.
 	 * <p>
@@ -283,8 +327,7 @@ public void index(final ProgressMonitor progress) throws IOException {
 				readPackHeader();
 
 				entries = new PackedObjectInfo[(int) objectCount];
-				baseById = new ObjectIdMap<ArrayList<UnresolvedDelta>>();
-				baseByPos = new HashMap<Long, ArrayList<UnresolvedDelta>>();
+				deltas = new UnresolvedDeltaTable(objectCount);
 
 				progress.beginTask(PROGRESS_DOWNLOAD, (int) objectCount);
 				for (int done = 0; done < objectCount; done++) {
@@ -313,11 +356,12 @@ public void index(final ProgressMonitor progress) throws IOException {
 					packOut.getChannel().force(true);
 
 				packDigest = null;
-				baseById = null;
-				baseByPos = null;
+				deltas = null;
 
 				if (dstIdx != null)
 					writeIdx();
+				if (dstRev != null && writeReverseIndex)
+					writeRev();
 
 			} finally {
 				final Inflater inf = inflater;
@@ -333,11 +377,15 @@ public void index(final ProgressMonitor progress) throws IOException {
 				dstPack.setReadOnly();
 			if (dstIdx != null)
 				dstIdx.setReadOnly();
+			if (dstRev != null && writeReverseIndex)
+				dstRev.setReadOnly();
 		} catch (IOException err) {
 			if (dstPack != null)
 				dstPack.delete();
 			if (dstIdx != null)
 				dstIdx.delete();
+			if (dstRev != null)
+				dstRev.delete();
 			throw err;
 		}
 	}
@@ -345,110 +393,75 @@ public void index(final ProgressMonitor progress) throws IOException {
 	private void resolveDeltas(final ProgressMonitor progress)
 			throws IOException {
 		progress.beginTask(PROGRESS_RESOLVE_DELTA, deltaCount);
-		final int last = entryCount;
-		for (int i = 0; i < last; i++) {
-			final int before = entryCount;
-			resolveDeltas(entries[i]);
-			progress.update(entryCount - before);
-			if (progress.isCancelled())
-				throw new IOException("Download cancelled during indexing");
+		deltas.sort();
+		final List<PackedObjectInfo> roots = new ArrayList<PackedObjectInfo>();
+		for (int i = 0; i < entryCount; i++) {
+			final PackedObjectInfo oe = entries[i];
+			if (deltas.hasChildren(oe.getOffset(), oe))
+				roots.add(oe);
 		}
-		progress.endTask();
-	}
 
-	private void resolveDeltas(final PackedObjectInfo oe) throws IOException {
-		final int oldCRC = oe.getCRC();
-		if (baseById.containsKey(oe)
-				|| baseByPos.containsKey(new Long(oe.getOffset())))
-			resolveDeltas(oe.getOffset(), oldCRC, Constants.OBJ_BAD, null, oe);
-	}
-
-	private void resolveDeltas(final long pos, final int oldCRC, int type,
-			byte[] data, PackedObjectInfo oe) throws IOException {
-		crc.reset();
-		position(pos);
-		int c = readFromFile();
-		final int typeCode = (c >> 4) & 7;
-		long sz = c & 15;
-		int shift = 4;
-		while ((c & 0x80) != 0) {
-			c = readFromFile();
-			sz += (c & 0x7f) << shift;
-			shift += 7;
-		}
+		int threadCnt = threads;
+		if (threadCnt == 0)
+			threadCnt = Runtime.getRuntime().availableProcessors();
+		threadCnt = Math.min(threadCnt, roots.size());
 
-		switch (typeCode) {
-		case Constants.OBJ_COMMIT:
-		case Constants.OBJ_TREE:
-		case Constants.OBJ_BLOB:
-		case Constants.OBJ_TAG:
-			type = typeCode;
-			data = inflateFromFile((int) sz);
-			break;
-		case Constants.OBJ_OFS_DELTA: {
-			c = readFromFile() & 0xff;
-			while ((c & 128) != 0)
-				c = readFromFile() & 0xff;
-			data = BinaryDelta.apply(data, inflateFromFile((int) sz));
-			break;
-		}
-		case Constants.OBJ_REF_DELTA: {
-			crc.update(buf, fillFromFile(20), 20);
-			use(20);
-			data = BinaryDelta.apply(data, inflateFromFile((int) sz));
-			break;
-		}
-		default:
-			throw new IOException("Unknown object type " + typeCode + ".");
+		final AtomicInteger next = new AtomicInteger();
+		if (threadCnt <= 1) {
+			new DeltaResolver(progress).resolve(roots, next);
+			progress.endTask();
+			return;
 		}
 
-		final int crc32 = (int) crc.getValue();
-		if (oldCRC != crc32)
-			throw new IOException("Corruption detected re-reading at " + pos);
-		if (oe == null) {
-			objectDigest.update(Constants.encodedTypeString(type));
-			objectDigest.update((byte) ' ');
-			objectDigest.update(Constants.encodeASCII(data.length));
-			objectDigest.update((byte) 0);
-			objectDigest.update(data);
-			tempObjectId.fromRaw(objectDigest.digest(), 0);
-
-			verifySafeObject(tempObjectId, type, data);
-			oe = new PackedObjectInfo(pos, crc32, tempObjectId);
-			entries[entryCount++] = oe;
-		}
-
-		resolveChildDeltas(pos, type, data, oe);
-	}
-
-	private void resolveChildDeltas(final long pos, int type, byte[] data,
-			PackedObjectInfo oe) throws IOException {
-		final ArrayList<UnresolvedDelta> a = baseById.remove(oe);
-		final ArrayList<UnresolvedDelta> b = baseByPos.remove(new Long(pos));
-		int ai = 0, bi = 0;
-		if (a != null && b != null) {
-			while (ai < a.size() && bi < b.size()) {
-				final UnresolvedDelta ad = a.get(ai);
-				final UnresolvedDelta bd = b.get(bi);
-				if (ad.position < bd.position) {
-					resolveDeltas(ad.position, ad.crc, type, data, null);
-					ai++;
-				} else {
-					resolveDeltas(bd.position, bd.crc, type, data, null);
-					bi++;
-				}
+		final ExecutorService pool = Executors.newFixedThreadPool(threadCnt);
+		try {
+			final List<Future<Object>> results = new ArrayList<Future<Object>>();
+			for (int i = 0; i < threadCnt; i++) {
+				results.add(pool.submit(new Callable<Object>() {
+					public Object call() throws IOException {
+						new DeltaResolver(progress).resolve(roots, next);
+						return null;
+					}
+				}));
 			}
+			for (final Future<Object> f : results)
+				f.get();
+		} catch (InterruptedException err) {
+			final InterruptedIOException e;
+			e = new InterruptedIOException("Interrupted resolving deltas");
+			e.initCause(err);
+			throw e;
+		} catch (ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			final IOException e = new IOException(cause.getMessage());
+			e.initCause(cause);
+			throw e;
+		} finally {
+			pool.shutdownNow();
 		}
-		if (a != null)
-			while (ai < a.size()) {
-				final UnresolvedDelta ad = a.get(ai++);
-				resolveDeltas(ad.position, ad.crc, type, data, null);
-			}
-		if (b != null)
-			while (bi < b.size()) {
-				final UnresolvedDelta bd = b.get(bi++);
-				resolveDeltas(bd.position, bd.crc, type, data, null);
-			}
+		progress.endTask();
+	}
+
+	private synchronized void addResolved(final PackedObjectInfo oe) {
+		entries[entryCount++] = oe;
+	}
+
+	private synchronized int[] takeChildren(final long pos,
+			final AnyObjectId id) {
+		return deltas.takeChildren(pos, id);
+	}
+
+	private synchronized void resolveProgress(final ProgressMonitor progress,
+			final int completed) throws IOException {
+		progress.update(completed);
+		if (progress.isCancelled())
+			throw new IOException("Download cancelled during indexing");
 	}
 
 	private void fixThinPack(final ProgressMonitor progress) throws IOException {
@@ -457,30 +470,35 @@ private void fixThinPack(final ProgressMonitor progress) throws IOException {
 		packDigest.reset();
 		originalEOF = packOut.length() - 20;
 		final Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, false);
+		final DeltaResolver resolver = new DeltaResolver(progress);
 		long end = originalEOF;
-		for (final ObjectId baseId : new ArrayList<ObjectId>(baseById.keySet())) {
-			final ObjectLoader ldr = repo.openObject(baseId);
-			if (ldr == null)
-				continue;
-			final byte[] data = ldr.getBytes();
-			final int typeCode = ldr.getType();
-			final PackedObjectInfo oe;
-
-			crc.reset();
-			packOut.seek(end);
-			writeWhole(def, typeCode, data);
-			oe = new PackedObjectInfo(end, (int) crc.getValue(), baseId);
-			entries[entryCount++] = oe;
-			end = packOut.getFilePointer();
-
-			resolveChildDeltas(oe.getOffset(), typeCode, data, oe);
-			if (progress.isCancelled())
-				throw new IOException("Download cancelled during indexing");
+		try {
+			for (final ObjectId baseId : deltas.getMissingBases()) {
+				final ObjectLoader ldr = repo.openObject(baseId);
+				if (ldr == null)
+					continue;
+				final byte[] data = ldr.getBytes();
+				final int typeCode = ldr.getType();
+				final PackedObjectInfo oe;
+
+				crc.reset();
+				packOut.seek(end);
+				writeWhole(def, typeCode, data);
+				oe = new PackedObjectInfo(end, (int) crc.getValue(), baseId);
+				entries[entryCount++] = oe;
+				end = packOut.getFilePointer();
+
+				resolver.resolveChildDeltas(oe.getOffset(), typeCode, data, oe);
+				if (progress.isCancelled())
+					throw new IOException("Download cancelled during indexing");
+			}
+		} finally {
+			resolver.release();
 		}
 		def.end();
 
-		if (!baseById.isEmpty()) {
-			final ObjectId need = baseById.keySet().iterator().next();
+		if (deltas.getMissingBaseCount() > 0) {
+			final ObjectId need = deltas.getMissingBases().get(0);
 			throw new MissingObjectException(need, "delta base");
 		}
 
@@ -565,7 +583,8 @@ private void fixHeaderFooter(final byte[] origcsum, final byte[] tailcsum)
 	private void growEntries() {
 		final PackedObjectInfo[] ne;
 
-		ne = new PackedObjectInfo[(int) objectCount + baseById.size()];
+		ne = new PackedObjectInfo[(int) objectCount
+				+ deltas.getMissingBaseCount()];
 		System.arraycopy(entries, 0, ne, 0, entryCount);
 		entries = ne;
 	}
@@ -590,6 +609,21 @@ private void writeIdx() throws IOException {
 		}
 	}
 
+	private void writeRev() throws IOException {
+		// writeIdx() has already sorted the entries by object name.
+		List<PackedObjectInfo> list = Arrays.asList(entries);
+		if (entryCount < entries.length)
+			list = list.subList(0, entryCount);
+
+		final FileOutputStream os = new FileOutputStream(dstRev);
+		try {
+			new PackReverseIndexWriter(os).write(list, packcsum);
+			os.getChannel().force(true);
+		} finally {
+			os.close();
+		}
+	}
+
 	private void readPackHeader() throws IOException {
 		final int hdrln = Constants.PACK_SIGNATURE.length + 4 + 4;
 		final int p = fillFromInput(hdrln);
@@ -655,14 +689,8 @@ private void indexOneObject() throws IOException {
 				ofs <<= 7;
 				ofs += (c & 127);
 			}
-			final Long base = new Long(pos - ofs);
-			ArrayList<UnresolvedDelta> r = baseByPos.get(base);
-			if (r == null) {
-				r = new ArrayList<UnresolvedDelta>(8);
-				baseByPos.put(base, r);
-			}
 			skipInflateFromInput(sz);
-			r.add(new UnresolvedDelta(pos, (int) crc.getValue()));
+			deltas.addOfsDelta(pos, (int) crc.getValue(), pos - ofs);
 			deltaCount++;
 			break;
 		}
@@ -671,13 +699,8 @@ private void indexOneObject() throws IOException {
 			crc.update(buf, c, 20);
 			final ObjectId base = ObjectId.fromRaw(buf, c);
 			use(20);
-			ArrayList<UnresolvedDelta> r = baseById.get(base);
-			if (r == null) {
-				r = new ArrayList<UnresolvedDelta>(8);
-				baseById.put(base, r);
-			}
 			skipInflateFromInput(sz);
-			r.add(new UnresolvedDelta(pos, (int) crc.getValue()));
+			deltas.addRefDelta(pos, (int) crc.getValue(), base);
 			deltaCount++;
 			break;
 		}
@@ -705,7 +728,9 @@ private void verifySafeObject(final AnyObjectId id, final int type,
 			final byte[] data) throws IOException {
 		if (objCheck != null) {
 			try {
-				objCheck.check(type, data);
+				synchronized (objCheck) {
+					objCheck.check(type, data);
+				}
 			} catch (CorruptObjectException e) {
 				throw new IOException("Invalid "
 						+ Constants.encodedTypeString(type) + " " + id.name()
@@ -727,13 +752,6 @@ private long position() {
 		return bBase + bOffset;
 	}
 
-	private void position(final long pos) throws IOException {
-		packOut.seek(pos);
-		bBase = pos;
-		bOffset = 0;
-		bAvail = 0;
-	}
-
 	// Consume exactly one byte from the buffer and return it.
 	private int readFromInput() throws IOException {
 		if (bAvail == 0)
@@ -744,16 +762,6 @@ private int readFromInput() throws IOException {
 		return b;
 	}
 
-	// Consume exactly one byte from the buffer and return it.
-	private int readFromFile() throws IOException {
-		if (bAvail == 0)
-			fillFromFile(1);
-		bAvail--;
-		final int b = buf[bOffset++] & 0xff;
-		crc.update(b);
-		return b;
-	}
-
 	// Consume cnt bytes from the buffer.
 	private void use(final int cnt) {
 		bOffset += cnt;
@@ -880,49 +888,226 @@ private byte[] inflateFromInput(final long sz) throws IOException {
 		}
 	}
 
-	private byte[] inflateFromFile(final int sz) throws IOException {
-		final Inflater inf = inflater;
-		try {
-			final byte[] dst = new byte[sz];
-			int n = 0;
-			int p = -1;
-			while (!inf.finished()) {
-				if (inf.needsInput()) {
-					if (p >= 0) {
-						crc.update(buf, p, bAvail);
-						use(bAvail);
+	private static CorruptObjectException corrupt(final DataFormatException dfe) {
+		return new CorruptObjectException("Packfile corruption detected: "
+				+ dfe.getMessage());
+	}
+
+	/**
+	 * Resolves the deltas below base objects by re-reading the pack.
+	 * <p>
+	 * Each resolver has its own read buffer, inflater, digest and CRC, and
+	 * reads the pack with positional reads, so several resolvers can work on
+	 * the delta trees of different base objects at once. The trees are
+	 * independent: a delta has exactly one base, so every delta is reached
+	 * through one tree only.
+	 */
+	private class DeltaResolver {
+		private final ProgressMonitor progress;
+
+		private final FileChannel file;
+
+		private final byte[] buf = new byte[BUFFER_SIZE];
+
+		/** Offset within the pack of the next byte read into {@link #buf}. */
+		private long filePos;
+
+		private int bOffset;
+
+		private int bAvail;
+
+		private final CRC32 crc = new CRC32();
+
+		private final MessageDigest objectDigest = Constants
+				.newMessageDigest();
+
+		private final MutableObjectId tempObjectId = new MutableObjectId();
+
+		private Inflater inflater = InflaterCache.get();
+
+		private int resolved;
+
+		DeltaResolver(final ProgressMonitor pm) {
+			progress = pm;
+			file = packOut.getChannel();
+		}
+
+		/**
+		 * Resolve the trees of base objects until none are left.
+		 *
+		 * @param roots
+		 *            base objects with deltas, shared by all resolvers.
+		 * @param next
+		 *            index of the next base object to claim from roots.
+		 * @throws IOException
+		 *             the pack could not be read, or is corrupt.
+		 */
+		void resolve(final List<PackedObjectInfo> roots,
+				final AtomicInteger next) throws IOException {
+			try {
+				int i;
+				while ((i = next.getAndIncrement()) < roots.size()) {
+					final PackedObjectInfo oe = roots.get(i);
+					resolveDeltas(oe.getOffset(), oe.getCRC(),
+							Constants.OBJ_BAD, null, oe);
+					if (resolved > 0) {
+						resolveProgress(progress, resolved);
+						resolved = 0;
 					}
-					p = fillFromFile(1);
-					inf.setInput(buf, p, bAvail);
 				}
-				n += inf.inflate(dst, n, sz - n);
+			} finally {
+				release();
 			}
-			n = bAvail - inf.getRemaining();
-			if (n > 0) {
-				crc.update(buf, p, n);
-				use(n);
+		}
+
+		void resolveChildDeltas(final long pos, int type, byte[] data,
+				PackedObjectInfo oe) throws IOException {
+			final int[] children = takeChildren(pos, oe);
+			if (children == null)
+				return;
+			for (final int d : children)
+				resolveDeltas(deltas.getPosition(d), deltas.getCRC(d), type,
+						data, null);
+		}
+
+		void release() {
+			final Inflater inf = inflater;
+			inflater = null;
+			if (inf != null)
+				InflaterCache.release(inf);
+		}
+
+		private void resolveDeltas(final long pos, final int oldCRC, int type,
+				byte[] data, PackedObjectInfo oe) throws IOException {
+			crc.reset();
+			position(pos);
+			int c = readFromFile();
+			final int typeCode = (c >> 4) & 7;
+			long sz = c & 15;
+			int shift = 4;
+			while ((c & 0x80) != 0) {
+				c = readFromFile();
+				sz += (c & 0x7f) << shift;
+				shift += 7;
 			}
-			return dst;
-		} catch (DataFormatException dfe) {
-			throw corrupt(dfe);
-		} finally {
-			inf.reset();
+
+			switch (typeCode) {
+			case Constants.OBJ_COMMIT:
+			case Constants.OBJ_TREE:
+			case Constants.OBJ_BLOB:
+			case Constants.OBJ_TAG:
+				type = typeCode;
+				data = inflateFromFile((int) sz);
+				break;
+			case Constants.OBJ_OFS_DELTA: {
+				c = readFromFile() & 0xff;
+				while ((c & 128) != 0)
+					c = readFromFile() & 0xff;
+				data = BinaryDelta.apply(data, inflateFromFile((int) sz));
+				break;
+			}
+			case Constants.OBJ_REF_DELTA: {
+				crc.update(buf, fillFromFile(20), 20);
+				use(20);
+				data = BinaryDelta.apply(data, inflateFromFile((int) sz));
+				break;
+			}
+			default:
+				throw new IOException("Unknown object type " + typeCode + ".");
+			}
+
+			final int crc32 = (int) crc.getValue();
+			if (oldCRC != crc32)
+				throw new IOException("Corruption detected re-reading at "
+						+ pos);
+			if (oe == null) {
+				objectDigest.update(Constants.encodedTypeString(type));
+				objectDigest.update((byte) ' ');
+				objectDigest.update(Constants.encodeASCII(data.length));
+				objectDigest.update((byte) 0);
+				objectDigest.update(data);
+				tempObjectId.fromRaw(objectDigest.digest(), 0);
+
+				verifySafeObject(tempObjectId, type, data);
+				oe = new PackedObjectInfo(pos, crc32, tempObjectId);
+				addResolved(oe);
+				resolved++;
+			}
+
+			resolveChildDeltas(pos, type, data, oe);
 		}
-	}
 
-	private static CorruptObjectException corrupt(final DataFormatException dfe) {
-		return new CorruptObjectException("Packfile corruption detected: "
-				+ dfe.getMessage());
-	}
+		private void position(final long pos) {
+			filePos = pos;
+			bOffset = 0;
+			bAvail = 0;
+		}
 
-	private static class UnresolvedDelta {
-		final long position;
+		// Consume exactly one byte from the buffer and return it.
+		private int readFromFile() throws IOException {
+			if (bAvail == 0)
+				fillFromFile(1);
+			bAvail--;
+			final int b = buf[bOffset++] & 0xff;
+			crc.update(b);
+			return b;
+		}
 
-		final int crc;
+		// Consume cnt bytes from the buffer.
+		private void use(final int cnt) {
+			bOffset += cnt;
+			bAvail -= cnt;
+		}
 
-		UnresolvedDelta(final long headerOffset, final int crc32) {
-			position = headerOffset;
-			crc = crc32;
+		// Ensure at least need bytes are available in in {@link #buf}.
+		private int fillFromFile(final int need) throws IOException {
+			if (bAvail < need) {
+				int next = bOffset + bAvail;
+				int free = buf.length - next;
+				if (free + bAvail < need) {
+					if (bAvail > 0)
+						System.arraycopy(buf, bOffset, buf, 0, bAvail);
+					bOffset = 0;
+					next = bAvail;
+					free = buf.length - next;
+				}
+				next = file.read(ByteBuffer.wrap(buf, next, free), filePos);
+				if (next <= 0)
+					throw new EOFException("Packfile is truncated.");
+				filePos += next;
+				bAvail += next;
+			}
+			return bOffset;
+		}
+
+		private byte[] inflateFromFile(final int sz) throws IOException {
+			final Inflater inf = inflater;
+			try {
+				final byte[] dst = new byte[sz];
+				int n = 0;
+				int p = -1;
+				while (!inf.finished()) {
+					if (inf.needsInput()) {
+						if (p >= 0) {
+							crc.update(buf, p, bAvail);
+							use(bAvail);
+						}
+						p = fillFromFile(1);
+						inf.setInput(buf, p, bAvail);
+					}
+					n += inf.inflate(dst, n, sz - n);
+				}
+				n = bAvail - inf.getRemaining();
+				if (n > 0) {
+					crc.update(buf, p, n);
+					use(n);
+				}
+				return dst;
+			} catch (DataFormatException dfe) {
+				throw corrupt(dfe);
+			} finally {
+				inf.reset();
+			}
 		}
 	}
 
@@ -951,6 +1136,7 @@ public void renameAndOpenPack() throws IOException {
 		final File packDir = new File(repo.getObjectsDirectory(), "pack");
 		final File finalPack = new File(packDir, "pack-" + name + ".pack");
 		final File finalIdx = new File(packDir, "pack-" + name + ".idx");
+		final File finalRev = PackFile.reverseIndexFile(finalIdx);
 
 		if (finalPack.exists()) {
 			// If the pack is already present we should never replace it.
@@ -971,11 +1157,20 @@ public void renameAndOpenPack() throws IOException {
 			throw new IOException("Cannot move index to " + finalIdx);
 		}
 
+		// The reverse index is only an optimization. If it can't be moved
+		// into place the pack is still usable without it.
+		//
+		if (dstRev.exists() && !dstRev.renameTo(finalRev)) {
+			if (!dstRev.delete())
+				dstRev.deleteOnExit();
+		}
+
 		try {
 			repo.openPack(finalPack, finalIdx);
 		} catch (IOException err) {
 			finalPack.delete();
 			finalIdx.delete();
+			finalRev.delete();
 			throw err;
 		}
 	}
@@ -985,5 +1180,7 @@ private void cleanupTemporaryFiles() {
 			dstIdx.deleteOnExit();
 		if (!dstPack.delete())
 			dstPack.deleteOnExit();
+		if (dstRev.exists() && !dstRev.delete())
+			dstRev.deleteOnExit();
 	}
 }
@@ -0,0 +1,666 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.spearce.jgit.errors.MissingObjectException;
+import org.spearce.jgit.errors.PackProtocolException;
+import org.spearce.jgit.lib.Constants;
+import org.spearce.jgit.lib.NullProgressMonitor;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.Ref;
+import org.spearce.jgit.lib.RefUpdate;
+import org.spearce.jgit.lib.Repository;
+import org.spearce.jgit.lib.TransferConfig;
+import org.spearce.jgit.revwalk.ObjectWalk;
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevObject;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.transport.ReceiveCommand.Result;
+import org.spearce.jgit.transport.ReceiveCommand.Type;
+
+/**
+ * Implements the server side of a push connection, receiving objects.
+ * <p>
+ * This is a pure Java implementation of the 'git-receive-pack' service. It
+ * advertises the refs of the repository, reads the client's update commands,
+ * and streams the pack that follows directly through {@link IndexPack} into
+ * the repository's pack directory. Refs are then changed through
+ * {@link RefUpdate}, under the ref's lock file, only if the ref still holds
+ * the value the client based its update on.
+ * <p>
+ * An instance serves exactly one client and must not be reused.
+ */
+public class ReceivePack {
+	private static final String[] CAPABILITIES = {
+			BasePackPushConnection.CAPABILITY_REPORT_STATUS,
+			BasePackPushConnection.CAPABILITY_DELETE_REFS,
+			BasePackFetchConnection.OPTION_OFS_DELTA };
+
+	/** Database we write the stored objects into. */
+	private final Repository db;
+
+	/** Revision traversal support over {@link #db}. */
+	private final RevWalk walk;
+
+	/** Should an incoming transfer validate objects? */
+	private boolean checkReceivedObjects;
+
+	/** Should an incoming transfer permit create requests? */
+	private boolean allowCreates;
+
+	/** Should an incoming transfer permit delete requests? */
+	private boolean allowDeletes;
+
+	/** Should an incoming transfer permit non-fast-forward requests? */
+	private boolean allowNonFastForwards;
+
+	private InputStream rawIn;
+
+	private OutputStream rawOut;
+
+	private PacketLineIn pckIn;
+
+	private PacketLineOut pckOut;
+
+	/** The refs we advertised as existing at the start of the connection. */
+	private Map<String, Ref> refs;
+
+	/** Capabilities requested by the client. */
+	private final Set<String> enabledCapabilities = new HashSet<String>();
+
+	/** Commands to execute, as received by the client. */
+	private final List<ReceiveCommand> commands = new ArrayList<ReceiveCommand>();
+
+	/** An exception caught while unpacking and fsck'ing the objects. */
+	private Throwable unpackError;
+
+	/** if {@link #enabledCapabilities} has "report-status" */
+	private boolean reportStatus;
+
+	/**
+	 * Create a new pack receive for an open repository.
+	 *
+	 * @param into
+	 *            the destination repository.
+	 */
+	public ReceivePack(final Repository into) {
+		db = into;
+		walk = new RevWalk(db);
+
+		final TransferConfig cfg = db.getConfig().getTransfer();
+		checkReceivedObjects = true;
+		allowCreates = true;
+		allowDeletes = !cfg.isDenyDeletes();
+		allowNonFastForwards = !cfg.isDenyNonFastForwards();
+	}
+
+	/** @return the repository this receive completes into. */
+	public final Repository getRepository() {
+		return db;
+	}
+
+	/** @return all refs which were advertised to the client. */
+	public final Map<String, Ref> getAdvertisedRefs() {
+		return refs;
+	}
+
+	/**
+	 * @return true if this instance will verify received objects are
+	 *         formatted correctly, and that the new ref values are fully
+	 *         connected. Validating objects requires more CPU time on this
+	 *         side of the connection.
+	 */
+	public boolean isCheckReceivedObjects() {
+		return checkReceivedObjects;
+	}
+
+	/**
+	 * @param check
+	 *            true to enable checking received objects; false to assume
+	 *            all received objects are valid.
+	 */
+	public void setCheckReceivedObjects(final boolean check) {
+		checkReceivedObjects = check;
+	}
+
+	/** @return true if the client can request refs to be created. */
+	public boolean isAllowCreates() {
+		return allowCreates;
+	}
+
+	/**
+	 * @param canCreate
+	 *            true to permit create ref commands to be processed.
+	 */
+	public void setAllowCreates(final boolean canCreate) {
+		allowCreates = canCreate;
+	}
+
+	/** @return true if the client can request refs to be deleted. */
+	public boolean isAllowDeletes() {
+		return allowDeletes;
+	}
+
+	/**
+	 * @param canDelete
+	 *            true to permit delete ref commands to be processed.
+	 */
+	public void setAllowDeletes(final boolean canDelete) {
+		allowDeletes = canDelete;
+	}
+
+	/**
+	 * @return true if the client can request non-fast-forward updates of a
+	 *         ref, possibly making objects unreachable.
+	 */
+	public boolean isAllowNonFastForwards() {
+		return allowNonFastForwards;
+	}
+
+	/**
+	 * @param canRewind
+	 *            true to permit the client to ask for non-fast-forward updates
+	 *            of an existing ref.
+	 */
+	public void setAllowNonFastForwards(final boolean canRewind) {
+		allowNonFastForwards = canRewind;
+	}
+
+	/** @return all of the command received by the current request. */
+	public List<ReceiveCommand> getAllCommands() {
+		return Collections.unmodifiableList(commands);
+	}
+
+	/**
+	 * Execute the receive task on the socket.
+	 *
+	 * @param input
+	 *            raw input to read client commands and pack data from. Caller
+	 *            must ensure the input is buffered, otherwise read performance
+	 *            may suffer.
+	 * @param output
+	 *            response back to the Git network client. Caller must ensure
+	 *            the output is buffered, otherwise write performance may
+	 *            suffer.
+	 * @param messages
+	 *            secondary "notice" channel to send additional messages out
+	 *            through. When run over SSH this should be tied back to the
+	 *            standard error channel of the command execution. For most
+	 *            other network connections this should be null.
+	 * @throws IOException
+	 *             the client sent an invalid request, or the response could
+	 *             not be written back to the client.
+	 */
+	public void receive(final InputStream input, final OutputStream output,
+			final OutputStream messages) throws IOException {
+		rawIn = input instanceof BufferedInputStream ? input
+				: new BufferedInputStream(input, IndexPack.BUFFER_SIZE);
+		rawOut = output instanceof BufferedOutputStream ? output
+				: new BufferedOutputStream(output);
+
+		pckIn = new PacketLineIn(rawIn);
+		pckOut = new PacketLineOut(rawOut);
+		try {
+			service(messages);
+		} finally {
+			walk.dispose();
+		}
+	}
+
+	private void service(final OutputStream messages) throws IOException {
+		sendAdvertisedRefs();
+		recvCommands();
+		if (commands.isEmpty())
+			return;
+
+		enableCapabilities();
+		if (needPack()) {
+			try {
+				receivePack();
+				if (isCheckReceivedObjects())
+					checkConnectivity();
+				unpackError = null;
+			} catch (IOException err) {
+				unpackError = err;
+			} catch (RuntimeException err) {
+				unpackError = err;
+			}
+		}
+
+		if (unpackError == null) {
+			validateCommands();
+			executeCommands();
+		}
+
+		if (reportStatus) {
+			sendStatusReport(messages);
+			pckOut.end();
+		} else if (messages != null) {
+			sendStatusReport(messages);
+		}
+	}
+
+	private void sendAdvertisedRefs() throws IOException {
+		refs = new TreeMap<String, Ref>(db.getAllRefs());
+		refs.remove(Constants.HEAD);
+
+		final StringBuilder m = new StringBuilder(100);
+		boolean first = true;
+		for (final Ref r : refs.values()) {
+			if (r.getObjectId() == null)
+				continue;
+			m.setLength(0);
+			m.append(r.getObjectId().name());
+			m.append(' ');
+			m.append(r.getName());
+			if (first) {
+				first = false;
+				appendCapabilities(m);
+			}
+			m.append('\n');
+			pckOut.writeString(m.toString());
+		}
+		if (first) {
+			m.setLength(0);
+			m.append(ObjectId.zeroId().name());
+			m.append(" capabilities^{}");
+			appendCapabilities(m);
+			m.append('\n');
+			pckOut.writeString(m.toString());
+		}
+		pckOut.end();
+	}
+
+	private static void appendCapabilities(final StringBuilder m) {
+		m.append('\0');
+		for (int i = 0; i < CAPABILITIES.length; i++) {
+			if (i > 0)
+				m.append(' ');
+			m.append(CAPABILITIES[i]);
+		}
+	}
+
+	private void recvCommands() throws IOException {
+		for (;;) {
+			String line;
+			try {
+				line = pckIn.readStringRaw();
+			} catch (EOFException eof) {
+				if (commands.isEmpty())
+					return;
+				throw eof;
+			}
+			if (line.length() == 0)
+				break;
+			if (line.charAt(line.length() - 1) == '\n')
+				line = line.substring(0, line.length() - 1);
+
+			if (commands.isEmpty()) {
+				final int nul = line.indexOf('\0');
+				if (nul >= 0) {
+					for (String c : line.substring(nul + 1).split(" "))
+						enabledCapabilities.add(c);
+					line = line.substring(0, nul);
+				}
+			}
+
+			if (line.length() < 83)
+				throw new PackProtocolException(
+						"invalid protocol: wanted 'old new ref'; got " + line);
+
+			final ObjectId oldId = ObjectId.fromString(line.substring(0, 40));
+			final ObjectId newId = ObjectId.fromString(line.substring(41, 81));
+			final String name = line.substring(82);
+			commands.add(new ReceiveCommand(oldId, newId, name));
+		}
+	}
+
+	private void enableCapabilities() {
+		reportStatus = enabledCapabilities
+				.contains(BasePackPushConnection.CAPABILITY_REPORT_STATUS);
+	}
+
+	private boolean needPack() {
+		for (final ReceiveCommand cmd : commands) {
+			if (cmd.getType() != Type.DELETE)
+				return true;
+		}
+		return false;
+	}
+
+	private void receivePack() throws IOException {
+		final IndexPack ip = IndexPack.create(db, rawIn);
+		ip.setFixThin(true);
+		ip.setObjectChecking(isCheckReceivedObjects());
+		ip.index(NullProgressMonitor.INSTANCE);
+		ip.renameAndOpenPack();
+	}
+
+	private void checkConnectivity() throws IOException {
+		final ObjectWalk ow = new ObjectWalk(db);
+		for (final ReceiveCommand cmd : commands) {
+			if (cmd.getResult() != Result.NOT_ATTEMPTED)
+				continue;
+			if (cmd.getType() == Type.DELETE)
+				continue;
+			ow.markStart(ow.parseAny(cmd.getNewId()));
+		}
+		for (final Ref ref : refs.values()) {
+			try {
+				ow.markUninteresting(ow.parseAny(ref.getObjectId()));
+			} catch (MissingObjectException notFound) {
+				// A broken ref on our side does not make the new
+				// objects invalid; they just cannot stop the walk.
+			}
+		}
+		ow.checkConnectivity();
+	}
+
+	private void validateCommands() {
+		for (final ReceiveCommand cmd : commands) {
+			final Ref ref = refs.get(cmd.getRefName());
+			if (cmd.getResult() != Result.NOT_ATTEMPTED)
+				continue;
+
+			if (cmd.getType() == Type.DELETE && !isAllowDeletes()) {
+				// Deletes are not supported on this repository.
+				//
+				cmd.setResult(Result.REJECTED_NODELETE);
+				continue;
+			}
+
+			if (cmd.getType() == Type.CREATE) {
+				if (!isAllowCreates()) {
+					cmd.setResult(Result.REJECTED_NOCREATE);
+					continue;
+				}
+
+				if (ref != null && !isAllowNonFastForwards()) {
+					// Creation over an existing ref is certainly not going
+					// to be a fast-forward update. We can reject it early.
+					//
+					cmd.setResult(Result.REJECTED_NONFASTFORWARD);
+					continue;
+				}
+
+				if (ref != null) {
+					// A well behaved client shouldn't have sent us a
+					// create command for a ref we advertised to it.
+					//
+					cmd.setResult(Result.REJECTED_OTHER_REASON, "ref exists");
+					continue;
+				}
+			}
+
+			if (cmd.getType() == Type.DELETE && ref != null
+					&& !ObjectId.zeroId().equals(cmd.getOldId())
+					&& !ref.getObjectId().equals(cmd.getOldId())) {
+				// Delete commands can be sent with the old id matching our
+				// advertised value, *OR* with the old id being 0{40}. Any
+				// other requested old id is invalid.
+				//
+				cmd.setResult(Result.REJECTED_OTHER_REASON,
+						"invalid old id sent");
+				continue;
+			}
+
+			if (cmd.getType() == Type.UPDATE) {
+				if (ref == null) {
+					// The ref must have been advertised in order to be updated.
+					//
+					cmd.setResult(Result.REJECTED_OTHER_REASON, "no such ref");
+					continue;
+				}
+
+				if (!ref.getObjectId().equals(cmd.getOldId())) {
+					// A properly functioning client will send the same
+					// object id we advertised.
+					//
+					cmd.setResult(Result.REJECTED_OTHER_REASON,
+							"invalid old id sent");
+					continue;
+				}
+
+				// Is this possibly a non-fast-forward style update?
+				//
+				RevObject oldObj, newObj;
+				try {
+					oldObj = walk.parseAny(cmd.getOldId());
+				} catch (IOException e) {
+					cmd.setResult(Result.REJECTED_MISSING_OBJECT, cmd
+							.getOldId().name());
+					continue;
+				}
+
+				try {
+					newObj = walk.parseAny(cmd.getNewId());
+				} catch (IOException e) {
+					cmd.setResult(Result.REJECTED_MISSING_OBJECT, cmd
+							.getNewId().name());
+					continue;
+				}
+
+				if (oldObj instanceof RevCommit && newObj instanceof RevCommit) {
+					try {
+						if (!walk.isMergedInto((RevCommit) oldObj,
+								(RevCommit) newObj)) {
+							cmd.setType(Type.UPDATE_NONFASTFORWARD);
+						}
+					} catch (IOException e) {
+						cmd.setResult(Result.REJECTED_MISSING_OBJECT, e
+								.getMessage());
+					}
+				} else {
+					cmd.setType(Type.UPDATE_NONFASTFORWARD);
+				}
+			}
+
+			if (!cmd.getRefName().startsWith("refs/")
+					|| !Repository.isValidRefName(cmd.getRefName())) {
+				cmd.setResult(Result.REJECTED_OTHER_REASON, "funny refname");
+			}
+
+			if (cmd.getType() == Type.UPDATE_NONFASTFORWARD
+					&& cmd.getResult() == Result.NOT_ATTEMPTED
+					&& !isAllowNonFastForwards())
+				cmd.setResult(Result.REJECTED_NONFASTFORWARD);
+		}
+	}
+
+	private void executeCommands() {
+		for (final ReceiveCommand cmd : commands) {
+			if (cmd.getResult() == Result.NOT_ATTEMPTED)
+				execute(cmd);
+		}
+	}
+
+	private void execute(final ReceiveCommand cmd) {
+		try {
+			final RefUpdate ru = db.updateRef(cmd.getRefName());
+			ru.setRefLogMessage("push", true);
+			switch (cmd.getType()) {
+			case DELETE:
+				if (!ObjectId.zeroId().equals(cmd.getOldId())) {
+					// We can only do a CAS style delete if the client
+					// didn't bork its delete request by sending the
+					// wrong zero id rather than the advertised one.
+					//
+					ru.setExpectedOldObjectId(cmd.getOldId());
+				}
+				ru.setNewObjectId(ObjectId.zeroId());
+				ru.setForceUpdate(true);
+				status(cmd, ru.delete(walk));
+				break;
+
+			case CREATE:
+			case UPDATE:
+			case UPDATE_NONFASTFORWARD:
+				ru.setForceUpdate(isAllowNonFastForwards());
+				ru.setExpectedOldObjectId(cmd.getOldId());
+				ru.setNewObjectId(cmd.getNewId());
+				status(cmd, ru.update(walk));
+				break;
+			}
+		} catch (IOException err) {
+			cmd.setResult(Result.REJECTED_OTHER_REASON, "lock error: "
+					+ err.getMessage());
+		}
+	}
+
+	private void status(final ReceiveCommand cmd, final RefUpdate.Result r) {
+		switch (r) {
+		case NOT_ATTEMPTED:
+			cmd.setResult(Result.NOT_ATTEMPTED);
+			break;
+
+		case LOCK_FAILURE:
+		case IO_FAILURE:
+			cmd.setResult(Result.LOCK_FAILURE);
+			break;
+
+		case NO_CHANGE:
+		case NEW:
+		case FORCED:
+		case FAST_FORWARD:
+			cmd.setResult(Result.OK);
+			break;
+
+		case REJECTED:
+			cmd.setResult(Result.REJECTED_NONFASTFORWARD);
+			break;
+
+		case REJECTED_CURRENT_BRANCH:
+			cmd.setResult(Result.REJECTED_CURRENT_BRANCH);
+			break;
+
+		default:
+			cmd.setResult(Result.REJECTED_OTHER_REASON, r.name());
+			break;
+		}
+	}
+
+	private void sendStatusReport(final OutputStream messages)
+			throws IOException {
+		final boolean forClient = reportStatus;
+		if (unpackError != null) {
+			final String m = "unpack error " + unpackError.getMessage();
+			if (forClient)
+				pckOut.writeString(m + "\n");
+			else
+				messages.write(Constants.encode(m + "\n"));
+			for (final ReceiveCommand cmd : commands) {
+				final String s = "ng " + cmd.getRefName()
+						+ " n/a (unpacker error)";
+				if (forClient)
+					pckOut.writeString(s + "\n");
+				else
+					messages.write(Constants.encode(s + "\n"));
+			}
+			if (!forClient)
+				messages.flush();
+			return;
+		}
+
+		if (forClient)
+			pckOut.writeString("unpack ok\n");
+		for (final ReceiveCommand cmd : commands) {
+			if (cmd.getResult() == Result.OK) {
+				if (forClient)
+					pckOut.writeString("ok " + cmd.getRefName() + "\n");
+				continue;
+			}
+
+			final String s = "ng " + cmd.getRefName() + " " + reason(cmd);
+			if (forClient)
+				pckOut.writeString(s + "\n");
+			else
+				messages.write(Constants.encode(s + "\n"));
+		}
+		if (!forClient)
+			messages.flush();
+	}
+
+	private static String reason(final ReceiveCommand cmd) {
+		switch (cmd.getResult()) {
+		case NOT_ATTEMPTED:
+			return "server bug; ref not processed";
+
+		case REJECTED_NOCREATE:
+			return "creation prohibited";
+
+		case REJECTED_NODELETE:
+			return "deletion prohibited";
+
+		case REJECTED_NONFASTFORWARD:
+			return "non-fast forward";
+
+		case REJECTED_CURRENT_BRANCH:
+			return "branch is currently checked out";
+
+		case REJECTED_MISSING_OBJECT:
+			if (cmd.getMessage() == null)
+				return "missing object(s)";
+			return "object " + cmd.getMessage() + " missing";
+
+		case REJECTED_OTHER_REASON:
+			if (cmd.getMessage() == null)
+				return "unspecified reason";
+			return cmd.getMessage();
+
+		case LOCK_FAILURE:
+			return "failed to lock";
+
+		default:
+			return cmd.getResult().name();
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Multiplexes data and progress messages onto a single packet line stream.
+ * <p>
+ * Data written to this stream is buffered into packets no larger than the
+ * negotiated side-band packet size, each prefixed with its channel number.
+ * This is the writing half of {@link SideBandInputStream}.
+ * <p>
+ * Several instances, one per channel, may share the same underlying stream
+ * provided they are only written to by a single thread.
+ */
+class SideBandOutputStream extends OutputStream {
+	static final int CH_DATA = 1;
+
+	static final int CH_PROGRESS = 2;
+
+	static final int CH_ERROR = 3;
+
+	/** Largest packet permitted by the "side-band" capability. */
+	static final int SMALL_BUF = 1000;
+
+	/** Largest packet permitted by the "side-band-64k" capability. */
+	static final int MAX_BUF = 65520;
+
+	private static final int HDR_SIZE = 5;
+
+	private static final byte[] hexchar = { '0', '1', '2', '3', '4', '5', '6',
+			'7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	private final OutputStream out;
+
+	private final byte[] buffer;
+
+	private int cnt;
+
+	/**
+	 * Create a new stream to write packets on one channel.
+	 *
+	 * @param chan
+	 *            channel number the packets are tagged with.
+	 * @param sz
+	 *            maximum size of a packet, including its header.
+	 * @param os
+	 *            stream the packets are written to.
+	 */
+	SideBandOutputStream(final int chan, final int sz, final OutputStream os) {
+		if (chan <= 0 || chan > 255)
+			throw new IllegalArgumentException("Invalid channel " + chan);
+		if (sz <= HDR_SIZE || sz > MAX_BUF)
+			throw new IllegalArgumentException("Invalid packet size " + sz);
+
+		out = os;
+		buffer = new byte[sz];
+		buffer[4] = (byte) chan;
+		cnt = HDR_SIZE;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (cnt == buffer.length)
+			writeBuffer();
+		buffer[cnt++] = (byte) b;
+	}
+
+	@Override
+	public void write(final byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (cnt == buffer.length)
+				writeBuffer();
+			final int n = Math.min(len, buffer.length - cnt);
+			System.arraycopy(b, off, buffer, cnt, n);
+			cnt += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (cnt > HDR_SIZE)
+			writeBuffer();
+		out.flush();
+	}
+
+	private void writeBuffer() throws IOException {
+		int w = cnt;
+		for (int o = 3; o >= 0; o--) {
+			buffer[o] = hexchar[w & 0xf];
+			w >>>= 4;
+		}
+		out.write(buffer, 0, cnt);
+		cnt = HDR_SIZE;
+	}
+}
@@ -355,6 +355,9 @@ private static String findTrackingRefName(final String remoteName,
 	/** Should an incoming (fetch) transfer validate objects? */
 	private boolean checkFetchedObjects;
 
+	/** Number of files a walking fetch may download concurrently. */
+	private int fetchThreads;
+
 	/**
 	 * Create a new transport instance.
 	 * 
@@ -371,6 +374,7 @@ protected Transport(final Repository local, final URIish uri) {
 		this.local = local;
 		this.uri = uri;
 		this.checkFetchedObjects = tc.isFsckObjects();
+		this.fetchThreads = tc.getFetchThreads();
 	}
 
 	/**
@@ -467,6 +471,28 @@ public void setCheckFetchedObjects(final boolean check) {
 		checkFetchedObjects = check;
 	}
 
+	/**
+	 * Default setting is the <code>fetch.threads</code> configuration
+	 * parameter, or {@value TransferConfig#DEFAULT_FETCH_THREADS}.
+	 *
+	 * @return number of loose objects or pack indexes a dumb transport (HTTP,
+	 *         Amazon S3) may download concurrently during fetch.
+	 */
+	public int getFetchThreads() {
+		return fetchThreads;
+	}
+
+	/**
+	 * @param threads
+	 *            number of loose objects or pack indexes a dumb transport may
+	 *            download concurrently during fetch. 1 (or less) downloads
+	 *            one file at a time. Native pack transports ignore this
+	 *            setting.
+	 */
+	public void setFetchThreads(final int threads) {
+		fetchThreads = threads;
+	}
+
 	/**
 	 * Default setting is: {@value RemoteConfig#DEFAULT_RECEIVE_PACK}
 	 *
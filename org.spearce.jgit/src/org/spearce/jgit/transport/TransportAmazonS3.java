@@ -227,6 +227,11 @@ Collection<String> getPackNames() throws IOException {
 			return packs;
 		}
 
+		@Override
+		boolean canOpenConcurrently() {
+			return true;
+		}
+
 		@Override
 		FileStream open(final String path) throws IOException {
 			final URLConnection c = s3.get(bucket, resolveKey(path));
@@ -169,6 +169,11 @@ Collection<String> getPackNames() throws IOException {
 			}
 		}
 
+		@Override
+		boolean canOpenConcurrently() {
+			return true;
+		}
+
 		@Override
 		FileStream open(final String path) throws IOException {
 			final URL base = objectsUrl;
@@ -43,6 +43,8 @@
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
 
 import org.spearce.jgit.errors.NotSupportedException;
 import org.spearce.jgit.errors.TransportException;
@@ -53,14 +55,25 @@
  * Transport that executes the Git "remote side" processes on a local directory.
  * <p>
  * This transport is suitable for use on the local system, where the caller has
- * direct read or write access to the remote repository. This implementation
- * forks a C Git process to provide the remote side access, much as the
- * {@link TransportGitSsh} implementation causes the remote side to run a C Git
- * process.
+ * direct read or write access to the remote repository. With the default
+ * upload-pack and receive-pack commands the remote side is served by
+ * {@link UploadPack} or {@link ReceivePack} on a thread of this process.
+ * Otherwise this implementation forks a C Git process to provide the remote
+ * side access, much as the {@link TransportGitSsh} implementation causes the
+ * remote side to run a C Git process.
  */
 class TransportLocal extends PackTransport {
 	private static final String PWD = ".";
 
+	/**
+	 * Smallest pipe buffer the client side needs to write into.
+	 * <p>
+	 * During negotiation the client may send two blocks of 32 have lines
+	 * before it reads a response, so the pipe must hold them all or both
+	 * threads will block writing.
+	 */
+	private static final int MIN_CLIENT_BUFFER = 2 * 32 * 50 + 8;
+
 	static boolean canHandle(final URIish uri) {
 		if (uri.getHost() != null || uri.getPort() > 0 || uri.getUser() != null
 				|| uri.getPass() != null || uri.getPath() == null)
@@ -84,13 +97,21 @@ static boolean canHandle(final URIish uri) {
 
 	@Override
 	public FetchConnection openFetch() throws TransportException {
-		return new LocalFetchConnection();
+		final String up = getOptionUploadPack();
+		if (RemoteConfig.DEFAULT_UPLOAD_PACK.equals(up)
+				|| "git upload-pack".equals(up))
+			return new InternalLocalFetchConnection();
+		return new ForkLocalFetchConnection();
 	}
 
 	@Override
 	public PushConnection openPush() throws NotSupportedException,
 			TransportException {
-		return new LocalPushConnection();
+		final String rp = getOptionReceivePack();
+		if (RemoteConfig.DEFAULT_RECEIVE_PACK.equals(rp)
+				|| "git receive-pack".equals(rp))
+			return new InternalLocalPushConnection();
+		return new ForkLocalPushConnection();
 	}
 
 	@Override
@@ -125,10 +146,91 @@ protected Process startProcessWithErrStream(final String cmd)
 		}
 	}
 
-	class LocalFetchConnection extends BasePackFetchConnection {
+	class InternalLocalFetchConnection extends BasePackFetchConnection {
+		private Thread worker;
+
+		InternalLocalFetchConnection() throws TransportException {
+			super(TransportLocal.this);
+
+			final Repository src;
+			try {
+				src = new Repository(remoteGitDir);
+			} catch (IOException err) {
+				throw new TransportException(uri, "not a git directory");
+			}
+
+			final PipedInputStream in_r;
+			final PipedOutputStream in_w;
+
+			final PipedInputStream out_r;
+			final PipedOutputStream out_w;
+			try {
+				in_r = new PipedInputStream();
+				in_w = new PipedOutputStream(in_r);
+
+				out_r = new PipedInputStream() {
+					{
+						buffer = new byte[MIN_CLIENT_BUFFER];
+					}
+				};
+				out_w = new PipedOutputStream(out_r);
+			} catch (IOException err) {
+				src.close();
+				throw new TransportException(uri, "cannot connect pipes", err);
+			}
+
+			worker = new Thread("JGit-Upload-Pack") {
+				public void run() {
+					try {
+						final UploadPack rp = new UploadPack(src);
+						rp.upload(out_r, in_w, null);
+					} catch (IOException err) {
+						// Client side of the pipes should report the problem.
+					} catch (RuntimeException err) {
+						// Client side will notice we went away, and report.
+					} finally {
+						try {
+							out_r.close();
+						} catch (IOException e2) {
+							// Ignore close failure, we probably crashed above.
+						}
+
+						try {
+							in_w.close();
+						} catch (IOException e2) {
+							// Ignore close failure, we probably crashed above.
+						}
+
+						src.close();
+					}
+				}
+			};
+			worker.start();
+
+			init(in_r, out_w);
+			readAdvertisedRefs();
+		}
+
+		@Override
+		public void close() {
+			super.close();
+
+			if (worker != null) {
+				try {
+					worker.join();
+				} catch (InterruptedException ie) {
+					// Stop waiting and return anyway.
+				} finally {
+					worker = null;
+				}
+			}
+		}
+	}
+
+	class ForkLocalFetchConnection extends BasePackFetchConnection {
 		private Process uploadPack;
 
-		LocalFetchConnection() throws TransportException {
+		ForkLocalFetchConnection() throws TransportException {
 			super(TransportLocal.this);
 			uploadPack = startProcessWithErrStream(getOptionUploadPack());
 			init(uploadPack.getInputStream(), uploadPack.getOutputStream());
@@ -151,10 +253,87 @@ public void close() {
 		}
 	}
 
-	class LocalPushConnection extends BasePackPushConnection {
+	class InternalLocalPushConnection extends BasePackPushConnection {
+		private Thread worker;
+
+		InternalLocalPushConnection() throws TransportException {
+			super(TransportLocal.this);
+
+			final Repository dst;
+			try {
+				dst = new Repository(remoteGitDir);
+			} catch (IOException err) {
+				throw new TransportException(uri, "not a git directory");
+			}
+
+			final PipedInputStream in_r;
+			final PipedOutputStream in_w;
+
+			final PipedInputStream out_r;
+			final PipedOutputStream out_w;
+			try {
+				in_r = new PipedInputStream();
+				in_w = new PipedOutputStream(in_r);
+
+				out_r = new PipedInputStream();
+				out_w = new PipedOutputStream(out_r);
+			} catch (IOException err) {
+				dst.close();
+				throw new TransportException(uri, "cannot connect pipes", err);
+			}
+
+			worker = new Thread("JGit-Receive-Pack") {
+				public void run() {
+					try {
+						final ReceivePack rp = new ReceivePack(dst);
+						rp.receive(out_r, in_w, null);
+					} catch (IOException err) {
+						// Client side of the pipes should report the problem.
+					} catch (RuntimeException err) {
+						// Client side will notice we went away, and report.
+					} finally {
+						try {
+							out_r.close();
+						} catch (IOException e2) {
+							// Ignore close failure, we probably crashed above.
+						}
+
+						try {
+							in_w.close();
+						} catch (IOException e2) {
+							// Ignore close failure, we probably crashed above.
+						}
+
+						dst.close();
+					}
+				}
+			};
+			worker.start();
+
+			init(in_r, out_w);
+			readAdvertisedRefs();
+		}
+
+		@Override
+		public void close() {
+			super.close();
+
+			if (worker != null) {
+				try {
+					worker.join();
+				} catch (InterruptedException ie) {
+					// Stop waiting and return anyway.
+				} finally {
+					worker = null;
+				}
+			}
+		}
+	}
+
+	class ForkLocalPushConnection extends BasePackPushConnection {
 		private Process receivePack;
 
-		LocalPushConnection() throws TransportException {
+		ForkLocalPushConnection() throws TransportException {
 			super(TransportLocal.this);
 			receivePack = startProcessWithErrStream(getOptionReceivePack());
 			init(receivePack.getInputStream(), receivePack.getOutputStream());
@@ -0,0 +1,403 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.spearce.jgit.lib.AnyObjectId;
+import org.spearce.jgit.lib.ObjectId;
+
+/**
+ * Compact table of the deltas {@link IndexPack} could not resolve on receipt.
+ * <p>
+ * A pack may hold millions of deltas, so this table avoids an object per
+ * delta. Deltas are numbered in the order they were added (which is their
+ * order within the pack) and described by parallel primitive arrays.
+ * <p>
+ * Deltas naming their base by offset are kept as a list of base offsets,
+ * sorted by {@link #sort()} so the children of a base can be found with a
+ * binary search. Deltas naming their base by ObjectId hash the id into an
+ * open addressed table, and children of the same base are chained through
+ * an int link per delta.
+ */
+class UnresolvedDeltaTable {
+	private static final int END = -1;
+
+	/** Largest number of deltas this table may need to hold. */
+	private final int maxDeltas;
+
+	/** Number of deltas added to the table. */
+	private int deltaCount;
+
+	/** Offset of each delta's object header within the pack. */
+	private long[] position;
+
+	/** CRC32 of each delta's raw data within the pack. */
+	private int[] crc;
+
+	/** Next delta with the same base id, {@link #END} if none. */
+	private int[] nextRef;
+
+	/** Number of deltas that name their base by offset. */
+	private int ofsCount;
+
+	/** Offset of the base of the i-th offset delta; sorted after sort(). */
+	private long[] ofsBase;
+
+	/** Delta number of the i-th offset delta. */
+	private int[] ofsDelta;
+
+	/** Open addressed table of base ids; null marks an empty slot. */
+	private ObjectId[] refBase;
+
+	/** First delta for the id at the same slot; {@link #END} if taken. */
+	private int[] refHead;
+
+	/** Last delta for the id at the same slot, to append in pack order. */
+	private int[] refTail;
+
+	/** Number of distinct ids in {@link #refBase}. */
+	private int refSize;
+
+	/** Number of ids in {@link #refBase} whose deltas were not taken. */
+	private int refPending;
+
+	/**
+	 * Create an empty table.
+	 *
+	 * @param max
+	 *            the largest number of deltas that will be added, usually
+	 *            the number of objects in the pack.
+	 */
+	UnresolvedDeltaTable(final long max) {
+		maxDeltas = (int) Math.min(max, Integer.MAX_VALUE);
+		final int sz = Math.min(maxDeltas, 64);
+		position = new long[sz];
+		crc = new int[sz];
+		nextRef = new int[0];
+		ofsBase = new long[sz];
+		ofsDelta = new int[sz];
+	}
+
+	/** @return number of deltas added to the table. */
+	int size() {
+		return deltaCount;
+	}
+
+	/**
+	 * @param delta
+	 *            number of the delta, as returned by {@link #takeChildren}.
+	 * @return offset of the delta's object header within the pack.
+	 */
+	long getPosition(final int delta) {
+		return position[delta];
+	}
+
+	/**
+	 * @param delta
+	 *            number of the delta, as returned by {@link #takeChildren}.
+	 * @return CRC32 of the delta's data as it appears in the pack.
+	 */
+	int getCRC(final int delta) {
+		return crc[delta];
+	}
+
+	/**
+	 * Record a delta whose base is named by its offset in the pack.
+	 *
+	 * @param pos
+	 *            offset of the delta's object header.
+	 * @param crc32
+	 *            CRC32 of the delta's data in the pack.
+	 * @param basePos
+	 *            offset of the base object's header.
+	 */
+	void addOfsDelta(final long pos, final int crc32, final long basePos) {
+		final int d = add(pos, crc32);
+		if (ofsCount == ofsBase.length) {
+			final int n = grow(ofsCount);
+			ofsBase = copy(ofsBase, n);
+			ofsDelta = copy(ofsDelta, n);
+		}
+		ofsBase[ofsCount] = basePos;
+		ofsDelta[ofsCount] = d;
+		ofsCount++;
+	}
+
+	/**
+	 * Record a delta whose base is named by its ObjectId.
+	 *
+	 * @param pos
+	 *            offset of the delta's object header.
+	 * @param crc32
+	 *            CRC32 of the delta's data in the pack.
+	 * @param baseId
+	 *            name of the base object.
+	 */
+	void addRefDelta(final long pos, final int crc32, final AnyObjectId baseId) {
+		final int d = add(pos, crc32);
+		if (nextRef.length < position.length)
+			nextRef = copy(nextRef, position.length);
+		nextRef[d] = END;
+
+		if (refBase == null || (refSize + 1) * 2 > refBase.length)
+			rehash();
+		final int i = findSlot(baseId);
+		if (refBase[i] == null) {
+			refBase[i] = baseId.toObjectId();
+			refHead[i] = d;
+			refSize++;
+			refPending++;
+		} else
+			nextRef[refTail[i]] = d;
+		refTail[i] = d;
+	}
+
+	/**
+	 * Prepare the table for lookups, once all deltas have been added.
+	 */
+	void sort() {
+		sort(0, ofsCount, new long[ofsCount], new int[ofsCount]);
+	}
+
+	/**
+	 * Test if an object has deltas which still need to be resolved.
+	 *
+	 * @param pos
+	 *            offset of the object within the pack.
+	 * @param id
+	 *            name of the object.
+	 * @return true if deltas use the object as their base.
+	 */
+	boolean hasChildren(final long pos, final AnyObjectId id) {
+		if (findOfs(pos) >= 0)
+			return true;
+		if (refBase == null)
+			return false;
+		final int i = findSlot(id);
+		return refBase[i] != null && refHead[i] != END;
+	}
+
+	/**
+	 * Remove the deltas using an object as their base.
+	 * <p>
+	 * Deltas naming the base by id are only returned once. Deltas naming the
+	 * base by offset are not removed, as each object of the pack is resolved
+	 * only once.
+	 *
+	 * @param pos
+	 *            offset of the base object within the pack.
+	 * @param id
+	 *            name of the base object.
+	 * @return the numbers of the deltas, in pack order; null if there are
+	 *         none.
+	 */
+	int[] takeChildren(final long pos, final AnyObjectId id) {
+		int ofsCnt = 0;
+		int ofsIdx = findOfs(pos);
+		if (ofsIdx >= 0) {
+			while (0 < ofsIdx && ofsBase[ofsIdx - 1] == pos)
+				ofsIdx--;
+			while (ofsIdx + ofsCnt < ofsCount
+					&& ofsBase[ofsIdx + ofsCnt] == pos)
+				ofsCnt++;
+		}
+
+		int refCnt = 0;
+		int refFirst = END;
+		if (refBase != null) {
+			final int i = findSlot(id);
+			if (refBase[i] != null && refHead[i] != END) {
+				refFirst = refHead[i];
+				refHead[i] = END;
+				refPending--;
+				for (int d = refFirst; d != END; d = nextRef[d])
+					refCnt++;
+			}
+		}
+
+		if (ofsCnt + refCnt == 0)
+			return null;
+		final int[] r = new int[ofsCnt + refCnt];
+		int n = 0;
+		int o = ofsIdx;
+		final int oEnd = ofsIdx + ofsCnt;
+		int d = refFirst;
+		while (o < oEnd && d != END) {
+			if (ofsDelta[o] < d)
+				r[n++] = ofsDelta[o++];
+			else {
+				r[n++] = d;
+				d = nextRef[d];
+			}
+		}
+		while (o < oEnd)
+			r[n++] = ofsDelta[o++];
+		for (; d != END; d = nextRef[d])
+			r[n++] = d;
+		return r;
+	}
+
+	/** @return number of base ids whose deltas have not been taken. */
+	int getMissingBaseCount() {
+		return refPending;
+	}
+
+	/** @return the base ids whose deltas have not been taken. */
+	List<ObjectId> getMissingBases() {
+		final List<ObjectId> r = new ArrayList<ObjectId>(refPending);
+		if (refBase != null) {
+			for (int i = 0; i < refBase.length; i++) {
+				if (refBase[i] != null && refHead[i] != END)
+					r.add(refBase[i]);
+			}
+		}
+		return r;
+	}
+
+	private int add(final long pos, final int crc32) {
+		if (deltaCount == position.length) {
+			final int n = grow(deltaCount);
+			position = copy(position, n);
+			crc = copy(crc, n);
+		}
+		position[deltaCount] = pos;
+		crc[deltaCount] = crc32;
+		return deltaCount++;
+	}
+
+	private int grow(final int cnt) {
+		if (cnt == Integer.MAX_VALUE)
+			throw new IllegalStateException("Too many deltas");
+		int n = (int) Math.min(Math.max(16L, 2L * cnt), Integer.MAX_VALUE);
+		if (cnt < maxDeltas)
+			n = Math.min(n, maxDeltas);
+		return n;
+	}
+
+	private int findOfs(final long pos) {
+		int low = 0;
+		int high = ofsCount;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			final long v = ofsBase[mid];
+			if (pos < v)
+				high = mid;
+			else if (pos == v)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	private int findSlot(final AnyObjectId id) {
+		final int mask = refBase.length - 1;
+		int i = id.hashCode() & mask;
+		ObjectId obj;
+		while ((obj = refBase[i]) != null) {
+			if (AnyObjectId.equals(obj, id))
+				return i;
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private void rehash() {
+		final ObjectId[] oldBase = refBase;
+		final int[] oldHead = refHead;
+		final int[] oldTail = refTail;
+		final int n = oldBase == null ? 32 : oldBase.length * 2;
+
+		refBase = new ObjectId[n];
+		refHead = new int[n];
+		refTail = new int[n];
+		if (oldBase == null)
+			return;
+		for (int j = 0; j < oldBase.length; j++) {
+			if (oldBase[j] != null) {
+				final int i = findSlot(oldBase[j]);
+				refBase[i] = oldBase[j];
+				refHead[i] = oldHead[j];
+				refTail[i] = oldTail[j];
+			}
+		}
+	}
+
+	/** Stable merge sort of the offset deltas by base offset. */
+	private void sort(final int start, final int end, final long[] tmpBase,
+			final int[] tmpDelta) {
+		if (end - start < 2)
+			return;
+		final int mid = (start + end) >>> 1;
+		sort(start, mid, tmpBase, tmpDelta);
+		sort(mid, end, tmpBase, tmpDelta);
+		if (ofsBase[mid - 1] <= ofsBase[mid])
+			return;
+
+		int a = start, b = mid, n = start;
+		while (a < mid && b < end) {
+			if (ofsBase[b] < ofsBase[a]) {
+				tmpBase[n] = ofsBase[b];
+				tmpDelta[n++] = ofsDelta[b++];
+			} else {
+				tmpBase[n] = ofsBase[a];
+				tmpDelta[n++] = ofsDelta[a++];
+			}
+		}
+		while (a < mid) {
+			tmpBase[n] = ofsBase[a];
+			tmpDelta[n++] = ofsDelta[a++];
+		}
+		System.arraycopy(tmpBase, start, ofsBase, start, b - start);
+		System.arraycopy(tmpDelta, start, ofsDelta, start, b - start);
+	}
+
+	private static long[] copy(final long[] src, final int n) {
+		final long[] r = new long[n];
+		System.arraycopy(src, 0, r, 0, Math.min(src.length, n));
+		return r;
+	}
+
+	private static int[] copy(final int[] src, final int n) {
+		final int[] r = new int[n];
+		System.arraycopy(src, 0, r, 0, Math.min(src.length, n));
+		return r;
+	}
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.spearce.jgit.errors.PackProtocolException;
+import org.spearce.jgit.lib.NullProgressMonitor;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.PackWriter;
+import org.spearce.jgit.lib.ProgressMonitor;
+import org.spearce.jgit.lib.Ref;
+import org.spearce.jgit.lib.Repository;
+import org.spearce.jgit.revwalk.RevCommit;
+import org.spearce.jgit.revwalk.RevFlag;
+import org.spearce.jgit.revwalk.RevFlagSet;
+import org.spearce.jgit.revwalk.RevObject;
+import org.spearce.jgit.revwalk.RevTag;
+import org.spearce.jgit.revwalk.RevWalk;
+import org.spearce.jgit.revwalk.filter.CommitTimeRevFilter;
+import org.spearce.jgit.revwalk.filter.RevFilter;
+
+/**
+ * Implements the server side of a fetch connection, transmitting objects.
+ * <p>
+ * This is a pure Java implementation of the 'git-upload-pack' service. It
+ * speaks the native pack protocol over any pair of streams, so it can serve a
+ * client connected through a pipe, a socket, or another thread in the same
+ * process. The refs of the repository are advertised, the client's wants and
+ * haves are negotiated using a {@link RevWalk}, and the resulting pack is
+ * streamed out through a {@link PackWriter}.
+ * <p>
+ * An instance serves exactly one client and must not be reused.
+ */
+public class UploadPack {
+	static final String OPTION_NO_PROGRESS = "no-progress";
+
+	private static final String[] CAPABILITIES = {
+			BasePackFetchConnection.OPTION_MULTI_ACK,
+			BasePackFetchConnection.OPTION_THIN_PACK,
+			BasePackFetchConnection.OPTION_SIDE_BAND,
+			BasePackFetchConnection.OPTION_SIDE_BAND_64K,
+			BasePackFetchConnection.OPTION_OFS_DELTA, OPTION_NO_PROGRESS };
+
+	/** Database we read the objects from. */
+	private final Repository db;
+
+	/** Revision traversal support over {@link #db}. */
+	private final RevWalk walk;
+
+	private InputStream rawIn;
+
+	private OutputStream rawOut;
+
+	private PacketLineIn pckIn;
+
+	private PacketLineOut pckOut;
+
+	/** The refs we advertised as existing at the start of the connection. */
+	private Map<String, Ref> refs;
+
+	/** Capabilities requested by the client. */
+	private final Set<String> options = new HashSet<String>();
+
+	/** Objects the client wants to obtain. */
+	private final List<RevObject> wantAll = new ArrayList<RevObject>();
+
+	/** Commits the client wants to obtain, not yet known to be satisfied. */
+	private final List<RevCommit> wantCommits = new ArrayList<RevCommit>();
+
+	/** Objects on both sides, these don't have to be sent. */
+	private final List<RevObject> commonBase = new ArrayList<RevObject>();
+
+	/** Commit time of the oldest common commit, in seconds. */
+	private int oldestTime;
+
+	/** null if {@link #commonBase} should be examined again. */
+	private Boolean okToGiveUp;
+
+	private final RevFlag ADVERTISED;
+
+	private final RevFlag WANT;
+
+	private final RevFlag PEER_HAS;
+
+	private final RevFlag COMMON;
+
+	private final RevFlag SATISFIED;
+
+	private final RevFlagSet SAVE;
+
+	private boolean multiAck;
+
+	/**
+	 * Create a new pack upload for an open repository.
+	 *
+	 * @param copyFrom
+	 *            the source repository.
+	 */
+	public UploadPack(final Repository copyFrom) {
+		db = copyFrom;
+		walk = new RevWalk(db);
+
+		ADVERTISED = walk.newFlag("ADVERTISED");
+		WANT = walk.newFlag("WANT");
+		PEER_HAS = walk.newFlag("PEER_HAS");
+		COMMON = walk.newFlag("COMMON");
+		SATISFIED = walk.newFlag("SATISFIED");
+		walk.carry(PEER_HAS);
+
+		SAVE = new RevFlagSet();
+		SAVE.add(ADVERTISED);
+		SAVE.add(WANT);
+		SAVE.add(PEER_HAS);
+		SAVE.add(COMMON);
+		SAVE.add(SATISFIED);
+	}
+
+	/** @return the repository this upload is reading from. */
+	public final Repository getRepository() {
+		return db;
+	}
+
+	/** @return all refs which were advertised to the client. */
+	public final Map<String, Ref> getAdvertisedRefs() {
+		return refs;
+	}
+
+	/**
+	 * Execute the upload task on the socket.
+	 *
+	 * @param input
+	 *            raw input to read client commands from. Caller must ensure
+	 *            the input is buffered, otherwise read performance may
+	 *            suffer.
+	 * @param output
+	 *            response back to the Git network client, to write the pack
+	 *            data onto. Caller must ensure the output is buffered,
+	 *            otherwise write performance may suffer.
+	 * @param messages
+	 *            secondary "notice" channel to send additional messages out
+	 *            through. When run over SSH this should be tied back to the
+	 *            standard error channel of the command execution. For most
+	 *            other network connections this should be null. Progress is
+	 *            sent here only if the client did not negotiate a side-band.
+	 * @throws IOException
+	 *             the client sent an invalid request, or the pack could not
+	 *             be read from the repository or written to the client.
+	 */
+	public void upload(final InputStream input, final OutputStream output,
+			final OutputStream messages) throws IOException {
+		rawIn = input instanceof BufferedInputStream ? input
+				: new BufferedInputStream(input, IndexPack.BUFFER_SIZE);
+		rawOut = output instanceof BufferedOutputStream ? output
+				: new BufferedOutputStream(output);
+
+		pckIn = new PacketLineIn(rawIn);
+		pckOut = new PacketLineOut(rawOut);
+		try {
+			service(messages);
+		} finally {
+			walk.dispose();
+		}
+	}
+
+	private void service(final OutputStream messages) throws IOException {
+		sendAdvertisedRefs();
+		recvWants();
+		if (wantAll.isEmpty())
+			return;
+		multiAck = options.contains(BasePackFetchConnection.OPTION_MULTI_ACK);
+		negotiate();
+		sendPack(messages);
+	}
+
+	private void sendAdvertisedRefs() throws IOException {
+		refs = db.getAllRefs();
+
+		boolean first = true;
+		for (final Map.Entry<String, Ref> e : new TreeMap<String, Ref>(refs)
+				.entrySet()) {
+			// The key is the advertised name; for a symbolic ref such as
+			// HEAD the Ref itself carries the name of its target.
+			//
+			final String name = e.getKey();
+			final Ref r = e.getValue();
+			final RevObject o;
+			try {
+				o = walk.parseAny(r.getObjectId());
+			} catch (IOException err) {
+				// A ref pointing to a missing object cannot be served.
+				continue;
+			}
+			o.add(ADVERTISED);
+
+			final StringBuilder m = new StringBuilder(100);
+			m.append(o.name());
+			m.append(' ');
+			m.append(name);
+			if (first) {
+				first = false;
+				m.append('\0');
+				for (int i = 0; i < CAPABILITIES.length; i++) {
+					if (i > 0)
+						m.append(' ');
+					m.append(CAPABILITIES[i]);
+				}
+			}
+			m.append('\n');
+			pckOut.writeString(m.toString());
+
+			if (o instanceof RevTag) {
+				final RevObject target = peel(o);
+				target.add(ADVERTISED);
+				pckOut.writeString(target.name() + " " + name + "^{}\n");
+			}
+		}
+		pckOut.end();
+	}
+
+	private RevObject peel(RevObject o) throws IOException {
+		while (o instanceof RevTag) {
+			o = ((RevTag) o).getObject();
+			walk.parse(o);
+		}
+		return o;
+	}
+
+	private void recvWants() throws IOException {
+		boolean isFirst = true;
+		for (;;) {
+			String line;
+			try {
+				line = pckIn.readString();
+			} catch (EOFException eof) {
+				if (isFirst)
+					break;
+				throw eof;
+			}
+
+			if (line.length() == 0)
+				break;
+			if (!line.startsWith("want ") || line.length() < 45)
+				throw new PackProtocolException("expected want; got " + line);
+
+			if (isFirst && line.length() > 45) {
+				for (final String c : line.substring(45).split(" "))
+					if (c.length() > 0)
+						options.add(c);
+				line = line.substring(0, 45);
+			}
+
+			final ObjectId id = ObjectId.fromString(line.substring(5));
+			final RevObject o;
+			try {
+				o = walk.parseAny(id);
+			} catch (IOException e) {
+				throw new PackProtocolException(id.name() + " not valid", e);
+			}
+			if (!o.has(ADVERTISED))
+				throw new PackProtocolException(id.name() + " not valid");
+			want(o);
+			isFirst = false;
+		}
+	}
+
+	private void want(final RevObject o) throws IOException {
+		if (o.has(WANT))
+			return;
+		o.add(WANT);
+		wantAll.add(o);
+
+		final RevObject target = peel(o);
+		if (target instanceof RevCommit)
+			wantCommits.add((RevCommit) target);
+	}
+
+	private void negotiate() throws IOException {
+		ObjectId last = ObjectId.zeroId();
+		for (;;) {
+			final String line = pckIn.readString();
+
+			if (line.length() == 0) {
+				// End of a block of have lines. Without multi_ack we
+				// already sent our only ACK, if we had one.
+				//
+				if (commonBase.isEmpty() || multiAck)
+					pckOut.writeString("NAK\n");
+				pckOut.flush();
+
+			} else if (line.startsWith("have ") && line.length() == 45) {
+				final ObjectId id = ObjectId.fromString(line.substring(5));
+				if (matchHave(id)) {
+					// Both sides have the same object; let the client know.
+					//
+					if (multiAck) {
+						last = id;
+						pckOut.writeString("ACK " + id.name() + " continue\n");
+					} else if (commonBase.size() == 1)
+						pckOut.writeString("ACK " + id.name() + "\n");
+				} else {
+					// They have this object; we don't.
+					//
+					if (multiAck && okToGiveUp())
+						pckOut.writeString("ACK " + id.name() + " continue\n");
+				}
+
+			} else if (line.equals("done")) {
+				if (commonBase.isEmpty())
+					pckOut.writeString("NAK\n");
+				else if (multiAck)
+					pckOut.writeString("ACK " + last.name() + "\n");
+				break;
+
+			} else {
+				throw new PackProtocolException("expected have; got " + line);
+			}
+		}
+	}
+
+	private boolean matchHave(final ObjectId id) {
+		final RevObject o;
+		try {
+			o = walk.parseAny(id);
+		} catch (IOException err) {
+			return false;
+		}
+
+		if (!o.has(PEER_HAS)) {
+			o.add(PEER_HAS);
+			if (o instanceof RevCommit) {
+				final RevCommit c = (RevCommit) o;
+				c.carry(PEER_HAS);
+				if (oldestTime == 0 || c.getCommitTime() < oldestTime)
+					oldestTime = c.getCommitTime();
+			}
+			addCommonBase(o);
+		}
+		return true;
+	}
+
+	private void addCommonBase(final RevObject o) {
+		if (!o.has(COMMON)) {
+			o.add(COMMON);
+			commonBase.add(o);
+			okToGiveUp = null;
+		}
+	}
+
+	private boolean okToGiveUp() throws PackProtocolException {
+		if (okToGiveUp == null)
+			okToGiveUp = Boolean.valueOf(okToGiveUpImp());
+		return okToGiveUp.booleanValue();
+	}
+
+	private boolean okToGiveUpImp() throws PackProtocolException {
+		if (commonBase.isEmpty())
+			return false;
+
+		try {
+			for (final Iterator<RevCommit> i = wantCommits.iterator(); i
+					.hasNext();) {
+				final RevCommit want = i.next();
+				if (wantSatisfied(want))
+					i.remove();
+			}
+		} catch (IOException e) {
+			throw new PackProtocolException("internal revision error", e);
+		}
+		return wantCommits.isEmpty();
+	}
+
+	private boolean wantSatisfied(final RevCommit want) throws IOException {
+		if (want.has(SATISFIED))
+			return true;
+
+		walk.resetRetain(SAVE);
+		walk.markStart(want);
+		if (oldestTime != 0)
+			walk.setRevFilter(CommitTimeRevFilter.after(new Date(
+					oldestTime * 1000L)));
+		else
+			walk.setRevFilter(RevFilter.ALL);
+		for (;;) {
+			final RevCommit c = walk.next();
+			if (c == null)
+				break;
+			if (c.has(PEER_HAS)) {
+				addCommonBase(c);
+				want.add(SATISFIED);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void sendPack(final OutputStream messages) throws IOException {
+		final boolean thin = options
+				.contains(BasePackFetchConnection.OPTION_THIN_PACK);
+		final boolean progress = !options.contains(OPTION_NO_PROGRESS);
+		final boolean sideband = options
+				.contains(BasePackFetchConnection.OPTION_SIDE_BAND)
+				|| options.contains(BasePackFetchConnection.OPTION_SIDE_BAND_64K);
+
+		ProgressMonitor pm = NullProgressMonitor.INSTANCE;
+		OutputStream packOut = rawOut;
+
+		if (sideband) {
+			int bufsz = SideBandOutputStream.SMALL_BUF;
+			if (options.contains(BasePackFetchConnection.OPTION_SIDE_BAND_64K))
+				bufsz = SideBandOutputStream.MAX_BUF;
+			packOut = new SideBandOutputStream(SideBandOutputStream.CH_DATA,
+					bufsz, rawOut);
+			if (progress)
+				pm = new SideBandProgressMonitor(new SideBandOutputStream(
+						SideBandOutputStream.CH_PROGRESS, bufsz, rawOut));
+		} else if (progress && messages != null) {
+			pm = new SideBandProgressMonitor(messages);
+		}
+
+		final List<ObjectId> want = new ArrayList<ObjectId>(wantAll.size());
+		for (final RevObject o : wantAll)
+			want.add(o.copy());
+		final List<ObjectId> common = new ArrayList<ObjectId>(commonBase
+				.size());
+		for (final RevObject o : commonBase)
+			common.add(o.copy());
+
+		final PackWriter pw = new PackWriter(db, pm);
+		pw.setDeltaBaseAsOffset(options
+				.contains(BasePackFetchConnection.OPTION_OFS_DELTA));
+		pw.setDeltaCompress(true);
+		pw.preparePack(want, common, thin, true);
+		pw.writePack(packOut);
+
+		if (sideband)
+			pckOut.end();
+		else
+			rawOut.flush();
+	}
+}
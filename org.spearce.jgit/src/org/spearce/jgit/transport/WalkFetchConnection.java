@@ -42,6 +42,7 @@
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -50,6 +51,11 @@
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.spearce.jgit.errors.CompoundException;
 import org.spearce.jgit.errors.CorruptObjectException;
@@ -59,6 +65,7 @@
 import org.spearce.jgit.lib.AnyObjectId;
 import org.spearce.jgit.lib.Constants;
 import org.spearce.jgit.lib.FileMode;
+import org.spearce.jgit.lib.NullProgressMonitor;
 import org.spearce.jgit.lib.ObjectChecker;
 import org.spearce.jgit.lib.ObjectId;
 import org.spearce.jgit.lib.PackIndex;
@@ -93,6 +100,13 @@
  * Instead it delegates the transfer to a {@link WalkRemoteObjectDatabase},
  * which knows how to read individual files from the remote repository and
  * supply the data as a standard Java InputStream.
+ * <p>
+ * If the remote database permits concurrent requests the connection reads
+ * ahead of the traversal, downloading the loose objects at the front of the
+ * work queue (and newly discovered pack indexes) on a small pool of worker
+ * threads. The objects are still verified, stored and parsed in traversal
+ * order by the thread calling fetch; the workers only hide the latency of
+ * each round trip.
  * 
  * @see WalkRemoteObjectDatabase
  */
@@ -115,6 +129,20 @@ class WalkFetchConnection extends BaseFetchConnection {
 	/** Most recently used item in {@link #remotes}. */
 	private int lastRemoteIdx;
 
+	/** Number of files we may download at once; 1 or less to not read ahead. */
+	private final int fetchThreads;
+
+	/** Workers downloading files ahead of the traversal, if any. */
+	private ExecutorService pool;
+
+	/**
+	 * Loose objects downloaded (or being downloaded) ahead of the traversal.
+	 * <p>
+	 * Only the thread running the fetch reads or modifies this map; the worker
+	 * threads just complete the futures stored within it.
+	 */
+	private final HashMap<ObjectId, LooseFetch> prefetched;
+
 	private final RevWalk revWalk;
 
 	private final TreeWalk treeWalk;
@@ -125,6 +153,9 @@ class WalkFetchConnection extends BaseFetchConnection {
 	/** Objects that have already entered {@link #workQueue}. */
 	private final RevFlag IN_WORK_QUEUE;
 
+	/** Objects already considered by {@link #readAhead()}. */
+	private final RevFlag LOOKED_AHEAD;
+
 	/** Commits that have already entered {@link #localCommitQueue}. */
 	private final RevFlag LOCALLY_SEEN;
 
@@ -164,6 +195,7 @@ class WalkFetchConnection extends BaseFetchConnection {
 	WalkFetchConnection(final WalkTransport wt, final WalkRemoteObjectDatabase w) {
 		local = wt.local;
 		objCheck = wt.isCheckFetchedObjects() ? new ObjectChecker() : null;
+		fetchThreads = wt.getFetchThreads();
 
 		remotes = new ArrayList<WalkRemoteObjectDatabase>();
 		remotes.add(w);
@@ -178,12 +210,14 @@ class WalkFetchConnection extends BaseFetchConnection {
 		noAlternatesYet.add(w);
 
 		fetchErrors = new HashMap<ObjectId, List<Throwable>>();
+		prefetched = new HashMap<ObjectId, LooseFetch>();
 
 		revWalk = new RevWalk(local);
 		treeWalk = new TreeWalk(local);
 		COMPLETE = revWalk.newFlag("COMPLETE");
 		IN_WORK_QUEUE = revWalk.newFlag("IN_WORK_QUEUE");
 		LOCALLY_SEEN = revWalk.newFlag("LOCALLY_SEEN");
+		LOOKED_AHEAD = revWalk.newFlag("LOOKED_AHEAD");
 
 		localCommitQueue = new DateRevQueue();
 		workQueue = new LinkedList<ObjectId>();
@@ -199,16 +233,26 @@ protected void doFetch(final ProgressMonitor monitor,
 		markLocalRefsComplete();
 		queueWants(want);
 
-		while (!monitor.isCancelled() && !workQueue.isEmpty()) {
-			final ObjectId id = workQueue.removeFirst();
-			if (!(id instanceof RevObject) || !((RevObject) id).has(COMPLETE))
-				downloadObject(monitor, id);
-			process(id);
+		if (fetchThreads > 1)
+			pool = Executors.newFixedThreadPool(fetchThreads);
+		try {
+			while (!monitor.isCancelled() && !workQueue.isEmpty()) {
+				readAhead();
+				final ObjectId id = workQueue.removeFirst();
+				if (!(id instanceof RevObject)
+						|| !((RevObject) id).has(COMPLETE))
+					downloadObject(monitor, id);
+				forgetLooseObject(id);
+				process(id);
+			}
+		} finally {
+			stopReadAhead();
 		}
 	}
 
 	@Override
 	public void close() {
+		stopReadAhead();
 		for (final RemotePack p : unfetchedPacks)
 			p.tmpIdx.delete();
 		for (final WalkRemoteObjectDatabase r : remotes)
@@ -359,10 +403,7 @@ private void downloadObject(final ProgressMonitor pm, final AnyObjectId id)
 			// Search for a loose object over all alternates, starting
 			// from the one we last successfully located an object through.
 			//
-			final String idStr = id.name();
-			final String subdir = idStr.substring(0, 2);
-			final String file = idStr.substring(2);
-			final String looseName = subdir + "/" + file;
+			final String looseName = looseName(id);
 
 			for (int i = lastRemoteIdx; i < remotes.size(); i++) {
 				if (downloadLooseObject(id, looseName, remotes.get(i))) {
@@ -400,6 +441,7 @@ private void downloadObject(final ProgressMonitor pm, final AnyObjectId id)
 					if (packsConsidered.add(packName))
 						unfetchedPacks.add(new RemotePack(wrr, packName));
 				}
+				openIndexes(pm, id, wrr);
 				if (downloadPackedObject(pm, id))
 					return;
 			}
@@ -509,6 +551,7 @@ private boolean downloadPackedObject(final ProgressMonitor monitor,
 				final ObjectId p = pending.next();
 				if (pack.index.hasObject(p)) {
 					pending.remove();
+					forgetLooseObject(p);
 					process(p);
 				} else {
 					workQueue.add(p);
@@ -530,7 +573,7 @@ private boolean downloadLooseObject(final AnyObjectId id,
 			final String looseName, final WalkRemoteObjectDatabase remote)
 			throws TransportException {
 		try {
-			final byte[] compressed = remote.open(looseName).toArray();
+			final byte[] compressed = readLooseObject(id, looseName, remote);
 			verifyLooseObject(id, compressed);
 			saveLooseObject(id, compressed);
 			return true;
@@ -545,6 +588,155 @@ private boolean downloadLooseObject(final AnyObjectId id,
 		}
 	}
 
+	private byte[] readLooseObject(final AnyObjectId id,
+			final String looseName, final WalkRemoteObjectDatabase remote)
+			throws IOException {
+		final ObjectId key = id.copy();
+		final LooseFetch f = prefetched.get(key);
+		if (f != null && f.remote == remote) {
+			prefetched.remove(key);
+			return await(f.data);
+		}
+		return remote.open(looseName).toArray();
+	}
+
+	private void readAhead() {
+		if (pool == null)
+			return;
+		final WalkRemoteObjectDatabase remote = remotes.get(lastRemoteIdx);
+		if (!remote.canOpenConcurrently())
+			return;
+
+		// Only look at the front of the queue; objects further back are
+		// likely to arrive inside a pack, or be found through the trees
+		// we are about to download.
+		//
+		final int max = 2 * fetchThreads;
+		final Iterator<ObjectId> i = workQueue.iterator();
+		for (int n = 0; n < max && prefetched.size() < max && i.hasNext(); n++) {
+			final ObjectId id = i.next();
+			if (id instanceof RevObject) {
+				final RevObject obj = (RevObject) id;
+				if (obj.has(LOOKED_AHEAD))
+					continue;
+				obj.add(LOOKED_AHEAD);
+				if (obj.has(COMPLETE))
+					continue;
+			} else if (prefetched.containsKey(id)) {
+				continue;
+			}
+			if (local.hasObject(id) || inUnfetchedPack(id))
+				continue;
+
+			final String looseName = looseName(id);
+			final Future<byte[]> data = pool.submit(new Callable<byte[]>() {
+				public byte[] call() throws IOException {
+					return remote.open(looseName).toArray();
+				}
+			});
+			prefetched.put(id.copy(), new LooseFetch(remote, data));
+		}
+	}
+
+	private boolean inUnfetchedPack(final AnyObjectId id) {
+		for (final RemotePack pack : unfetchedPacks) {
+			if (pack.index != null && pack.index.hasObject(id))
+				return true;
+		}
+		return false;
+	}
+
+	private void forgetLooseObject(final AnyObjectId id) {
+		if (prefetched.isEmpty())
+			return;
+		final LooseFetch f = prefetched.remove(id.copy());
+		if (f != null)
+			f.data.cancel(true);
+	}
+
+	private void stopReadAhead() {
+		if (pool != null) {
+			pool.shutdownNow();
+			pool = null;
+		}
+		for (final LooseFetch f : prefetched.values())
+			f.data.cancel(true);
+		prefetched.clear();
+	}
+
+	private void openIndexes(final ProgressMonitor pm, final AnyObjectId id,
+			final WalkRemoteObjectDatabase wrr) {
+		if (pool == null || !wrr.canOpenConcurrently())
+			return;
+
+		final List<RemotePack> packs = new ArrayList<RemotePack>();
+		for (final RemotePack pack : unfetchedPacks) {
+			if (pack.connection == wrr && pack.index == null)
+				packs.add(pack);
+		}
+		if (packs.size() < 2) {
+			// A single index is downloaded as before, with progress.
+			//
+			return;
+		}
+
+		final List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (final RemotePack pack : packs) {
+			results.add(pool.submit(new Callable<Object>() {
+				public Object call() throws IOException {
+					pack.openIndex(NullProgressMonitor.INSTANCE);
+					return null;
+				}
+			}));
+		}
+
+		pm.beginTask("Get pack indexes", packs.size());
+		try {
+			for (int i = 0; i < packs.size(); i++) {
+				try {
+					await(results.get(i));
+				} catch (IOException err) {
+					// As in downloadPackedObject, an index we cannot
+					// obtain isn't a failure; the object may still be
+					// available through another source.
+					//
+					recordError(id, err);
+					unfetchedPacks.remove(packs.get(i));
+				}
+				pm.update(1);
+			}
+		} finally {
+			pm.endTask();
+		}
+	}
+
+	private static <T> T await(final Future<T> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException err) {
+			final InterruptedIOException e;
+			e = new InterruptedIOException("Interrupted during fetch");
+			e.initCause(err);
+			throw e;
+		} catch (ExecutionException err) {
+			final Throwable cause = err.getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			final IOException e = new IOException(cause.getMessage());
+			e.initCause(cause);
+			throw e;
+		}
+	}
+
+	private static String looseName(final AnyObjectId id) {
+		final String idStr = id.name();
+		return idStr.substring(0, 2) + "/" + idStr.substring(2);
+	}
+
 	private void verifyLooseObject(final AnyObjectId id, final byte[] compressed)
 			throws IOException {
 		final UnpackedObjectLoader uol;
@@ -748,6 +940,17 @@ private void recordError(final AnyObjectId id, final Throwable what) {
 		errors.add(what);
 	}
 
+	private static class LooseFetch {
+		final WalkRemoteObjectDatabase remote;
+
+		final Future<byte[]> data;
+
+		LooseFetch(final WalkRemoteObjectDatabase r, final Future<byte[]> d) {
+			remote = r;
+			data = d;
+		}
+	}
+
 	private class RemotePack {
 		final WalkRemoteObjectDatabase connection;
 
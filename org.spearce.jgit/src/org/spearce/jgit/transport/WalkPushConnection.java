@@ -201,6 +201,7 @@ private void sendpack(final List<RemoteRefUpdate> updates,
 
 		try {
 			final PackWriter pw = new PackWriter(local, monitor);
+			pw.setDeltaCompress(true);
 			final List<ObjectId> need = new ArrayList<ObjectId>();
 			final List<ObjectId> have = new ArrayList<ObjectId>();
 			for (final RemoteRefUpdate r : updates)
@@ -141,6 +141,19 @@ abstract Collection<WalkRemoteObjectDatabase> getAlternates()
 	abstract FileStream open(String path) throws FileNotFoundException,
 			IOException;
 
+	/**
+	 * Can {@link #open(String)} be invoked from several threads at once?
+	 * <p>
+	 * Connections which send each request independently (for example over
+	 * HTTP) may return true, permitting the fetch to overlap the round trips
+	 * of many small downloads. The default implementation returns false.
+	 *
+	 * @return true if concurrent calls to {@link #open(String)} are safe.
+	 */
+	boolean canOpenConcurrently() {
+		return false;
+	}
+
 	/**
 	 * Create a new connection for a discovered alternate object database
 	 * <p>
@@ -57,6 +57,9 @@ public class CanonicalTreeParser extends AbstractTreeIterator {
 	/** Offset one past the current entry (first byte of next entry. */
 	private int nextPtr;
 
+	/** Confirm trees taken from the {@link TreeCache} still exist. */
+	boolean verifyCachedTrees;
+
 	/** Create a new parser. */
 	public CanonicalTreeParser() {
 		// Nothing necessary.
@@ -64,6 +67,7 @@ public CanonicalTreeParser() {
 
 	private CanonicalTreeParser(final CanonicalTreeParser p) {
 		super(p);
+		verifyCachedTrees = p.verifyCachedTrees;
 	}
 
 	/**
@@ -81,6 +85,9 @@ public void reset(final byte[] treeData) {
 
 	/**
 	 * Reset this parser to walk through the given tree.
+	 * <p>
+	 * The tree's content is taken from the {@link TreeCache} if it is there,
+	 * otherwise it is read from the repository and added to the cache.
 	 * 
 	 * @param repo
 	 *            repository to load the tree data from.
@@ -97,13 +104,30 @@ public void reset(final byte[] treeData) {
 	 */
 	public void reset(final Repository repo, final ObjectId id)
 			throws IncorrectObjectTypeException, IOException {
+		if (!TreeCache.isEnabled()) {
+			reset(read(repo, id));
+			return;
+		}
+
+		byte[] subtreeData = TreeCache.get(repo, id);
+		if (subtreeData != null && verifyCachedTrees && !repo.hasObject(id))
+			subtreeData = null; // Let read() report the tree as missing.
+		if (subtreeData == null) {
+			subtreeData = read(repo, id);
+			TreeCache.store(repo, id, subtreeData);
+		}
+		reset(subtreeData);
+	}
+
+	private static byte[] read(final Repository repo, final ObjectId id)
+			throws IncorrectObjectTypeException, IOException {
 		final ObjectLoader ldr = repo.openObject(id);
 		if (ldr == null)
 			throw new MissingObjectException(id, Constants.TYPE_TREE);
 		final byte[] subtreeData = ldr.getCachedBytes();
 		if (ldr.getType() != Constants.OBJ_TREE)
 			throw new IncorrectObjectTypeException(id, Constants.TYPE_TREE);
-		reset(subtreeData);
+		return subtreeData;
 	}
 
 	public CanonicalTreeParser createSubtreeIterator(final Repository repo)
@@ -42,7 +42,13 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.spearce.jgit.dircache.DirCache;
+import org.spearce.jgit.dircache.DirCacheEntry;
 import org.spearce.jgit.errors.IncorrectObjectTypeException;
 import org.spearce.jgit.lib.FileMode;
 import org.spearce.jgit.lib.Repository;
@@ -53,10 +59,23 @@
  * <p>
  * This iterator uses the standard <code>java.io</code> package to read the
  * specified working directory as part of a {@link TreeWalk}.
+ * <p>
+ * If created with a thread pool the iterator reads ahead of the walk: the
+ * listings of a directory's subdirectories are obtained on the pool while the
+ * directory itself is being walked, and files likely to be hashed by a
+ * comparison against the index are hashed on the pool as soon as their
+ * directory has been listed. Entries are still returned in the canonical
+ * order, so the walk behaves exactly as it does without a pool.
  */
 public class FileTreeIterator extends WorkingTreeIterator {
 	private final File directory;
 
+	private final String pathPrefix;
+
+	private final DirCache index;
+
+	private final ExecutorService pool;
+
 	/**
 	 * Create a new iterator to traverse the given directory and its children.
 	 * 
@@ -65,8 +84,36 @@ public class FileTreeIterator extends WorkingTreeIterator {
 	 *            the root of the repository.
 	 */
 	public FileTreeIterator(final File root) {
+		this(root, null, null);
+	}
+
+	/**
+	 * Create a new iterator which reads ahead using a thread pool.
+	 * <p>
+	 * Files are only hashed ahead of time if an index is supplied and their
+	 * index entry has the same length but a different modification time, or is
+	 * racily clean, as these are the files that
+	 * {@link #isModified(DirCacheEntry, boolean)} has to read. The index must
+	 * not be modified while the iterator is in use.
+	 * 
+	 * @param root
+	 *            the starting directory. This directory should correspond to
+	 *            the root of the repository.
+	 * @param index
+	 *            index the working directory will be compared against; null
+	 *            to only read directory listings ahead.
+	 * @param pool
+	 *            pool to read ahead on; null to do all work on the thread
+	 *            running the walk. The caller is responsible for shutting the
+	 *            pool down once the walk is complete.
+	 */
+	public FileTreeIterator(final File root, final DirCache index,
+			final ExecutorService pool) {
 		directory = root;
-		init(entries());
+		pathPrefix = "";
+		this.index = index;
+		this.pool = pool;
+		init(readAhead(list(root, pathPrefix, index, pool)));
 	}
 
 	/**
@@ -79,32 +126,97 @@ public FileTreeIterator(final File root) {
 	 *            the parent directory.
 	 */
 	protected FileTreeIterator(final FileTreeIterator p, final File root) {
+		this(p, root, null);
+	}
+
+	private FileTreeIterator(final FileTreeIterator p, final File root,
+			final Future<Entry[]> listing) {
 		super(p);
 		directory = root;
-		init(entries());
+		pathPrefix = p.pathPrefix + root.getName() + "/";
+		index = p.index;
+		pool = p.pool;
+		init(readAhead(entries(listing)));
 	}
 
 	@Override
 	public AbstractTreeIterator createSubtreeIterator(final Repository repo)
 			throws IncorrectObjectTypeException, IOException {
-		return new FileTreeIterator(this, ((FileEntry) current()).file);
+		final FileEntry e = (FileEntry) current();
+		final Future<Entry[]> listing = e.listing;
+		e.listing = null;
+		return new FileTreeIterator(this, e.file, listing);
+	}
+
+	private Entry[] entries(final Future<Entry[]> listing) {
+		if (listing != null) {
+			try {
+				return listing.get();
+			} catch (InterruptedException err) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException err) {
+				// Fall through and list the directory ourselves.
+			}
+		}
+		return list(directory, pathPrefix, index, pool);
+	}
+
+	private Entry[] readAhead(final Entry[] list) {
+		if (pool == null)
+			return list;
+		for (final Entry e : list) {
+			final FileEntry f = (FileEntry) e;
+			if (f.getMode() != FileMode.TREE)
+				continue;
+			if (parent == null && ".git".equals(f.getName()))
+				continue;
+			f.listing = pool.submit(new Callable<Entry[]>() {
+				public Entry[] call() {
+					return list(f.file, pathPrefix + f.getName() + "/", index,
+							pool);
+				}
+			});
+		}
+		return list;
 	}
 
-	private Entry[] entries() {
+	private static Entry[] list(final File directory, final String prefix,
+			final DirCache index, final ExecutorService pool) {
 		final File[] all = directory.listFiles();
 		if (all == null)
 			return EOF;
 		final Entry[] r = new Entry[all.length];
-		for (int i = 0; i < r.length; i++)
-			r[i] = new FileEntry(all[i]);
+		for (int i = 0; i < r.length; i++) {
+			final FileEntry e = new FileEntry(all[i]);
+			if (pool != null && index != null
+					&& isHashCandidate(e, prefix, index))
+				prefetchContentId(e, pool);
+			r[i] = e;
+		}
 		return r;
 	}
 
+	private static boolean isHashCandidate(final FileEntry e,
+			final String prefix, final DirCache index) {
+		final int m = e.getMode().getBits();
+		if ((m & 0170000) != 0100000)
+			return false;
+		final DirCacheEntry ce = index.getEntry(prefix + e.getName());
+		if (ce == null || ce.isAssumeValid())
+			return false;
+		if ((int) e.getLength() != ce.getLength())
+			return false;
+		return e.getLastModified() != ce.getLastModified()
+				|| index.isRacilyClean(ce);
+	}
+
 	static class FileEntry extends Entry {
 		final File file;
 
 		private final FileMode mode;
 
+		Future<Entry[]> listing;
+
 		private long length = -1;
 
 		private long lastModified;
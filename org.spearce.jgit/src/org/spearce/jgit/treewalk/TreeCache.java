@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.treewalk;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.spearce.jgit.lib.AnyObjectId;
+import org.spearce.jgit.lib.CacheStatistics;
+import org.spearce.jgit.lib.ObjectId;
+import org.spearce.jgit.lib.Repository;
+
+/**
+ * Caches the raw content of trees read by {@link CanonicalTreeParser}.
+ * <p>
+ * Walks which read the same trees over and over (a path limited log testing
+ * each commit against its parents, or an object walk marking trees shared by
+ * many commits) find the inflated tree here instead of going back to the
+ * repository for it.
+ * <p>
+ * Each entry remembers the objects directory of the repository it was read
+ * from, and is only returned to repositories using that same directory. The
+ * directory, not the {@link Repository}, is kept so the cache does not keep
+ * closed repositories (and their open files) reachable. A repository purges
+ * its entries when it rescans its packs, as trees may have been pruned.
+ * Entries are not otherwise checked against the object database; walks which
+ * must know a tree still exists (such as a connectivity check) enable
+ * {@link TreeWalk#setVerifyCachedTrees(boolean)}.
+ * <p>
+ * The cache is split into independently locked segments, each holding its
+ * entries in access order. The byte limit is divided evenly between the
+ * segments; a store evicts the least recently used trees of its segment until
+ * the segment is back under its share. Trees larger than a segment's share are
+ * not cached. A limit of 0 disables the cache.
+ * <p>
+ * Cached arrays are handed out to every parser reading that tree, so they must
+ * never be modified.
+ */
+public class TreeCache {
+	private static final int MB = 1024 * 1024;
+
+	private static final int SEGMENTS = 16;
+
+	private static final TreeCache cache = new TreeCache(4 * MB);
+
+	/**
+	 * Modify the configuration of the tree cache.
+	 * <p>
+	 * The new limit is applied immediately. If it is smaller than what is
+	 * currently cached, the oldest trees are discarded.
+	 * 
+	 * @param limit
+	 *            maximum number of bytes of tree data to hold. 0 disables the
+	 *            cache.
+	 */
+	public static void reconfigure(final int limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Invalid tree cache limit "
+					+ limit);
+		cache.setLimit(limit);
+	}
+
+	/** @return a snapshot of the cache's counters. */
+	public static CacheStatistics getStatistics() {
+		return cache.statistics();
+	}
+
+	/** Discard every cached tree and reset the counters. */
+	public static void clear() {
+		cache.discardAll();
+	}
+
+	/**
+	 * Discard every cached tree read from a repository.
+	 * <p>
+	 * Trees read by other repositories using the same objects directory are
+	 * discarded too.
+	 * 
+	 * @param db
+	 *            repository whose trees should be discarded.
+	 */
+	public static void purge(final Repository db) {
+		cache.discard(db);
+	}
+
+	static boolean isEnabled() {
+		return cache.maxByteCount > 0;
+	}
+
+	static byte[] get(final Repository db, final AnyObjectId id) {
+		return cache.lookup(db, id);
+	}
+
+	static void store(final Repository db, final AnyObjectId id,
+			final byte[] raw) {
+		cache.insert(db, id, raw);
+	}
+
+	private final Segment[] segments;
+
+	private volatile int maxByteCount;
+
+	private final AtomicLong hitCount = new AtomicLong();
+
+	private final AtomicLong missCount = new AtomicLong();
+
+	private final AtomicLong evictionCount = new AtomicLong();
+
+	TreeCache(final int limit) {
+		maxByteCount = limit;
+		segments = new Segment[SEGMENTS];
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = new Segment();
+	}
+
+	void setLimit(final int limit) {
+		maxByteCount = limit;
+		release(segmentLimit());
+	}
+
+	CacheStatistics statistics() {
+		long bytes = 0;
+		int entries = 0;
+		for (final Segment s : segments) {
+			bytes += s.byteCount;
+			entries += s.entryCount;
+		}
+		return new CacheStatistics(hitCount.get(), missCount.get(),
+				evictionCount.get(), bytes, entries, maxByteCount);
+	}
+
+	void discardAll() {
+		for (final Segment s : segments) {
+			s.lock.lock();
+			try {
+				s.map.clear();
+				s.byteCount = 0;
+				s.entryCount = 0;
+			} finally {
+				s.lock.unlock();
+			}
+		}
+		hitCount.set(0);
+		missCount.set(0);
+		evictionCount.set(0);
+	}
+
+	void discard(final Repository db) {
+		final File dir = db.getObjectsDirectory();
+		for (final Segment s : segments) {
+			s.lock.lock();
+			try {
+				final Iterator<Entry> i = s.map.values().iterator();
+				while (i.hasNext()) {
+					final Entry e = i.next();
+					if (e.dir.equals(dir)) {
+						i.remove();
+						s.byteCount -= e.raw.length;
+						s.entryCount--;
+					}
+				}
+			} finally {
+				s.lock.unlock();
+			}
+		}
+	}
+
+	byte[] lookup(final Repository db, final AnyObjectId id) {
+		final Segment s = segmentFor(id);
+		final Entry e;
+		s.lock.lock();
+		try {
+			// RevObject compares by identity; copy() gives a plain ObjectId.
+			e = s.map.get(id.copy());
+		} finally {
+			s.lock.unlock();
+		}
+		if (e != null && e.dir.equals(db.getObjectsDirectory())) {
+			hitCount.incrementAndGet();
+			return e.raw;
+		}
+		missCount.incrementAndGet();
+		return null;
+	}
+
+	void insert(final Repository db, final AnyObjectId id, final byte[] raw) {
+		final long segmentLimit = segmentLimit();
+		if (segmentLimit == 0 || raw.length > segmentLimit)
+			return; // Too large to cache, or the cache is disabled.
+
+		final Segment s = segmentFor(id);
+		s.lock.lock();
+		try {
+			final Entry e = new Entry(db.getObjectsDirectory(), raw);
+			final Entry old = s.map.put(id.copy(), e);
+			if (old != null)
+				s.byteCount -= old.raw.length;
+			else
+				s.entryCount++;
+			s.byteCount += raw.length;
+			evictionCount.addAndGet(s.releaseMemory(segmentLimit));
+		} finally {
+			s.lock.unlock();
+		}
+	}
+
+	private void release(final long segmentLimit) {
+		for (final Segment s : segments) {
+			s.lock.lock();
+			try {
+				evictionCount.addAndGet(s.releaseMemory(segmentLimit));
+			} finally {
+				s.lock.unlock();
+			}
+		}
+	}
+
+	private long segmentLimit() {
+		return maxByteCount / SEGMENTS;
+	}
+
+	private Segment segmentFor(final AnyObjectId id) {
+		return segments[id.getFirstByte() & (SEGMENTS - 1)];
+	}
+
+	/** Trees in access order, guarded by a single lock. */
+	private static class Segment {
+		final ReentrantLock lock = new ReentrantLock();
+
+		final LinkedHashMap<ObjectId, Entry> map = new LinkedHashMap<ObjectId, Entry>(
+				64, 0.75f, true);
+
+		/** Bytes held; read without the lock. */
+		volatile long byteCount;
+
+		volatile int entryCount;
+
+		int releaseMemory(final long limit) {
+			final Iterator<Map.Entry<ObjectId, Entry>> i;
+			i = map.entrySet().iterator();
+			int evicted = 0;
+			while (i.hasNext() && (byteCount > limit || limit == 0)) {
+				final byte[] raw = i.next().getValue().raw;
+				i.remove();
+				byteCount -= raw.length;
+				entryCount--;
+				evicted++;
+			}
+			return evicted;
+		}
+	}
+
+	/** A tree's content, and the objects directory it was read from. */
+	private static class Entry {
+		final File dir;
+
+		final byte[] raw;
+
+		Entry(final File dir, final byte[] raw) {
+			this.dir = dir;
+			this.raw = raw;
+		}
+	}
+}
@@ -149,6 +149,8 @@ public static TreeWalk forPath(final Repository db, final String path,
 
 	private boolean postOrderTraversal;
 
+	private boolean verifyCachedTrees;
+
 	private int depth;
 
 	private boolean advance;
@@ -269,6 +271,21 @@ public void setPostOrderTraversal(final boolean b) {
 		postOrderTraversal = b;
 	}
 
+	/**
+	 * Set the walker to confirm trees found in the {@link TreeCache} exist.
+	 * <p>
+	 * Cached trees are normally used without asking the repository if it still
+	 * has them. Callers which must detect a missing tree, such as a
+	 * connectivity check, should enable this before the next reset. Trees read
+	 * from the repository are not checked again.
+	 *
+	 * @param b
+	 *            true to check cached trees against the repository.
+	 */
+	public void setVerifyCachedTrees(final boolean b) {
+		verifyCachedTrees = b;
+	}
+
 	/** Reset this walker so new tree iterators can be added to it. */
 	public void reset() {
 		trees = new AbstractTreeIterator[0];
@@ -308,9 +325,11 @@ public void reset(final ObjectId[] ids) throws MissingObjectException,
 				while (o.parent != null)
 					o = o.parent;
 				if (o instanceof CanonicalTreeParser) {
+					final CanonicalTreeParser p = (CanonicalTreeParser) o;
 					o.matches = null;
 					o.matchShift = 0;
-					((CanonicalTreeParser) o).reset(db, ids[i]);
+					p.verifyCachedTrees = verifyCachedTrees;
+					p.reset(db, ids[i]);
 					r[i] = o;
 					continue;
 				}
@@ -581,6 +600,31 @@ public String getPathString() {
 		return pathOf(currentHead);
 	}
 
+	/**
+	 * Get the number of bytes in the current entry's complete path.
+	 *
+	 * @return length of the path, from the root of the repository.
+	 * @see #getPathBuffer()
+	 */
+	public int getPathLength() {
+		return currentHead.pathLen;
+	}
+
+	/**
+	 * Get the buffer holding the current entry's complete path.
+	 * <p>
+	 * The first {@link #getPathLength()} bytes of the buffer are the path in
+	 * UTF-8, using '/' to delimit directories. The buffer is not copied. It
+	 * belongs to the walker, must not be modified by the caller, and its
+	 * contents are only valid until the walker moves to another entry. Tree
+	 * filters may use it to match paths without creating a String.
+	 *
+	 * @return the path buffer of the current entry.
+	 */
+	public byte[] getPathBuffer() {
+		return currentHead.path;
+	}
+
 	/**
 	 * Test if the supplied path matches the current entry's path.
 	 * <p>
@@ -758,6 +802,7 @@ private void exitSubtree() {
 	private CanonicalTreeParser parserFor(final ObjectId id)
 			throws IncorrectObjectTypeException, IOException {
 		final CanonicalTreeParser p = new CanonicalTreeParser();
+		p.verifyCachedTrees = verifyCachedTrees;
 		p.reset(db, id);
 		return p;
 	}
@@ -46,10 +46,16 @@
 import java.security.MessageDigest;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
+import org.spearce.jgit.dircache.DirCacheEntry;
 import org.spearce.jgit.errors.CorruptObjectException;
 import org.spearce.jgit.lib.Constants;
 import org.spearce.jgit.lib.FileMode;
+import org.spearce.jgit.util.FS;
 
 /**
  * Walks a working directory tree as part of a {@link TreeWalk}.
@@ -173,13 +179,52 @@ private void initializeDigest() {
 			.encodedTypeString(Constants.OBJ_BLOB);
 
 	private byte[] idBufferBlob(final Entry e) {
+		final Future<byte[]> pending = e.prefetchedId;
+		if (pending != null) {
+			e.prefetchedId = null;
+			try {
+				return pending.get();
+			} catch (InterruptedException err) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException err) {
+				// Fall through and try again on this thread.
+			}
+		}
+
+		initializeDigest();
+		return computeBlobId(e, contentReadBuffer, contentDigest);
+	}
+
+	/**
+	 * Start computing the content id of an entry on a thread pool.
+	 * <p>
+	 * The result is picked up by {@link #idBuffer()} when the walk reaches the
+	 * entry, so callers should only schedule entries the walk is likely to
+	 * hash anyway, such as files whose stat information disagrees with the
+	 * index. Entries which are never examined simply waste the pool's time.
+	 *
+	 * @param e
+	 *            the entry to hash. Must be a regular or executable file.
+	 * @param pool
+	 *            pool to compute the content id on.
+	 */
+	protected static void prefetchContentId(final Entry e,
+			final ExecutorService pool) {
+		e.prefetchedId = pool.submit(new Callable<byte[]>() {
+			public byte[] call() {
+				return computeBlobId(e, new byte[BUFFER_SIZE], Constants
+						.newMessageDigest());
+			}
+		});
+	}
+
+	private static byte[] computeBlobId(final Entry e,
+			final byte[] contentReadBuffer, final MessageDigest contentDigest) {
 		try {
 			final InputStream is = e.openInputStream();
 			if (is == null)
 				return zeroid;
 			try {
-				initializeDigest();
-
 				contentDigest.reset();
 				contentDigest.update(hblob);
 				contentDigest.update((byte) ' ');
@@ -283,6 +328,56 @@ public long getEntryLastModified() {
 		return current().getLastModified();
 	}
 
+	/**
+	 * Check if the current entry differs from its cached index entry.
+	 * <p>
+	 * The cheap stat information (file mode, length and last modified time)
+	 * is compared first. Only when the length matches but the modification
+	 * time differs, or the caller says the stat information cannot be trusted,
+	 * is the file read and hashed to compare it with the cached object id.
+	 * Walking a clean working directory therefore reads no file content.
+	 *
+	 * @param entry
+	 *            the index entry for the same path.
+	 * @param forceContentCheck
+	 *            true if the stat information must not be trusted, such as
+	 *            when the entry is racily clean; see
+	 *            {@link org.spearce.jgit.dircache.DirCache#isRacilyClean(DirCacheEntry)}.
+	 * @return true if the file is (most likely) modified; false if it matches
+	 *         the index entry.
+	 */
+	public boolean isModified(final DirCacheEntry entry,
+			final boolean forceContentCheck) {
+		if (entry.isAssumeValid())
+			return false;
+
+		final int cacheMode = entry.getRawMode();
+		if (mode != cacheMode) {
+			// Only the executable bit may differ, and only when the
+			// file system is unable to tell us its real value.
+			//
+			if (FS.INSTANCE.supportsExecute()
+					|| ((mode ^ cacheMode) & ~0111) != 0)
+				return true;
+		}
+
+		if ((mode & 0170000) != 0100000) {
+			// We cannot hash symbolic links or gitlinks, so a matching
+			// mode is all we can test.
+			//
+			return false;
+		}
+
+		if ((int) getEntryLength() != entry.getLength())
+			return true;
+
+		if (!forceContentCheck
+				&& getEntryLastModified() == entry.getLastModified())
+			return false;
+
+		return !getEntryObjectId().equals(entry.getObjectId());
+	}
+
 	private static final Comparator<Entry> ENTRY_CMP = new Comparator<Entry>() {
 		public int compare(final Entry o1, final Entry o2) {
 			final byte[] a = o1.encodedName;
@@ -353,6 +448,8 @@ protected Entry current() {
 	protected static abstract class Entry {
 		byte[] encodedName;
 
+		Future<byte[]> prefetchedId;
+
 		int encodedNameLen;
 
 		void encodeName(final CharsetEncoder enc) {
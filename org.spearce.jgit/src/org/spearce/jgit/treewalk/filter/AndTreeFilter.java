@@ -134,6 +134,17 @@ public TreeFilter clone() {
 			return new Binary(a.clone(), b.clone());
 		}
 
+		@Override
+		public Collection<String> getPathsBestEffort() {
+			final Collection<String> r = a.getPathsBestEffort();
+			return r != null ? r : b.getPathsBestEffort();
+		}
+
+		@Override
+		public boolean includesOnlyChanges() {
+			return a.includesOnlyChanges() || b.includesOnlyChanges();
+		}
+
 		@Override
 		public String toString() {
 			return "(" + a.toString() + " AND " + b.toString() + ")";
@@ -174,6 +185,24 @@ public TreeFilter clone() {
 			return new List(s);
 		}
 
+		@Override
+		public Collection<String> getPathsBestEffort() {
+			for (final TreeFilter f : subfilters) {
+				final Collection<String> r = f.getPathsBestEffort();
+				if (r != null)
+					return r;
+			}
+			return null;
+		}
+
+		@Override
+		public boolean includesOnlyChanges() {
+			for (final TreeFilter f : subfilters)
+				if (f.includesOnlyChanges())
+					return true;
+			return false;
+		}
+
 		@Override
 		public String toString() {
 			final StringBuffer r = new StringBuffer();
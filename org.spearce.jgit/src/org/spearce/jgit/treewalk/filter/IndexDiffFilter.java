@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.treewalk.filter;
+
+import java.io.IOException;
+
+import org.spearce.jgit.dircache.DirCacheEntry;
+import org.spearce.jgit.dircache.DirCacheIterator;
+import org.spearce.jgit.errors.IncorrectObjectTypeException;
+import org.spearce.jgit.errors.MissingObjectException;
+import org.spearce.jgit.lib.FileMode;
+import org.spearce.jgit.treewalk.TreeWalk;
+import org.spearce.jgit.treewalk.WorkingTreeIterator;
+
+/**
+ * Includes tree entries only if the working tree differs from the index.
+ * <p>
+ * The walk must contain a {@link DirCacheIterator} and a
+ * {@link WorkingTreeIterator}. A file present in both is compared using its
+ * stat information first, so only files whose length or modification time
+ * changed, or whose index entry is racily clean, are read and hashed. Any
+ * additional trees in the walk (such as the tree of <code>HEAD</code>) are
+ * compared to the index by object id, which is cheap.
+ * <p>
+ * Files present in only one of the index or the working tree, and unmerged
+ * index entries, are always included.
+ */
+public class IndexDiffFilter extends TreeFilter {
+	private final int dirCache;
+
+	private final int workingTree;
+
+	/**
+	 * Create a filter to compare the index with the working tree.
+	 *
+	 * @param dirCacheIndex
+	 *            position of the {@link DirCacheIterator} in the walk.
+	 * @param workingTreeIndex
+	 *            position of the {@link WorkingTreeIterator} in the walk.
+	 */
+	public IndexDiffFilter(final int dirCacheIndex, final int workingTreeIndex) {
+		dirCache = dirCacheIndex;
+		workingTree = workingTreeIndex;
+	}
+
+	@Override
+	public boolean include(final TreeWalk walker)
+			throws MissingObjectException, IncorrectObjectTypeException,
+			IOException {
+		final int dm = walker.getRawMode(dirCache);
+		final int n = walker.getTreeCount();
+		for (int i = 0; i < n; i++) {
+			if (i == dirCache || i == workingTree)
+				continue;
+			if (walker.getRawMode(i) != dm || !walker.idEqual(i, dirCache))
+				return true;
+		}
+
+		final int wm = walker.getRawMode(workingTree);
+		if (dm == 0 || wm == 0)
+			return true;
+		if (FileMode.TREE.equals(dm) || FileMode.TREE.equals(wm)) {
+			// The working tree has no cheap subtree id we could compare
+			// with the index; the entries inside must be examined.
+			//
+			return true;
+		}
+
+		final DirCacheIterator di;
+		final WorkingTreeIterator wi;
+		di = walker.getTree(dirCache, DirCacheIterator.class);
+		wi = walker.getTree(workingTree, WorkingTreeIterator.class);
+		final DirCacheEntry e = di.getDirCacheEntry();
+		if (e == null || e.getStage() != 0)
+			return true;
+		return wi.isModified(e, di.isRacilyClean());
+	}
+
+	@Override
+	public boolean shouldBeRecursive() {
+		return true;
+	}
+
+	@Override
+	public TreeFilter clone() {
+		return this;
+	}
+
+	@Override
+	public String toString() {
+		return "INDEX_DIFF";
+	}
+}
@@ -37,6 +37,9 @@
 
 package org.spearce.jgit.treewalk.filter;
 
+import java.util.Collection;
+import java.util.Collections;
+
 import org.spearce.jgit.lib.Constants;
 import org.spearce.jgit.treewalk.TreeWalk;
 
@@ -100,6 +103,11 @@ public TreeFilter clone() {
 		return this;
 	}
 
+	@Override
+	public Collection<String> getPathsBestEffort() {
+		return Collections.singleton(pathStr);
+	}
+
 	public String toString() {
 		return "PATH(\"" + pathStr + "\")";
 	}
@@ -38,9 +38,11 @@
 
 package org.spearce.jgit.treewalk.filter;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.List;
 
 import org.spearce.jgit.errors.StopWalkException;
 import org.spearce.jgit.treewalk.TreeWalk;
@@ -137,11 +139,25 @@ public TreeFilter clone() {
 			return this;
 		}
 
+		@Override
+		public Collection<String> getPathsBestEffort() {
+			return path.getPathsBestEffort();
+		}
+
 		public String toString() {
 			return "FAST_" + path.toString();
 		}
 	}
 
+	/**
+	 * Matches any number of paths in time proportional to the path length.
+	 * <p>
+	 * The paths are stored in a tree of path components. Testing an entry
+	 * descends one node per component of the entry's path: the entry is
+	 * included if it is at or below one of the paths, or if it is a parent
+	 * directory of one of them. The last path in sort order decides when the
+	 * walk can stop, as no later entry can match any path of the group.
+	 */
 	static class Group extends TreeFilter {
 		private static final Comparator<PathFilter> PATH_SORT = new Comparator<PathFilter>() {
 			public int compare(final PathFilter o1, final PathFilter o2) {
@@ -151,25 +167,58 @@ public int compare(final PathFilter o1, final PathFilter o2) {
 
 		private final PathFilter[] paths;
 
+		private final PathNode root;
+
+		private final byte[] last;
+
 		private Group(final PathFilter[] p) {
 			paths = p;
 			Arrays.sort(paths, PATH_SORT);
+
+			root = new PathNode(null, 0, 0);
+			for (final PathFilter f : paths) {
+				final byte[] r = f.pathRaw;
+				PathNode n = root;
+				int start = 0;
+				for (int i = 0; i <= r.length; i++) {
+					if (i == r.length || r[i] == '/') {
+						n = n.add(r, start, i);
+						start = i + 1;
+					}
+				}
+				n.terminal = true;
+			}
+			last = paths[paths.length - 1].pathRaw;
 		}
 
 		@Override
 		public boolean include(final TreeWalk walker) {
-			final int n = paths.length;
-			for (int i = 0;;) {
-				final byte[] r = paths[i].pathRaw;
-				final int cmp = walker.isPathPrefix(r, r.length);
-				if (cmp == 0)
-					return true;
-				if (++i < n)
-					continue;
-				if (cmp > 0)
-					throw StopWalkException.INSTANCE;
-				return false;
+			if (matches(walker.getPathBuffer(), walker.getPathLength()))
+				return true;
+			if (walker.isPathPrefix(last, last.length) > 0)
+				throw StopWalkException.INSTANCE;
+			return false;
+		}
+
+		private boolean matches(final byte[] c, final int cLen) {
+			PathNode n = root;
+			int start = 0;
+			for (int i = 0; i <= cLen; i++) {
+				if (i == cLen || c[i] == '/') {
+					n = n.find(c, start, i);
+					if (n == null)
+						return false;
+					if (n.terminal) {
+						// A path of the group is this entry or one of
+						// its parent directories.
+						return true;
+					}
+					start = i + 1;
+				}
 			}
+
+			// The entry is a parent directory of a path in the group.
+			return n.size > 0;
 		}
 
 		@Override
@@ -185,6 +234,14 @@ public TreeFilter clone() {
 			return this;
 		}
 
+		@Override
+		public Collection<String> getPathsBestEffort() {
+			final List<String> r = new ArrayList<String>(paths.length);
+			for (final PathFilter p : paths)
+				r.add(p.pathStr);
+			return r;
+		}
+
 		public String toString() {
 			final StringBuffer r = new StringBuffer();
 			r.append("FAST(");
@@ -197,4 +254,93 @@ public String toString() {
 			return r.toString();
 		}
 	}
+
+	/** One path component, with an open addressed table of its children. */
+	private static class PathNode {
+		private static final PathNode[] NO_CHILDREN = {};
+
+		final byte[] name;
+
+		final int hash;
+
+		/** True if a path of the group ends at this component. */
+		boolean terminal;
+
+		int size;
+
+		private PathNode[] children = NO_CHILDREN;
+
+		PathNode(final byte[] buf, final int start, final int end) {
+			if (buf != null) {
+				name = new byte[end - start];
+				System.arraycopy(buf, start, name, 0, name.length);
+			} else
+				name = null;
+			hash = hash(buf, start, end);
+		}
+
+		PathNode find(final byte[] buf, final int start, final int end) {
+			if (size == 0)
+				return null;
+			final int mask = children.length - 1;
+			int i = hash(buf, start, end) & mask;
+			PathNode n;
+			while ((n = children[i]) != null) {
+				if (n.nameEquals(buf, start, end))
+					return n;
+				i = (i + 1) & mask;
+			}
+			return null;
+		}
+
+		PathNode add(final byte[] buf, final int start, final int end) {
+			PathNode n = find(buf, start, end);
+			if (n == null) {
+				if ((size + 1) * 2 > children.length)
+					grow();
+				n = new PathNode(buf, start, end);
+				insert(n);
+				size++;
+			}
+			return n;
+		}
+
+		private boolean nameEquals(final byte[] buf, final int start,
+				final int end) {
+			if (name.length != end - start)
+				return false;
+			for (int i = 0; i < name.length; i++) {
+				if (name[i] != buf[start + i])
+					return false;
+			}
+			return true;
+		}
+
+		private void grow() {
+			final PathNode[] old = children;
+			children = new PathNode[Math.max(4, old.length * 2)];
+			for (final PathNode n : old) {
+				if (n != null)
+					insert(n);
+			}
+		}
+
+		private void insert(final PathNode n) {
+			final int mask = children.length - 1;
+			int i = n.hash & mask;
+			while (children[i] != null)
+				i = (i + 1) & mask;
+			children[i] = n;
+		}
+
+		private static int hash(final byte[] buf, final int start,
+				final int end) {
+			int h = 0;
+			if (buf != null) {
+				for (int i = start; i < end; i++)
+					h = h * 31 + buf[i];
+			}
+			return h ^ (h >>> 16);
+		}
+	}
 }
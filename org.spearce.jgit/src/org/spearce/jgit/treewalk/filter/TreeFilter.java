@@ -38,6 +38,7 @@
 package org.spearce.jgit.treewalk.filter;
 
 import java.io.IOException;
+import java.util.Collection;
 
 import org.spearce.jgit.errors.IncorrectObjectTypeException;
 import org.spearce.jgit.errors.MissingObjectException;
@@ -142,6 +143,11 @@ public TreeFilter clone() {
 			return this;
 		}
 
+		@Override
+		public boolean includesOnlyChanges() {
+			return true;
+		}
+
 		@Override
 		public String toString() {
 			return "ANY_DIFF";
@@ -210,6 +216,35 @@ public abstract boolean include(TreeWalk walker)
 	 */
 	public abstract TreeFilter clone();
 
+	/**
+	 * Get the paths this filter limits a walk to, if it knows them.
+	 * <p>
+	 * If paths are returned the filter never includes an entry which is not
+	 * one of the paths, below one of them, or a parent directory of one of
+	 * them. Callers can use this to skip trees which cannot hold a path of
+	 * interest without running the filter. The default implementation
+	 * returns null.
+	 * 
+	 * @return the paths, using '/' to delimit directories; null if the filter
+	 *         does not limit a walk to a known set of paths.
+	 */
+	public Collection<String> getPathsBestEffort() {
+		return null;
+	}
+
+	/**
+	 * Test if this filter only includes entries which differ between trees.
+	 * <p>
+	 * Such a filter never includes an entry whose mode and object id are the
+	 * same in all trees of a walk over two or more trees. The default
+	 * implementation returns false.
+	 * 
+	 * @return true if unchanged entries are never included.
+	 */
+	public boolean includesOnlyChanges() {
+		return false;
+	}
+
 	@Override
 	public String toString() {
 		String n = getClass().getName();
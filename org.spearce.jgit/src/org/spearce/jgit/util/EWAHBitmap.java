@@ -0,0 +1,434 @@
+/*
+ * Copyright (C) 2008, Google Inc.
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Git Development Community nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.spearce.jgit.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.NoSuchElementException;
+
+import org.spearce.jgit.errors.CorruptObjectException;
+
+/**
+ * A compressed bitmap using the EWAH (Enhanced Word-Aligned Hybrid) encoding.
+ * <p>
+ * The bitmap is a sequence of 64 bit words. Each "marker" word describes a run
+ * of words which are entirely clean (all 0 or all 1 bits), followed by a count
+ * of literal words copied verbatim after the marker. Long runs of unset bits
+ * therefore cost nothing, which makes the encoding suitable for sparse sets of
+ * positions such as the changed entries of a split index.
+ * <p>
+ * The serialized form is the one used by C Git: the number of bits, the number
+ * of words, the words themselves, and the index of the last marker word, all
+ * in network byte order.
+ * <p>
+ * Bits can only be set in increasing order, as the bitmap is built by
+ * appending words to its end.
+ */
+public class EWAHBitmap {
+	private static final int WORD_BITS = 64;
+
+	private static final long MAX_RUNNING_LEN = 0xffffffffL;
+
+	private static final int MAX_LITERAL_WORDS = 0x7fffffff;
+
+	private static final int OP_OR = 0;
+
+	private static final int OP_AND_NOT = 1;
+
+	private static final int OP_XOR = 2;
+
+	private long[] words;
+
+	private int wordCnt;
+
+	/** Index of the last marker word within {@link #words}. */
+	private int rlw;
+
+	/** Number of bits described by the bitmap. */
+	private int sizeInBits;
+
+	/** Create an empty bitmap. */
+	public EWAHBitmap() {
+		words = new long[4];
+		wordCnt = 1;
+	}
+
+	private EWAHBitmap(final long[] w, final int cnt, final int rlwPos,
+			final int bits) {
+		words = w;
+		wordCnt = cnt;
+		rlw = rlwPos;
+		sizeInBits = bits;
+	}
+
+	/**
+	 * Set a bit.
+	 *
+	 * @param i
+	 *            position of the bit. Must be larger than any bit set before.
+	 * @throws IllegalArgumentException
+	 *             the position is before the end of the bitmap.
+	 */
+	public void set(final int i) {
+		if (i < sizeInBits)
+			throw new IllegalArgumentException("Bit " + i
+					+ " must be set in increasing order");
+		final int lastWord = sizeInBits == 0 ? -1 : (sizeInBits - 1)
+				/ WORD_BITS;
+		final int wordIdx = i / WORD_BITS;
+		if (wordIdx != lastWord) {
+			final int gap = wordIdx - lastWord - 1;
+			if (gap > 0)
+				addEmptyWords(gap);
+			addLiteral(0);
+		}
+		words[wordCnt - 1] |= 1L << (i % WORD_BITS);
+		sizeInBits = i + 1;
+	}
+
+	/**
+	 * @return number of bits the bitmap covers; one past the highest bit set
+	 *         (or the size it was read with).
+	 */
+	public int sizeInBits() {
+		return sizeInBits;
+	}
+
+	/** @return number of bits set. */
+	public int cardinality() {
+		int n = 0;
+		final BitIterator i = iterator();
+		while (i.hasNext()) {
+			i.next();
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Test a single bit.
+	 * <p>
+	 * This scans the bitmap from the start, so iterate instead of testing
+	 * many bits.
+	 *
+	 * @param i
+	 *            position of the bit.
+	 * @return true if the bit is set.
+	 */
+	public boolean get(final int i) {
+		final BitIterator itr = iterator();
+		while (itr.hasNext()) {
+			final int b = itr.next();
+			if (b == i)
+				return true;
+			if (b > i)
+				break;
+		}
+		return false;
+	}
+
+	/** @return an iterator over the positions of all set bits, ascending. */
+	public BitIterator iterator() {
+		return new BitIterator();
+	}
+
+	/** @return number of bytes {@link #writeTo(OutputStream)} produces. */
+	public int serializedSize() {
+		return 4 + 4 + 8 * wordCnt + 4;
+	}
+
+	/**
+	 * Write the bitmap in its serialized form.
+	 *
+	 * @param out
+	 *            stream to write to.
+	 * @throws IOException
+	 *             the stream could not be written.
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		final byte[] buf = new byte[8];
+		NB.encodeInt32(buf, 0, sizeInBits);
+		NB.encodeInt32(buf, 4, wordCnt);
+		out.write(buf, 0, 8);
+		for (int i = 0; i < wordCnt; i++) {
+			NB.encodeInt64(buf, 0, words[i]);
+			out.write(buf, 0, 8);
+		}
+		NB.encodeInt32(buf, 0, rlw);
+		out.write(buf, 0, 4);
+	}
+
+	/**
+	 * Read a serialized bitmap.
+	 *
+	 * @param buf
+	 *            buffer holding the bitmap.
+	 * @param ptr
+	 *            position of the first byte of the bitmap.
+	 * @param end
+	 *            position just past the last byte the bitmap may use.
+	 * @return the bitmap. Use {@link #serializedSize()} to find where it ends.
+	 * @throws CorruptObjectException
+	 *             the bitmap is truncated or malformed.
+	 */
+	public static EWAHBitmap read(final byte[] buf, int ptr, final int end)
+			throws CorruptObjectException {
+		if (end - ptr < 8)
+			throw new CorruptObjectException("Truncated EWAH bitmap");
+		final int bits = NB.decodeInt32(buf, ptr);
+		final int cnt = NB.decodeInt32(buf, ptr + 4);
+		ptr += 8;
+		if (bits < 0 || cnt < 1 || (end - ptr - 4) / 8 < cnt)
+			throw new CorruptObjectException("Truncated EWAH bitmap");
+		final long[] w = new long[cnt];
+		for (int i = 0; i < cnt; i++, ptr += 8)
+			w[i] = NB.decodeUInt64(buf, ptr);
+		final int rlwPos = NB.decodeInt32(buf, ptr);
+		if (rlwPos < 0 || rlwPos >= cnt)
+			throw new CorruptObjectException("Invalid EWAH bitmap");
+		return new EWAHBitmap(w, cnt, rlwPos, bits);
+	}
+
+	/**
+	 * Compress an uncompressed bitmap.
+	 *
+	 * @param bits
+	 *            the bitmap as 64 bit words; bit <code>i</code> is bit
+	 *            <code>i % 64</code> of word <code>i / 64</code>.
+	 * @param size
+	 *            number of bits the bitmap covers.
+	 * @return the compressed bitmap.
+	 */
+	public static EWAHBitmap valueOf(final long[] bits, final int size) {
+		final EWAHBitmap r = new EWAHBitmap();
+		final int n = (size + WORD_BITS - 1) / WORD_BITS;
+		for (int i = 0; i < n; i++) {
+			if (bits[i] == 0)
+				r.addEmptyWords(1);
+			else
+				r.addLiteral(bits[i]);
+		}
+		r.sizeInBits = size;
+		return r;
+	}
+
+	/**
+	 * Set all bits of this bitmap in an uncompressed bitmap.
+	 * <p>
+	 * Bits beyond the end of <code>dst</code> are ignored.
+	 *
+	 * @param dst
+	 *            the uncompressed bitmap to update, as for
+	 *            {@link #valueOf(long[], int)}.
+	 */
+	public void orInto(final long[] dst) {
+		apply(dst, OP_OR);
+	}
+
+	/**
+	 * Clear all bits of this bitmap in an uncompressed bitmap.
+	 *
+	 * @param dst
+	 *            the uncompressed bitmap to update.
+	 * @see #orInto(long[])
+	 */
+	public void andNotInto(final long[] dst) {
+		apply(dst, OP_AND_NOT);
+	}
+
+	/**
+	 * Flip all bits of this bitmap in an uncompressed bitmap.
+	 *
+	 * @param dst
+	 *            the uncompressed bitmap to update.
+	 * @see #orInto(long[])
+	 */
+	public void xorInto(final long[] dst) {
+		apply(dst, OP_XOR);
+	}
+
+	private void apply(final long[] dst, final int op) {
+		int pos = 0;
+		int m = 0;
+		while (m < wordCnt && pos < dst.length) {
+			final long marker = words[m];
+			final int run = (int) Math.min(runningLength(marker), dst.length
+					- pos);
+			if (runningBit(marker)) {
+				for (int k = 0; k < run; k++)
+					dst[pos + k] = combine(dst[pos + k], ~0L, op);
+			}
+			pos += run;
+
+			final int lit = literalWords(marker);
+			for (int k = 1; k <= lit && pos < dst.length; k++)
+				dst[pos] = combine(dst[pos++], words[m + k], op);
+			m += lit + 1;
+		}
+	}
+
+	private static long combine(final long a, final long b, final int op) {
+		switch (op) {
+		case OP_OR:
+			return a | b;
+		case OP_AND_NOT:
+			return a & ~b;
+		default:
+			return a ^ b;
+		}
+	}
+
+	private void addEmptyWords(int n) {
+		while (n > 0) {
+			final long m = words[rlw];
+			if (literalWords(m) == 0 && !runningBit(m)
+					&& runningLength(m) < MAX_RUNNING_LEN) {
+				final long len = runningLength(m);
+				final long add = Math.min(n, MAX_RUNNING_LEN - len);
+				words[rlw] = (m & ~(MAX_RUNNING_LEN << 1)) | ((len + add) << 1);
+				n -= add;
+			} else {
+				rlw = append(0);
+			}
+		}
+	}
+
+	private void addLiteral(final long v) {
+		final long m = words[rlw];
+		final int lit = literalWords(m);
+		if (lit == MAX_LITERAL_WORDS) {
+			rlw = append(0);
+			words[rlw] = 1L << 33;
+		} else {
+			words[rlw] = (m & ((1L << 33) - 1)) | ((long) (lit + 1) << 33);
+		}
+		append(v);
+	}
+
+	private int append(final long v) {
+		if (wordCnt == words.length) {
+			final long[] n = new long[words.length * 2];
+			System.arraycopy(words, 0, n, 0, wordCnt);
+			words = n;
+		}
+		words[wordCnt] = v;
+		return wordCnt++;
+	}
+
+	private static boolean runningBit(final long m) {
+		return (m & 1) != 0;
+	}
+
+	private static long runningLength(final long m) {
+		return (m >>> 1) & MAX_RUNNING_LEN;
+	}
+
+	private static int literalWords(final long m) {
+		return (int) (m >>> 33);
+	}
+
+	/** Iterates over the positions of the set bits of a bitmap. */
+	public class BitIterator {
+		/** Index of the next marker word. */
+		private int marker;
+
+		/** Bit position of the current word's first bit. */
+		private long base;
+
+		/** Remaining set bits of a run, as [runNext, runEnd). */
+		private long runNext;
+
+		private long runEnd;
+
+		/** Index of the next literal word, and the literal words left. */
+		private int literal;
+
+		private int literalsLeft;
+
+		/** Unreturned bits of the current literal word. */
+		private long current;
+
+		private long currentBase;
+
+		/** @return true if there is another set bit. */
+		public boolean hasNext() {
+			for (;;) {
+				if (runNext < runEnd)
+					return true;
+				if (current != 0)
+					return true;
+				if (literalsLeft > 0) {
+					current = words[literal++];
+					currentBase = base;
+					base += WORD_BITS;
+					literalsLeft--;
+					final long valid = sizeInBits - currentBase;
+					if (valid <= 0)
+						current = 0;
+					else if (valid < WORD_BITS)
+						current &= (1L << valid) - 1;
+					continue;
+				}
+				if (marker >= wordCnt)
+					return false;
+
+				final long m = words[marker];
+				final long len = runningLength(m) * WORD_BITS;
+				if (runningBit(m)) {
+					runNext = base;
+					runEnd = Math.min(base + len, sizeInBits);
+				}
+				base += len;
+				literal = marker + 1;
+				literalsLeft = literalWords(m);
+				marker = literal + literalsLeft;
+			}
+		}
+
+		/** @return position of the next set bit. */
+		public int next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			if (runNext < runEnd)
+				return (int) runNext++;
+			final int b = Long.numberOfTrailingZeros(current);
+			current &= current - 1;
+			return (int) (currentBase + b);
+		}
+	}
+}